@@ -0,0 +1,33 @@
+package com.gabrielittner.auto.value.util.jmh;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A value class with common property types. Its JMH benchmark {@code OrderBenchmark} is generated
+ * by the test {@code BenchmarkExtension} and run with the {@code jmh} task.
+ */
+@AutoValue
+public abstract class Order {
+
+    public enum Status { OPEN, PAID, SHIPPED }
+
+    public abstract long id();
+
+    public abstract String customer();
+
+    @Nullable
+    public abstract String note();
+
+    public abstract Status status();
+
+    public abstract int quantity();
+
+    public abstract double price();
+
+    public abstract ImmutableList<String> items();
+
+    public abstract Map<String, Integer> discounts();
+}
@@ -0,0 +1,98 @@
+package com.gabrielittner.auto.value.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+
+/**
+ * Caches the results of {@link Types#isAssignable(TypeMirror, TypeMirror)} and
+ * {@link Types#isSubtype(TypeMirror, TypeMirror)} for pairs of types.
+ *
+ * {@link TypeMirror}s are only valid for a single round of annotation processing, so an instance
+ * must not be used for more than one round.
+ *
+ * Types are compared by identity. javac returns the same {@link TypeMirror} instance for the type
+ * of a declaration every time, so the repeated checks of method lookups hit the cache without
+ * computing a structural hash. A structural comparison would also treat distinct type variables
+ * with the same name and bounds as the same type.
+ *
+ * @see ElementUtil#getMatchingStaticMethod
+ * @see ElementUtil#getMatchingAbstractMethod
+ */
+public final class AssignabilityCache {
+
+    /**
+     * Creates an empty cache that uses {@code types} to compute missing results.
+     */
+    public static AssignabilityCache create(Types types) {
+        return new AssignabilityCache(types);
+    }
+
+    private final Types types;
+    private final Map<Key, Boolean> assignable = new HashMap<>();
+    private final Map<Key, Boolean> subtype = new HashMap<>();
+
+    private AssignabilityCache(Types types) {
+        this.types = types;
+    }
+
+    /**
+     * Returns true if a value of type {@code from} can be assigned to a variable of type
+     * {@code to}.
+     *
+     * @see Types#isAssignable(TypeMirror, TypeMirror)
+     */
+    public boolean isAssignable(TypeMirror from, TypeMirror to) {
+        Key key = new Key(from, to);
+        Boolean result = assignable.get(key);
+        if (result == null) {
+            result = types.isAssignable(from, to);
+            assignable.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if {@code sub} is a subtype of {@code sup}.
+     *
+     * @see Types#isSubtype(TypeMirror, TypeMirror)
+     */
+    public boolean isSubtype(TypeMirror sub, TypeMirror sup) {
+        Key key = new Key(sub, sup);
+        Boolean result = subtype.get(key);
+        if (result == null) {
+            result = types.isSubtype(sub, sup);
+            subtype.put(key, result);
+        }
+        return result;
+    }
+
+    int size() {
+        return assignable.size() + subtype.size();
+    }
+
+    private static final class Key {
+        private final TypeMirror first;
+        private final TypeMirror second;
+
+        Key(TypeMirror first, TypeMirror second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return first == that.first && second == that.second;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(first) + System.identityHashCode(second);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getAutoValueClassClassName;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newFinalClassConstructorCall;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * Generates an assembler that creates an instance of the AutoValue class from one
+ * {@code CompletableFuture} per property without blocking, for values whose properties are
+ * fetched concurrently from different sources.
+ *
+ * <pre>
+ * static final class Assembler {
+ *   Assembler id(CompletableFuture&lt;Long&gt; id) { ... }
+ *   Assembler id(Supplier&lt;Long&gt; id, Executor idExecutor) { ... }
+ *   Assembler name(CompletableFuture&lt;String&gt; name) { ... }
+ *   Assembler name(Supplier&lt;String&gt; name, Executor nameExecutor) { ... }
+ *   CompletableFuture&lt;Foo&gt; assemble() { ... }
+ *   CompletableFuture&lt;Foo&gt; assemble(
+ *       ScheduledExecutorService scheduler, long timeout, TimeUnit unit) { ... }
+ * }
+ * </pre>
+ *
+ * The supplier variants run the supplier on the given executor, which can be any
+ * {@link Executor} including one that starts a virtual thread per task. {@code assemble}
+ * completes when all futures are complete and calls the constructor of the final generated class
+ * in the thread that completed the last one. Optional and {@code @Nullable} properties are empty
+ * or {@code null} if they weren't set, their future fails or, with a timeout, if it doesn't
+ * complete in time. A missing required property throws an {@link IllegalStateException}, a
+ * failing one fails the assembled future and with a timeout it fails with a
+ * {@link TimeoutException} after the timeout.
+ *
+ * {@code CompletableFuture} and the generated lambdas need Java 8, this library itself and the
+ * code generated by its other helpers only need Java 7.
+ */
+public final class AsyncAssembler {
+
+    private static final ClassName COMPLETABLE_FUTURE =
+            ClassName.get("java.util.concurrent", "CompletableFuture");
+    private static final ClassName SUPPLIER = ClassName.get("java.util.function", "Supplier");
+    private static final TypeVariableName T = TypeVariableName.get("T");
+
+    /**
+     * Creates a static nested class named {@code className} with two setters for each property
+     * and two {@code assemble} methods. The assembler calls the constructor of the final
+     * generated class, so the extension has to return true from {@code mustBeFinal()} or be the
+     * last one in the chain. Generic AutoValue classes are reported as errors.
+     */
+    public static TypeSpec newAssemblerClass(Context context, String className) {
+        TypeSpec.Builder builder = TypeSpec.classBuilder(className)
+                .addModifiers(STATIC, FINAL);
+        if (!context.autoValueClass().getTypeParameters().isEmpty()) {
+            context.processingEnvironment().getMessager().printMessage(ERROR,
+                    "Generic classes are not supported by AsyncAssembler",
+                    context.autoValueClass());
+            return builder.build();
+        }
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        ClassName self = ClassName.get("", className);
+        ClassName autoValueClass = getAutoValueClassClassName(context);
+        for (Property property : properties) {
+            String name = property.humanName();
+            TypeName future = future(property);
+            builder.addField(FieldSpec.builder(future, name, PRIVATE).build());
+            builder.addMethod(MethodSpec.methodBuilder(name)
+                    .returns(self)
+                    .addParameter(future, name)
+                    .addStatement("this.$N = $N", name, name)
+                    .addStatement("return this")
+                    .build());
+            // suffixed, so that it can't clash with the supplier parameter
+            String executor = name + "Executor";
+            builder.addMethod(MethodSpec.methodBuilder(name)
+                    .returns(self)
+                    .addParameter(ParameterizedTypeName.get(SUPPLIER,
+                            property.returnType().box()), name)
+                    .addParameter(Executor.class, executor)
+                    .addStatement("return $N($T.supplyAsync($N, $N))",
+                            name, COMPLETABLE_FUTURE, name, executor)
+                    .build());
+        }
+        TypeName result = ParameterizedTypeName.get(COMPLETABLE_FUTURE, autoValueClass);
+        return builder
+                .addMethod(MethodSpec.methodBuilder("assemble")
+                        .returns(result)
+                        .addStatement("return assemble(null, 0, null)")
+                        .build())
+                .addMethod(newAssembleMethod(context, properties, result))
+                .addMethod(newTimeoutMethod("orDefault", true))
+                .addMethod(newTimeoutMethod("orTimeout", false))
+                .build();
+    }
+
+    private static TypeName future(Property property) {
+        return ParameterizedTypeName.get(COMPLETABLE_FUTURE, property.returnType().box());
+    }
+
+    private static boolean hasDefault(Property property) {
+        return property.nullable() || property.optional();
+    }
+
+    private static MethodSpec newAssembleMethod(
+            Context context, List<Property> properties, TypeName result) {
+        MethodSpec.Builder assemble = MethodSpec.methodBuilder("assemble")
+                .returns(result)
+                .addParameter(ScheduledExecutorService.class, "scheduler")
+                .addParameter(TypeName.LONG, "timeout")
+                .addParameter(TimeUnit.class, "unit");
+        CodeBlock.Builder missing = CodeBlock.builder()
+                .addStatement("$T missing = new $T()", StringBuilder.class, StringBuilder.class);
+        boolean required = false;
+        for (Property property : properties) {
+            if (!hasDefault(property)) {
+                required = true;
+                missing.beginControlFlow("if (this.$N == null)", property.humanName())
+                        .addStatement("missing.append(\" $L\")", property.humanName())
+                        .endControlFlow();
+            }
+        }
+        if (required) {
+            assemble.addCode(missing.build())
+                    .beginControlFlow("if (missing.length() > 0)")
+                    .addStatement("throw new $T(\"Missing required properties:\" + missing)",
+                            IllegalStateException.class)
+                    .endControlFlow();
+        }
+        List<String> futures = new ArrayList<>();
+        for (Property property : properties) {
+            String name = property.humanName();
+            String local = name + "Future";
+            futures.add(local);
+            assemble.addStatement("$T $N", future(property), local);
+            if (hasDefault(property)) {
+                CodeBlock defaultValue = defaultValue(property);
+                assemble.beginControlFlow("if (this.$N == null)", name)
+                        .addStatement("$N = $T.completedFuture($L)",
+                                local, COMPLETABLE_FUTURE, defaultValue)
+                        .nextControlFlow("else")
+                        .addStatement("$N = orDefault(this.$N, $L, scheduler, timeout, unit)",
+                                local, name, defaultValue)
+                        .endControlFlow();
+            } else {
+                assemble.addStatement("$N = orTimeout(this.$N, scheduler, timeout, unit)",
+                        local, name);
+            }
+        }
+        // the futures are complete when allOf completes, so join() doesn't block
+        String[] values = new String[futures.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = futures.get(i) + ".join()";
+        }
+        return assemble
+                .addCode("return $T.allOf($L).thenApply(ignored -> {\n$>",
+                        COMPLETABLE_FUTURE, Joiner.on(", ").join(futures))
+                .addCode("return ")
+                .addCode(newFinalClassConstructorCall(context, values))
+                .addCode("$<});\n")
+                .build();
+    }
+
+    private static CodeBlock defaultValue(Property property) {
+        if (property.optional()) {
+            return CodeBlock.of(property.optionalEmpty(),
+                    CollectionKind.rawType(property.returnType()));
+        }
+        return CodeBlock.of("null");
+    }
+
+    /**
+     * A method that returns a future that completes like {@code future}, but with
+     * {@code defaultValue} if {@code future} fails or doesn't complete before the timeout.
+     * Without a {@code defaultValue} the returned future fails with a {@link TimeoutException}
+     * after the timeout.
+     */
+    private static MethodSpec newTimeoutMethod(String name, boolean withDefault) {
+        TypeName future = ParameterizedTypeName.get(COMPLETABLE_FUTURE, T);
+        MethodSpec.Builder method = MethodSpec.methodBuilder(name)
+                .addModifiers(PRIVATE, STATIC)
+                .addTypeVariable(T)
+                .returns(future)
+                .addParameter(future, "future");
+        if (withDefault) {
+            method.addParameter(T, "defaultValue");
+        }
+        method.addParameter(ScheduledExecutorService.class, "scheduler")
+                .addParameter(TypeName.LONG, "timeout")
+                .addParameter(TimeUnit.class, "unit");
+        CodeBlock onTimeout;
+        if (withDefault) {
+            method.addStatement("$T result = future.exceptionally(error -> defaultValue)", future)
+                    .beginControlFlow("if (scheduler != null)");
+            onTimeout = CodeBlock.of("result.complete(defaultValue)");
+        } else {
+            method.beginControlFlow("if (scheduler == null)")
+                    .addStatement("return future")
+                    .endControlFlow()
+                    .addStatement("$T result = future.thenApply(value -> value)", future);
+            onTimeout = CodeBlock.of("result.completeExceptionally(new $T())",
+                    TimeoutException.class);
+        }
+        method.addStatement("$T<?> timer = scheduler.schedule(() -> $L, timeout, unit)",
+                ScheduledFuture.class, onTimeout)
+                .addStatement("result.whenComplete((value, error) -> timer.cancel(false))");
+        if (withDefault) {
+            method.endControlFlow();
+        }
+        return method.addStatement("return result").build();
+    }
+
+    private AsyncAssembler() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -63,9 +63,39 @@ public final class AutoValueUtil {
      * Creates a new {@link TypeSpec.Builder} for the class that is generated by the extension. It
      * will add a final or abstract modifier, the superclass and a constructor that calls super. The
      * returned TypeSpec will also include all TypeVariables if the AutoValue class is generic.
+     *
+     * If the properties need more than {@link MethodSplitter#MAX_PARAMETER_SLOTS} parameter slots
+     * the constructor can't be compiled and an error is reported for the AutoValue class.
+     *
+     * The class is included in the {@link FootprintReport} if it is enabled, under the qualified
+     * name of the generated class. Use
+     * {@link #newTypeSpecBuilder(AutoValueExtension, Context, String, String, boolean)} to report
+     * it under the extension.
      */
     public static TypeSpec.Builder newTypeSpecBuilder(
             Context context, String className, String classToExtend, boolean isFinal) {
+        TypeSpec.Builder builder =
+                newUntrackedTypeSpecBuilder(context, className, classToExtend, isFinal);
+        FootprintReport.track(context, context.packageName().isEmpty()
+                ? className : context.packageName() + "." + className, builder);
+        return builder;
+    }
+
+    /**
+     * Like {@link #newTypeSpecBuilder(Context, String, String, boolean)}, but the class is
+     * included in the {@link FootprintReport} under the class of {@code extension}.
+     */
+    public static TypeSpec.Builder newTypeSpecBuilder(AutoValueExtension extension,
+            Context context, String className, String classToExtend, boolean isFinal) {
+        TypeSpec.Builder builder =
+                newUntrackedTypeSpecBuilder(context, className, classToExtend, isFinal);
+        FootprintReport.track(context, extension.getClass().getName(), builder);
+        return builder;
+    }
+
+    static TypeSpec.Builder newUntrackedTypeSpecBuilder(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        checkParameterSlots(context);
         TypeVariableName[] typeVariables = getTypeVariables(context.autoValueClass());
         return TypeSpec.classBuilder(className)
                 .addModifiers(isFinal ? FINAL : ABSTRACT)
@@ -74,7 +104,25 @@ public final class AutoValueUtil {
                 .addMethod(newConstructor(context.properties()));
     }
 
-    private static TypeVariableName[] getTypeVariables(TypeElement autoValueClass) {
+    private static void checkParameterSlots(Context context) {
+        List<TypeName> types = Lists.newArrayList();
+        for (ExecutableElement method : context.properties().values()) {
+            types.add(TypeName.get(method.getReturnType()));
+        }
+        int slots = MethodSplitter.parameterSlots(types, false);
+        // every extension in the chain creates a class, but the error is reported only once
+        if (slots > MethodSplitter.MAX_PARAMETER_SLOTS
+                && CompilationState.get(context.processingEnvironment()).parameterSlotErrors
+                        .add(context.autoValueClass().getQualifiedName().toString())) {
+            context.processingEnvironment().getMessager().printMessage(ERROR, String.format(
+                    "The constructor for %d properties needs %d parameter slots, "
+                            + "but at most %d are allowed",
+                    types.size(), slots, MethodSplitter.MAX_PARAMETER_SLOTS),
+                    context.autoValueClass());
+        }
+    }
+
+    static TypeVariableName[] getTypeVariables(TypeElement autoValueClass) {
         List<? extends TypeParameterElement> parameters = autoValueClass.getTypeParameters();
         TypeVariableName[] typeVariables = new TypeVariableName[parameters.size()];
         for (int i = 0, length = typeVariables.length; i < length; i++) {
@@ -117,15 +165,9 @@ public final class AutoValueUtil {
     }
 
     private static CodeBlock newConstructorCall(CodeBlock constructorName, Object[] properties) {
-        StringBuilder params = new StringBuilder("(");
-        for (int i = properties.length; i > 0; i--) {
-            params.append("$N");
-            if (i > 1) params.append(", ");
-        }
-        params.append(")");
-        return CodeBlock.builder()
-                .add(constructorName)
-                .addStatement(params.toString(), properties)
+        CodeBlock.Builder builder = CodeBlock.builder().add(constructorName);
+        return CodeTemplate.callArguments(properties.length)
+                .appendTo(builder, properties)
                 .build();
     }
 
@@ -0,0 +1,55 @@
+package com.gabrielittner.auto.value.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * Writes what the helpers of this library collect while extensions run. It is registered as an
+ * annotation processor by this library, so it runs next to AutoValue. It processes all rounds,
+ * but doesn't claim any annotations, so it doesn't interfere with other processors.
+ *
+ * Shared helper classes of {@link SharedHelpers} that were requested in a round are written at
+ * the start of the next one. The {@link FootprintReport} and the {@link PerformanceLint} summary
+ * are written in the last round, after which the collected state of the compilation is dropped.
+ * The processor also declares the options of {@link Benchmarks}, {@link FootprintReport},
+ * {@link PerformanceLint} and {@link SharedHelpers}.
+ */
+public final class AutoValueUtilProcessor extends AbstractProcessor {
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton("*");
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        // read by other helpers, declared here so that javac doesn't warn about them
+        return new HashSet<>(Arrays.asList(
+                Benchmarks.OUTPUT_DIR_OPTION, FootprintReport.OUTPUT_OPTION,
+                PerformanceLint.SEVERITY_OPTION, PerformanceLint.SUMMARY_OPTION,
+                SharedHelpers.SHARE_OPTION));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        CompilationState state = CompilationState.get(processingEnv);
+        state.sharedHelpers.flush(processingEnv);
+        if (roundEnv.processingOver()) {
+            state.footprintReport.write(processingEnv);
+            state.performanceLint.write(processingEnv);
+            CompilationState.remove(processingEnv);
+        }
+        return false;
+    }
+}
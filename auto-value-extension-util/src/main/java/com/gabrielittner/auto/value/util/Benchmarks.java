@@ -0,0 +1,337 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.CaseFormat;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getAutoValueClassClassName;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newFinalClassConstructorCall;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.tools.Diagnostic.Kind.ERROR;
+import static javax.tools.Diagnostic.Kind.WARNING;
+
+/**
+ * Generates JMH benchmarks for AutoValue classes, so that the performance of generated code can
+ * be measured on real value types.
+ *
+ * The benchmark class is named like the AutoValue class with a {@code Benchmark} suffix and is in
+ * the same package, so it can call the constructor of the final generated class. It fills one
+ * field per property, named like the property with a {@code random} prefix, with random, but
+ * valid, values from a fixed seed and has benchmarks for the construction, {@code equals()} of an
+ * equal and of a different instance, {@code hashCode()} and {@code toString()}. Extensions add
+ * benchmarks for their codecs, which can use the fields {@code value}, {@code equalValue} and
+ * {@code otherValue}.
+ *
+ * The classes are written to the directory given with the {@code -Aautovalue.benchmarks.dir}
+ * processor option instead of the regular source output, so that they can be compiled in a
+ * separate source set that has JMH on its class path. Without the option nothing is generated.
+ *
+ * <pre>
+ * Benchmarks.writeBenchmarkClass(context, Benchmarks.newBenchmarkMethod("toJson")
+ *         .addStatement("...")
+ *         .build());
+ * </pre>
+ */
+public final class Benchmarks {
+
+    /**
+     * The processor option for the directory to which benchmark sources are written.
+     */
+    public static final String OUTPUT_DIR_OPTION = "autovalue.benchmarks.dir";
+
+    /**
+     * The seed of the random property values.
+     */
+    public static final long SEED = 42L;
+
+    private static final String JMH = "org.openjdk.jmh.annotations";
+    private static final ClassName BENCHMARK = ClassName.get(JMH, "Benchmark");
+    private static final ClassName SETUP = ClassName.get(JMH, "Setup");
+    private static final ClassName STATE = ClassName.get(JMH, "State");
+    private static final ClassName SCOPE = ClassName.get(JMH, "Scope");
+    private static final ClassName RANDOM = ClassName.get(Random.class);
+    private static final ClassName ARRAYS = ClassName.get(Arrays.class);
+    private static final ClassName COLLECTIONS = ClassName.get(Collections.class);
+
+    private static final ImmutableMap<TypeName, String> PRIMITIVES =
+            ImmutableMap.<TypeName, String>builder()
+                    .put(TypeName.BOOLEAN, "random.nextBoolean()")
+                    .put(TypeName.BYTE, "(byte) random.nextInt()")
+                    .put(TypeName.SHORT, "(short) random.nextInt()")
+                    .put(TypeName.INT, "random.nextInt()")
+                    .put(TypeName.LONG, "random.nextLong()")
+                    .put(TypeName.CHAR, "(char) ('a' + random.nextInt(26))")
+                    .put(TypeName.FLOAT, "random.nextFloat()")
+                    .put(TypeName.DOUBLE, "random.nextDouble()")
+                    .build();
+
+    private static final ImmutableMap<CollectionKind, ClassName> MUTABLE_COLLECTIONS =
+            ImmutableMap.<CollectionKind, ClassName>builder()
+                    .put(CollectionKind.COLLECTION, ClassName.get(ArrayList.class))
+                    .put(CollectionKind.LIST, ClassName.get(ArrayList.class))
+                    .put(CollectionKind.SET, ClassName.get(HashSet.class))
+                    .put(CollectionKind.SORTED_SET, ClassName.get(TreeSet.class))
+                    .put(CollectionKind.NAVIGABLE_SET, ClassName.get(TreeSet.class))
+                    .put(CollectionKind.MAP, ClassName.get(HashMap.class))
+                    .put(CollectionKind.SORTED_MAP, ClassName.get(TreeMap.class))
+                    .put(CollectionKind.NAVIGABLE_MAP, ClassName.get(TreeMap.class))
+                    .build();
+
+    private static final int COLLECTION_SIZE = 3;
+
+    /**
+     * Returns true if the benchmark output directory was configured.
+     */
+    public static boolean enabled(Context context) {
+        return context.processingEnvironment().getOptions().get(OUTPUT_DIR_OPTION) != null;
+    }
+
+    /**
+     * Returns the name of the benchmark class for the AutoValue class.
+     */
+    public static ClassName benchmarkClassName(Context context) {
+        String name = context.autoValueClass().getSimpleName().toString();
+        Element enclosingElement = context.autoValueClass().getEnclosingElement();
+        while (enclosingElement instanceof TypeElement) {
+            name = enclosingElement.getSimpleName() + "_" + name;
+            enclosingElement = enclosingElement.getEnclosingElement();
+        }
+        return ClassName.get(context.packageName(), name + "Benchmark");
+    }
+
+    /**
+     * Creates a builder for a public method annotated with {@code @Benchmark}. The method should
+     * return its result, so that JMH consumes it and the JIT can't eliminate it.
+     */
+    public static MethodSpec.Builder newBenchmarkMethod(String name) {
+        return MethodSpec.methodBuilder(name)
+                .addAnnotation(BENCHMARK)
+                .addModifiers(PUBLIC);
+    }
+
+    /**
+     * Creates the benchmark class with the default benchmarks and the given {@code extra} ones.
+     * Returns absent and reports a warning if a property has a type for which no random values
+     * can be created. Generic AutoValue classes are reported as errors.
+     */
+    public static Optional<TypeSpec> newBenchmarkClass(Context context, MethodSpec... extra) {
+        if (!context.autoValueClass().getTypeParameters().isEmpty()) {
+            context.processingEnvironment().getMessager().printMessage(ERROR,
+                    "Benchmarks can't be generated for generic classes", context.autoValueClass());
+            return Optional.absent();
+        }
+        ClassName autoValueClass = getAutoValueClassClassName(context);
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        TypeSpec.Builder builder = TypeSpec.classBuilder(benchmarkClassName(context))
+                .addModifiers(PUBLIC)
+                .addAnnotation(AnnotationSpec.builder(STATE)
+                        .addMember("value", "$T.Thread", SCOPE)
+                        .build());
+
+        MethodSpec.Builder randomize = MethodSpec.methodBuilder("randomize")
+                .addModifiers(PRIVATE)
+                .addParameter(RANDOM, "random");
+        String[] names = new String[properties.size()];
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            Optional<CodeBlock> value = randomValue(context, property);
+            if (!value.isPresent()) {
+                context.processingEnvironment().getMessager().printMessage(WARNING,
+                        String.format("No benchmark generated, can't create random values of %s",
+                                property.returnType()), property.element());
+                return Optional.absent();
+            }
+            names[i] = "random"
+                    + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, property.humanName());
+            builder.addField(property.returnType(), names[i], PRIVATE);
+            randomize.addStatement("this.$N = $L", names[i], value.get());
+        }
+        builder.addField(autoValueClass, "value")
+                .addField(autoValueClass, "equalValue")
+                .addField(autoValueClass, "otherValue")
+                .addMethod(randomize.build())
+                .addMethod(MethodSpec.methodBuilder("setUp")
+                        .addAnnotation(SETUP)
+                        .addModifiers(PUBLIC)
+                        .addStatement("$T random = new $T($LL)", RANDOM, RANDOM, SEED)
+                        .addStatement("randomize(random)")
+                        .addStatement("otherValue = construct()")
+                        .addStatement("randomize(random)")
+                        .addStatement("value = construct()")
+                        .addStatement("equalValue = construct()")
+                        .build())
+                .addMethod(newBenchmarkMethod("construct")
+                        .returns(autoValueClass)
+                        .addCode("return ")
+                        .addCode(newFinalClassConstructorCall(context, names))
+                        .build())
+                .addMethod(newBenchmarkMethod("equalsEqual")
+                        .returns(TypeName.BOOLEAN)
+                        .addStatement("return value.equals(equalValue)")
+                        .build())
+                .addMethod(newBenchmarkMethod("equalsOther")
+                        .returns(TypeName.BOOLEAN)
+                        .addStatement("return value.equals(otherValue)")
+                        .build())
+                .addMethod(newBenchmarkMethod("hashCodeValue")
+                        .returns(TypeName.INT)
+                        .addStatement("return value.hashCode()")
+                        .build())
+                .addMethod(newBenchmarkMethod("toStringValue")
+                        .returns(String.class)
+                        .addStatement("return value.toString()")
+                        .build())
+                .addMethods(Arrays.asList(extra))
+                .addMethod(MethodSpec.methodBuilder("randomString")
+                        .addModifiers(PRIVATE, STATIC)
+                        .returns(String.class)
+                        .addParameter(RANDOM, "random")
+                        .addStatement("char[] chars = new char[1 + random.nextInt(16)]")
+                        .beginControlFlow("for (int i = 0; i < chars.length; i++)")
+                        .addStatement("chars[i] = (char) ('a' + random.nextInt(26))")
+                        .endControlFlow()
+                        .addStatement("return new $T(chars)", String.class)
+                        .build());
+        return Optional.of(builder.build());
+    }
+
+    /**
+     * Creates the benchmark class and writes it to the configured directory. Does nothing if
+     * {@link #OUTPUT_DIR_OPTION} isn't set.
+     */
+    public static void writeBenchmarkClass(Context context, MethodSpec... extra) {
+        String outputDir = context.processingEnvironment().getOptions().get(OUTPUT_DIR_OPTION);
+        if (outputDir == null) {
+            return;
+        }
+        Optional<TypeSpec> benchmark = newBenchmarkClass(context, extra);
+        if (!benchmark.isPresent()) {
+            return;
+        }
+        try {
+            JavaFile.builder(context.packageName(), benchmark.get())
+                    .build()
+                    .writeTo(new File(outputDir));
+        } catch (IOException e) {
+            context.processingEnvironment().getMessager().printMessage(ERROR,
+                    "Could not write benchmark: " + e.getMessage(), context.autoValueClass());
+        }
+    }
+
+    private static Optional<CodeBlock> randomValue(Context context, Property property) {
+        Optional<CodeBlock> value = randomValue(context, property.type());
+        if (!value.isPresent()) {
+            return property.nullable() ? Optional.of(CodeBlock.of("null")) : value;
+        }
+        if (property.optional()) {
+            return Optional.of(CodeBlock.of("$T.of($L)",
+                    CollectionKind.rawType(property.returnType()), value.get()));
+        }
+        return value;
+    }
+
+    private static Optional<CodeBlock> randomValue(Context context, TypeName type) {
+        TypeName primitive = type.isBoxedPrimitive() ? type.unbox() : type;
+        if (PRIMITIVES.containsKey(primitive)) {
+            return Optional.of(CodeBlock.of(PRIMITIVES.get(primitive)));
+        }
+        if (type.equals(ClassName.get(String.class))) {
+            return Optional.of(CodeBlock.of("randomString(random)"));
+        }
+        CollectionKind kind = CollectionKind.of(type);
+        if (kind == CollectionKind.ARRAY) {
+            Optional<CodeBlock> elements = randomValues(context,
+                    ((ArrayTypeName) type).componentType, COLLECTION_SIZE);
+            return elements.isPresent()
+                    ? Optional.of(CodeBlock.of("new $T {$L}", type, elements.get()))
+                    : elements;
+        }
+        if (kind != CollectionKind.NONE) {
+            return randomCollection(context, type, kind);
+        }
+        ClassName rawType = CollectionKind.rawType(type);
+        if (rawType != null && type.equals(rawType)) {
+            TypeElement element = context.processingEnvironment().getElementUtils()
+                    .getTypeElement(rawType.toString());
+            if (element != null && element.getKind() == ElementKind.ENUM) {
+                return Optional.of(CodeBlock.of("$T.values()[random.nextInt($T.values().length)]",
+                        type, type));
+            }
+        }
+        return Optional.absent();
+    }
+
+    private static Optional<CodeBlock> randomCollection(
+            Context context, TypeName type, CollectionKind kind) {
+        ImmutableList<TypeName> elementTypes = CollectionKind.elementTypes(kind, type);
+        if (kind.isMap()) {
+            Optional<CodeBlock> key = randomValue(context, elementTypes.get(0));
+            Optional<CodeBlock> value = randomValue(context, elementTypes.get(1));
+            if (!key.isPresent() || !value.isPresent()) {
+                return Optional.absent();
+            }
+            if (CollectionKind.isImmutable(type)) {
+                return Optional.of(CodeBlock.of("$T.of($L, $L)",
+                        CollectionKind.rawType(type), key.get(), value.get()));
+            }
+            return Optional.of(CodeBlock.of("new $T<>($T.singletonMap($L, $L))",
+                    MUTABLE_COLLECTIONS.get(kind), COLLECTIONS, key.get(), value.get()));
+        }
+        Optional<CodeBlock> elements =
+                randomValues(context, elementTypes.get(0), COLLECTION_SIZE);
+        if (!elements.isPresent()) {
+            return Optional.absent();
+        }
+        if (CollectionKind.isImmutable(type)) {
+            ClassName rawType = CollectionKind.rawType(type);
+            if (kind == CollectionKind.COLLECTION) {
+                // ImmutableCollection has no factory methods
+                rawType = ClassName.get(ImmutableList.class);
+            }
+            return Optional.of(CodeBlock.of("$T.of($L)", rawType, elements.get()));
+        }
+        return Optional.of(CodeBlock.of("new $T<>($T.asList($L))",
+                MUTABLE_COLLECTIONS.get(kind), ARRAYS, elements.get()));
+    }
+
+    private static Optional<CodeBlock> randomValues(Context context, TypeName type, int count) {
+        Optional<CodeBlock> value = randomValue(context, type);
+        if (!value.isPresent()) {
+            return value;
+        }
+        CodeBlock.Builder values = CodeBlock.builder();
+        for (int i = 0; i < count; i++) {
+            values.add(i == 0 ? "$L" : ", $L", value.get());
+        }
+        return Optional.of(values.build());
+    }
+
+    private Benchmarks() {
+        throw new AssertionError("No instances.");
+    }
+}
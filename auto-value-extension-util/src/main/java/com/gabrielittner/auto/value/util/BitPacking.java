@@ -0,0 +1,310 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getAutoValueClassClassName;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.tools.Diagnostic.Kind.ERROR;
+import static javax.tools.Diagnostic.Kind.NOTE;
+
+/**
+ * Generates an implementation of the AutoValue class that stores {@code boolean} and small enum
+ * properties as bits of one or more {@code byte}, {@code short}, {@code int} or {@code long}
+ * fields instead of using a field for each of them.
+ *
+ * A {@code boolean} uses one bit, an enum with n constants uses enough bits for n values, or n + 1
+ * values if the property is {@code @Nullable}. Enums with more than 256 constants and all other
+ * properties are stored in regular fields. The accessors decode the bits again and
+ * {@code toString()}, {@code equals()} and {@code hashCode()} behave like the ones generated by
+ * AutoValue, so packed instances are equal to the regular ones.
+ *
+ * The estimated number of bytes saved per instance is reported as a note on the AutoValue class.
+ * The fields that hold the bits and the enum constants start with {@code $}, so that they can't
+ * clash with the fields of unpacked properties.
+ *
+ * <pre>
+ * static final class Packed extends Foo {
+ *   private final int $bits0;
+ *   Packed(boolean enabled, Color color, String name) { ... }
+ *   &#64;Override public boolean enabled() { return ($bits0 &amp; 0x1) != 0; }
+ *   ...
+ * }
+ * </pre>
+ */
+public final class BitPacking {
+
+    static final int MAX_ENUM_BITS = 8;
+    private static final int WORD_BITS = 64;
+
+    /**
+     * Creates a static nested class named {@code className} that extends the AutoValue class and
+     * stores {@code boolean} and small enum properties as bits. It has a constructor that takes all
+     * properties in the same order as the constructor of the AutoValue generated class and should
+     * be added to the class generated by the extension.
+     *
+     * Generic AutoValue classes are reported as errors.
+     */
+    public static TypeSpec newPackedClass(Context context, String className) {
+        ClassName autoValueClass = getAutoValueClassClassName(context);
+        TypeSpec.Builder builder = TypeSpec.classBuilder(className)
+                .addModifiers(STATIC, FINAL)
+                .superclass(autoValueClass);
+        if (!context.autoValueClass().getTypeParameters().isEmpty()) {
+            context.processingEnvironment().getMessager().printMessage(ERROR,
+                    "Generic classes can't be bit packed", context.autoValueClass());
+            return builder.build();
+        }
+
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        List<Word> words = new ArrayList<>();
+        Slot[] slots = new Slot[properties.size()];
+        int unpackedBytes = 0;
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            int bits = bits(property);
+            if (bits > 0) {
+                slots[i] = allocate(words, property, bits);
+                unpackedBytes += property.returnType().equals(TypeName.BOOLEAN) ? 1 : 4;
+            }
+        }
+
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder();
+        List<CodeBlock> values = new ArrayList<>();
+        Map<TypeName, FieldSpec> enumValues = new HashMap<>();
+        Set<String> enumValuesNames = new HashSet<>();
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            TypeName type = property.returnType();
+            constructor.addParameter(ParameterSpec.builder(type, property.humanName()).build());
+            if (!type.isPrimitive() && !property.nullable()) {
+                constructor.beginControlFlow("if ($N == null)", property.humanName())
+                        .addStatement("throw new $T($S)", NullPointerException.class,
+                                "Null " + property.humanName())
+                        .endControlFlow();
+            }
+            MethodSpec.Builder accessor = MethodSpec.methodBuilder(property.methodName())
+                    .addAnnotation(Override.class)
+                    .addModifiers(PUBLIC)
+                    .returns(type);
+            Slot slot = slots[i];
+            if (slot == null) {
+                builder.addField(type, property.humanName(), PRIVATE, FINAL);
+                constructor.addStatement("this.$N = $N", property.humanName(),
+                        property.humanName());
+                accessor.addStatement("return $N", property.humanName());
+                values.add(CodeBlock.of("this.$N", property.humanName()));
+            } else if (type.equals(TypeName.BOOLEAN)) {
+                accessor.addStatement("return ($N & $L) != 0", slot.word.name, slot.mask(0));
+                values.add(CodeBlock.of("this.$N()", property.methodName()));
+            } else {
+                FieldSpec constants = enumValues.get(type);
+                if (constants == null) {
+                    // values() returns a new array on every call
+                    String baseName = "$" + CaseFormat.UPPER_CAMEL.to(
+                            CaseFormat.UPPER_UNDERSCORE, ((ClassName) type).simpleName())
+                            + "_VALUES";
+                    String name = baseName;
+                    // enums with the same simple name from different packages
+                    for (int n = 1; !enumValuesNames.add(name); n++) {
+                        name = baseName + "_" + n;
+                    }
+                    constants = FieldSpec.builder(ArrayTypeName.of(type), name,
+                            PRIVATE, STATIC, FINAL)
+                            .initializer("$T.values()", type)
+                            .build();
+                    enumValues.put(type, constants);
+                    builder.addField(constants);
+                }
+                CodeBlock ordinal = slot.word.isLong()
+                        ? CodeBlock.of("(int) (($N >>> $L) & $L)",
+                                slot.word.name, slot.shift, slot.mask(slot.shift))
+                        : CodeBlock.of("($N >>> $L) & $L",
+                                slot.word.name, slot.shift, slot.mask(slot.shift));
+                if (property.nullable()) {
+                    accessor.addStatement("int ordinal = $L", ordinal)
+                            .addStatement("return ordinal == 0 ? null : $N[ordinal - 1]",
+                                    constants);
+                } else {
+                    accessor.addStatement("return $N[$L]", constants, ordinal);
+                }
+                values.add(CodeBlock.of("this.$N()", property.methodName()));
+            }
+            builder.addMethod(accessor.build());
+        }
+
+        int packedBytes = 0;
+        for (Word word : words) {
+            builder.addField(word.type(), word.name, PRIVATE, FINAL);
+            constructor.addStatement("this.$N = $L", word.name, word.encode());
+            packedBytes += word.bytes();
+        }
+        builder.addMethod(constructor.build());
+        ValueMethods.addValueMethods(context, builder, properties, values);
+
+        context.processingEnvironment().getMessager().printMessage(NOTE, String.format(
+                "Bit packing %s saves %d bytes per instance (%d bytes of fields packed into %d)",
+                context.autoValueClass().getSimpleName(), unpackedBytes - packedBytes,
+                unpackedBytes, packedBytes), context.autoValueClass());
+        return builder.build();
+    }
+
+    /**
+     * Returns the number of bits needed to store {@code property} or 0 if it can't be packed.
+     */
+    static int bits(Property property) {
+        if (property.returnType().equals(TypeName.BOOLEAN)) {
+            return 1;
+        }
+        TypeMirror type = property.element().getReturnType();
+        if (type.getKind() != TypeKind.DECLARED) {
+            return 0;
+        }
+        Element element = ((DeclaredType) type).asElement();
+        if (element.getKind() != ElementKind.ENUM) {
+            return 0;
+        }
+        int values = property.nullable() ? 1 : 0;
+        for (Element enclosed : element.getEnclosedElements()) {
+            if (enclosed.getKind() == ElementKind.ENUM_CONSTANT) {
+                values++;
+            }
+        }
+        int bits = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(values - 1));
+        return bits <= MAX_ENUM_BITS ? bits : 0;
+    }
+
+    private static Slot allocate(List<Word> words, Property property, int bits) {
+        for (Word word : words) {
+            if (word.bits + bits <= WORD_BITS) {
+                return word.add(property, bits);
+            }
+        }
+        Word word = new Word("$bits" + words.size());
+        words.add(word);
+        return word.add(property, bits);
+    }
+
+    private static final class Word {
+        final String name;
+        final List<Slot> slots = new ArrayList<>();
+        int bits;
+
+        Word(String name) {
+            this.name = name;
+        }
+
+        Slot add(Property property, int width) {
+            Slot slot = new Slot(this, property, bits, width);
+            slots.add(slot);
+            bits += width;
+            return slot;
+        }
+
+        boolean isLong() {
+            return bits > Integer.SIZE;
+        }
+
+        int bytes() {
+            if (bits <= Byte.SIZE) {
+                return 1;
+            } else if (bits <= Short.SIZE) {
+                return 2;
+            }
+            return isLong() ? 8 : 4;
+        }
+
+        TypeName type() {
+            switch (bytes()) {
+                case 1:
+                    return TypeName.BYTE;
+                case 2:
+                    return TypeName.SHORT;
+                case 4:
+                    return TypeName.INT;
+                default:
+                    return TypeName.LONG;
+            }
+        }
+
+        CodeBlock encode() {
+            CodeBlock.Builder code = CodeBlock.builder();
+            if (bytes() < 4) {
+                code.add("($T) (", type());
+            }
+            for (int i = 0; i < slots.size(); i++) {
+                if (i > 0) {
+                    code.add("\n| ");
+                }
+                code.add(slots.get(i).encode());
+            }
+            if (bytes() < 4) {
+                code.add(")");
+            }
+            return code.build();
+        }
+    }
+
+    private static final class Slot {
+        final Word word;
+        final Property property;
+        final int shift;
+        final int width;
+
+        Slot(Word word, Property property, int shift, int width) {
+            this.word = word;
+            this.property = property;
+            this.shift = shift;
+            this.width = width;
+        }
+
+        /**
+         * The mask of this slot's bits, shifted right by {@code shiftedBy}.
+         */
+        String mask(int shiftedBy) {
+            long mask = ((1L << width) - 1) << (shift - shiftedBy);
+            return "0x" + Long.toHexString(mask) + (word.isLong() ? "L" : "");
+        }
+
+        CodeBlock encode() {
+            String name = property.humanName();
+            if (property.returnType().equals(TypeName.BOOLEAN)) {
+                return CodeBlock.of("($N ? $L : 0)", name, mask(0));
+            }
+            CodeBlock ordinal = property.nullable()
+                    ? CodeBlock.of("($N == null ? 0 : $N.ordinal() + 1)", name, name)
+                    : CodeBlock.of("$N.ordinal()", name);
+            if (word.isLong()) {
+                return CodeBlock.of("((long) $L << $L)", ordinal, shift);
+            }
+            return CodeBlock.of("($L << $L)", ordinal, shift);
+        }
+    }
+
+    private BitPacking() {
+        throw new AssertionError("No instances.");
+    }
+}
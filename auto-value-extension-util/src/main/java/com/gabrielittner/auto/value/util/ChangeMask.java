@@ -0,0 +1,179 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getAutoValueClassClassName;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newFinalClassConstructorCall;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * Generates methods that compute which properties differ between two instances of the AutoValue
+ * class and that apply the changed properties of one instance to another one, so that only
+ * changed properties have to be transferred.
+ *
+ * Classes with at most {@link #MAX_LONG_PROPERTIES} properties use a {@code long} with bit i set
+ * if the i-th property differs, wider classes use a {@link BitSet}. Properties are compared like
+ * the {@code equals()} generated by AutoValue, primitives without boxing them.
+ *
+ * <pre>
+ * static final class ChangeMask {
+ *   static final int ID = 0;
+ *   static final int NAME = 1;
+ *   static long diff(Foo a, Foo b) { ... }
+ *   static Foo patch(Foo base, long mask, Foo source) { ... }
+ * }
+ * </pre>
+ */
+public final class ChangeMask {
+
+    /**
+     * The maximum number of properties for which the mask is a {@code long}.
+     */
+    public static final int MAX_LONG_PROPERTIES = 64;
+
+    private static final ClassName ARRAYS = ClassName.get(Arrays.class);
+    private static final ClassName BIT_SET = ClassName.get(BitSet.class);
+    private static final CodeTemplate PATCH_PROPERTY =
+            CodeTemplate.compile("$[$T $N = $L ? source.$N() : base.$N();\n$]");
+
+    /**
+     * Creates a static nested class named {@code className} with a constant holding the bit index
+     * of each property, a static {@code diff(a, b)} and a static {@code patch(base, mask, source)}
+     * method. {@code patch} calls the constructor of the final generated class, so the extension
+     * has to return true from {@code mustBeFinal()} or be the last one in the chain. Generic
+     * AutoValue classes are reported as errors.
+     */
+    public static TypeSpec newChangeMaskClass(Context context, String className) {
+        TypeSpec.Builder builder = TypeSpec.classBuilder(className)
+                .addModifiers(STATIC, FINAL);
+        if (!context.autoValueClass().getTypeParameters().isEmpty()) {
+            context.processingEnvironment().getMessager().printMessage(ERROR,
+                    "Generic classes are not supported by ChangeMask", context.autoValueClass());
+            return builder.build();
+        }
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        for (int i = 0; i < properties.size(); i++) {
+            String name = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE,
+                    properties.get(i).humanName());
+            builder.addField(FieldSpec.builder(TypeName.INT, name, STATIC, FINAL)
+                    .initializer("$L", i)
+                    .build());
+        }
+        TypeName maskType = properties.size() <= MAX_LONG_PROPERTIES ? TypeName.LONG : BIT_SET;
+        return builder.addMethod(newDiffMethod(builder, context, properties, maskType))
+                .addMethod(newPatchMethod(context, properties, maskType))
+                .build();
+    }
+
+    private static MethodSpec newDiffMethod(TypeSpec.Builder builder, Context context,
+            List<Property> properties, TypeName maskType) {
+        ClassName autoValueClass = getAutoValueClassClassName(context);
+        MethodSpec.Builder diff = MethodSpec.methodBuilder("diff")
+                .addModifiers(STATIC)
+                .returns(maskType)
+                .addParameter(autoValueClass, "a")
+                .addParameter(autoValueClass, "b");
+        List<CodeBlock> blocks = new ArrayList<>();
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            CodeBlock differs = differs(property,
+                    CodeBlock.of("a.$N()", property.methodName()),
+                    CodeBlock.of("b.$N()", property.methodName()));
+            CodeBlock set = maskType.equals(TypeName.LONG)
+                    ? CodeBlock.of("mask |= $L", bit(i))
+                    : CodeBlock.of("mask.set($L)", i);
+            blocks.add(CodeBlock.builder()
+                    .beginControlFlow("if ($L)", differs)
+                    .addStatement("$L", set)
+                    .endControlFlow()
+                    .build());
+        }
+        MethodSplitter splitter = MethodSplitter.create(builder, "diff")
+                .addModifiers(STATIC)
+                .addParameter(autoValueClass, "a")
+                .addParameter(autoValueClass, "b");
+        if (maskType.equals(TypeName.LONG)) {
+            diff.addStatement("long mask = 0L")
+                    .addCode(splitter.fold(TypeName.LONG, "mask", blocks));
+        } else {
+            diff.addStatement("$T mask = new $T($L)", BIT_SET, BIT_SET, properties.size())
+                    .addCode(splitter.addParameter(BIT_SET, "mask").statements(blocks));
+        }
+        return diff.addStatement("return mask").build();
+    }
+
+    private static MethodSpec newPatchMethod(
+            Context context, List<Property> properties, TypeName maskType) {
+        ClassName autoValueClass = getAutoValueClassClassName(context);
+        MethodSpec.Builder patch = MethodSpec.methodBuilder("patch")
+                .addModifiers(STATIC)
+                .returns(autoValueClass)
+                .addParameter(autoValueClass, "base")
+                .addParameter(maskType, "mask")
+                .addParameter(autoValueClass, "source");
+        String[] names = new String[properties.size()];
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            // prefixed, so that they can't clash with the parameters
+            names[i] = "patched"
+                    + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, property.humanName());
+            CodeBlock isSet = maskType.equals(TypeName.LONG)
+                    ? CodeBlock.of("(mask & $L) != 0", bit(i))
+                    : CodeBlock.of("mask.get($L)", i);
+            patch.addCode(PATCH_PROPERTY.instantiate(property.returnType(), names[i], isSet,
+                    property.methodName(), property.methodName()));
+        }
+        return patch.addCode("return ")
+                .addCode(newFinalClassConstructorCall(context, names))
+                .build();
+    }
+
+    private static String bit(int index) {
+        return "0x" + Long.toHexString(1L << index) + "L";
+    }
+
+    /**
+     * A {@code boolean} expression that is true if {@code a} and {@code b} are not equal
+     * according to the {@code equals()} generated by AutoValue.
+     */
+    private static CodeBlock differs(Property property, CodeBlock a, CodeBlock b) {
+        TypeName type = property.returnType();
+        if (type.equals(TypeName.FLOAT)) {
+            return CodeBlock.of("$T.floatToIntBits($L) != $T.floatToIntBits($L)",
+                    Float.class, a, Float.class, b);
+        }
+        if (type.equals(TypeName.DOUBLE)) {
+            return CodeBlock.of("$T.doubleToLongBits($L) != $T.doubleToLongBits($L)",
+                    Double.class, a, Double.class, b);
+        }
+        if (type.isPrimitive()) {
+            return CodeBlock.of("$L != $L", a, b);
+        }
+        if (type instanceof ArrayTypeName) {
+            return CodeBlock.of("!$T.equals($L, $L)", ARRAYS, a, b);
+        }
+        if (property.nullable()) {
+            return CodeBlock.of("$L == null ? $L != null : !$L.equals($L)", a, b, a, b);
+        }
+        return CodeBlock.of("!$L.equals($L)", a, b);
+    }
+
+    private ChangeMask() {
+        throw new AssertionError("No instances.");
+    }
+}
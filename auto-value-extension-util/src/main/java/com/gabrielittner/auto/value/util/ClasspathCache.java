@@ -0,0 +1,272 @@
+package com.gabrielittner.auto.value.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Caches values derived from types that were loaded from class files across compilations.
+ *
+ * Gradle daemons and Bazel persistent workers keep the annotation processor's class loader alive
+ * across many javac invocations, so a cache that is held in a static field survives them. Values
+ * of types that are compiled from source are never cached, values of class path types are cached
+ * under the class file's location, modification time and, for class files inside of archives,
+ * the archive's modification time and size. A changed class file therefore never returns the
+ * value of the old one and removes all entries of the old class file. The least recently used
+ * entries are dropped when the cache has more than its maximum number of entries.
+ *
+ * {@link Element}s and {@link TypeMirror}s belong to a single compilation, so the cached values
+ * must not reference them. Values that are an {@link Element}, {@link TypeMirror},
+ * {@link AnnotationMirror} or {@link AnnotationValue} are rejected, other values have to be built
+ * from names, {@link com.squareup.javapoet.TypeName}s or similar.
+ *
+ * The class file is looked up with {@link Filer#getResource} on the class path. Types without a
+ * class file there, like types that are compiled from source, and types that also have a class
+ * file in the class output, because the output is on the class path, are never cached.
+ *
+ * @see ElementUtil#getMatchingStaticMethod(ProcessingEnvironment, TypeElement, ClasspathCache,
+ *         com.squareup.javapoet.TypeName, com.squareup.javapoet.TypeName...)
+ * @see Property#buildProperties(com.google.auto.value.extension.AutoValueExtension.Context,
+ *         ClasspathCache)
+ */
+public final class ClasspathCache {
+
+    /**
+     * The maximum number of entries of {@link #shared()}.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    private static final ClasspathCache SHARED = new ClasspathCache(DEFAULT_MAX_ENTRIES);
+
+    /**
+     * Computes the value for a type if it's not cached.
+     */
+    public interface Loader<V> {
+        V load(TypeElement type);
+    }
+
+    /**
+     * Returns the cache that is shared by all compilations that use the same class loader.
+     */
+    public static ClasspathCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Creates an empty cache that holds at most {@code maxEntries} values.
+     */
+    public static ClasspathCache create(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries < 1: " + maxEntries);
+        }
+        return new ClasspathCache(maxEntries);
+    }
+
+    private final Map<Key, Object> entries;
+    private final Map<String, String> classfiles;
+    private long hits;
+    private long misses;
+
+    private ClasspathCache(int maxEntries) {
+        this.entries = new LruMap<>(maxEntries);
+        // stale entries of classes that dropped out of here are never hit and age out
+        this.classfiles = new LruMap<>(maxEntries);
+    }
+
+    /**
+     * Returns the value named {@code name} for {@code type}. If {@code type} was loaded from a
+     * class file that didn't change since the value was cached the cached value is returned,
+     * otherwise {@code loader} computes it.
+     *
+     * @throws IllegalArgumentException if the loaded value is bound to the current compilation.
+     */
+    public <V> V get(ProcessingEnvironment processingEnvironment, TypeElement type, String name,
+            Loader<V> loader) {
+        String classfile = classfileIdentity(processingEnvironment, type);
+        if (classfile == null) {
+            return checkValue(loader.load(type));
+        }
+        String typeName = type.getQualifiedName().toString();
+        Key key = new Key(typeName, name, classfile);
+        synchronized (this) {
+            String cached = classfiles.get(typeName);
+            if (cached != null && !cached.equals(classfile)) {
+                invalidate(typeName);
+            }
+            if (entries.containsKey(key)) {
+                hits++;
+                @SuppressWarnings("unchecked")
+                V value = (V) entries.get(key);
+                return value;
+            }
+            misses++;
+        }
+        // loaded outside of the lock, compilations in other threads can use the cache meanwhile
+        V value = checkValue(loader.load(type));
+        synchronized (this) {
+            classfiles.put(typeName, classfile);
+            entries.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        classfiles.clear();
+    }
+
+    /**
+     * The number of cached values.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * The number of values that were returned from the cache.
+     */
+    public synchronized long hitCount() {
+        return hits;
+    }
+
+    /**
+     * The number of values of class path types that had to be computed.
+     */
+    public synchronized long missCount() {
+        return misses;
+    }
+
+    private void invalidate(String typeName) {
+        classfiles.remove(typeName);
+        Iterator<Key> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().typeName.equals(typeName)) {
+                keys.remove();
+            }
+        }
+    }
+
+    private static <V> V checkValue(V value) {
+        if (value instanceof Element || value instanceof TypeMirror
+                || value instanceof AnnotationMirror || value instanceof AnnotationValue) {
+            throw new IllegalArgumentException(
+                    "Values must not be bound to a compilation: " + value.getClass().getName());
+        }
+        return value;
+    }
+
+    /**
+     * Returns a string that changes when the class file of {@code type} changes, or null if
+     * {@code type} wasn't loaded from a class file on the class path or its location is unknown.
+     * A class file doesn't change during a compilation, so it is looked up once per type and
+     * compilation.
+     */
+    static String classfileIdentity(ProcessingEnvironment processingEnvironment, TypeElement type) {
+        Map<String, String> identities =
+                CompilationState.get(processingEnvironment).classfileIdentities;
+        String typeName = type.getQualifiedName().toString();
+        if (identities.containsKey(typeName)) {
+            return identities.get(typeName);
+        }
+        String identity = lookUpClassfileIdentity(processingEnvironment, type);
+        identities.put(typeName, identity);
+        return identity;
+    }
+
+    private static String lookUpClassfileIdentity(
+            ProcessingEnvironment processingEnvironment, TypeElement type) {
+        Elements elements = processingEnvironment.getElementUtils();
+        String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        String binaryName = elements.getBinaryName(type).toString();
+        String fileName = (packageName.isEmpty()
+                ? binaryName : binaryName.substring(packageName.length() + 1)) + ".class";
+        Filer filer = processingEnvironment.getFiler();
+        FileObject classfile;
+        try {
+            if (filer.getResource(StandardLocation.CLASS_OUTPUT, packageName, fileName)
+                    .getLastModified() > 0) {
+                return null;
+            }
+            classfile = filer.getResource(StandardLocation.CLASS_PATH, packageName, fileName);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+        long lastModified = classfile.getLastModified();
+        if (lastModified <= 0) {
+            return null;
+        }
+        URI uri = classfile.toUri();
+        StringBuilder identity = new StringBuilder().append(uri).append('@').append(lastModified);
+        if ("jar".equals(uri.getScheme())) {
+            String archive = uri.getSchemeSpecificPart();
+            int separator = archive.indexOf("!/");
+            if (separator < 0 || !archive.startsWith("file:")) {
+                return null;
+            }
+            File file = new File(URI.create(archive.substring(0, separator)));
+            identity.append('@').append(file.lastModified()).append('@').append(file.length());
+        } else if (!"file".equals(uri.getScheme())) {
+            return null;
+        }
+        return identity.toString();
+    }
+
+    private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        LruMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    private static final class Key {
+        final String typeName;
+        final String name;
+        final String classfile;
+
+        Key(String typeName, String name, String classfile) {
+            this.typeName = typeName;
+            this.name = name;
+            this.classfile = classfile;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return typeName.equals(that.typeName) && name.equals(that.name)
+                    && classfile.equals(that.classfile);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * typeName.hashCode() + name.hashCode()) * 31 + classfile.hashCode();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.gabrielittner.auto.value.util;
+
+import com.squareup.javapoet.CodeBlock;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A JavaPoet format string that is parsed once and can then be instantiated many times, for code
+ * that is generated for every property or with the same shape over and over again.
+ *
+ * The format is split into literal parts, which are kept as {@link CodeBlock}s, and slots for the
+ * {@code $N}, {@code $T}, {@code $L} and {@code $S} placeholders. Instantiating the template
+ * appends the literal parts as they are and only hands the two character placeholder of each
+ * slot to JavaPoet, so the literal code is neither copied into a new format string nor parsed
+ * again.
+ *
+ * <pre>
+ * static final CodeTemplate GET = CodeTemplate.compile("$T $N = source.$N();\n");
+ * ...
+ * for (Property property : properties) {
+ *   GET.appendTo(code, property.type(), property.humanName(), property.methodName());
+ * }
+ * </pre>
+ *
+ * Indexed ({@code $1N}) and named ({@code $name:N}) placeholders are not supported. Templates are
+ * immutable and can be shared between threads.
+ */
+public final class CodeTemplate {
+
+    private static final String SLOTS = "NTLS";
+    private static final String LITERALS = "$W><[]";
+
+    // instances are immutable, so racy initialization only wastes a compile
+    private static final CodeTemplate[] CALL_ARGUMENTS =
+            new CodeTemplate[MethodSplitter.MAX_PARAMETER_SLOTS + 1];
+
+    private final String format;
+    // literals[i] precedes slot i, the last one follows the last slot, null if empty
+    private final CodeBlock[] literals;
+    private final String[] slots;
+
+    private CodeTemplate(String format, CodeBlock[] literals, String[] slots) {
+        this.format = format;
+        this.literals = literals;
+        this.slots = slots;
+    }
+
+    /**
+     * Parses {@code format}.
+     *
+     * @throws IllegalArgumentException if {@code format} contains an unsupported placeholder.
+     */
+    public static CodeTemplate compile(String format) {
+        List<CodeBlock> literals = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        int start = 0;
+        for (int i = format.indexOf('$'); i != -1; i = format.indexOf('$', i)) {
+            if (i + 1 == format.length()) {
+                throw new IllegalArgumentException("Dangling $ at the end of " + format);
+            }
+            char c = format.charAt(i + 1);
+            if (LITERALS.indexOf(c) != -1) {
+                i += 2;
+            } else if (SLOTS.indexOf(c) != -1) {
+                literals.add(literal(format.substring(start, i)));
+                slots.add("$" + c);
+                start = i + 2;
+                i = start;
+            } else {
+                throw new IllegalArgumentException(
+                        "Unsupported placeholder $" + c + " in " + format);
+            }
+        }
+        literals.add(literal(format.substring(start)));
+        return new CodeTemplate(format,
+                literals.toArray(new CodeBlock[literals.size()]),
+                slots.toArray(new String[slots.size()]));
+    }
+
+    private static CodeBlock literal(String code) {
+        return code.isEmpty() ? null : CodeBlock.of(code);
+    }
+
+    /**
+     * Returns a template for the argument list of a constructor or method call with
+     * {@code arity} {@code $N} slots, terminated as a statement: {@code ($N, $N);}. Templates for
+     * up to {@link MethodSplitter#MAX_PARAMETER_SLOTS} arguments are cached, javac rejects calls
+     * with more than that, but they are still created so that the error is reported by javac.
+     */
+    public static CodeTemplate callArguments(int arity) {
+        if (arity < 0) {
+            throw new IllegalArgumentException("Unsupported arity " + arity);
+        }
+        if (arity >= CALL_ARGUMENTS.length) {
+            return newCallArguments(arity);
+        }
+        CodeTemplate template = CALL_ARGUMENTS[arity];
+        if (template == null) {
+            template = newCallArguments(arity);
+            CALL_ARGUMENTS[arity] = template;
+        }
+        return template;
+    }
+
+    private static CodeTemplate newCallArguments(int arity) {
+        StringBuilder format = new StringBuilder("$[(");
+        for (int i = 0; i < arity; i++) {
+            format.append(i == 0 ? "$N" : ", $N");
+        }
+        return compile(format.append(");\n$]").toString());
+    }
+
+    /**
+     * The number of arguments that have to be passed when instantiating the template.
+     */
+    public int slots() {
+        return slots.length;
+    }
+
+    /**
+     * Returns a new {@link CodeBlock} with the slots filled with {@code args}.
+     *
+     * @throws IllegalArgumentException if the number of arguments doesn't match {@link #slots()}
+     *         or JavaPoet doesn't accept an argument for its placeholder.
+     */
+    public CodeBlock instantiate(Object... args) {
+        return appendTo(CodeBlock.builder(), args).build();
+    }
+
+    /**
+     * Adds the template with the slots filled with {@code args} to {@code builder}.
+     *
+     * @throws IllegalArgumentException if the number of arguments doesn't match {@link #slots()}
+     *         or JavaPoet doesn't accept an argument for its placeholder.
+     */
+    public CodeBlock.Builder appendTo(CodeBlock.Builder builder, Object... args) {
+        if (args.length != slots.length) {
+            throw new IllegalArgumentException(String.format(
+                    "Expected %d arguments but got %d for %s", slots.length, args.length, format));
+        }
+        for (int i = 0; i < slots.length; i++) {
+            if (literals[i] != null) {
+                builder.add(literals[i]);
+            }
+            builder.add(slots[i], args[i]);
+        }
+        if (literals[slots.length] != null) {
+            builder.add(literals[slots.length]);
+        }
+        return builder;
+    }
+
+    @Override
+    public String toString() {
+        return format;
+    }
+}
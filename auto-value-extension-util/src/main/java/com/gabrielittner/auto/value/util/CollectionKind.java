@@ -0,0 +1,131 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.WildcardTypeName;
+import java.util.List;
+
+/**
+ * The kind of collection of a {@link Property}.
+ *
+ * @see Property#collectionKind()
+ */
+public enum CollectionKind {
+    /** Not a collection. */
+    NONE,
+    /** An array. */
+    ARRAY,
+    /** A {@link java.util.Collection} that is neither a list nor a set. */
+    COLLECTION,
+    /** A {@link java.util.List}. */
+    LIST,
+    /** A {@link java.util.Set} without ordering. */
+    SET,
+    /** A {@link java.util.SortedSet}. */
+    SORTED_SET,
+    /** A {@link java.util.NavigableSet}. */
+    NAVIGABLE_SET,
+    /** A {@link java.util.Map} without ordering. */
+    MAP,
+    /** A {@link java.util.SortedMap}. */
+    SORTED_MAP,
+    /** A {@link java.util.NavigableMap}. */
+    NAVIGABLE_MAP;
+
+    private static final ImmutableMap<String, CollectionKind> KINDS =
+            ImmutableMap.<String, CollectionKind>builder()
+                    .put("java.util.Collection", COLLECTION)
+                    .put("java.util.List", LIST)
+                    .put("java.util.Set", SET)
+                    .put("java.util.SortedSet", SORTED_SET)
+                    .put("java.util.NavigableSet", NAVIGABLE_SET)
+                    .put("java.util.Map", MAP)
+                    .put("java.util.SortedMap", SORTED_MAP)
+                    .put("java.util.NavigableMap", NAVIGABLE_MAP)
+                    .put("com.google.common.collect.ImmutableCollection", COLLECTION)
+                    .put("com.google.common.collect.ImmutableList", LIST)
+                    .put("com.google.common.collect.ImmutableSet", SET)
+                    .put("com.google.common.collect.ImmutableSortedSet", SORTED_SET)
+                    .put("com.google.common.collect.ImmutableMap", MAP)
+                    .put("com.google.common.collect.ImmutableSortedMap", SORTED_MAP)
+                    .build();
+
+    private static final ImmutableSet<String> IMMUTABLE = ImmutableSet.of(
+            "com.google.common.collect.ImmutableCollection",
+            "com.google.common.collect.ImmutableList",
+            "com.google.common.collect.ImmutableSet",
+            "com.google.common.collect.ImmutableSortedSet",
+            "com.google.common.collect.ImmutableMap",
+            "com.google.common.collect.ImmutableSortedMap");
+
+    /**
+     * True for {@link #MAP}, {@link #SORTED_MAP} and {@link #NAVIGABLE_MAP}.
+     */
+    public boolean isMap() {
+        return this == MAP || this == SORTED_MAP || this == NAVIGABLE_MAP;
+    }
+
+    static CollectionKind of(TypeName type) {
+        if (type instanceof ArrayTypeName) {
+            return ARRAY;
+        }
+        ClassName rawType = rawType(type);
+        if (rawType == null) {
+            return NONE;
+        }
+        CollectionKind kind = KINDS.get(rawType.toString());
+        return kind != null ? kind : NONE;
+    }
+
+    static boolean isImmutable(TypeName type) {
+        ClassName rawType = rawType(type);
+        return rawType != null && IMMUTABLE.contains(rawType.toString());
+    }
+
+    static ImmutableList<TypeName> elementTypes(CollectionKind kind, TypeName type) {
+        if (kind == NONE) {
+            return ImmutableList.of();
+        }
+        if (kind == ARRAY) {
+            return ImmutableList.of(((ArrayTypeName) type).componentType);
+        }
+        int count = kind.isMap() ? 2 : 1;
+        if (!(type instanceof ParameterizedTypeName)) {
+            // raw type
+            return count == 2
+                    ? ImmutableList.<TypeName>of(ClassName.OBJECT, ClassName.OBJECT)
+                    : ImmutableList.<TypeName>of(ClassName.OBJECT);
+        }
+        ImmutableList.Builder<TypeName> elementTypes = ImmutableList.builder();
+        for (TypeName argument : ((ParameterizedTypeName) type).typeArguments) {
+            elementTypes.add(withoutWildcard(argument));
+        }
+        return elementTypes.build();
+    }
+
+    private static TypeName withoutWildcard(TypeName type) {
+        if (!(type instanceof WildcardTypeName)) {
+            return type;
+        }
+        WildcardTypeName wildcard = (WildcardTypeName) type;
+        List<TypeName> bounds = wildcard.lowerBounds.isEmpty()
+                ? wildcard.upperBounds
+                : wildcard.lowerBounds;
+        return bounds.isEmpty() ? ClassName.OBJECT : withoutWildcard(bounds.get(0));
+    }
+
+    static ClassName rawType(TypeName type) {
+        if (type instanceof ParameterizedTypeName) {
+            return ((ParameterizedTypeName) type).rawType;
+        }
+        if (type instanceof ClassName) {
+            return (ClassName) type;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,253 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+
+import static javax.lang.model.util.ElementFilter.methodsIn;
+
+/**
+ * Code generation helpers for collection and array valued {@link Property properties}.
+ *
+ * @see Property#collectionKind()
+ */
+public final class CollectionUtil {
+
+    private static final ClassName COLLECTIONS = ClassName.get(Collections.class);
+    private static final ClassName IMMUTABLE_LIST = ClassName.get(ImmutableList.class);
+    private static final ClassName IMMUTABLE_SET = ClassName.get(ImmutableSet.class);
+    private static final ClassName IMMUTABLE_SORTED_SET = ClassName.get(ImmutableSortedSet.class);
+    private static final ClassName IMMUTABLE_MAP = ClassName.get(ImmutableMap.class);
+    private static final ClassName IMMUTABLE_SORTED_MAP = ClassName.get(ImmutableSortedMap.class);
+
+    /**
+     * Returns code that creates an unmodifiable copy of {@code value} for the given
+     * {@code property}. Guava immutable collections, non-collection properties and
+     * {@code Optional} properties are returned unchanged, so no copy is made for them. Arrays are
+     * cloned and {@code java.util} collections are copied and wrapped with the matching
+     * {@code Collections.unmodifiable*} method, for {@code NavigableSet} and {@code NavigableMap}
+     * that is the Java 8 {@code unmodifiableNavigableSet} and {@code unmodifiableNavigableMap}. A
+     * {@code null} value stays {@code null} if the property is nullable.
+     */
+    public static CodeBlock defensiveCopy(Property property, CodeBlock value) {
+        CollectionKind kind = property.collectionKind();
+        if (kind == CollectionKind.NONE || property.immutableCollection() || property.optional()) {
+            return value;
+        }
+        CodeBlock copy = copy(kind, property.elementTypes(), value);
+        if (property.nullable()) {
+            return CodeBlock.of("$L == null ? null : $L", value, copy);
+        }
+        return copy;
+    }
+
+    private static CodeBlock copy(
+            CollectionKind kind, ImmutableList<TypeName> elementTypes, CodeBlock value) {
+        switch (kind) {
+            case ARRAY:
+                return CodeBlock.of("$L.clone()", value);
+            case COLLECTION:
+                return CodeBlock.of("$T.unmodifiableCollection(new $T($L))",
+                        COLLECTIONS, parameterized(ArrayList.class, elementTypes), value);
+            case LIST:
+                return CodeBlock.of("$T.unmodifiableList(new $T($L))",
+                        COLLECTIONS, parameterized(ArrayList.class, elementTypes), value);
+            case SET:
+                return CodeBlock.of("$T.unmodifiableSet(new $T($L))",
+                        COLLECTIONS, parameterized(LinkedHashSet.class, elementTypes), value);
+            case SORTED_SET:
+                return CodeBlock.of("$T.unmodifiableSortedSet(new $T($L))",
+                        COLLECTIONS, parameterized(TreeSet.class, elementTypes), value);
+            case NAVIGABLE_SET:
+                return CodeBlock.of("$T.unmodifiableNavigableSet(new $T($L))",
+                        COLLECTIONS, parameterized(TreeSet.class, elementTypes), value);
+            case MAP:
+                return CodeBlock.of("$T.unmodifiableMap(new $T($L))",
+                        COLLECTIONS, parameterized(LinkedHashMap.class, elementTypes), value);
+            case SORTED_MAP:
+                return CodeBlock.of("$T.unmodifiableSortedMap(new $T($L))",
+                        COLLECTIONS, parameterized(TreeMap.class, elementTypes), value);
+            case NAVIGABLE_MAP:
+                return CodeBlock.of("$T.unmodifiableNavigableMap(new $T($L))",
+                        COLLECTIONS, parameterized(TreeMap.class, elementTypes), value);
+            default:
+                throw new AssertionError(kind);
+        }
+    }
+
+    /**
+     * Returns the type of the accumulator created by
+     * {@link #newAccumulator(Context, Property, CodeBlock)}, for example
+     * {@code ImmutableList.Builder<T>} for an {@code ImmutableList<T>} or {@code ArrayList<T>} for
+     * a {@code List<T>}.
+     *
+     * @throws IllegalArgumentException if the property is not a collection.
+     */
+    public static TypeName accumulatorType(Property property) {
+        ImmutableList<TypeName> elementTypes = property.elementTypes();
+        CollectionKind kind = property.collectionKind();
+        if (kind == CollectionKind.ARRAY) {
+            return ArrayTypeName.of(elementTypes.get(0));
+        }
+        if (property.immutableCollection()) {
+            return parameterized(immutableType(kind).nestedClass("Builder"), elementTypes);
+        }
+        return parameterized(mutableType(kind), elementTypes);
+    }
+
+    /**
+     * Returns code that creates an accumulator for the property's elements which is sized for
+     * {@code expectedSize} elements. For Guava immutable collections this is a builder created
+     * with {@code builderWithExpectedSize} if the Guava version on the compile classpath has it
+     * (23.1 or newer), with {@code builder()} otherwise and with {@code naturalOrder()} for sorted
+     * ones. For {@code java.util} collections it is an {@link ArrayList},
+     * {@link LinkedHashSet}, {@link LinkedHashMap}, {@link TreeSet} or {@link TreeMap} with an
+     * initial capacity that avoids rehashing and for arrays a new array.
+     *
+     * @throws IllegalArgumentException if the property is not a collection.
+     */
+    public static CodeBlock newAccumulator(
+            Context context, Property property, CodeBlock expectedSize) {
+        ImmutableList<TypeName> elementTypes = property.elementTypes();
+        CollectionKind kind = property.collectionKind();
+        if (kind == CollectionKind.ARRAY) {
+            return newArray(elementTypes.get(0), expectedSize);
+        }
+        if (property.immutableCollection()) {
+            ClassName immutableType = immutableType(kind);
+            CodeBlock.Builder builder = CodeBlock.builder()
+                    .add("$T.<", immutableType)
+                    .add(typeArguments(elementTypes))
+                    .add(">");
+            if (kind == CollectionKind.SORTED_SET || kind == CollectionKind.SORTED_MAP) {
+                builder.add("naturalOrder()");
+            } else if (hasBuilderWithExpectedSize(context, immutableType)) {
+                builder.add("builderWithExpectedSize($L)", expectedSize);
+            } else {
+                builder.add("builder()");
+            }
+            return builder.build();
+        }
+        TypeName type = parameterized(mutableType(kind), elementTypes);
+        switch (kind) {
+            case COLLECTION:
+            case LIST:
+                return CodeBlock.of("new $T($L)", type, expectedSize);
+            case SET:
+            case MAP:
+                // default load factor of 0.75
+                return CodeBlock.of("new $T($T.max((int) ($L / 0.75f) + 1, 16))",
+                        type, Math.class, expectedSize);
+            default:
+                return CodeBlock.of("new $T()", type);
+        }
+    }
+
+    private static boolean hasBuilderWithExpectedSize(Context context, ClassName type) {
+        TypeElement element = context.processingEnvironment().getElementUtils()
+                .getTypeElement(type.toString());
+        if (element == null) {
+            return false;
+        }
+        for (ExecutableElement method : methodsIn(element.getEnclosedElements())) {
+            if (method.getSimpleName().contentEquals("builderWithExpectedSize")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static CodeBlock newArray(TypeName componentType, CodeBlock size) {
+        // new T[size][] for multi-dimensional arrays
+        int dimensions = 0;
+        while (componentType instanceof ArrayTypeName) {
+            componentType = ((ArrayTypeName) componentType).componentType;
+            dimensions++;
+        }
+        StringBuilder brackets = new StringBuilder();
+        for (int i = 0; i < dimensions; i++) {
+            brackets.append("[]");
+        }
+        return CodeBlock.of("new $T[$L]$L", componentType, size, brackets);
+    }
+
+    private static CodeBlock typeArguments(ImmutableList<TypeName> elementTypes) {
+        CodeBlock.Builder code = CodeBlock.builder();
+        for (int i = 0; i < elementTypes.size(); i++) {
+            code.add(i == 0 ? "$T" : ", $T", elementTypes.get(i).box());
+        }
+        return code.build();
+    }
+
+    private static ClassName immutableType(CollectionKind kind) {
+        switch (kind) {
+            case COLLECTION:
+            case LIST:
+                return IMMUTABLE_LIST;
+            case SET:
+                return IMMUTABLE_SET;
+            case SORTED_SET:
+            case NAVIGABLE_SET:
+                return IMMUTABLE_SORTED_SET;
+            case MAP:
+                return IMMUTABLE_MAP;
+            case SORTED_MAP:
+            case NAVIGABLE_MAP:
+                return IMMUTABLE_SORTED_MAP;
+            default:
+                throw new IllegalArgumentException("Not a collection: " + kind);
+        }
+    }
+
+    private static Class<?> mutableType(CollectionKind kind) {
+        switch (kind) {
+            case COLLECTION:
+            case LIST:
+                return ArrayList.class;
+            case SET:
+                return LinkedHashSet.class;
+            case SORTED_SET:
+            case NAVIGABLE_SET:
+                return TreeSet.class;
+            case MAP:
+                return LinkedHashMap.class;
+            case SORTED_MAP:
+            case NAVIGABLE_MAP:
+                return TreeMap.class;
+            default:
+                throw new IllegalArgumentException("Not a collection: " + kind);
+        }
+    }
+
+    private static TypeName parameterized(Class<?> rawType, ImmutableList<TypeName> arguments) {
+        return parameterized(ClassName.get(rawType), arguments);
+    }
+
+    private static TypeName parameterized(ClassName rawType, ImmutableList<TypeName> arguments) {
+        TypeName[] boxed = new TypeName[arguments.size()];
+        for (int i = 0; i < boxed.length; i++) {
+            boxed[i] = arguments.get(i).box();
+        }
+        return ParameterizedTypeName.get(rawType, boxed);
+    }
+
+    private CollectionUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,237 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.util.Comparator;
+import java.util.List;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Types;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.error;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getAutoValueClassClassName;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * Generates {@code compareTo()} implementations and {@link Comparator} constants for AutoValue
+ * classes.
+ *
+ * The comparisons of all properties are unrolled into a single method instead of chaining
+ * {@code Comparator.comparing()} calls. Primitive, boxed and primitive {@code Optional} values are
+ * compared with {@code Integer.compare()} and friends, so nothing is boxed. Other types have to
+ * implement {@link Comparable}. {@code null} values of {@code @Nullable} properties and empty
+ * {@code Optional}s are ordered according to a {@link NullOrder}.
+ *
+ * <pre>
+ * static final Comparator&lt;Foo&gt; BY_NAME = new Comparator&lt;Foo&gt;() {
+ *   &#64;Override public int compare(Foo a, Foo b) { ... }
+ * };
+ *
+ * &#64;Override public int compareTo(Foo that) { ... }
+ * </pre>
+ */
+public final class Comparisons {
+
+    /**
+     * Where {@code null} values and empty {@code Optional}s are ordered.
+     */
+    public enum NullOrder {
+        /** Before all other values. */
+        NULLS_FIRST,
+        /** After all other values. */
+        NULLS_LAST
+    }
+
+    private static final ImmutableMap<TypeName, TypeName> COMPARE_CLASSES =
+            ImmutableMap.<TypeName, TypeName>builder()
+                    .put(TypeName.BOOLEAN, ClassName.get(Boolean.class))
+                    .put(TypeName.BYTE, ClassName.get(Integer.class))
+                    .put(TypeName.SHORT, ClassName.get(Integer.class))
+                    .put(TypeName.INT, ClassName.get(Integer.class))
+                    .put(TypeName.LONG, ClassName.get(Long.class))
+                    .put(TypeName.CHAR, ClassName.get(Character.class))
+                    .put(TypeName.FLOAT, ClassName.get(Float.class))
+                    .put(TypeName.DOUBLE, ClassName.get(Double.class))
+                    .build();
+
+    /**
+     * Creates a {@code public int compareTo(Foo that)} method that compares all properties in the
+     * order in which they are declared. The AutoValue class has to implement
+     * {@code Comparable<Foo>} and declare {@code compareTo} as abstract. Properties whose type
+     * can't be compared and generic AutoValue classes are reported as errors.
+     */
+    public static MethodSpec newCompareToMethod(Context context, NullOrder nullOrder) {
+        ClassName autoValueClass = getAutoValueClassClassName(context);
+        MethodSpec.Builder compareTo = MethodSpec.methodBuilder("compareTo")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(TypeName.INT)
+                .addParameter(autoValueClass, "that");
+        if (!checkGeneric(context)) {
+            return compareTo.addStatement("return 0").build();
+        }
+        return compareTo.addCode(compareBody(context, Property.buildProperties(context),
+                CodeBlock.of("this"), CodeBlock.of("that"), nullOrder))
+                .build();
+    }
+
+    /**
+     * Creates a {@code static final Comparator<Foo>} constant named {@code name} that compares
+     * the given {@code keys} in order. The comparator is an anonymous class with the comparisons
+     * unrolled into its {@code compare} method. Properties whose type can't be compared and
+     * generic AutoValue classes are reported as errors.
+     */
+    public static FieldSpec newComparatorField(
+            Context context, String name, List<Property> keys, NullOrder nullOrder) {
+        ClassName autoValueClass = getAutoValueClassClassName(context);
+        TypeName comparatorType =
+                ParameterizedTypeName.get(ClassName.get(Comparator.class), autoValueClass);
+        FieldSpec.Builder field = FieldSpec.builder(comparatorType, name, STATIC, FINAL);
+        if (!checkGeneric(context)) {
+            return field.initializer("null").build();
+        }
+        MethodSpec compare = MethodSpec.methodBuilder("compare")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(TypeName.INT)
+                .addParameter(autoValueClass, "a")
+                .addParameter(autoValueClass, "b")
+                .addCode(compareBody(context, keys, CodeBlock.of("a"), CodeBlock.of("b"),
+                        nullOrder))
+                .build();
+        TypeSpec comparator = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(comparatorType)
+                .addMethod(compare)
+                .build();
+        return field.initializer("$L", comparator).build();
+    }
+
+    /**
+     * Creates a comparator constant for a single {@code property}, named after it:
+     * {@code BY_FIRST_NAME} for {@code firstName}.
+     *
+     * @see #newComparatorField(Context, String, List, NullOrder)
+     */
+    public static FieldSpec newComparatorField(
+            Context context, Property property, NullOrder nullOrder) {
+        String name = "BY_" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE,
+                property.humanName());
+        return newComparatorField(context, name, ImmutableList.of(property), nullOrder);
+    }
+
+    private static boolean checkGeneric(Context context) {
+        if (!context.autoValueClass().getTypeParameters().isEmpty()) {
+            context.processingEnvironment().getMessager().printMessage(ERROR,
+                    "Generic classes can't be compared", context.autoValueClass());
+            return false;
+        }
+        return true;
+    }
+
+    private static CodeBlock compareBody(Context context, List<Property> keys, CodeBlock left,
+            CodeBlock right, NullOrder nullOrder) {
+        CodeBlock.Builder code = CodeBlock.builder();
+        Property last = keys.isEmpty() ? null : keys.get(keys.size() - 1);
+        boolean returnLast = last != null && !last.optional() && !last.nullable();
+        if (keys.size() > 1 || (last != null && !returnLast)) {
+            code.addStatement("int c");
+        }
+        for (Property property : keys) {
+            if (!isComparable(context, property.type())) {
+                error(context, property, "Property type %s is not comparable", property.type());
+                return code.addStatement("return 0").build();
+            }
+            CodeBlock leftValue = CodeBlock.of("$L.$N()", left, property.methodName());
+            CodeBlock rightValue = CodeBlock.of("$L.$N()", right, property.methodName());
+            if (property == last && returnLast) {
+                return code.addStatement("return $L",
+                        compareValues(property.type(), leftValue, rightValue))
+                        .build();
+            }
+            if (!property.optional() && !property.nullable()) {
+                code.beginControlFlow("if ((c = $L) != 0)",
+                        compareValues(property.type(), leftValue, rightValue))
+                        .addStatement("return c")
+                        .endControlFlow();
+            } else {
+                code.add(compareAbsent(property, leftValue, rightValue, nullOrder));
+            }
+        }
+        return code.addStatement("return 0").build();
+    }
+
+    /**
+     * Reads each value once and orders {@code null} or absent values according to
+     * {@code nullOrder} before comparing present values.
+     */
+    private static CodeBlock compareAbsent(Property property, CodeBlock leftValue,
+            CodeBlock rightValue, NullOrder nullOrder) {
+        String leftName = property.humanName() + "Left";
+        String rightName = property.humanName() + "Right";
+        int leftAbsent = nullOrder == NullOrder.NULLS_FIRST ? -1 : 1;
+        String isAbsent = property.optional() ? "!$N.isPresent()" : "$N == null";
+        String isPresent = property.optional() ? "$N.isPresent()" : "$N != null";
+        CodeBlock leftPresent = property.optional()
+                ? CodeBlock.of("$N.$L", leftName, property.optionalGet())
+                : CodeBlock.of("$N", leftName);
+        CodeBlock rightPresent = property.optional()
+                ? CodeBlock.of("$N.$L", rightName, property.optionalGet())
+                : CodeBlock.of("$N", rightName);
+        return CodeBlock.builder()
+                .addStatement("$T $N = $L", property.returnType(), leftName, leftValue)
+                .addStatement("$T $N = $L", property.returnType(), rightName, rightValue)
+                .beginControlFlow("if (" + isAbsent + ")", leftName)
+                .beginControlFlow("if (" + isPresent + ")", rightName)
+                .addStatement("return $L", leftAbsent)
+                .endControlFlow()
+                .nextControlFlow("else if (" + isAbsent + ")", rightName)
+                .addStatement("return $L", -leftAbsent)
+                .nextControlFlow("else if ((c = $L) != 0)",
+                        compareValues(property.type(), leftPresent, rightPresent))
+                .addStatement("return c")
+                .endControlFlow()
+                .build();
+    }
+
+    private static CodeBlock compareValues(TypeName type, CodeBlock left, CodeBlock right) {
+        TypeName primitive = type.isBoxedPrimitive() ? type.unbox() : type;
+        TypeName compareClass = COMPARE_CLASSES.get(primitive);
+        if (compareClass != null) {
+            // boxed values are unboxed by the primitive compare method
+            return CodeBlock.of("$T.compare($L, $L)", compareClass, left, right);
+        }
+        return CodeBlock.of("$L.compareTo($L)", left, right);
+    }
+
+    private static boolean isComparable(Context context, TypeName type) {
+        if (type.isPrimitive() || type.isBoxedPrimitive()) {
+            return true;
+        }
+        ClassName rawType = CollectionKind.rawType(type);
+        if (rawType == null) {
+            return false;
+        }
+        Types types = context.processingEnvironment().getTypeUtils();
+        TypeElement element = context.processingEnvironment().getElementUtils()
+                .getTypeElement(rawType.toString());
+        TypeElement comparable = context.processingEnvironment().getElementUtils()
+                .getTypeElement(Comparable.class.getCanonicalName());
+        return element != null && types.isAssignable(
+                types.erasure(element.asType()), types.erasure(comparable.asType()));
+    }
+
+    private Comparisons() {
+        throw new AssertionError("No instances.");
+    }
+}
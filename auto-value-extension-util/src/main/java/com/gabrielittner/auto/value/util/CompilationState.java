@@ -0,0 +1,57 @@
+package com.gabrielittner.auto.value.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.util.Elements;
+
+/**
+ * The state that helpers collect during one compilation and that {@link AutoValueUtilProcessor}
+ * writes, the {@link SharedHelpers}, the {@link FootprintReport} and the {@link PerformanceLint}
+ * summary.
+ *
+ * The state is looked up by the compilation's {@link Elements}. Build tools like Gradle can wrap
+ * the {@link ProcessingEnvironment} for each processor, so AutoValue's extensions and
+ * {@link AutoValueUtilProcessor} may see different instances of it, but they delegate to the same
+ * {@link Elements}. The processor removes the state in the last round, the weak keys only make
+ * sure that compilations without the processor don't leak it.
+ */
+final class CompilationState {
+
+    private static final Map<Elements, CompilationState> STATES = new WeakHashMap<>();
+
+    static CompilationState get(ProcessingEnvironment processingEnvironment) {
+        Elements key = processingEnvironment.getElementUtils();
+        synchronized (STATES) {
+            CompilationState state = STATES.get(key);
+            if (state == null) {
+                state = new CompilationState();
+                STATES.put(key, state);
+            }
+            return state;
+        }
+    }
+
+    /**
+     * Removes the state of the compilation, it must not be used anymore.
+     */
+    static void remove(ProcessingEnvironment processingEnvironment) {
+        synchronized (STATES) {
+            STATES.remove(processingEnvironment.getElementUtils());
+        }
+    }
+
+    final SharedHelpers sharedHelpers = new SharedHelpers();
+    final FootprintReport footprintReport = new FootprintReport();
+    final PerformanceLint performanceLint = new PerformanceLint();
+    /** AutoValue classes for which too many constructor parameter slots were reported. */
+    final Set<String> parameterSlotErrors = new HashSet<>();
+    /** The {@link ClasspathCache} class file identities of types, null if they aren't cached. */
+    final Map<String, String> classfileIdentities = new HashMap<>();
+
+    private CompilationState() {
+    }
+}
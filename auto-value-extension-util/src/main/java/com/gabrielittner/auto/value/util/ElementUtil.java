@@ -7,8 +7,10 @@ import com.google.common.collect.ImmutableSet;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.TypeName;
 import java.lang.annotation.Annotation;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
@@ -16,6 +18,7 @@ import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
 
 import static com.google.auto.common.MoreElements.getLocalAndInheritedMethods;
@@ -94,6 +97,39 @@ public final class ElementUtil {
         return Optional.absent();
     }
 
+    /**
+     * Returns a method of {@code cls} that is static, has {@code returns} as return type and the
+     * number and types of parameters match {@code takes}. Returns absent if such a method doesn't
+     * exist.
+     *
+     * If {@code cls} was loaded from a class file the position of the matching method is stored in
+     * {@code cache}, so later compilations don't have to compare the methods again.
+     */
+    public static Optional<ExecutableElement> getMatchingStaticMethod(
+            ProcessingEnvironment processingEnvironment, TypeElement cls, ClasspathCache cache,
+            final TypeName returns, final TypeName... takes) {
+        String name = "staticMethod " + returns + Arrays.toString(takes);
+        int index = cache.get(processingEnvironment, cls, name,
+                new ClasspathCache.Loader<Integer>() {
+                    @Override
+                    public Integer load(TypeElement type) {
+                        List<? extends Element> elements = type.getEnclosedElements();
+                        for (int i = 0; i < elements.size(); i++) {
+                            Element element = elements.get(i);
+                            if (element.getKind() == ElementKind.METHOD && methodMatches(
+                                    (ExecutableElement) element, Modifier.STATIC, returns, takes)) {
+                                return i;
+                            }
+                        }
+                        return -1;
+                    }
+                });
+        if (index < 0) {
+            return Optional.absent();
+        }
+        return Optional.of((ExecutableElement) cls.getEnclosedElements().get(index));
+    }
+
     /**
      * Returns a method of {@code cls} that is abstract, has {@code returns} as return type and the
      * number and types of parameters match {@code takes}. Returns null if such a method doesn't
@@ -109,6 +145,47 @@ public final class ElementUtil {
         return Optional.absent();
     }
 
+    /**
+     * Returns a method of {@code cls} that is static, has a return type that is assignable to
+     * {@code returns} and the same number of parameters as {@code takes}, where each type in
+     * {@code takes} is assignable to the type of the corresponding parameter. Returns absent if
+     * such a method doesn't exist.
+     *
+     * Results of the assignability checks are stored in {@code cache}.
+     */
+    public static Optional<ExecutableElement> getMatchingStaticMethod(TypeElement cls,
+            AssignabilityCache cache, TypeMirror returns, TypeMirror... takes) {
+        for (Element element : cls.getEnclosedElements()) {
+            if (element.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+            ExecutableElement method = (ExecutableElement) element;
+            if (methodMatches(method, Modifier.STATIC, cache, returns, takes)) {
+                return Optional.of(method);
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Returns a method of {@code methods} that is abstract, has a return type that is assignable
+     * to {@code returns} and the same number of parameters as {@code takes}, where each type in
+     * {@code takes} is assignable to the type of the corresponding parameter. Returns absent if
+     * such a method doesn't exist.
+     *
+     * Results of the assignability checks are stored in {@code cache}.
+     */
+    public static Optional<ExecutableElement> getMatchingAbstractMethod(
+            Set<ExecutableElement> methods, AssignabilityCache cache, TypeMirror returns,
+            TypeMirror... takes) {
+        for (ExecutableElement method : methods) {
+            if (methodMatches(method, Modifier.ABSTRACT, cache, returns, takes)) {
+                return Optional.of(method);
+            }
+        }
+        return Optional.absent();
+    }
+
     private static boolean methodMatches(
             ExecutableElement method, Modifier modifier, TypeName returns, TypeName[] takes) {
         return hasModifier(method, modifier)
@@ -116,6 +193,13 @@ public final class ElementUtil {
                 && methodReturns(method, returns);
     }
 
+    private static boolean methodMatches(ExecutableElement method, Modifier modifier,
+            AssignabilityCache cache, TypeMirror returns, TypeMirror[] takes) {
+        return hasModifier(method, modifier)
+                && methodTakes(method, cache, takes)
+                && methodReturns(method, cache, returns);
+    }
+
     static boolean hasModifier(ExecutableElement method, Modifier modifier) {
         return method.getModifiers().contains(modifier);
     }
@@ -137,6 +221,25 @@ public final class ElementUtil {
         return returns.equals(ClassName.get(method.getReturnType()));
     }
 
+    static boolean methodTakes(
+            ExecutableElement method, AssignabilityCache cache, TypeMirror... takes) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        if (parameters.size() != takes.length) {
+            return false;
+        }
+        for (int i = 0; i < takes.length; i++) {
+            if (!cache.isAssignable(takes[i], parameters.get(i).asType())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean methodReturns(
+            ExecutableElement method, AssignabilityCache cache, TypeMirror returns) {
+        return cache.isAssignable(method.getReturnType(), returns);
+    }
+
     /**
      * Returns true if given {@code className} is on the current classpath.
      */
@@ -0,0 +1,354 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.error;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getAutoValueClassClassName;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newFinalClassConstructorCall;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * Generates a flyweight view that implements the AutoValue class by reading its properties from a
+ * {@link ByteBuffer}, for example a {@link java.nio.MappedByteBuffer} of a file, and a writer
+ * that appends instances in the same layout to a {@link DataOutput}.
+ *
+ * Every record has a fixed part with a slot for each property at a constant offset. Primitives
+ * and boxed primitives are stored in the fixed part, {@code @Nullable} boxed primitives with an
+ * additional presence byte. {@link String}s (as UTF-8) and {@code byte[]}s are stored after the
+ * fixed part, their slot contains their offset in the record and their length, which is -1 for
+ * {@code null}. Records with such variable length properties start with their total size as an
+ * {@code int}. All values use the big-endian byte order of {@link DataOutput}.
+ *
+ * A view is wrapped around a record with {@code wrap(buffer, offset)} and reads a property only
+ * when its accessor is called, so iterating over a mapped file doesn't allocate per record. Views
+ * are mutable and should be converted with {@code toValue()} before they are kept. Because
+ * offsets are {@code int}s, files larger than 2 GB have to be mapped in several regions that
+ * start at record boundaries.
+ *
+ * <pre>
+ * static final class View extends Foo {
+ *   View wrap(ByteBuffer buffer, int offset) { ... }
+ *   static int recordSize(ByteBuffer buffer, int offset) { ... }
+ *   static void write(Foo value, DataOutput out) throws IOException { ... }
+ *   Foo toValue() { ... }
+ * }
+ * </pre>
+ */
+public final class Flyweight {
+
+    private static final ClassName BYTE_BUFFER = ClassName.get(ByteBuffer.class);
+    private static final ClassName DATA_OUTPUT = ClassName.get(DataOutput.class);
+    private static final ClassName CHARSET = ClassName.get(Charset.class);
+    private static final TypeName STRING = ClassName.get(String.class);
+    private static final TypeName BYTES = ArrayTypeName.of(TypeName.BYTE);
+
+    /** The size of the slot of a variable length property: an offset and a length. */
+    private static final int VARIABLE_SLOT_SIZE = 8;
+
+    private static final ImmutableMap<TypeName, Integer> SIZES =
+            ImmutableMap.<TypeName, Integer>builder()
+                    .put(TypeName.BOOLEAN, 1)
+                    .put(TypeName.BYTE, 1)
+                    .put(TypeName.SHORT, 2)
+                    .put(TypeName.CHAR, 2)
+                    .put(TypeName.INT, 4)
+                    .put(TypeName.LONG, 8)
+                    .put(TypeName.FLOAT, 4)
+                    .put(TypeName.DOUBLE, 8)
+                    .build();
+
+    private static final ImmutableMap<TypeName, String> ACCESSORS =
+            ImmutableMap.<TypeName, String>builder()
+                    .put(TypeName.BYTE, "")
+                    .put(TypeName.SHORT, "Short")
+                    .put(TypeName.CHAR, "Char")
+                    .put(TypeName.INT, "Int")
+                    .put(TypeName.LONG, "Long")
+                    .put(TypeName.FLOAT, "Float")
+                    .put(TypeName.DOUBLE, "Double")
+                    .build();
+
+    private static final ImmutableMap<TypeName, String> WRITERS =
+            ImmutableMap.<TypeName, String>builder()
+                    .put(TypeName.BOOLEAN, "writeBoolean")
+                    .put(TypeName.BYTE, "writeByte")
+                    .put(TypeName.SHORT, "writeShort")
+                    .put(TypeName.CHAR, "writeChar")
+                    .put(TypeName.INT, "writeInt")
+                    .put(TypeName.LONG, "writeLong")
+                    .put(TypeName.FLOAT, "writeFloat")
+                    .put(TypeName.DOUBLE, "writeDouble")
+                    .build();
+
+    /**
+     * Creates a static nested class named {@code className} that extends the AutoValue class and
+     * reads its properties from a {@link ByteBuffer}. It should be added to the class generated
+     * by the extension. Unsupported property types and generic AutoValue classes are reported as
+     * errors.
+     */
+    public static TypeSpec newViewClass(Context context, String className) {
+        ClassName autoValueClass = getAutoValueClassClassName(context);
+        // nested in the class generated by the extension, so the simple name resolves
+        ClassName viewClass = ClassName.get("", className);
+        TypeSpec.Builder builder = TypeSpec.classBuilder(className)
+                .addModifiers(STATIC, FINAL)
+                .superclass(autoValueClass);
+        if (!context.autoValueClass().getTypeParameters().isEmpty()) {
+            context.processingEnvironment().getMessager().printMessage(ERROR,
+                    "Generic classes are not supported by Flyweight", context.autoValueClass());
+            return builder.build();
+        }
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        for (Property property : properties) {
+            if (!isFixed(property) && !isVariable(property)) {
+                error(context, property, "Property type %s is not supported by Flyweight",
+                        property.returnType());
+                return builder.build();
+            }
+        }
+
+        boolean variable = false;
+        for (Property property : properties) {
+            variable |= isVariable(property);
+        }
+        // records with variable length properties start with their size
+        int offset = variable ? 4 : 0;
+        List<FieldSpec> offsets = new ArrayList<>();
+        for (Property property : properties) {
+            String name = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE,
+                    property.humanName()) + "_OFFSET";
+            FieldSpec field = FieldSpec.builder(TypeName.INT, name, STATIC, FINAL)
+                    .initializer("$L", offset)
+                    .build();
+            offsets.add(field);
+            builder.addField(field);
+            offset += slotSize(property);
+        }
+        FieldSpec fixedSize = FieldSpec.builder(TypeName.INT, "FIXED_SIZE", STATIC, FINAL)
+                .initializer("$L", offset)
+                .build();
+        builder.addField(fixedSize);
+        if (variable) {
+            builder.addField(FieldSpec.builder(CHARSET, "UTF_8", PRIVATE, STATIC, FINAL)
+                    .initializer("$T.forName($S)", CHARSET, "UTF-8")
+                    .build());
+        }
+
+        FieldSpec buffer = FieldSpec.builder(BYTE_BUFFER, "buffer", PRIVATE).build();
+        FieldSpec recordOffset = FieldSpec.builder(TypeName.INT, "offset", PRIVATE).build();
+        builder.addField(buffer)
+                .addField(recordOffset)
+                .addMethod(MethodSpec.constructorBuilder().build())
+                .addMethod(MethodSpec.methodBuilder("wrap")
+                        .returns(viewClass)
+                        .addParameter(BYTE_BUFFER, "buffer")
+                        .addParameter(TypeName.INT, "offset")
+                        .addStatement("this.$N = buffer", buffer)
+                        .addStatement("this.$N = offset", recordOffset)
+                        .addStatement("return this")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("recordSize")
+                        .addModifiers(STATIC)
+                        .returns(TypeName.INT)
+                        .addParameter(BYTE_BUFFER, "buffer")
+                        .addParameter(TypeName.INT, "offset")
+                        .addStatement(variable ? "return buffer.getInt(offset)" : "return $N",
+                                fixedSize)
+                        .build());
+
+        List<CodeBlock> values = new ArrayList<>();
+        String[] names = new String[properties.size()];
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            builder.addMethod(MethodSpec.methodBuilder(property.methodName())
+                    .addAnnotation(Override.class)
+                    .addModifiers(PUBLIC)
+                    .returns(property.returnType())
+                    .addCode(read(property, offsets.get(i)))
+                    .build());
+            values.add(CodeBlock.of("this.$N()", property.methodName()));
+            names[i] = property.humanName();
+        }
+        if (variable) {
+            builder.addMethod(newReadBytesMethod());
+        }
+
+        MethodSpec.Builder toValue = MethodSpec.methodBuilder("toValue")
+                .returns(autoValueClass);
+        for (Property property : properties) {
+            toValue.addStatement("$T $N = this.$N()", property.returnType(), property.humanName(),
+                    property.methodName());
+        }
+        builder.addMethod(toValue.addCode("return ")
+                .addCode(newFinalClassConstructorCall(context, names))
+                .build());
+        builder.addMethod(newWriteMethod(autoValueClass, properties, fixedSize, variable));
+        ValueMethods.addValueMethods(context, builder, properties, values);
+        return builder.build();
+    }
+
+    private static TypeName primitive(Property property) {
+        TypeName type = property.returnType();
+        return type.isBoxedPrimitive() ? type.unbox() : type;
+    }
+
+    private static boolean isFixed(Property property) {
+        return SIZES.containsKey(primitive(property));
+    }
+
+    private static boolean isVariable(Property property) {
+        TypeName type = property.returnType();
+        return type.equals(STRING) || type.equals(BYTES);
+    }
+
+    private static boolean hasPresenceByte(Property property) {
+        return property.returnType().isBoxedPrimitive() && property.nullable();
+    }
+
+    private static int slotSize(Property property) {
+        if (isVariable(property)) {
+            return VARIABLE_SLOT_SIZE;
+        }
+        return SIZES.get(primitive(property)) + (hasPresenceByte(property) ? 1 : 0);
+    }
+
+    private static CodeBlock read(Property property, FieldSpec offset) {
+        CodeBlock.Builder code = CodeBlock.builder();
+        if (isVariable(property)) {
+            code.addStatement("int length = buffer.getInt(offset + $N + 4)", offset)
+                    .beginControlFlow("if (length == -1)")
+                    .addStatement("return null")
+                    .endControlFlow();
+            CodeBlock bytes = CodeBlock.of("readBytes(offset + buffer.getInt(offset + $N), length)",
+                    offset);
+            if (property.returnType().equals(STRING)) {
+                return code.addStatement("return new $T($L, UTF_8)", STRING, bytes).build();
+            }
+            return code.addStatement("return $L", bytes).build();
+        }
+        TypeName primitive = primitive(property);
+        CodeBlock position = CodeBlock.of("offset + $N", offset);
+        if (hasPresenceByte(property)) {
+            code.beginControlFlow("if (buffer.get(offset + $N) == 0)", offset)
+                    .addStatement("return null")
+                    .endControlFlow();
+            position = CodeBlock.of("offset + $N + 1", offset);
+        }
+        if (primitive.equals(TypeName.BOOLEAN)) {
+            return code.addStatement("return buffer.get($L) != 0", position).build();
+        }
+        return code.addStatement("return buffer.get$L($L)", ACCESSORS.get(primitive), position)
+                .build();
+    }
+
+    private static MethodSpec newReadBytesMethod() {
+        // ByteBuffer has no absolute bulk get before Java 13
+        return MethodSpec.methodBuilder("readBytes")
+                .addModifiers(PRIVATE)
+                .returns(BYTES)
+                .addParameter(TypeName.INT, "position")
+                .addParameter(TypeName.INT, "length")
+                .addStatement("byte[] bytes = new byte[length]")
+                .beginControlFlow("for (int i = 0; i < length; i++)")
+                .addStatement("bytes[i] = buffer.get(position + i)")
+                .endControlFlow()
+                .addStatement("return bytes")
+                .build();
+    }
+
+    private static MethodSpec newWriteMethod(ClassName autoValueClass,
+            List<Property> properties, FieldSpec fixedSize, boolean variable) {
+        MethodSpec.Builder write = MethodSpec.methodBuilder("write")
+                .addModifiers(STATIC)
+                .addParameter(autoValueClass, "value")
+                .addParameter(DATA_OUTPUT, "out")
+                .addException(IOException.class);
+        if (variable) {
+            CodeBlock.Builder size = CodeBlock.builder().add("$N", fixedSize);
+            for (Property property : properties) {
+                if (!isVariable(property)) {
+                    continue;
+                }
+                String bytes = localName("encoded", property);
+                if (property.returnType().equals(STRING)) {
+                    String name = localName("written", property);
+                    write.addStatement("$T $N = value.$N()", STRING, name, property.methodName())
+                            .addStatement("byte[] $N = $N != null ? $N.getBytes(UTF_8) : null",
+                                    bytes, name, name);
+                } else {
+                    write.addStatement("byte[] $N = value.$N()", bytes, property.methodName());
+                }
+                size.add(" + ($N != null ? $N.length : 0)", bytes, bytes);
+            }
+            write.addStatement("out.writeInt($L)", size.build())
+                    .addStatement("int variableOffset = $N", fixedSize);
+        }
+        for (Property property : properties) {
+            CodeBlock get = CodeBlock.of("value.$N()", property.methodName());
+            if (isVariable(property)) {
+                String bytes = localName("encoded", property);
+                write.beginControlFlow("if ($N != null)", bytes)
+                        .addStatement("out.writeInt(variableOffset)")
+                        .addStatement("out.writeInt($N.length)", bytes)
+                        .addStatement("variableOffset += $N.length", bytes)
+                        .nextControlFlow("else")
+                        .addStatement("out.writeInt(0)")
+                        .addStatement("out.writeInt(-1)")
+                        .endControlFlow();
+            } else if (hasPresenceByte(property)) {
+                String name = localName("written", property);
+                int size = SIZES.get(primitive(property));
+                write.addStatement("$T $N = $L", property.returnType(), name, get)
+                        .beginControlFlow("if ($N != null)", name)
+                        .addStatement("out.writeByte(1)")
+                        .addStatement("out.$L($N)", WRITERS.get(primitive(property)), name)
+                        .nextControlFlow("else")
+                        .addStatement("out.write(new byte[$L])", size + 1)
+                        .endControlFlow();
+            } else {
+                write.addStatement("out.$L($L)", WRITERS.get(primitive(property)), get);
+            }
+        }
+        for (Property property : properties) {
+            if (isVariable(property)) {
+                String bytes = localName("encoded", property);
+                write.beginControlFlow("if ($N != null)", bytes)
+                        .addStatement("out.write($N)", bytes)
+                        .endControlFlow();
+            }
+        }
+        return write.build();
+    }
+
+    /**
+     * The name of a local variable in {@code write()} for {@code property}, prefixed so that it
+     * can't clash with the parameters, {@code variableOffset} or the locals of other properties.
+     */
+    private static String localName(String prefix, Property property) {
+        return prefix + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, property.humanName());
+    }
+
+    private Flyweight() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,195 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension;
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeSpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.processing.ProcessingEnvironment;
+
+/**
+ * Records the size of every class created with
+ * {@link AutoValueUtil#newTypeSpecBuilder(AutoValueExtension, Context, String, String, boolean)}
+ * when the {@link #OUTPUT_OPTION} processor option is set, and writes a report to the file named
+ * by the option at the end of processing. {@link AutoValueUtilProcessor} has to be on the
+ * processor path for the report to be written.
+ *
+ * The report is tab separated with one line per extension and AutoValue class, followed by one
+ * total line per extension with {@code *} as the class:
+ *
+ * <pre>
+ * extension  autoValueClass  type  classes  methods  fields  estimatedBytes
+ * </pre>
+ *
+ * The extension is the one passed to {@code newTypeSpecBuilder}, classes created without one are
+ * reported under the qualified name of the generated class. For a {@link FusedExtension} the
+ * members that each contributor added are reported under the contributor's class and the class
+ * with its constructor under the extension. Classes and methods include nested classes. The
+ * estimated bytecode size is a rough approximation based on the number of members and the length
+ * of the generated code; it is meant for comparing extensions, not for predicting the size of the
+ * class file.
+ */
+public final class FootprintReport {
+
+    /**
+     * The processor option that enables the report, its value is the path of the report file.
+     */
+    public static final String OUTPUT_OPTION = "autovalue.footprint.report";
+
+    private static final int CLASS_BYTES = 200;
+    private static final int FIELD_BYTES = 16;
+    private static final int METHOD_BYTES = 40;
+    private static final int CODE_CHARS_PER_BYTE = 4;
+
+    private final Map<String, Map<String, List<Entry>>> types = new TreeMap<>();
+
+    FootprintReport() {}
+
+    static FootprintReport get(ProcessingEnvironment processingEnvironment) {
+        return CompilationState.get(processingEnvironment).footprintReport;
+    }
+
+    static boolean enabled(Context context) {
+        return context.processingEnvironment().getOptions().get(OUTPUT_OPTION) != null;
+    }
+
+    /**
+     * Remembers {@code builder} for {@code extension} if the report is enabled. It is only built
+     * when the report is written, so everything the extension adds to it is counted.
+     */
+    static void track(Context context, String extension, TypeSpec.Builder builder) {
+        if (enabled(context)) {
+            get(context.processingEnvironment()).add(context, extension, new Entry(builder));
+        }
+    }
+
+    /**
+     * Records what {@code extension} added to {@code before} to create {@code after}, or all of
+     * {@code after} if {@code before} is null.
+     */
+    static void track(Context context, String extension, TypeSpec before, TypeSpec after) {
+        if (enabled(context)) {
+            get(context.processingEnvironment()).add(context, extension, new Entry(before, after));
+        }
+    }
+
+    private synchronized void add(Context context, String extension, Entry entry) {
+        String autoValueClass = context.autoValueClass().getQualifiedName().toString();
+        Map<String, List<Entry>> classes = types.get(extension);
+        if (classes == null) {
+            classes = new TreeMap<>();
+            types.put(extension, classes);
+        }
+        List<Entry> entries = classes.get(autoValueClass);
+        if (entries == null) {
+            entries = new ArrayList<>();
+            classes.put(autoValueClass, entries);
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * Writes the report to the file named by {@link #OUTPUT_OPTION}, does nothing if it isn't set.
+     */
+    synchronized void write(ProcessingEnvironment processingEnvironment) {
+        String output = processingEnvironment.getOptions().get(OUTPUT_OPTION);
+        if (output == null) {
+            return;
+        }
+        StringBuilder report = new StringBuilder(
+                "extension\tautoValueClass\ttype\tclasses\tmethods\tfields\testimatedBytes\n");
+        for (Map.Entry<String, Map<String, List<Entry>>> extension : types.entrySet()) {
+            Counts total = new Counts();
+            for (Map.Entry<String, List<Entry>> autoValueClass
+                    : extension.getValue().entrySet()) {
+                for (Entry entry : autoValueClass.getValue()) {
+                    TypeSpec type = entry.after();
+                    Counts counts = new Counts();
+                    counts.add(type);
+                    if (entry.before != null) {
+                        counts.subtract(entry.before);
+                    }
+                    total.add(counts);
+                    appendLine(report, extension.getKey(), autoValueClass.getKey(), type.name,
+                            counts);
+                }
+            }
+            appendLine(report, extension.getKey(), "*", "*", total);
+        }
+        ReportWriter.write(processingEnvironment, output, "footprint report", report);
+    }
+
+    private static void appendLine(StringBuilder report, String extension,
+            String autoValueClass, String type, Counts counts) {
+        report.append(extension).append('\t')
+                .append(autoValueClass).append('\t')
+                .append(type).append('\t')
+                .append(counts.classes).append('\t')
+                .append(counts.methods).append('\t')
+                .append(counts.fields).append('\t')
+                .append(counts.bytes).append('\n');
+    }
+
+    private static final class Entry {
+        final TypeSpec.Builder builder;
+        final TypeSpec before;
+        final TypeSpec after;
+
+        Entry(TypeSpec.Builder builder) {
+            this.builder = builder;
+            this.before = null;
+            this.after = null;
+        }
+
+        Entry(TypeSpec before, TypeSpec after) {
+            this.builder = null;
+            this.before = before;
+            this.after = after;
+        }
+
+        TypeSpec after() {
+            return builder != null ? builder.build() : after;
+        }
+    }
+
+    private static final class Counts {
+        int classes;
+        int methods;
+        int fields;
+        long bytes;
+
+        void add(TypeSpec type) {
+            classes++;
+            methods += type.methodSpecs.size();
+            fields += type.fieldSpecs.size();
+            bytes += CLASS_BYTES + FIELD_BYTES * type.fieldSpecs.size()
+                    + type.staticBlock.toString().length() / CODE_CHARS_PER_BYTE
+                    + type.initializerBlock.toString().length() / CODE_CHARS_PER_BYTE;
+            for (MethodSpec method : type.methodSpecs) {
+                bytes += METHOD_BYTES + method.code.toString().length() / CODE_CHARS_PER_BYTE;
+            }
+            for (TypeSpec nested : type.typeSpecs) {
+                add(nested);
+            }
+        }
+
+        void subtract(TypeSpec type) {
+            Counts counts = new Counts();
+            counts.add(type);
+            classes -= counts.classes;
+            methods -= counts.methods;
+            fields -= counts.fields;
+            bytes -= counts.bytes;
+        }
+
+        void add(Counts counts) {
+            classes += counts.classes;
+            methods += counts.methods;
+            fields += counts.fields;
+            bytes += counts.bytes;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
+import java.util.Arrays;
+import java.util.ServiceLoader;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newUntrackedTypeSpecBuilder;
+
+/**
+ * An {@link AutoValueExtension} that combines multiple {@link Contributor}s into one extension.
+ *
+ * Every extension adds one class to the chain of generated classes, each with a constructor that
+ * forwards all properties. Contributors instead add their members to a shared
+ * {@link TypeSpec.Builder} created with
+ * {@link AutoValueUtil#newTypeSpecBuilder(Context, String, String, boolean)}, so that only a
+ * single class is generated for all of them.
+ *
+ * The no-arg constructor loads all contributors that are registered in
+ * {@code META-INF/services/com.gabrielittner.auto.value.util.FusedExtension$Contributor}. To use it
+ * register this class once as an {@link AutoValueExtension} service.
+ */
+public class FusedExtension extends AutoValueExtension {
+
+    /**
+     * A part of a {@link FusedExtension}. {@link #applicable(Context)} and
+     * {@link #mustBeFinal(Context)} have the same meaning as for {@link AutoValueExtension}.
+     */
+    public abstract static class Contributor {
+
+        public abstract boolean applicable(Context context);
+
+        public boolean mustBeFinal(Context context) {
+            return false;
+        }
+
+        /**
+         * Adds the members of this contributor to {@code builder}. The builder already contains
+         * the constructor, superclass and type variables of the generated class.
+         */
+        public abstract void contribute(Context context, TypeSpec.Builder builder);
+    }
+
+    private final ImmutableList<Contributor> contributors;
+
+    public FusedExtension() {
+        this(ServiceLoader.load(Contributor.class, FusedExtension.class.getClassLoader()));
+    }
+
+    public FusedExtension(Contributor... contributors) {
+        this(Arrays.asList(contributors));
+    }
+
+    public FusedExtension(Iterable<? extends Contributor> contributors) {
+        this.contributors = ImmutableList.copyOf(contributors);
+    }
+
+    @Override
+    public boolean applicable(Context context) {
+        return !applicableContributors(context).isEmpty();
+    }
+
+    @Override
+    public boolean mustBeFinal(Context context) {
+        for (Contributor contributor : applicableContributors(context)) {
+            if (contributor.mustBeFinal(context)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        TypeSpec.Builder builder =
+                newUntrackedTypeSpecBuilder(context, className, classToExtend, isFinal);
+        // the footprint of each contributor is reported separately from this extension's class
+        boolean report = FootprintReport.enabled(context);
+        TypeSpec type = null;
+        if (report) {
+            type = builder.build();
+            FootprintReport.track(context, getClass().getName(), null, type);
+        }
+        for (Contributor contributor : applicableContributors(context)) {
+            contributor.contribute(context, builder);
+            if (report) {
+                TypeSpec contributed = builder.build();
+                FootprintReport.track(context, contributor.getClass().getName(), type, contributed);
+                type = contributed;
+            }
+        }
+        return JavaFile.builder(context.packageName(), builder.build()).build().toString();
+    }
+
+    private ImmutableList<Contributor> applicableContributors(Context context) {
+        ImmutableList.Builder<Contributor> applicable = ImmutableList.builder();
+        for (Contributor contributor : contributors) {
+            if (contributor.applicable(context)) {
+                applicable.add(contributor);
+            }
+        }
+        return applicable.build();
+    }
+}
@@ -0,0 +1,346 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.ExecutableElement;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getAutoValueClassClassName;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * Generates an immutable container that indexes a collection of instances of the AutoValue class
+ * by one or more key properties.
+ *
+ * Keys of type {@code int}, {@code long}, {@code short}, {@code byte} and {@code char} are stored
+ * in open addressing hash tables of primitive arrays with linear probing, so lookups neither box
+ * the key nor follow map entries. Keys of other types use a {@link HashMap}. Unique indexes
+ * return the single instance with the key or {@code null}, multi-valued indexes return all
+ * instances with the key in the order of the collection, or an empty list.
+ *
+ * <pre>
+ * static final class Index {
+ *   static Index build(Collection&lt;? extends Foo&gt; values) { ... }
+ *   Foo byId(int key) { ... }
+ *   List&lt;Foo&gt; byGroup(long key) { ... }
+ * }
+ * </pre>
+ */
+public final class Indexes {
+
+    private static final ClassName LIST = ClassName.get(List.class);
+    private static final ClassName ARRAY_LIST = ClassName.get(ArrayList.class);
+    private static final ClassName MAP = ClassName.get(Map.class);
+    private static final ClassName HASH_MAP = ClassName.get(HashMap.class);
+    private static final ClassName COLLECTIONS = ClassName.get(Collections.class);
+    private static final ClassName ARRAYS = ClassName.get(Arrays.class);
+
+    /**
+     * Creates a static nested class named {@code className} that indexes the properties which
+     * are annotated with an annotation named {@code annotationName}. The index of a property is
+     * unique if the annotation has a {@code boolean unique()} member that is true. Generic
+     * AutoValue classes are reported as errors.
+     *
+     * @see #newIndexClass(Context, String, List, List)
+     */
+    public static TypeSpec newIndexClass(
+            Context context, String className, String annotationName) {
+        ImmutableList.Builder<Property> uniqueKeys = ImmutableList.builder();
+        ImmutableList.Builder<Property> multiKeys = ImmutableList.builder();
+        for (Property property : Property.buildProperties(context)) {
+            AnnotationMirror annotation = findAnnotation(property, annotationName);
+            if (annotation == null) {
+                continue;
+            }
+            if (isUnique(context, annotation)) {
+                uniqueKeys.add(property);
+            } else {
+                multiKeys.add(property);
+            }
+        }
+        return newIndexClass(context, className, uniqueKeys.build(), multiKeys.build());
+    }
+
+    /**
+     * Creates a static nested class named {@code className} with a unique index for each
+     * property in {@code uniqueKeys} and a multi-valued index for each property in
+     * {@code multiKeys}. It has a static {@code build(Collection)} method and a lookup method
+     * named {@code by<Name>} for every key. {@code build} throws an
+     * {@link IllegalArgumentException} if two instances have the same key in a unique index.
+     * Generic AutoValue classes are reported as errors.
+     */
+    public static TypeSpec newIndexClass(Context context, String className,
+            List<Property> uniqueKeys, List<Property> multiKeys) {
+        TypeSpec.Builder builder = TypeSpec.classBuilder(className)
+                .addModifiers(STATIC, FINAL);
+        if (!context.autoValueClass().getTypeParameters().isEmpty()) {
+            context.processingEnvironment().getMessager().printMessage(ERROR,
+                    "Generic classes can't be indexed", context.autoValueClass());
+            return builder.build();
+        }
+        ClassName autoValueClass = getAutoValueClassClassName(context);
+        TypeName values = ParameterizedTypeName.get(ClassName.get(Collection.class),
+                WildcardTypeName.subtypeOf(autoValueClass));
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addModifiers(PRIVATE)
+                .addParameter(values, "values");
+        boolean primitiveKeys = false;
+        for (Property key : uniqueKeys) {
+            primitiveKeys |= addIndex(builder, constructor, autoValueClass, key, true);
+        }
+        for (Property key : multiKeys) {
+            primitiveKeys |= addIndex(builder, constructor, autoValueClass, key, false);
+        }
+        builder.addField(TypeName.INT, "size", PRIVATE, FINAL)
+                .addMethod(constructor.addStatement("this.size = values.size()").build())
+                .addMethod(MethodSpec.methodBuilder("build")
+                        .addModifiers(STATIC)
+                        .returns(ClassName.get("", className))
+                        .addParameter(values, "values")
+                        .addStatement("return new $N(values)", className)
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("size")
+                        .returns(TypeName.INT)
+                        .addStatement("return size")
+                        .build());
+        builder.addMethod(newTableSizeMethod());
+        if (primitiveKeys) {
+            builder.addMethod(newMixMethod(TypeName.INT))
+                    .addMethod(newMixMethod(TypeName.LONG));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Adds the fields, the code building the index and the lookup method for {@code key}.
+     * Returns true if the index uses a primitive table.
+     */
+    private static boolean addIndex(TypeSpec.Builder builder, MethodSpec.Builder constructor,
+            ClassName autoValueClass, Property key, boolean unique) {
+        String name = key.humanName();
+        String lookupName = "by" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, name);
+        TypeName keyType = primitiveKeyType(key);
+        TypeName resultType = unique
+                ? autoValueClass
+                : ParameterizedTypeName.get(LIST, autoValueClass);
+        MethodSpec.Builder lookup = MethodSpec.methodBuilder(lookupName)
+                .returns(resultType);
+        if (keyType == null) {
+            addMapIndex(builder, constructor, lookup, autoValueClass, key, unique);
+        } else if (unique) {
+            addUniqueTable(builder, constructor, lookup, autoValueClass, key, keyType);
+        } else {
+            addMultiTable(builder, constructor, lookup, autoValueClass, key, keyType);
+        }
+        builder.addMethod(lookup.build());
+        return keyType != null;
+    }
+
+    private static TypeName primitiveKeyType(Property key) {
+        TypeName type = key.returnType();
+        if (type.equals(TypeName.LONG)) {
+            return TypeName.LONG;
+        }
+        if (type.equals(TypeName.INT) || type.equals(TypeName.SHORT)
+                || type.equals(TypeName.BYTE) || type.equals(TypeName.CHAR)) {
+            return TypeName.INT;
+        }
+        return null;
+    }
+
+    private static void addUniqueTable(TypeSpec.Builder builder, MethodSpec.Builder constructor,
+            MethodSpec.Builder lookup, ClassName autoValueClass, Property key, TypeName keyType) {
+        String name = key.humanName();
+        String keys = name + "Keys";
+        String values = name + "Values";
+        String mask = name + "Mask";
+        builder.addField(ArrayTypeName.of(keyType), keys, PRIVATE, FINAL)
+                .addField(ArrayTypeName.of(autoValueClass), values, PRIVATE, FINAL);
+        constructor.addStatement("int $N = tableSize(values.size()) - 1", mask)
+                .addStatement("$N = new $T[$N + 1]", keys, keyType, mask)
+                .addStatement("$N = new $T[$N + 1]", values, autoValueClass, mask)
+                .beginControlFlow("for ($T value : values)", autoValueClass)
+                .addStatement("$T key = value.$N()", keyType, key.methodName())
+                .addStatement("int i = mix(key) & $N", mask)
+                .beginControlFlow("while ($N[i] != null)", values)
+                .beginControlFlow("if ($N[i] == key)", keys)
+                .addStatement("throw new $T($S + key)", IllegalArgumentException.class,
+                        "Duplicate " + name + ": ")
+                .endControlFlow()
+                .addStatement("i = (i + 1) & $N", mask)
+                .endControlFlow()
+                .addStatement("$N[i] = key", keys)
+                .addStatement("$N[i] = value", values)
+                .endControlFlow();
+        lookup.addParameter(key.returnType(), "key")
+                .addStatement("int mask = $N.length - 1", keys)
+                .beginControlFlow("for (int i = mix(key) & mask; $N[i] != null; "
+                        + "i = (i + 1) & mask)", values)
+                .beginControlFlow("if ($N[i] == key)", keys)
+                .addStatement("return $N[i]", values)
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return null");
+    }
+
+    /**
+     * Counts the instances per key in a first pass and copies them into one array per key in a
+     * second pass, so that no list has to grow.
+     */
+    private static void addMultiTable(TypeSpec.Builder builder, MethodSpec.Builder constructor,
+            MethodSpec.Builder lookup, ClassName autoValueClass, Property key, TypeName keyType) {
+        String name = key.humanName();
+        String keys = name + "Keys";
+        String values = name + "Values";
+        String mask = name + "Mask";
+        String counts = name + "Counts";
+        builder.addField(ArrayTypeName.of(keyType), keys, PRIVATE, FINAL)
+                .addField(ArrayTypeName.of(ArrayTypeName.of(autoValueClass)), values,
+                        PRIVATE, FINAL);
+        constructor.addStatement("int $N = tableSize(values.size()) - 1", mask)
+                .addStatement("$N = new $T[$N + 1]", keys, keyType, mask)
+                .addStatement("int[] $N = new int[$N + 1]", counts, mask)
+                .beginControlFlow("for ($T value : values)", autoValueClass)
+                .addStatement("$T key = value.$N()", keyType, key.methodName())
+                .addStatement("int i = mix(key) & $N", mask)
+                .beginControlFlow("while ($N[i] != 0 && $N[i] != key)", counts, keys)
+                .addStatement("i = (i + 1) & $N", mask)
+                .endControlFlow()
+                .addStatement("$N[i] = key", keys)
+                .addStatement("$N[i]++", counts)
+                .endControlFlow()
+                .addStatement("$N = new $T[$N + 1][]", values, autoValueClass, mask)
+                .beginControlFlow("for ($T value : values)", autoValueClass)
+                .addStatement("$T key = value.$N()", keyType, key.methodName())
+                .addStatement("int i = mix(key) & $N", mask)
+                .beginControlFlow("while ($N[i] != key)", keys)
+                .addStatement("i = (i + 1) & $N", mask)
+                .endControlFlow()
+                .beginControlFlow("if ($N[i] == null)", values)
+                .addStatement("$N[i] = new $T[$N[i]]", values, autoValueClass, counts)
+                .endControlFlow()
+                .addStatement("$N[i][$N[i].length - $N[i]--] = value", values, values, counts)
+                .endControlFlow();
+        lookup.addParameter(key.returnType(), "key")
+                .addStatement("int mask = $N.length - 1", keys)
+                .beginControlFlow("for (int i = mix(key) & mask; $N[i] != null; "
+                        + "i = (i + 1) & mask)", values)
+                .beginControlFlow("if ($N[i] == key)", keys)
+                .addStatement("return $T.unmodifiableList($T.asList($N[i]))", COLLECTIONS,
+                        ARRAYS, values)
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return $T.emptyList()", COLLECTIONS);
+    }
+
+    private static void addMapIndex(TypeSpec.Builder builder, MethodSpec.Builder constructor,
+            MethodSpec.Builder lookup, ClassName autoValueClass, Property key, boolean unique) {
+        String name = key.humanName();
+        String index = name + "Index";
+        TypeName keyType = key.returnType().box();
+        TypeName valueType = unique
+                ? autoValueClass
+                : ParameterizedTypeName.get(LIST, autoValueClass);
+        builder.addField(ParameterizedTypeName.get(MAP, keyType, valueType), index,
+                PRIVATE, FINAL);
+        constructor.addStatement("$N = new $T<>(tableSize(values.size()))", index, HASH_MAP)
+                .beginControlFlow("for ($T value : values)", autoValueClass)
+                .addStatement("$T key = value.$N()", keyType, key.methodName());
+        if (unique) {
+            constructor.beginControlFlow("if ($N.put(key, value) != null)", index)
+                    .addStatement("throw new $T($S + key)", IllegalArgumentException.class,
+                            "Duplicate " + name + ": ")
+                    .endControlFlow();
+        } else {
+            constructor.addStatement("$T list = $N.get(key)", valueType, index)
+                    .beginControlFlow("if (list == null)")
+                    .addStatement("list = new $T<>()", ARRAY_LIST)
+                    .addStatement("$N.put(key, list)", index)
+                    .endControlFlow()
+                    .addStatement("list.add(value)");
+        }
+        constructor.endControlFlow();
+        // the parameter has a fixed name, so that it can't clash with the locals
+        lookup.addParameter(key.returnType(), "key");
+        if (unique) {
+            lookup.addStatement("return $N.get(key)", index);
+        } else {
+            lookup.addStatement("$T list = $N.get(key)", valueType, index)
+                    .addStatement("return list != null ? $T.unmodifiableList(list) "
+                            + ": $T.<$T>emptyList()", COLLECTIONS, COLLECTIONS, autoValueClass);
+        }
+    }
+
+    private static MethodSpec newTableSizeMethod() {
+        return MethodSpec.methodBuilder("tableSize")
+                .addJavadoc("A power of two that keeps the load factor at or below 0.5.\n")
+                .addModifiers(PRIVATE, STATIC)
+                .returns(TypeName.INT)
+                .addParameter(TypeName.INT, "size")
+                .addStatement("int tableSize = 2")
+                .beginControlFlow("while (tableSize < size * 2)")
+                .addStatement("tableSize <<= 1")
+                .endControlFlow()
+                .addStatement("return tableSize")
+                .build();
+    }
+
+    private static MethodSpec newMixMethod(TypeName keyType) {
+        MethodSpec.Builder mix = MethodSpec.methodBuilder("mix")
+                .addModifiers(PRIVATE, STATIC)
+                .returns(TypeName.INT)
+                .addParameter(keyType, "key");
+        if (keyType.equals(TypeName.LONG)) {
+            mix.addStatement("int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9");
+        } else {
+            mix.addStatement("int h = key * 0x9E3779B9");
+        }
+        return mix.addStatement("return h ^ (h >>> 16)").build();
+    }
+
+    private static AnnotationMirror findAnnotation(Property property, String annotationName) {
+        for (AnnotationMirror mirror : property.element().getAnnotationMirrors()) {
+            String name = mirror.getAnnotationType().asElement().getSimpleName().toString();
+            if (annotationName.equals(name)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isUnique(Context context, AnnotationMirror annotation) {
+        Map<? extends ExecutableElement, ? extends AnnotationValue> values = context
+                .processingEnvironment().getElementUtils()
+                .getElementValuesWithDefaults(annotation);
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : values.entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals("unique")) {
+                return Boolean.TRUE.equals(entry.getValue().getValue());
+            }
+        }
+        return false;
+    }
+
+    private Indexes() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,360 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.error;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getAutoValueClassClassName;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newFinalClassConstructorCall;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * Generates a JSON writer and reader for the AutoValue class that don't use reflection.
+ *
+ * The writer appends directly to an {@link Appendable} and uses constants for the pre-escaped
+ * property names. The reader pulls values from a Gson {@code com.google.gson.stream.JsonReader},
+ * dispatches on the property names with a {@code switch} and creates the instance with
+ * {@link AutoValueUtil#newFinalClassConstructorCall(Context, Object[])}.
+ *
+ * Supported are properties of primitive and boxed types, {@link String} and {@code Optional}s of
+ * those. {@code null} and empty {@code Optional} values are written as {@code null}, unknown
+ * names are skipped when reading. {@code char} values are written as strings and reading a
+ * string that isn't exactly one character long throws an {@link IllegalStateException}, like
+ * {@code JsonReader} does for other values of the wrong type.
+ *
+ * This library doesn't depend on Gson. Code generated by extensions using {@code JsonCodec} needs
+ * {@code com.google.code.gson:gson} 2.3 or later on its compile and runtime classpath.
+ *
+ * <pre>
+ * static final class JsonCodec {
+ *   static void toJson(Foo value, Appendable out) throws IOException { ... }
+ *   static Foo fromJson(JsonReader reader) throws IOException { ... }
+ * }
+ * </pre>
+ */
+public final class JsonCodec {
+
+    private static final ClassName JSON_READER =
+            ClassName.get("com.google.gson.stream", "JsonReader");
+    private static final ClassName JSON_TOKEN =
+            ClassName.get("com.google.gson.stream", "JsonToken");
+    private static final ClassName APPENDABLE = ClassName.get(Appendable.class);
+    private static final ClassName IO_EXCEPTION = ClassName.get(IOException.class);
+    private static final ClassName STRING = ClassName.get(String.class);
+
+    private static final ImmutableMap<TypeName, String> READERS =
+            ImmutableMap.<TypeName, String>builder()
+                    .put(TypeName.BOOLEAN, "reader.nextBoolean()")
+                    .put(TypeName.BYTE, "(byte) reader.nextInt()")
+                    .put(TypeName.SHORT, "(short) reader.nextInt()")
+                    .put(TypeName.INT, "reader.nextInt()")
+                    .put(TypeName.LONG, "reader.nextLong()")
+                    .put(TypeName.CHAR, "readChar(reader)")
+                    .put(TypeName.FLOAT, "(float) reader.nextDouble()")
+                    .put(TypeName.DOUBLE, "reader.nextDouble()")
+                    .put(STRING, "reader.nextString()")
+                    .build();
+
+    /**
+     * Creates a static nested class named {@code className} with a {@code toJson} and a
+     * {@code fromJson} method for the AutoValue class. It should be added to the class generated
+     * by the extension. Unsupported property types are reported as errors.
+     */
+    public static TypeSpec newJsonCodecClass(Context context, String className) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        TypeSpec.Builder builder = TypeSpec.classBuilder(className)
+                .addModifiers(STATIC, FINAL);
+        if (!context.autoValueClass().getTypeParameters().isEmpty()) {
+            context.processingEnvironment().getMessager().printMessage(ERROR,
+                    "Generic classes are not supported by JsonCodec", context.autoValueClass());
+            return builder.build();
+        }
+        for (Property property : properties) {
+            TypeName type = property.type().isBoxedPrimitive()
+                    ? property.type().unbox() : property.type();
+            if (!READERS.containsKey(type)) {
+                error(context, property, "Property type %s is not supported by JsonCodec",
+                        property.type());
+                return builder.build();
+            }
+        }
+
+        List<FieldSpec> names = nameTokens(properties);
+        CodeBlock writeString = SharedHelpers.get(context)
+                .request(context, builder, SharedHelpers.WRITE_JSON_STRING);
+        builder.addFields(names)
+                .addMethod(newToJsonMethod(builder, context, properties, names, writeString))
+                .addMethod(newFromJsonMethod(context, properties));
+        for (Property property : properties) {
+            if (property.type().equals(TypeName.CHAR)
+                    || property.type().equals(TypeName.CHAR.box())) {
+                builder.addMethod(newReadCharMethod());
+                break;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * One constant per property containing the separator, the escaped name and the colon, the
+     * first one also contains the opening brace of the object.
+     */
+    private static List<FieldSpec> nameTokens(List<Property> properties) {
+        ImmutableList.Builder<FieldSpec> fields = ImmutableList.builder();
+        for (int i = 0; i < properties.size(); i++) {
+            String name = properties.get(i).humanName();
+            String token = (i == 0 ? "{" : ",") + "\"" + escape(name) + "\":";
+            fields.add(FieldSpec.builder(STRING, "NAME_" + i, PRIVATE, STATIC, FINAL)
+                    .initializer("$S", token)
+                    .build());
+        }
+        return fields.build();
+    }
+
+    private static MethodSpec newToJsonMethod(TypeSpec.Builder builder, Context context,
+            List<Property> properties, List<FieldSpec> names, CodeBlock writeString) {
+        ClassName autoValueClass = getAutoValueClassClassName(context);
+        MethodSpec.Builder method = MethodSpec.methodBuilder("toJson")
+                .addModifiers(STATIC)
+                .addParameter(autoValueClass, "value")
+                .addParameter(APPENDABLE, "out")
+                .addException(IO_EXCEPTION);
+        if (properties.isEmpty()) {
+            return method.addStatement("out.append($S)", "{}").build();
+        }
+        List<CodeBlock> blocks = new ArrayList<>();
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            CodeBlock.Builder block = CodeBlock.builder()
+                    .addStatement("out.append($N)", names.get(i));
+            CodeBlock get = CodeBlock.of("value.$N()", property.methodName());
+            if (property.optional()) {
+                block.beginControlFlow("if ($L.isPresent())", get)
+                        .add(writeValue(property.type(),
+                                CodeBlock.of("$L.$L", get, property.optionalGet()), writeString))
+                        .nextControlFlow("else")
+                        .addStatement("out.append($S)", "null")
+                        .endControlFlow();
+            } else if (!property.type().isPrimitive()) {
+                block.beginControlFlow("if ($L != null)", get)
+                        .add(writeValue(property.type(), get, writeString))
+                        .nextControlFlow("else")
+                        .addStatement("out.append($S)", "null")
+                        .endControlFlow();
+            } else {
+                block.add(writeValue(property.type(), get, writeString));
+            }
+            blocks.add(block.build());
+        }
+        CodeBlock body = MethodSplitter.create(builder, "toJson")
+                .addModifiers(STATIC)
+                .addParameter(autoValueClass, "value")
+                .addParameter(APPENDABLE, "out")
+                .addException(IO_EXCEPTION)
+                .statements(blocks);
+        return method.addCode(body)
+                .addStatement("out.append('}')")
+                .build();
+    }
+
+    private static CodeBlock writeValue(TypeName type, CodeBlock value, CodeBlock writeString) {
+        TypeName primitive = type.isBoxedPrimitive() ? type.unbox() : type;
+        if (primitive.equals(STRING)) {
+            return CodeBlock.builder().addStatement("$L($L, out)", writeString, value).build();
+        }
+        if (primitive.equals(TypeName.CHAR)) {
+            return CodeBlock.builder()
+                    .addStatement("$L($T.valueOf($L), out)", writeString, STRING, value)
+                    .build();
+        }
+        if (primitive.equals(TypeName.FLOAT) || primitive.equals(TypeName.DOUBLE)) {
+            // NaN and infinity can't be represented in JSON
+            TypeName boxed = primitive.box();
+            return CodeBlock.builder()
+                    .beginControlFlow("if ($T.isNaN($L) || $T.isInfinite($L))",
+                            boxed, value, boxed, value)
+                    .addStatement("throw new $T($S + $L)", IllegalArgumentException.class,
+                            "Numeric values must be finite, but was ", value)
+                    .endControlFlow()
+                    .addStatement("out.append($T.toString($L))", boxed, value)
+                    .build();
+        }
+        return CodeBlock.builder()
+                .addStatement("out.append($T.toString($L))", primitive.box(), value)
+                .build();
+    }
+
+    private static MethodSpec newFromJsonMethod(Context context, List<Property> properties) {
+        MethodSpec.Builder method = MethodSpec.methodBuilder("fromJson")
+                .addModifiers(STATIC)
+                .returns(getAutoValueClassClassName(context))
+                .addParameter(JSON_READER, "reader")
+                .addException(IO_EXCEPTION);
+
+        String[] names = new String[properties.size()];
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            names[i] = localName(property);
+            method.addStatement("$T $N = $L", property.returnType(), names[i],
+                    defaultValue(property));
+        }
+
+        method.addStatement("reader.beginObject()")
+                .beginControlFlow("while (reader.hasNext())")
+                .beginControlFlow("switch (reader.nextName())");
+        for (Property property : properties) {
+            method.addCode("case $S:\n", property.humanName()).addCode("$>");
+            method.addCode(readValue(property));
+            method.addStatement("break").addCode("$<");
+        }
+        method.addCode("default:\n$>")
+                .addStatement("reader.skipValue()")
+                .addCode("$<")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("reader.endObject()")
+                .addCode("return ")
+                .addCode(newFinalClassConstructorCall(context, names));
+        return method.build();
+    }
+
+    private static CodeBlock defaultValue(Property property) {
+        if (property.optional()) {
+            return CodeBlock.of(property.optionalEmpty(), rawType(property.returnType()));
+        }
+        TypeName type = property.type();
+        if (type.equals(TypeName.BOOLEAN)) {
+            return CodeBlock.of("false");
+        }
+        if (type.isPrimitive()) {
+            return CodeBlock.of("0");
+        }
+        return CodeBlock.of("null");
+    }
+
+    private static CodeBlock readValue(Property property) {
+        TypeName type = property.type();
+        String read = READERS.get(type.isBoxedPrimitive() ? type.unbox() : type);
+        String name = localName(property);
+        CodeBlock.Builder code = CodeBlock.builder();
+        if (type.isPrimitive() && !property.optional()) {
+            return code.addStatement("$N = " + read, name).build();
+        }
+        code.beginControlFlow("if (reader.peek() == $T.NULL)", JSON_TOKEN)
+                .addStatement("reader.nextNull()")
+                .addStatement("$N = $L", name, defaultValue(property))
+                .nextControlFlow("else");
+        if (property.optional()) {
+            code.addStatement("$N = $T.of(" + read + ")", name, rawType(property.returnType()));
+        } else {
+            code.addStatement("$N = " + read, name);
+        }
+        return code.endControlFlow().build();
+    }
+
+    /**
+     * The name of the local variable for {@code property} in {@code fromJson}, prefixed so that
+     * it can't clash with the {@code reader} parameter.
+     */
+    private static String localName(Property property) {
+        String name = property.humanName();
+        return "read" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static MethodSpec newReadCharMethod() {
+        return MethodSpec.methodBuilder("readChar")
+                .addModifiers(PRIVATE, STATIC)
+                .returns(TypeName.CHAR)
+                .addParameter(JSON_READER, "reader")
+                .addException(IO_EXCEPTION)
+                .addStatement("$T value = reader.nextString()", STRING)
+                .beginControlFlow("if (value.length() != 1)")
+                .addStatement("throw new $T($S + value + $S + reader.getPath())",
+                        IllegalStateException.class, "Expected a char but was \"",
+                        "\" at path ")
+                .endControlFlow()
+                .addStatement("return value.charAt(0)")
+                .build();
+    }
+
+    private static ClassName rawType(TypeName typeName) {
+        if (typeName instanceof ParameterizedTypeName) {
+            return ((ParameterizedTypeName) typeName).rawType;
+        }
+        return (ClassName) typeName;
+    }
+
+    /**
+     * A method {@code writeString(String, Appendable)} that writes the given string as a quoted
+     * and escaped JSON string, shared through {@link SharedHelpers#WRITE_JSON_STRING}.
+     */
+    static MethodSpec newWriteStringMethod() {
+        return MethodSpec.methodBuilder("writeString")
+                .addModifiers(STATIC)
+                .addParameter(STRING, "value")
+                .addParameter(APPENDABLE, "out")
+                .addException(IO_EXCEPTION)
+                .addStatement("out.append('\"')")
+                .addStatement("int start = 0")
+                .beginControlFlow("for (int i = 0, length = value.length(); i < length; i++)")
+                .addStatement("char c = value.charAt(i)")
+                .beginControlFlow("if (c >= ' ' && c != '\"' && c != '\\\\' "
+                        + "&& c != '\\u2028' && c != '\\u2029')")
+                .addStatement("continue")
+                .endControlFlow()
+                .addStatement("out.append(value, start, i)")
+                .beginControlFlow("switch (c)")
+                .addStatement("case '\"': out.append($S); break", "\\\"")
+                .addStatement("case '\\\\': out.append($S); break", "\\\\")
+                .addStatement("case '\\n': out.append($S); break", "\\n")
+                .addStatement("case '\\r': out.append($S); break", "\\r")
+                .addStatement("case '\\t': out.append($S); break", "\\t")
+                .addStatement("default: out.append($T.format($S, (int) c))",
+                        STRING, "\\u%04x")
+                .endControlFlow()
+                .addStatement("start = i + 1")
+                .endControlFlow()
+                .addStatement("out.append(value, start, value.length())")
+                .addStatement("out.append('\"')")
+                .build();
+    }
+
+    static String escape(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                default:
+                    if (c < ' ' || c == '\u2028' || c == '\u2029') {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        return builder.toString();
+    }
+
+    private JsonCodec() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,116 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeSpec;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import javax.lang.model.element.Modifier;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Generates nested holder classes for static fields that are expensive to initialize.
+ *
+ * Static fields of a generated class are initialized when the class is loaded, even if they are
+ * never used. Moving a field into a nested class defers its initialization until the first access
+ * of the field, because the JVM initializes the holder class only then.
+ *
+ * <pre>
+ * LazyHolder holder = LazyHolder.create("AdapterHolder");
+ * CodeBlock adapter = holder.add(adapterField);
+ * builder.addType(holder.build());
+ * builder.addMethod(MethodSpec.methodBuilder("adapter")
+ *         .addStatement("return $L", adapter)
+ *         ...);
+ * </pre>
+ */
+public final class LazyHolder {
+
+    /**
+     * Creates an empty holder class with the given simple name.
+     */
+    public static LazyHolder create(String holderName) {
+        return new LazyHolder(holderName);
+    }
+
+    /**
+     * Adds a holder class for {@code field} to {@code builder} and returns the code that references
+     * the field. The holder is named after the field, {@code TYPE_ADAPTER} is held by
+     * {@code TypeAdapterHolder}.
+     *
+     * @throws IllegalArgumentException if {@code field} is not static or has no initializer.
+     */
+    public static CodeBlock addHolder(TypeSpec.Builder builder, FieldSpec field) {
+        LazyHolder holder = create(holderName(field));
+        CodeBlock reference = holder.add(field);
+        builder.addType(holder.build());
+        return reference;
+    }
+
+    static String holderName(FieldSpec field) {
+        String name = field.name;
+        if (name.indexOf('_') >= 0 || name.equals(name.toUpperCase())) {
+            name = CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.UPPER_CAMEL, name);
+        } else {
+            name = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        }
+        return name + "Holder";
+    }
+
+    private final String holderName;
+    private final ImmutableList.Builder<FieldSpec> fields = ImmutableList.builder();
+
+    private LazyHolder(String holderName) {
+        this.holderName = holderName;
+    }
+
+    /**
+     * Adds {@code field} to this holder and returns the code that references it. A private
+     * {@code field} will be package-private inside the holder, so that accessing it from the
+     * enclosing class doesn't need a synthetic accessor method.
+     *
+     * @throws IllegalArgumentException if {@code field} is not static or has no initializer.
+     */
+    public CodeBlock add(FieldSpec field) {
+        if (!field.hasModifier(STATIC)) {
+            throw new IllegalArgumentException(field.name + " is not static");
+        }
+        if (field.initializer.isEmpty()) {
+            throw new IllegalArgumentException(field.name + " has no initializer");
+        }
+        Set<Modifier> modifiers = EnumSet.copyOf(field.modifiers);
+        modifiers.remove(PRIVATE);
+        FieldSpec.Builder moved = FieldSpec.builder(field.type, field.name)
+                .addModifiers(modifiers.toArray(new Modifier[modifiers.size()]))
+                .addAnnotations(field.annotations)
+                .initializer(field.initializer);
+        if (!field.javadoc.isEmpty()) {
+            moved.addJavadoc("$L", field.javadoc);
+        }
+        fields.add(moved.build());
+        return CodeBlock.of("$N.$N", holderName, field);
+    }
+
+    /**
+     * Builds the holder class. It should be added as a nested type of the class that uses the
+     * references returned by {@link #add(FieldSpec)}.
+     */
+    public TypeSpec build() {
+        List<FieldSpec> fieldSpecs = fields.build();
+        return TypeSpec.classBuilder(holderName)
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .addFields(fieldSpecs)
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(PRIVATE)
+                        .addStatement("throw new $T($S)", AssertionError.class, "No instances.")
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,430 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.FilerException;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getAutoValueClassClassName;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getFinalClassClassName;
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * Writes a small metadata file for each processed AutoValue class next to its class files and
+ * reads it back in later compilations, so that extensions that reference AutoValue classes from
+ * other modules don't have to analyze their elements again.
+ *
+ * The file is written to {@code META-INF/auto-value/<binary name>} in the class output and
+ * contains the AutoValue class, the final generated class and for each property its name, method
+ * name, whether it is {@code @Nullable} or optional, its {@link Property#type()} and
+ * {@link Property#returnType()}.
+ *
+ * <pre>
+ * autovalue-metadata 1
+ * class test/Foo
+ * final test/AutoValue_Foo
+ * property id id - int int
+ * property name getName n java.lang/String java.lang/String
+ * </pre>
+ *
+ * Lines are tab separated. Class names are written with a slash between the package and the
+ * simple names, so that nested classes can be told apart from packages.
+ */
+public final class MetadataIndex {
+
+    /**
+     * The directory of the metadata files in the class output and on the class path.
+     */
+    public static final String DIRECTORY = "META-INF/auto-value/";
+
+    private static final String HEADER = "autovalue-metadata 1";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Joiner TAB_JOINER = Joiner.on('\t');
+    private static final Splitter TAB_SPLITTER = Splitter.on('\t');
+
+    /**
+     * The metadata of an AutoValue class.
+     */
+    public static final class ClassMetadata {
+        private final ClassName autoValueClass;
+        private final ClassName finalClass;
+        private final ImmutableList<PropertyMetadata> properties;
+
+        ClassMetadata(ClassName autoValueClass, ClassName finalClass,
+                ImmutableList<PropertyMetadata> properties) {
+            this.autoValueClass = autoValueClass;
+            this.finalClass = finalClass;
+            this.properties = properties;
+        }
+
+        /**
+         * The AutoValue annotated class.
+         */
+        public ClassName autoValueClass() {
+            return autoValueClass;
+        }
+
+        /**
+         * The final class generated by AutoValue or the last extension.
+         */
+        public ClassName finalClass() {
+            return finalClass;
+        }
+
+        /**
+         * The properties in declaration order.
+         */
+        public ImmutableList<PropertyMetadata> properties() {
+            return properties;
+        }
+    }
+
+    /**
+     * The metadata of a property, the element-free part of a {@link Property}.
+     */
+    public static final class PropertyMetadata {
+        private final String humanName;
+        private final String methodName;
+        private final boolean nullable;
+        private final boolean optional;
+        private final TypeName type;
+        private final TypeName returnType;
+
+        PropertyMetadata(String humanName, String methodName, boolean nullable,
+                boolean optional, TypeName type, TypeName returnType) {
+            this.humanName = humanName;
+            this.methodName = methodName;
+            this.nullable = nullable;
+            this.optional = optional;
+            this.type = type;
+            this.returnType = returnType;
+        }
+
+        /**
+         * @see Property#humanName()
+         */
+        public String humanName() {
+            return humanName;
+        }
+
+        /**
+         * @see Property#methodName()
+         */
+        public String methodName() {
+            return methodName;
+        }
+
+        /**
+         * @see Property#nullable()
+         */
+        public boolean nullable() {
+            return nullable;
+        }
+
+        /**
+         * @see Property#optional()
+         */
+        public boolean optional() {
+            return optional;
+        }
+
+        /**
+         * @see Property#type()
+         */
+        public TypeName type() {
+            return type;
+        }
+
+        /**
+         * @see Property#returnType()
+         */
+        public TypeName returnType() {
+            return returnType;
+        }
+    }
+
+    /**
+     * Writes the metadata file for the AutoValue class. Writing it again for the same class, for
+     * example from a second extension, does nothing.
+     */
+    public static void write(Context context) {
+        Filer filer = context.processingEnvironment().getFiler();
+        String name = context.processingEnvironment().getElementUtils()
+                .getBinaryName(context.autoValueClass()).toString();
+        try {
+            FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "",
+                    DIRECTORY + name, context.autoValueClass());
+            try (Writer writer = new OutputStreamWriter(file.openOutputStream(), UTF_8)) {
+                writer.write(format(getAutoValueClassClassName(context),
+                        getFinalClassClassName(context), Property.buildProperties(context)));
+            }
+        } catch (FilerException e) {
+            // already written for this class
+        } catch (IOException e) {
+            context.processingEnvironment().getMessager().printMessage(ERROR,
+                    "Could not write metadata: " + e.getMessage(), context.autoValueClass());
+        }
+    }
+
+    /**
+     * Reads the metadata of {@code autoValueClass} from the class path. Returns absent if the
+     * class wasn't processed with {@link #write(Context)} or its module isn't on the class path.
+     * Returns absent and reports an error if the metadata file exists but can't be read.
+     *
+     * @throws IllegalArgumentException if the metadata file can't be parsed.
+     */
+    public static Optional<ClassMetadata> read(
+            ProcessingEnvironment processingEnvironment, ClassName autoValueClass) {
+        String name = autoValueClass.packageName().isEmpty()
+                ? Joiner.on('$').join(autoValueClass.simpleNames())
+                : autoValueClass.packageName() + "."
+                        + Joiner.on('$').join(autoValueClass.simpleNames());
+        FileObject file;
+        try {
+            file = processingEnvironment.getFiler()
+                    .getResource(StandardLocation.CLASS_PATH, "", DIRECTORY + name);
+        } catch (FileNotFoundException | NoSuchFileException | IllegalArgumentException e) {
+            return Optional.absent();
+        } catch (IOException e) {
+            return readFailed(processingEnvironment, name, e);
+        }
+        try (Reader reader = new InputStreamReader(file.openInputStream(), UTF_8)) {
+            return Optional.of(parse(reader));
+        } catch (IOException e) {
+            return readFailed(processingEnvironment, name, e);
+        }
+    }
+
+    private static Optional<ClassMetadata> readFailed(
+            ProcessingEnvironment processingEnvironment, String name, IOException e) {
+        processingEnvironment.getMessager().printMessage(ERROR,
+                "Could not read metadata of " + name + ": " + e.getMessage());
+        return Optional.absent();
+    }
+
+    static String format(ClassName autoValueClass, ClassName finalClass,
+            List<Property> properties) {
+        StringBuilder out = new StringBuilder(HEADER).append('\n');
+        out.append("class\t").append(encode(autoValueClass)).append('\n');
+        out.append("final\t").append(encode(finalClass)).append('\n');
+        for (Property property : properties) {
+            String flags = (property.nullable() ? "n" : "") + (property.optional() ? "o" : "");
+            out.append(TAB_JOINER.join("property", property.humanName(), property.methodName(),
+                    flags.isEmpty() ? "-" : flags, encode(property.type()),
+                    encode(property.returnType())))
+                    .append('\n');
+        }
+        return out.toString();
+    }
+
+    static ClassMetadata parse(Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        if (!HEADER.equals(lines.readLine())) {
+            throw new IllegalArgumentException("Unsupported metadata format");
+        }
+        ClassName autoValueClass = null;
+        ClassName finalClass = null;
+        ImmutableList.Builder<PropertyMetadata> properties = ImmutableList.builder();
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            List<String> parts = TAB_SPLITTER.splitToList(line);
+            switch (parts.get(0)) {
+                case "class":
+                    autoValueClass = (ClassName) decode(parts.get(1));
+                    break;
+                case "final":
+                    finalClass = (ClassName) decode(parts.get(1));
+                    break;
+                case "property":
+                    String flags = parts.get(3);
+                    properties.add(new PropertyMetadata(parts.get(1), parts.get(2),
+                            flags.contains("n"), flags.contains("o"),
+                            decode(parts.get(4)), decode(parts.get(5))));
+                    break;
+                default:
+                    // ignore lines added by newer versions
+            }
+        }
+        if (autoValueClass == null || finalClass == null) {
+            throw new IllegalArgumentException("Incomplete metadata");
+        }
+        return new ClassMetadata(autoValueClass, finalClass, properties.build());
+    }
+
+    /**
+     * Writes {@code type} in a form that {@link #decode(String)} can read back unambiguously:
+     * {@code java.util/Map.Entry<java.lang/String,+java.lang/Number>[]}.
+     */
+    static String encode(TypeName type) {
+        if (type instanceof ArrayTypeName) {
+            return encode(((ArrayTypeName) type).componentType) + "[]";
+        }
+        if (type instanceof ParameterizedTypeName) {
+            ParameterizedTypeName parameterized = (ParameterizedTypeName) type;
+            List<String> arguments = new ArrayList<>();
+            for (TypeName argument : parameterized.typeArguments) {
+                arguments.add(encode(argument));
+            }
+            return encode(parameterized.rawType) + "<" + Joiner.on(',').join(arguments) + ">";
+        }
+        if (type instanceof WildcardTypeName) {
+            WildcardTypeName wildcard = (WildcardTypeName) type;
+            if (!wildcard.lowerBounds.isEmpty()) {
+                return "-" + encode(wildcard.lowerBounds.get(0));
+            }
+            TypeName upperBound = wildcard.upperBounds.get(0);
+            return upperBound.equals(ClassName.OBJECT) ? "?" : "+" + encode(upperBound);
+        }
+        if (type instanceof ClassName) {
+            ClassName className = (ClassName) type;
+            return className.packageName() + "/" + Joiner.on('.').join(className.simpleNames());
+        }
+        if (type instanceof TypeVariableName) {
+            return "'" + ((TypeVariableName) type).name;
+        }
+        // primitives and void
+        return type.toString();
+    }
+
+    static TypeName decode(String encoded) {
+        TypeDecoder decoder = new TypeDecoder(encoded);
+        TypeName type = decoder.type();
+        if (decoder.position != encoded.length()) {
+            throw new IllegalArgumentException("Unexpected characters in " + encoded);
+        }
+        return type;
+    }
+
+    private static final class TypeDecoder {
+        private final String encoded;
+        int position;
+
+        TypeDecoder(String encoded) {
+            this.encoded = encoded;
+        }
+
+        TypeName type() {
+            TypeName type;
+            char c = peek();
+            if (c == '?') {
+                position++;
+                return WildcardTypeName.subtypeOf(Object.class);
+            } else if (c == '+') {
+                position++;
+                return WildcardTypeName.subtypeOf(type());
+            } else if (c == '-') {
+                position++;
+                return WildcardTypeName.supertypeOf(type());
+            } else if (c == '\'') {
+                position++;
+                type = TypeVariableName.get(name());
+            } else {
+                type = classOrPrimitive();
+            }
+            while (position < encoded.length() && encoded.startsWith("[]", position)) {
+                position += 2;
+                type = ArrayTypeName.of(type);
+            }
+            return type;
+        }
+
+        private TypeName classOrPrimitive() {
+            String name = name();
+            if (position == encoded.length() || peek() != '/') {
+                return primitive(name);
+            }
+            position++;
+            List<String> simpleNames = Splitter.on('.').splitToList(name());
+            ClassName className = ClassName.get(name, simpleNames.get(0),
+                    simpleNames.subList(1, simpleNames.size()).toArray(new String[0]));
+            if (position == encoded.length() || peek() != '<') {
+                return className;
+            }
+            position++;
+            List<TypeName> arguments = new ArrayList<>();
+            do {
+                arguments.add(type());
+            } while (consume(','));
+            if (!consume('>')) {
+                throw new IllegalArgumentException("Expected > in " + encoded);
+            }
+            return ParameterizedTypeName.get(className,
+                    arguments.toArray(new TypeName[arguments.size()]));
+        }
+
+        private String name() {
+            int start = position;
+            while (position < encoded.length()
+                    && "/<>,[]".indexOf(encoded.charAt(position)) < 0) {
+                position++;
+            }
+            return encoded.substring(start, position);
+        }
+
+        private char peek() {
+            if (position >= encoded.length()) {
+                throw new IllegalArgumentException("Unexpected end of " + encoded);
+            }
+            return encoded.charAt(position);
+        }
+
+        private boolean consume(char c) {
+            if (position < encoded.length() && encoded.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private TypeName primitive(String name) {
+            switch (name) {
+                case "boolean":
+                    return TypeName.BOOLEAN;
+                case "byte":
+                    return TypeName.BYTE;
+                case "short":
+                    return TypeName.SHORT;
+                case "int":
+                    return TypeName.INT;
+                case "long":
+                    return TypeName.LONG;
+                case "char":
+                    return TypeName.CHAR;
+                case "float":
+                    return TypeName.FLOAT;
+                case "double":
+                    return TypeName.DOUBLE;
+                case "void":
+                    return TypeName.VOID;
+                default:
+                    throw new IllegalArgumentException("Unknown type " + name + " in " + encoded);
+            }
+        }
+    }
+
+    private MetadataIndex() {
+        throw new AssertionError("No instances.");
+    }
+}
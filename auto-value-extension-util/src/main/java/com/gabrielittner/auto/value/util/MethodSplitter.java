@@ -0,0 +1,216 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.lang.reflect.Type;
+import java.util.List;
+import javax.lang.model.element.Modifier;
+
+import static javax.lang.model.element.Modifier.PRIVATE;
+
+/**
+ * Splits generated method bodies into chunks that are moved into private methods.
+ *
+ * HotSpot doesn't JIT compile methods with more than 8000 bytes of bytecode and inlines large
+ * methods badly, so the bodies of {@code equals()}, codecs and similar methods of classes with
+ * hundreds of properties run interpreted. Bodies with at most {@link #chunkSize(int)} parts are
+ * returned unchanged, larger ones are split into methods named {@code methodName$0},
+ * {@code methodName$1}, ... that are added to the {@link TypeSpec.Builder}.
+ *
+ * <pre>
+ * MethodSplitter splitter = MethodSplitter.create(builder, "toJson")
+ *         .addModifiers(STATIC)
+ *         .addParameter(fooClass, "value")
+ *         .addParameter(Appendable.class, "out")
+ *         .addException(IOException.class);
+ * toJson.addCode(splitter.statements(blocks));
+ * </pre>
+ */
+public final class MethodSplitter {
+
+    /**
+     * The number of parts each chunk has by default.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+
+    /**
+     * The maximum number of parameter slots of a method, including {@code this}.
+     */
+    public static final int MAX_PARAMETER_SLOTS = 255;
+
+    /**
+     * Creates a splitter that adds the chunk methods for {@code methodName} to {@code builder}.
+     */
+    public static MethodSplitter create(TypeSpec.Builder builder, String methodName) {
+        return new MethodSplitter(builder, methodName);
+    }
+
+    /**
+     * Returns the number of parameter slots that a method with parameters of the given
+     * {@code types} uses. {@code long} and {@code double} take two slots, instance methods and
+     * constructors take another one for {@code this}.
+     */
+    public static int parameterSlots(Iterable<? extends TypeName> types, boolean isStatic) {
+        int slots = isStatic ? 0 : 1;
+        for (TypeName type : types) {
+            slots += type.equals(TypeName.LONG) || type.equals(TypeName.DOUBLE) ? 2 : 1;
+        }
+        return slots;
+    }
+
+    private final TypeSpec.Builder builder;
+    private final String methodName;
+    private final List<Modifier> modifiers = Lists.newArrayList(PRIVATE);
+    private final List<ParameterSpec> parameters = Lists.newArrayList();
+    private final List<TypeName> exceptions = Lists.newArrayList();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int chunks;
+
+    private MethodSplitter(TypeSpec.Builder builder, String methodName) {
+        this.builder = builder;
+        this.methodName = methodName;
+    }
+
+    /**
+     * Adds modifiers like {@code static} to the chunk methods, they are always private.
+     */
+    public MethodSplitter addModifiers(Modifier... modifiers) {
+        for (Modifier modifier : modifiers) {
+            this.modifiers.add(modifier);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a parameter to the chunk methods. Every variable that is referenced by the parts
+     * must be passed as a parameter.
+     */
+    public MethodSplitter addParameter(TypeName type, String name) {
+        parameters.add(ParameterSpec.builder(type, name).build());
+        return this;
+    }
+
+    public MethodSplitter addParameter(Type type, String name) {
+        return addParameter(TypeName.get(type), name);
+    }
+
+    /**
+     * Adds a checked exception that the parts throw to the chunk methods.
+     */
+    public MethodSplitter addException(TypeName exception) {
+        exceptions.add(exception);
+        return this;
+    }
+
+    public MethodSplitter addException(Type exception) {
+        return addException(TypeName.get(exception));
+    }
+
+    /**
+     * Sets the maximum number of parts per chunk, {@link #DEFAULT_CHUNK_SIZE} by default.
+     */
+    public MethodSplitter chunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize < 1: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Returns code that executes {@code blocks}, each of which contains complete statements, in
+     * order. The blocks can't declare local variables that are used by later blocks.
+     */
+    public CodeBlock statements(List<CodeBlock> blocks) {
+        if (blocks.size() <= chunkSize) {
+            return join(blocks, "");
+        }
+        CodeBlock.Builder calls = CodeBlock.builder();
+        for (List<CodeBlock> chunk : Lists.partition(blocks, chunkSize)) {
+            MethodSpec method = add(newChunk(TypeName.VOID).addCode(join(chunk, "")).build());
+            calls.addStatement("$N($L)", method, arguments());
+        }
+        return calls.build();
+    }
+
+    /**
+     * Returns a {@code boolean} expression that is true if all {@code conditions} are true. The
+     * conditions are evaluated in order until one is false.
+     */
+    public CodeBlock conjunction(List<CodeBlock> conditions) {
+        if (conditions.isEmpty()) {
+            return CodeBlock.of("true");
+        }
+        if (conditions.size() <= chunkSize) {
+            return join(conditions, "\n&& ");
+        }
+        ImmutableList.Builder<CodeBlock> calls = ImmutableList.builder();
+        for (List<CodeBlock> chunk : Lists.partition(conditions, chunkSize)) {
+            MethodSpec method = add(newChunk(TypeName.BOOLEAN)
+                    .addStatement("return $L", join(chunk, "\n&& "))
+                    .build());
+            calls.add(CodeBlock.of("$N($L)", method, arguments()));
+        }
+        return join(calls.build(), "\n&& ");
+    }
+
+    /**
+     * Returns code that executes {@code blocks}, each of which contains complete statements that
+     * update the local variable {@code accumulator} of type {@code type}, in order. The variable
+     * has to be declared before the returned code.
+     */
+    public CodeBlock fold(TypeName type, String accumulator, List<CodeBlock> blocks) {
+        if (blocks.size() <= chunkSize) {
+            return join(blocks, "");
+        }
+        CodeBlock.Builder calls = CodeBlock.builder();
+        for (List<CodeBlock> chunk : Lists.partition(blocks, chunkSize)) {
+            MethodSpec method = add(newChunk(type)
+                    .addParameter(type, accumulator)
+                    .addCode(join(chunk, ""))
+                    .addStatement("return $N", accumulator)
+                    .build());
+            CodeBlock arguments = arguments();
+            calls.addStatement("$N = $N($L$L$N)", accumulator, method, arguments,
+                    arguments.isEmpty() ? "" : ", ", accumulator);
+        }
+        return calls.build();
+    }
+
+    private MethodSpec.Builder newChunk(TypeName returnType) {
+        return MethodSpec.methodBuilder(methodName + "$" + chunks++)
+                .addModifiers(modifiers)
+                .returns(returnType)
+                .addParameters(parameters)
+                .addExceptions(exceptions);
+    }
+
+    private MethodSpec add(MethodSpec method) {
+        builder.addMethod(method);
+        return method;
+    }
+
+    private CodeBlock arguments() {
+        CodeBlock.Builder arguments = CodeBlock.builder();
+        for (int i = 0; i < parameters.size(); i++) {
+            arguments.add(i == 0 ? "$N" : ", $N", parameters.get(i));
+        }
+        return arguments.build();
+    }
+
+    private static CodeBlock join(List<CodeBlock> blocks, String separator) {
+        CodeBlock.Builder code = CodeBlock.builder();
+        for (int i = 0; i < blocks.size(); i++) {
+            if (i > 0) {
+                code.add(separator);
+            }
+            code.add(blocks.get(i));
+        }
+        return code.build();
+    }
+}
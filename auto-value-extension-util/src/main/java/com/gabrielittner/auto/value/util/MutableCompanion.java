@@ -0,0 +1,172 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getAutoValueClassClassName;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newFinalClassConstructorCall;
+import static javax.lang.model.element.Modifier.ABSTRACT;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * Generates a mutable companion of the AutoValue class that can be filled field by field and
+ * reused, for example as the scratch object of a parser, and is only turned into an immutable
+ * instance when the value is complete.
+ *
+ * <pre>
+ * static final class FooMutable implements HasId {
+ *   private long id;
+ *   private String name;
+ *   FooMutable setId(long id) { ... }
+ *   FooMutable setName(String name) { ... }
+ *   public long id() { ... }
+ *   public String name() { ... }
+ *   FooMutable reset() { ... }
+ *   FooMutable copyFrom(Foo that) { ... }
+ *   Foo freeze() { ... }
+ * }
+ * </pre>
+ *
+ * The companion has a getter with the same name and return type for every property and
+ * implements the interfaces of the AutoValue class that only declare property getters, so code
+ * that only reads through such an interface can use it directly. It can't extend the AutoValue
+ * class itself, because it would then be equal to immutable instances.
+ */
+public final class MutableCompanion {
+
+    /**
+     * Creates a static nested class named {@code className} with a field, a setter and a getter
+     * for each property and {@code reset()}, {@code copyFrom(that)} and {@code freeze()}
+     * methods. {@code freeze} calls the constructor of the final generated class, so the
+     * extension has to return true from {@code mustBeFinal()} or be the last one in the chain.
+     * Generic AutoValue classes are reported as errors.
+     */
+    public static TypeSpec newMutableClass(Context context, String className) {
+        TypeSpec.Builder builder = TypeSpec.classBuilder(className)
+                .addModifiers(STATIC, FINAL);
+        if (!context.autoValueClass().getTypeParameters().isEmpty()) {
+            context.processingEnvironment().getMessager().printMessage(ERROR,
+                    "Generic classes are not supported by MutableCompanion",
+                    context.autoValueClass());
+            return builder.build();
+        }
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        ClassName self = ClassName.get("", className);
+        ClassName autoValueClass = getAutoValueClassClassName(context);
+        for (TypeMirror type : getterInterfaces(context)) {
+            builder.addSuperinterface(TypeName.get(type));
+        }
+
+        MethodSpec.Builder reset = MethodSpec.methodBuilder("reset")
+                .returns(self);
+        MethodSpec.Builder copyFrom = MethodSpec.methodBuilder("copyFrom")
+                .returns(self)
+                .addParameter(autoValueClass, "that");
+        String[] names = new String[properties.size()];
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            String name = property.humanName();
+            names[i] = name;
+            TypeName type = property.returnType();
+            builder.addField(FieldSpec.builder(type, name, PRIVATE).build());
+            builder.addMethod(MethodSpec.methodBuilder(setterName(property))
+                    .returns(self)
+                    .addParameter(type, name)
+                    .addStatement("this.$N = $N", name, name)
+                    .addStatement("return this")
+                    .build());
+            builder.addMethod(MethodSpec.methodBuilder(property.methodName())
+                    .addModifiers(PUBLIC)
+                    .returns(type)
+                    .addStatement("return $N", name)
+                    .build());
+            reset.addStatement("$N = $L", name, defaultValue(property));
+            copyFrom.addStatement("this.$N = that.$N()", name, property.methodName());
+        }
+        return builder
+                .addMethod(reset.addStatement("return this").build())
+                .addMethod(copyFrom.addStatement("return this").build())
+                .addMethod(MethodSpec.methodBuilder("freeze")
+                        .returns(autoValueClass)
+                        .addCode("return ")
+                        .addCode(newFinalClassConstructorCall(context, names))
+                        .build())
+                .build();
+    }
+
+    private static String setterName(Property property) {
+        return "set" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, property.humanName());
+    }
+
+    private static CodeBlock defaultValue(Property property) {
+        if (property.optional()) {
+            return CodeBlock.of(property.optionalEmpty(),
+                    CollectionKind.rawType(property.returnType()));
+        }
+        TypeName type = property.returnType();
+        if (type.equals(TypeName.BOOLEAN)) {
+            return CodeBlock.of("false");
+        }
+        if (type.isPrimitive()) {
+            return CodeBlock.of("0");
+        }
+        return CodeBlock.of("null");
+    }
+
+    /**
+     * The direct interfaces of the AutoValue class whose abstract methods, including inherited
+     * ones, are all property getters.
+     */
+    private static List<TypeMirror> getterInterfaces(Context context) {
+        Set<String> getters = new HashSet<>();
+        for (ExecutableElement method : context.properties().values()) {
+            getters.add(method.getSimpleName().toString());
+        }
+        ImmutableList.Builder<TypeMirror> interfaces = ImmutableList.builder();
+        for (TypeMirror type : context.autoValueClass().getInterfaces()) {
+            Element element = context.processingEnvironment().getTypeUtils().asElement(type);
+            if (element == null || element.getKind() != ElementKind.INTERFACE) {
+                continue;
+            }
+            List<? extends Element> members = context.processingEnvironment().getElementUtils()
+                    .getAllMembers((TypeElement) element);
+            boolean onlyGetters = true;
+            for (ExecutableElement method : ElementFilter.methodsIn(members)) {
+                if (method.getModifiers().contains(ABSTRACT)
+                        && (!method.getParameters().isEmpty()
+                                || !getters.contains(method.getSimpleName().toString()))) {
+                    onlyGetters = false;
+                    break;
+                }
+            }
+            if (onlyGetters) {
+                interfaces.add(type);
+            }
+        }
+        return interfaces.build();
+    }
+
+    private MutableCompanion() {
+        throw new AssertionError("No instances.");
+    }
+}
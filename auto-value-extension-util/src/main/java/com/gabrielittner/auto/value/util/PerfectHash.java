@@ -0,0 +1,346 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Generates lookups from a property name to the index of the property that use a minimal perfect
+ * hash computed at compile time, for decoders that have to resolve the names of every field of
+ * every record.
+ *
+ * The name is hashed like {@link String#hashCode()} with a multiplier that is chosen so that the
+ * hashes of all names are different, a per-bucket displacement maps
+ * the hash to a slot between 0 and the number of properties and a {@code switch} on the slot
+ * compares the name with the only property name that can be in it. A lookup doesn't allocate
+ * and compares at most one name. The {@code char[]} and {@code byte[]} variants work on a slice
+ * of a parser's buffer, the bytes are compared with the UTF-8 encoding of the names.
+ *
+ * <pre>
+ * static final class Names {
+ *   static int indexOf(CharSequence name) { ... }
+ *   static int indexOf(char[] chars, int offset, int length) { ... }
+ *   static int indexOf(byte[] bytes, int offset, int length) { ... }
+ * }
+ * </pre>
+ *
+ * The index is the position of the property in {@link Property#buildProperties(Context)} and the
+ * lookups return -1 for unknown names.
+ */
+public final class PerfectHash {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_DISPLACEMENT = 1 << 16;
+    private static final TypeName BYTE_ARRAYS = ArrayTypeName.of(ArrayTypeName.of(TypeName.BYTE));
+
+    /**
+     * Creates a static nested class named {@code className} with static {@code indexOf} methods
+     * for {@link CharSequence}s and {@code char[]} and {@code byte[]} slices that return the
+     * index of the property with the given {@link Property#humanName()}.
+     */
+    public static TypeSpec newNameIndexClass(Context context, String className) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        List<String> names = new ArrayList<>();
+        for (Property property : properties) {
+            names.add(property.humanName());
+        }
+        List<int[]> chars = new ArrayList<>();
+        List<int[]> bytes = new ArrayList<>();
+        boolean ascii = true;
+        for (String name : names) {
+            int[] units = new int[name.length()];
+            for (int i = 0; i < units.length; i++) {
+                units[i] = name.charAt(i);
+                ascii &= units[i] < 0x80;
+            }
+            chars.add(units);
+            byte[] utf8 = name.getBytes(UTF_8);
+            int[] byteUnits = new int[utf8.length];
+            for (int i = 0; i < utf8.length; i++) {
+                byteUnits[i] = utf8[i] & 0xff;
+            }
+            bytes.add(byteUnits);
+        }
+        Table charTable = compute(chars);
+        // the UTF-8 encoding of ASCII names has the same code units, so the slots are the same
+        Table byteTable = ascii ? charTable : compute(bytes);
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(className)
+                .addModifiers(STATIC, FINAL)
+                .addField(newDisplacementsField("CHAR_DISPLACEMENTS", charTable));
+        if (!ascii) {
+            builder.addField(newDisplacementsField("BYTE_DISPLACEMENTS", byteTable));
+        }
+        String byteDisplacements = ascii ? "CHAR_DISPLACEMENTS" : "BYTE_DISPLACEMENTS";
+        List<String> encoded = new ArrayList<>();
+        for (int[] units : bytes) {
+            List<String> values = new ArrayList<>();
+            for (int unit : units) {
+                values.add(String.valueOf((byte) unit));
+            }
+            encoded.add("{" + Joiner.on(", ").join(values) + "}");
+        }
+        builder.addField(FieldSpec.builder(BYTE_ARRAYS, "UTF8_NAMES", PRIVATE, STATIC, FINAL)
+                .initializer("{$L}", Joiner.on(", ").join(encoded))
+                .build());
+
+        MethodSpec.Builder charSequence = MethodSpec.methodBuilder("indexOf")
+                .addModifiers(STATIC)
+                .returns(TypeName.INT)
+                .addParameter(CharSequence.class, "name")
+                .addStatement("int h = 0")
+                .beginControlFlow("for (int i = 0, length = name.length(); i < length; i++)")
+                .addStatement("h = h * $L + name.charAt(i)", charTable.multiplier)
+                .endControlFlow();
+        MethodSpec.Builder charArray = MethodSpec.methodBuilder("indexOf")
+                .addModifiers(STATIC)
+                .returns(TypeName.INT)
+                .addParameter(char[].class, "chars")
+                .addParameter(TypeName.INT, "offset")
+                .addParameter(TypeName.INT, "length")
+                .addStatement("int h = 0")
+                .beginControlFlow("for (int i = offset, end = offset + length; i < end; i++)")
+                .addStatement("h = h * $L + chars[i]", charTable.multiplier)
+                .endControlFlow();
+        MethodSpec.Builder byteArray = MethodSpec.methodBuilder("indexOf")
+                .addModifiers(STATIC)
+                .returns(TypeName.INT)
+                .addParameter(byte[].class, "bytes")
+                .addParameter(TypeName.INT, "offset")
+                .addParameter(TypeName.INT, "length")
+                .addStatement("int h = 0")
+                .beginControlFlow("for (int i = offset, end = offset + length; i < end; i++)")
+                .addStatement("h = h * $L + (bytes[i] & 0xff)", byteTable.multiplier)
+                .endControlFlow();
+        if (names.isEmpty()) {
+            charSequence.addStatement("return -1");
+            charArray.addStatement("return -1");
+            byteArray.addStatement("return -1");
+        } else {
+            List<CodeBlock> charSequenceMatches = new ArrayList<>();
+            List<CodeBlock> charArrayMatches = new ArrayList<>();
+            List<CodeBlock> byteArrayMatches = new ArrayList<>();
+            for (int i = 0; i < names.size(); i++) {
+                charSequenceMatches.add(CodeBlock.of("$S.contentEquals(name)", names.get(i)));
+                charArrayMatches.add(
+                        CodeBlock.of("matches(chars, offset, length, $S)", names.get(i)));
+                byteArrayMatches.add(
+                        CodeBlock.of("matches(bytes, offset, length, UTF8_NAMES[$L])", i));
+            }
+            charSequence.addCode(newSwitch(charTable, "CHAR_DISPLACEMENTS", charSequenceMatches));
+            charArray.addCode(newSwitch(charTable, "CHAR_DISPLACEMENTS", charArrayMatches));
+            byteArray.addCode(newSwitch(byteTable, byteDisplacements, byteArrayMatches));
+        }
+        return builder
+                .addMethod(charSequence.build())
+                .addMethod(charArray.build())
+                .addMethod(byteArray.build())
+                .addMethod(newSlotMethod(names.size()))
+                .addMethod(MethodSpec.methodBuilder("matches")
+                        .addModifiers(PRIVATE, STATIC)
+                        .returns(TypeName.BOOLEAN)
+                        .addParameter(char[].class, "chars")
+                        .addParameter(TypeName.INT, "offset")
+                        .addParameter(TypeName.INT, "length")
+                        .addParameter(String.class, "name")
+                        .addCode(newMatchesBody("chars", "name.length()", "name.charAt(i)"))
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("matches")
+                        .addModifiers(PRIVATE, STATIC)
+                        .returns(TypeName.BOOLEAN)
+                        .addParameter(byte[].class, "bytes")
+                        .addParameter(TypeName.INT, "offset")
+                        .addParameter(TypeName.INT, "length")
+                        .addParameter(byte[].class, "name")
+                        .addCode(newMatchesBody("bytes", "name.length", "name[i]"))
+                        .build())
+                .build();
+    }
+
+    private static FieldSpec newDisplacementsField(String name, Table table) {
+        List<String> values = new ArrayList<>();
+        for (int displacement : table.displacements) {
+            values.add(String.valueOf(displacement));
+        }
+        return FieldSpec.builder(int[].class, name, PRIVATE, STATIC, FINAL)
+                .initializer("{$L}", Joiner.on(", ").join(values))
+                .build();
+    }
+
+    /**
+     * A switch on the slot of {@code h} with a case for every slot that returns the index of the
+     * key in it if {@code matches} of that key is true.
+     */
+    private static CodeBlock newSwitch(
+            Table table, String displacements, List<CodeBlock> matches) {
+        CodeBlock.Builder code = CodeBlock.builder()
+                .beginControlFlow("switch (slot(h, $N))", displacements);
+        for (int slot = 0; slot < table.slotToKey.length; slot++) {
+            int index = table.slotToKey[slot];
+            code.add("case $L:\n", slot)
+                    .indent()
+                    .addStatement("return $L ? $L : -1", matches.get(index), index)
+                    .unindent();
+        }
+        return code.add("default:\n")
+                .indent()
+                .addStatement("return -1")
+                .unindent()
+                .endControlFlow()
+                .build();
+    }
+
+    private static MethodSpec newSlotMethod(int size) {
+        return MethodSpec.methodBuilder("slot")
+                .addModifiers(PRIVATE, STATIC)
+                .returns(TypeName.INT)
+                .addParameter(TypeName.INT, "h")
+                .addParameter(int[].class, "displacements")
+                .addStatement("int x = (h ^ displacements[(h >>> 1) % displacements.length])"
+                        + " * 0x9E3779B9")
+                .addStatement("return ((x ^ (x >>> 16)) >>> 1) % $L", Math.max(size, 1))
+                .build();
+    }
+
+    private static CodeBlock newMatchesBody(String array, String nameLength, String nameAt) {
+        return CodeBlock.builder()
+                .beginControlFlow("if (length != $L)", nameLength)
+                .addStatement("return false")
+                .endControlFlow()
+                .beginControlFlow("for (int i = 0; i < length; i++)")
+                .beginControlFlow("if ($N[offset + i] != $L)", array, nameAt)
+                .addStatement("return false")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return true")
+                .build();
+    }
+
+    /**
+     * A minimal perfect hash for a set of keys. Every key is hashed with
+     * {@code h = h * multiplier + unit} starting with 0 and lands in
+     * {@code slot(h, displacements)}, {@link #slotToKey} is the index of the key in each slot.
+     */
+    static final class Table {
+        final int multiplier;
+        final int[] displacements;
+        final int[] slotToKey;
+
+        Table(int multiplier, int[] displacements, int[] slotToKey) {
+            this.multiplier = multiplier;
+            this.displacements = displacements;
+            this.slotToKey = slotToKey;
+        }
+    }
+
+    static Table compute(List<int[]> keys) {
+        // String.hashCode() first, equal hashes of distinct keys need another odd multiplier
+        for (int multiplier = 31; multiplier != 1; multiplier += 2) {
+            int[] hashes = new int[keys.size()];
+            Set<Integer> distinct = new HashSet<>();
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = hash(multiplier, keys.get(i));
+                distinct.add(hashes[i]);
+            }
+            if (distinct.size() < hashes.length) {
+                continue;
+            }
+            Table table = displace(multiplier, hashes);
+            if (table != null) {
+                return table;
+            }
+        }
+        throw new IllegalArgumentException("No perfect hash found, are the keys unique?");
+    }
+
+    static int hash(int multiplier, int[] units) {
+        int h = 0;
+        for (int unit : units) {
+            h = h * multiplier + unit;
+        }
+        return h;
+    }
+
+    static int slot(int h, int[] displacements, int size) {
+        int x = (h ^ displacements[(h >>> 1) % displacements.length]) * 0x9E3779B9;
+        return ((x ^ (x >>> 16)) >>> 1) % size;
+    }
+
+    /**
+     * Hash and displace: the keys are split into one bucket per key on average and, starting with
+     * the largest bucket, each bucket gets the smallest displacement that moves all its keys into
+     * free slots.
+     */
+    private static Table displace(int multiplier, int[] hashes) {
+        int size = Math.max(hashes.length, 1);
+        int[] displacements = new int[size];
+        final List<List<Integer>> buckets = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            buckets.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < hashes.length; i++) {
+            buckets.get((hashes[i] >>> 1) % size).add(i);
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return buckets.get(b).size() - buckets.get(a).size();
+            }
+        });
+        int[] slotToKey = new int[hashes.length];
+        boolean[] used = new boolean[size];
+        for (int bucket : order) {
+            List<Integer> members = buckets.get(bucket);
+            if (members.isEmpty()) {
+                break;
+            }
+            boolean placed = false;
+            for (int d = 0; d < MAX_DISPLACEMENT && !placed; d++) {
+                displacements[bucket] = d;
+                Set<Integer> slots = new HashSet<>();
+                placed = true;
+                for (int key : members) {
+                    int slot = slot(hashes[key], displacements, size);
+                    if (used[slot] || !slots.add(slot)) {
+                        placed = false;
+                        break;
+                    }
+                }
+            }
+            if (!placed) {
+                return null;
+            }
+            for (int key : members) {
+                int slot = slot(hashes[key], displacements, size);
+                used[slot] = true;
+                slotToKey[slot] = key;
+            }
+        }
+        return new Table(multiplier, displacements, slotToKey);
+    }
+
+    private PerfectHash() {
+        throw new AssertionError("No instances.");
+    }
+}
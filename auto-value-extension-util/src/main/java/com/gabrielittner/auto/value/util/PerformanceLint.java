@@ -0,0 +1,194 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.TypeName;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic;
+
+import static javax.tools.Diagnostic.Kind.WARNING;
+
+/**
+ * Estimates the memory footprint of AutoValue classes and reports properties that make instances
+ * more expensive than necessary:
+ *
+ * <ul>
+ *   <li>boxed primitives, which add an object of 16 bytes for most values,</li>
+ *   <li>{@code Optional} properties, which add an object of 16 bytes for every present value,</li>
+ *   <li>arrays, which AutoValue neither copies nor protects, so the factory and the getter have
+ *       to copy them or the property should be an immutable collection. Like AutoValue's own
+ *       warning this is suppressed by {@code @SuppressWarnings("mutable")},</li>
+ *   <li>classes with more than {@link #WIDE_CLASS_PROPERTIES} properties.</li>
+ * </ul>
+ *
+ * Findings are reported on the property, or on the class for wide classes, with the
+ * {@link Diagnostic.Kind} passed to {@link #check(Context, Diagnostic.Kind)} or set with the
+ * {@link #SEVERITY_OPTION} processor option. If the {@link #SUMMARY_OPTION} processor option is
+ * set {@link AutoValueUtilProcessor} writes a tab separated summary of all checked classes to
+ * that file at the end of processing:
+ *
+ * <pre>
+ * autoValueClass  properties  shallowBytes  boxed  optional  arrays  wide
+ * </pre>
+ */
+public final class PerformanceLint {
+
+    /**
+     * The processor option for the severity used by {@link #check(Context)}, the name of a
+     * {@link Diagnostic.Kind}. Defaults to {@link Diagnostic.Kind#WARNING}.
+     */
+    public static final String SEVERITY_OPTION = "autovalue.lint.severity";
+
+    /**
+     * The processor option for the path of the summary file.
+     */
+    public static final String SUMMARY_OPTION = "autovalue.lint.summary";
+
+    /**
+     * Classes with more properties than this are reported as wide.
+     */
+    public static final int WIDE_CLASS_PROPERTIES = 32;
+
+    // HotSpot on 64 bit with compressed oops and compressed class pointers
+    private static final int HEADER_BYTES = 12;
+    private static final int REFERENCE_BYTES = 4;
+    private static final int ALIGNMENT = 8;
+
+    private final Map<String, String> summaries = new TreeMap<>();
+
+    PerformanceLint() {}
+
+    static PerformanceLint get(ProcessingEnvironment processingEnvironment) {
+        return CompilationState.get(processingEnvironment).performanceLint;
+    }
+
+    /**
+     * Estimates the shallow size in bytes of an instance of the final generated class, assuming
+     * that the generated classes only have a field for each property.
+     */
+    public static int estimateShallowSize(List<Property> properties) {
+        int size = HEADER_BYTES;
+        for (Property property : properties) {
+            size += fieldSize(property.returnType());
+        }
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static int fieldSize(TypeName type) {
+        if (type.equals(TypeName.LONG) || type.equals(TypeName.DOUBLE)) {
+            return 8;
+        }
+        if (type.equals(TypeName.INT) || type.equals(TypeName.FLOAT)) {
+            return 4;
+        }
+        if (type.equals(TypeName.SHORT) || type.equals(TypeName.CHAR)) {
+            return 2;
+        }
+        if (type.equals(TypeName.BYTE) || type.equals(TypeName.BOOLEAN)) {
+            return 1;
+        }
+        return REFERENCE_BYTES;
+    }
+
+    /**
+     * Checks the AutoValue class with the severity from the {@link #SEVERITY_OPTION} processor
+     * option and returns the number of findings.
+     */
+    public static int check(Context context) {
+        String severity = context.processingEnvironment().getOptions().get(SEVERITY_OPTION);
+        Diagnostic.Kind kind = WARNING;
+        if (severity != null) {
+            try {
+                kind = Diagnostic.Kind.valueOf(severity.toUpperCase(Locale.US));
+            } catch (IllegalArgumentException e) {
+                context.processingEnvironment().getMessager().printMessage(WARNING,
+                        "Unknown " + SEVERITY_OPTION + " " + severity + ", using WARNING");
+            }
+        }
+        return check(context, kind);
+    }
+
+    /**
+     * Checks the AutoValue class, reports findings with {@code kind} and returns their number.
+     */
+    public static int check(Context context, Diagnostic.Kind kind) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        int boxed = 0;
+        int optional = 0;
+        int arrays = 0;
+        for (Property property : properties) {
+            TypeName type = property.returnType();
+            if (type.isBoxedPrimitive()) {
+                boxed++;
+                report(context, property, kind, "Property %s is a boxed %s, every value that "
+                        + "isn't cached by valueOf() is a separate object. Consider %s.",
+                        property.humanName(), type, type.unbox());
+            } else if (property.optional()) {
+                optional++;
+                report(context, property, kind, "Property %s is an Optional, every present value "
+                        + "is wrapped in a separate object. Consider a @Nullable property.",
+                        property.humanName());
+            } else if (type instanceof ArrayTypeName && !suppressesMutable(property.element())
+                    && !suppressesMutable(context.autoValueClass())) {
+                arrays++;
+                report(context, property, kind, "Property %s is an array that is shared with "
+                        + "callers. Copy it in the factory and the getter or use an immutable "
+                        + "collection.", property.humanName());
+            }
+        }
+        int size = estimateShallowSize(properties);
+        boolean wide = properties.size() > WIDE_CLASS_PROPERTIES;
+        if (wide) {
+            context.processingEnvironment().getMessager().printMessage(kind, String.format(
+                    "%d properties with an estimated instance size of %d bytes, consider "
+                            + "splitting the class", properties.size(), size),
+                    context.autoValueClass());
+        }
+        get(context.processingEnvironment()).add(
+                context.autoValueClass().getQualifiedName().toString(),
+                properties.size() + "\t" + size + "\t" + boxed + "\t" + optional + "\t"
+                        + arrays + "\t" + wide);
+        return boxed + optional + arrays + (wide ? 1 : 0);
+    }
+
+    private static boolean suppressesMutable(Element element) {
+        SuppressWarnings suppressWarnings = element.getAnnotation(SuppressWarnings.class);
+        return suppressWarnings != null
+                && Arrays.asList(suppressWarnings.value()).contains("mutable");
+    }
+
+    private static void report(Context context, Property property, Diagnostic.Kind kind,
+            String message, Object... args) {
+        context.processingEnvironment()
+                .getMessager()
+                .printMessage(kind, String.format(message, args), property.element());
+    }
+
+    private synchronized void add(String autoValueClass, String summary) {
+        summaries.put(autoValueClass, summary);
+    }
+
+    /**
+     * Writes the summary to the file named by {@link #SUMMARY_OPTION}, does nothing if it isn't
+     * set.
+     */
+    synchronized void write(ProcessingEnvironment processingEnvironment) {
+        String output = processingEnvironment.getOptions().get(SUMMARY_OPTION);
+        if (output == null) {
+            return;
+        }
+        StringBuilder summary = new StringBuilder(
+                "autoValueClass\tproperties\tshallowBytes\tboxed\toptional\tarrays\twide\n");
+        for (Map.Entry<String, String> entry : summaries.entrySet()) {
+            summary.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+        }
+        ReportWriter.write(processingEnvironment, output, "performance lint summary", summary);
+    }
+}
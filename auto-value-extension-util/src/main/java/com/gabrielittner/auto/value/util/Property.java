@@ -1,5 +1,6 @@
 package com.gabrielittner.auto.value.util;
 
+import com.google.auto.common.MoreElements;
 import com.google.auto.value.extension.AutoValueExtension;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -9,6 +10,7 @@ import java.util.Set;
 
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.TypeMirror;
 
 /**
@@ -41,31 +43,46 @@ public class Property {
         return values.build();
     }
 
+    /**
+     * Builds a List of {@link Property} for the given {@link AutoValueExtension.Context}. The type
+     * information of properties that are declared in class path types, like an interface from a
+     * library, is kept in {@code cache} across compilations.
+     */
+    public static ImmutableList<Property> buildProperties(
+            final AutoValueExtension.Context context, ClasspathCache cache) {
+        ImmutableList.Builder<Property> values = ImmutableList.builder();
+        for (Map.Entry<String, ExecutableElement> entry : context.properties().entrySet()) {
+            final ExecutableElement element = entry.getValue();
+            TypeElement declaringType = MoreElements.asType(element.getEnclosingElement());
+            Data data = cache.get(context.processingEnvironment(), declaringType,
+                    "property " + element.getSimpleName(),
+                    new ClasspathCache.Loader<Data>() {
+                        @Override
+                        public Data load(TypeElement type) {
+                            return new Data(context.processingEnvironment(), element);
+                        }
+                    });
+            values.add(new Property(entry.getKey(), element, data));
+        }
+        return values.build();
+    }
+
     private final String methodName;
     private final String humanName;
     private final ExecutableElement element;
-    private final TypeName type;
-    private final TypeName returnType;
-    private final Optionalish optionalish;
-    private final ImmutableSet<String> annotations;
+    private final Data data;
 
     public Property(ProcessingEnvironment processingEnvironment,
                     String humanName,
                     ExecutableElement element) {
+        this(humanName, element, new Data(processingEnvironment, element));
+    }
+
+    private Property(String humanName, ExecutableElement element, Data data) {
         this.methodName = element.getSimpleName().toString();
         this.humanName = humanName;
         this.element = element;
-
-        TypeMirror returnTypeMirror = element.getReturnType();
-        optionalish = Optionalish.createIfOptional(returnTypeMirror, "$T");
-        if (optionalish != null) {
-            type = TypeName.get(optionalish.getContainedType(processingEnvironment.getTypeUtils()));
-            returnType = TypeName.get(returnTypeMirror);
-        } else {
-            type = returnType = TypeName.get(returnTypeMirror);
-        }
-
-        annotations = ElementUtil.buildAnnotations(element);
+        this.data = data;
     }
 
     /**
@@ -108,14 +125,14 @@ public class Property {
      * </ul>
      */
     public TypeName type() {
-        return type;
+        return data.type;
     }
 
     /**
      * The return type of the property.
      */
     public TypeName returnType() {
-        return returnType;
+        return data.returnType;
     }
 
     /**
@@ -128,7 +145,7 @@ public class Property {
      * If the property is not optional, this method returns null.
      */
     public String optionalEmpty() {
-        return optionalish != null ? optionalish.getEmpty() : null;
+        return data.optionalEmpty;
     }
 
     /**
@@ -140,21 +157,21 @@ public class Property {
      * If the property is not optional, this method returns null.
      */
     public String optionalGet() {
-        return optionalish != null ? optionalish.getGet() : null;
+        return data.optionalGet;
     }
 
     /**
      * The set of annotations present on the original property.
      */
     public Set<String> annotations() {
-        return annotations;
+        return data.annotations;
     }
 
     /**
      * True if the property can be null.
      */
     public Boolean nullable() {
-        return annotations.contains("Nullable");
+        return data.annotations.contains("Nullable");
     }
 
     /**
@@ -163,6 +180,73 @@ public class Property {
      * @see #type()
      */
     public boolean optional() {
-        return optionalish != null;
+        return data.optionalGet != null;
+    }
+
+    /**
+     * The kind of collection of the property's {@link #type()}, {@link CollectionKind#NONE} if
+     * it's not a collection or array.
+     *
+     * Recognized are arrays, the Guava immutable collections and the {@code java.util}
+     * {@link java.util.Collection}, {@link java.util.List}, {@link java.util.Set},
+     * {@link java.util.SortedSet}, {@link java.util.NavigableSet}, {@link java.util.Map},
+     * {@link java.util.SortedMap} and {@link java.util.NavigableMap} interfaces.
+     */
+    public CollectionKind collectionKind() {
+        return data.collectionKind;
+    }
+
+    /**
+     * True if the property's {@link #type()} is one of the Guava immutable collections, which
+     * don't need to be copied defensively.
+     */
+    public boolean immutableCollection() {
+        return data.immutableCollection;
+    }
+
+    /**
+     * The element types of the property's {@link #type()}: the component type of arrays, the
+     * element type of collections and the key and value types of maps. Wildcards are replaced by
+     * their bound. Empty if the property is not a collection.
+     */
+    public ImmutableList<TypeName> elementTypes() {
+        return data.elementTypes;
+    }
+
+    /**
+     * The information about the property that doesn't reference the current compilation and can
+     * be kept in a {@link ClasspathCache}.
+     */
+    private static final class Data {
+        final TypeName type;
+        final TypeName returnType;
+        final String optionalEmpty;
+        final String optionalGet;
+        final ImmutableSet<String> annotations;
+        final CollectionKind collectionKind;
+        final boolean immutableCollection;
+        final ImmutableList<TypeName> elementTypes;
+
+        Data(ProcessingEnvironment processingEnvironment, ExecutableElement element) {
+            TypeMirror returnTypeMirror = element.getReturnType();
+            Optionalish optionalish = Optionalish.createIfOptional(returnTypeMirror, "$T");
+            if (optionalish != null) {
+                type = TypeName.get(
+                        optionalish.getContainedType(processingEnvironment.getTypeUtils()));
+                returnType = TypeName.get(returnTypeMirror);
+                optionalEmpty = optionalish.getEmpty();
+                optionalGet = optionalish.getGet();
+            } else {
+                type = returnType = TypeName.get(returnTypeMirror);
+                optionalEmpty = null;
+                optionalGet = null;
+            }
+
+            annotations = ElementUtil.buildAnnotations(element);
+
+            collectionKind = CollectionKind.of(type);
+            immutableCollection = CollectionKind.isImmutable(type);
+            elementTypes = CollectionKind.elementTypes(collectionKind, type);
+        }
     }
 }
@@ -0,0 +1,46 @@
+package com.gabrielittner.auto.value.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import javax.annotation.processing.ProcessingEnvironment;
+
+import static javax.tools.Diagnostic.Kind.WARNING;
+
+/**
+ * Writes the reports that are enabled with processor options, like the {@link FootprintReport}
+ * and the {@link PerformanceLint} summary, to the path given in the option.
+ */
+final class ReportWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Writes {@code content} to the file at {@code path} and creates its parent directories. If
+     * that fails a warning that names the {@code report} is reported, the compilation doesn't
+     * fail because of a report.
+     */
+    static void write(ProcessingEnvironment processingEnvironment, String path, String report,
+            CharSequence content) {
+        File file = new File(path);
+        File parent = file.getAbsoluteFile().getParentFile();
+        try {
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Could not create " + parent);
+            }
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8)) {
+                writer.append(content);
+            }
+        } catch (IOException e) {
+            processingEnvironment.getMessager().printMessage(WARNING,
+                    "Could not write " + report + ": " + e.getMessage());
+        }
+    }
+
+    private ReportWriter() {
+        throw new AssertionError("No instances.");
+    }
+}
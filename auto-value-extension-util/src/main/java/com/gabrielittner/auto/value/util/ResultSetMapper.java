@@ -0,0 +1,201 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.error;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getAutoValueClassClassName;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newFinalClassConstructorCall;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * Generates a class that maps the rows of a {@link ResultSet} to instances of the AutoValue class.
+ *
+ * The generated class resolves the index of every column once in its constructor, using the
+ * {@link Property#humanName()} as column label, instead of looking the column up by name for every
+ * row. Primitive getters are used for primitive, boxed and primitive {@code Optional} properties,
+ * {@link ResultSet#wasNull()} turns SQL {@code NULL} into {@code null} or an empty
+ * {@code Optional}.
+ *
+ * <pre>
+ * static final class RowMapper {
+ *   RowMapper(ResultSet resultSet) throws SQLException { ... }
+ *   Foo map() throws SQLException { ... }
+ *   static List&lt;Foo&gt; mapAll(ResultSet resultSet, int expectedSize)
+ *       throws SQLException { ... }
+ * }
+ * </pre>
+ */
+public final class ResultSetMapper {
+
+    private static final ImmutableMap<TypeName, String> GETTERS =
+            ImmutableMap.<TypeName, String>builder()
+                    .put(TypeName.BOOLEAN, "getBoolean")
+                    .put(TypeName.BYTE, "getByte")
+                    .put(TypeName.SHORT, "getShort")
+                    .put(TypeName.INT, "getInt")
+                    .put(TypeName.LONG, "getLong")
+                    .put(TypeName.FLOAT, "getFloat")
+                    .put(TypeName.DOUBLE, "getDouble")
+                    .put(ClassName.get(String.class), "getString")
+                    .put(ArrayTypeName.of(TypeName.BYTE), "getBytes")
+                    .put(ClassName.get(BigDecimal.class), "getBigDecimal")
+                    .put(ClassName.get(Date.class), "getDate")
+                    .put(ClassName.get(Time.class), "getTime")
+                    .put(ClassName.get(Timestamp.class), "getTimestamp")
+                    .build();
+
+    private static final ClassName RESULT_SET = ClassName.get(ResultSet.class);
+    private static final ClassName SQL_EXCEPTION = ClassName.get(SQLException.class);
+
+    /**
+     * Creates a static nested class named {@code className} that maps rows of a {@link ResultSet}
+     * to the AutoValue class. It should be added to the class generated by the extension.
+     *
+     * Properties of types that can't be read from a {@link ResultSet} and generic AutoValue
+     * classes are reported as errors.
+     */
+    public static TypeSpec newRowMapperClass(Context context, String className) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        ClassName autoValueClass = getAutoValueClassClassName(context);
+        TypeSpec.Builder builder = TypeSpec.classBuilder(className)
+                .addModifiers(STATIC, FINAL);
+        if (!context.autoValueClass().getTypeParameters().isEmpty()) {
+            context.processingEnvironment().getMessager().printMessage(ERROR,
+                    "Generic classes can't be mapped from a ResultSet", context.autoValueClass());
+            return builder.build();
+        }
+
+        FieldSpec resultSet = FieldSpec.builder(RESULT_SET, "resultSet", PRIVATE, FINAL).build();
+        builder.addField(resultSet);
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addParameter(RESULT_SET, "resultSet")
+                .addException(SQL_EXCEPTION)
+                .addStatement("this.$N = resultSet", resultSet);
+        MethodSpec.Builder map = MethodSpec.methodBuilder("map")
+                .returns(autoValueClass)
+                .addException(SQL_EXCEPTION);
+
+        String[] names = new String[properties.size()];
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            FieldSpec index = FieldSpec.builder(TypeName.INT, property.humanName() + "Index",
+                    PRIVATE, FINAL).build();
+            builder.addField(index);
+            constructor.addStatement("this.$N = resultSet.findColumn($S)", index,
+                    property.humanName());
+            names[i] = localName("mapped", property);
+            map.addCode(readProperty(context, property, resultSet, index));
+        }
+        map.addCode("return ").addCode(newFinalClassConstructorCall(context, names));
+
+        return builder.addMethod(constructor.build())
+                .addMethod(map.build())
+                .addMethod(newMapAllMethod(className, autoValueClass))
+                .build();
+    }
+
+    private static CodeBlock readProperty(
+            Context context, Property property, FieldSpec resultSet, FieldSpec index) {
+        String name = localName("mapped", property);
+        TypeName returnType = property.returnType();
+        TypeName type = property.type();
+        TypeName primitive = type.isBoxedPrimitive() ? type.unbox() : type;
+        String getter = GETTERS.get(primitive);
+        if (getter == null) {
+            if (!(type instanceof ClassName)) {
+                error(context, property, "Property type %s can't be read from a ResultSet", type);
+                return CodeBlock.builder().addStatement("$T $N = null", returnType, name).build();
+            }
+            getter = "getObject";
+        }
+        CodeBlock read = "getObject".equals(getter)
+                ? CodeBlock.of("$N.getObject($N, $T.class)", resultSet, index, type)
+                : CodeBlock.of("$N.$L($N)", resultSet, getter, index);
+
+        CodeBlock.Builder code = CodeBlock.builder();
+        if (!property.optional() && (type.isPrimitive() || !primitive.isPrimitive())) {
+            // primitives can't be null and reference getters return null for SQL NULL
+            return code.addStatement("$T $N = $L", returnType, name, read).build();
+        }
+
+        String value = localName("raw", property);
+        code.addStatement("$T $N = $L", primitive, value, read);
+        code.addStatement("$T $N", returnType, name);
+        if (primitive.isPrimitive()) {
+            code.beginControlFlow("if ($N.wasNull())", resultSet);
+        } else {
+            code.beginControlFlow("if ($N == null)", value);
+        }
+        if (property.optional()) {
+            ClassName optionalClass = rawType(returnType);
+            code.addStatement("$N = " + property.optionalEmpty(), name, optionalClass)
+                    .nextControlFlow("else")
+                    .addStatement("$N = $T.of($N)", name, optionalClass, value);
+        } else {
+            code.addStatement("$N = null", name)
+                    .nextControlFlow("else")
+                    .addStatement("$N = $N", name, value);
+        }
+        return code.endControlFlow().build();
+    }
+
+    /**
+     * The name of a local variable in {@code map()} for {@code property}, prefixed so that it
+     * can't clash with the {@code resultSet} field or the locals of other properties.
+     */
+    private static String localName(String prefix, Property property) {
+        return prefix + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, property.humanName());
+    }
+
+    private static ClassName rawType(TypeName typeName) {
+        if (typeName instanceof ParameterizedTypeName) {
+            return ((ParameterizedTypeName) typeName).rawType;
+        }
+        return (ClassName) typeName;
+    }
+
+    private static MethodSpec newMapAllMethod(String className, ClassName autoValueClass) {
+        TypeName list = ParameterizedTypeName.get(ClassName.get(List.class), autoValueClass);
+        TypeName arrayList =
+                ParameterizedTypeName.get(ClassName.get(ArrayList.class), autoValueClass);
+        return MethodSpec.methodBuilder("mapAll")
+                .addModifiers(STATIC)
+                .returns(list)
+                .addParameter(RESULT_SET, "resultSet")
+                .addParameter(TypeName.INT, "expectedSize")
+                .addException(SQL_EXCEPTION)
+                .addStatement("$L mapper = new $L(resultSet)", className, className)
+                .addStatement("$T values = new $T(expectedSize)", list, arrayList)
+                .beginControlFlow("while (resultSet.next())")
+                .addStatement("values.add(mapper.map())")
+                .endControlFlow()
+                .addStatement("return values")
+                .build();
+    }
+
+    private ResultSetMapper() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,323 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.lang.model.type.TypeMirror;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getAutoValueClassClassName;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newFinalClassConstructorCall;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * Generates a serialization proxy for a {@link Serializable} AutoValue class, which writes the
+ * properties with the primitive {@link ObjectOutput} methods instead of letting default
+ * serialization describe and reflectively write every field of every class in the hierarchy.
+ *
+ * <pre>
+ * Object writeReplace() { return new Proxy(this); }
+ * private void readObject(ObjectInputStream in) throws InvalidObjectException { ... }
+ *
+ * static final class Proxy implements Externalizable {
+ *   private static final long serialVersionUID = -4316263471258183370L;
+ *   private Foo value;
+ *   public Proxy() {}
+ *   Proxy(Foo value) { ... }
+ *   public void writeExternal(ObjectOutput out) throws IOException { ... }
+ *   public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException { ... }
+ *   private Object readResolve() { return value; }
+ * }
+ * </pre>
+ *
+ * Primitives and boxed primitives are written with {@code writeInt}, {@code writeLong} and so on,
+ * strings and {@code byte[]} as length prefixed bytes and every other type with
+ * {@code writeObject}. {@code @Nullable} and {@code Optional} properties are prefixed with a
+ * presence flag. The value is rebuilt with the constructor of the final generated class, so the
+ * extension has to return true from {@code mustBeFinal()} or be the last one in the chain.
+ *
+ * The {@code serialVersionUID} of the proxy is a fingerprint of the class name and the names and
+ * types of all properties. It is written once per stream with the class descriptor and
+ * deserialization fails with an {@link java.io.InvalidClassException} if the properties of the
+ * class changed since the stream was written.
+ */
+public final class SerializationProxy {
+
+    private static final ImmutableMap<TypeName, String> PRIMITIVES =
+            ImmutableMap.<TypeName, String>builder()
+                    .put(TypeName.BOOLEAN, "Boolean")
+                    .put(TypeName.BYTE, "Byte")
+                    .put(TypeName.SHORT, "Short")
+                    .put(TypeName.CHAR, "Char")
+                    .put(TypeName.INT, "Int")
+                    .put(TypeName.LONG, "Long")
+                    .put(TypeName.FLOAT, "Float")
+                    .put(TypeName.DOUBLE, "Double")
+                    .build();
+    private static final TypeName STRING = ClassName.get(String.class);
+    private static final TypeName BYTES = ArrayTypeName.of(TypeName.BYTE);
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Adds a static nested {@link Externalizable} class named {@code className}, a
+     * {@code writeReplace()} method that returns an instance of it and a {@code readObject}
+     * method that rejects streams which contain the AutoValue class itself to {@code builder}.
+     * Generic AutoValue classes and classes that don't implement {@link Serializable} are
+     * reported as errors.
+     */
+    public static void addProxy(TypeSpec.Builder builder, Context context, String className) {
+        if (!context.autoValueClass().getTypeParameters().isEmpty()) {
+            context.processingEnvironment().getMessager().printMessage(ERROR,
+                    "Generic classes are not supported by SerializationProxy",
+                    context.autoValueClass());
+            return;
+        }
+        TypeMirror serializable = context.processingEnvironment().getElementUtils()
+                .getTypeElement(Serializable.class.getName()).asType();
+        if (!context.processingEnvironment().getTypeUtils()
+                .isAssignable(context.autoValueClass().asType(), serializable)) {
+            context.processingEnvironment().getMessager().printMessage(ERROR,
+                    "SerializationProxy requires a class that implements Serializable",
+                    context.autoValueClass());
+            return;
+        }
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        ClassName proxy = ClassName.get("", className);
+        builder.addMethod(MethodSpec.methodBuilder("writeReplace")
+                        .returns(Object.class)
+                        .addException(ObjectStreamException.class)
+                        .addStatement("return new $T(this)", proxy)
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("readObject")
+                        .addModifiers(PRIVATE)
+                        .addParameter(ObjectInputStream.class, "in")
+                        .addException(InvalidObjectException.class)
+                        .addStatement("throw new $T($S)", InvalidObjectException.class,
+                                "Proxy required")
+                        .build())
+                .addType(newProxyClass(context, properties, className));
+    }
+
+    private static TypeSpec newProxyClass(
+            Context context, List<Property> properties, String className) {
+        ClassName autoValueClass = getAutoValueClassClassName(context);
+        TypeSpec.Builder proxy = TypeSpec.classBuilder(className)
+                .addModifiers(STATIC, FINAL)
+                .addSuperinterface(Externalizable.class)
+                .addField(FieldSpec.builder(TypeName.LONG, "serialVersionUID",
+                        PRIVATE, STATIC, FINAL)
+                        .initializer("$LL", fingerprint(context, properties))
+                        .build())
+                .addField(autoValueClass, "value", PRIVATE)
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(PUBLIC)
+                        .build())
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addParameter(autoValueClass, "value")
+                        .addStatement("this.value = value")
+                        .build());
+
+        MethodSpec.Builder write = MethodSpec.methodBuilder("writeExternal")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .addParameter(ObjectOutput.class, "out")
+                .addException(IOException.class);
+        MethodSpec.Builder read = MethodSpec.methodBuilder("readExternal")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .addParameter(ObjectInput.class, "in")
+                .addException(IOException.class)
+                .addException(ClassNotFoundException.class);
+        List<CodeBlock> writes = new ArrayList<>();
+        boolean strings = false;
+        boolean bytes = false;
+        boolean unchecked = false;
+        String[] names = new String[properties.size()];
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            // prefixed, so that it can't clash with the value field or the in parameter
+            String name = "read" + capitalize(property.humanName());
+            names[i] = name;
+            TypeName type = property.type();
+            strings |= type.equals(STRING);
+            bytes |= type.equals(BYTES);
+            unchecked |= usesReadObject(type) && type instanceof ParameterizedTypeName;
+            CodeBlock getter = CodeBlock.of("value.$N()", property.methodName());
+            if (property.optional()) {
+                writes.add(CodeBlock.builder()
+                        .addStatement("out.writeBoolean($L.isPresent())", getter)
+                        .beginControlFlow("if ($L.isPresent())", getter)
+                        .add(write(type, CodeBlock.of("$L.$L", getter,
+                                property.optionalGet())))
+                        .endControlFlow()
+                        .build());
+                read.addStatement("$T $N", property.returnType(), name)
+                        .beginControlFlow("if (in.readBoolean())")
+                        .addStatement("$N = $T.of($L)", name,
+                                CollectionKind.rawType(property.returnType()), read(type))
+                        .nextControlFlow("else")
+                        .addStatement("$N = $L", name, CodeBlock.of(property.optionalEmpty(),
+                                CollectionKind.rawType(property.returnType())))
+                        .endControlFlow();
+            } else if (property.nullable()) {
+                writes.add(CodeBlock.builder()
+                        .addStatement("out.writeBoolean($L != null)", getter)
+                        .beginControlFlow("if ($L != null)", getter)
+                        .add(write(type, getter))
+                        .endControlFlow()
+                        .build());
+                read.addStatement("$T $N = null", type, name)
+                        .beginControlFlow("if (in.readBoolean())")
+                        .addStatement("$N = $L", name, read(type))
+                        .endControlFlow();
+            } else {
+                writes.add(write(type, getter));
+                read.addStatement("$T $N = $L", type, name, read(type));
+            }
+        }
+        // the reads can't be split, the constructor call needs all locals
+        write.addCode(MethodSplitter.create(proxy, "writeExternal")
+                .addParameter(ObjectOutput.class, "out")
+                .addException(IOException.class)
+                .statements(writes));
+        if (unchecked) {
+            read.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                    .addMember("value", "$S", "unchecked")
+                    .build());
+        }
+        read.addCode("value = ").addCode(newFinalClassConstructorCall(context, names));
+        proxy.addMethod(write.build())
+                .addMethod(read.build())
+                .addMethod(MethodSpec.methodBuilder("readResolve")
+                        .addModifiers(PRIVATE)
+                        .returns(Object.class)
+                        .addStatement("return value")
+                        .build());
+        if (strings) {
+            proxy.addMethod(MethodSpec.methodBuilder("writeString")
+                    .addModifiers(PRIVATE, STATIC)
+                    .addParameter(ObjectOutput.class, "out")
+                    .addParameter(String.class, "value")
+                    .addException(IOException.class)
+                    .addStatement("writeBytes(out, value.getBytes($T.UTF_8))",
+                            StandardCharsets.class)
+                    .build());
+            proxy.addMethod(MethodSpec.methodBuilder("readString")
+                    .addModifiers(PRIVATE, STATIC)
+                    .returns(String.class)
+                    .addParameter(ObjectInput.class, "in")
+                    .addException(IOException.class)
+                    .addStatement("return new $T(readBytes(in), $T.UTF_8)",
+                            String.class, StandardCharsets.class)
+                    .build());
+        }
+        if (strings || bytes) {
+            proxy.addMethod(MethodSpec.methodBuilder("writeBytes")
+                    .addModifiers(PRIVATE, STATIC)
+                    .addParameter(ObjectOutput.class, "out")
+                    .addParameter(BYTES, "value")
+                    .addException(IOException.class)
+                    .addStatement("out.writeInt(value.length)")
+                    .addStatement("out.write(value)")
+                    .build());
+            proxy.addMethod(MethodSpec.methodBuilder("readBytes")
+                    .addModifiers(PRIVATE, STATIC)
+                    .returns(BYTES)
+                    .addParameter(ObjectInput.class, "in")
+                    .addException(IOException.class)
+                    .addStatement("byte[] value = new byte[in.readInt()]")
+                    .addStatement("in.readFully(value)")
+                    .addStatement("return value")
+                    .build());
+        }
+        return proxy.build();
+    }
+
+    private static boolean usesReadObject(TypeName type) {
+        return !PRIMITIVES.containsKey(type.isBoxedPrimitive() ? type.unbox() : type)
+                && !type.equals(STRING) && !type.equals(BYTES);
+    }
+
+    private static CodeBlock write(TypeName type, CodeBlock value) {
+        String primitive = PRIMITIVES.get(type.isBoxedPrimitive() ? type.unbox() : type);
+        if (primitive != null) {
+            return CodeBlock.of("out.write$L($L);\n", primitive, value);
+        }
+        if (type.equals(STRING)) {
+            return CodeBlock.of("writeString(out, $L);\n", value);
+        }
+        if (type.equals(BYTES)) {
+            return CodeBlock.of("writeBytes(out, $L);\n", value);
+        }
+        return CodeBlock.of("out.writeObject($L);\n", value);
+    }
+
+    private static CodeBlock read(TypeName type) {
+        String primitive = PRIMITIVES.get(type.isBoxedPrimitive() ? type.unbox() : type);
+        if (primitive != null) {
+            return CodeBlock.of("in.read$L()", primitive);
+        }
+        if (type.equals(STRING)) {
+            return CodeBlock.of("readString(in)");
+        }
+        if (type.equals(BYTES)) {
+            return CodeBlock.of("readBytes(in)");
+        }
+        return CodeBlock.of("($T) in.readObject()", type);
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the qualified name of the AutoValue class and the method name,
+     * return type and nullability of every property.
+     */
+    static long fingerprint(Context context, List<Property> properties) {
+        StringBuilder signature = new StringBuilder(
+                context.autoValueClass().getQualifiedName().toString());
+        for (Property property : properties) {
+            signature.append(';').append(property.methodName())
+                    .append(':').append(property.returnType());
+            if (property.nullable()) {
+                signature.append('?');
+            }
+        }
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < signature.length(); i++) {
+            hash ^= signature.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private SerializationProxy() {
+        throw new AssertionError("No instances.");
+    }
+}
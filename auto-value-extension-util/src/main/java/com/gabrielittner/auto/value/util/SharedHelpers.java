@@ -0,0 +1,258 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PROTECTED;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * Provides static helper methods to generated classes. By default every generated class gets a
+ * private copy of the helpers it uses, which works with any processor setup. With
+ * {@code -Aautovalue.sharedHelpers=true} the helpers of a package are instead emitted once as a
+ * package-private class, which needs {@link AutoValueUtilProcessor} to run next to AutoValue. It
+ * is registered as an annotation processor by this library, so it is found unless the build
+ * passes an explicit {@code -processor} list that doesn't include it.
+ *
+ * {@link #request(Context, TypeSpec.Builder, MethodSpec)} returns the code that references the
+ * helper, for example {@code equal} or {@code AutoValueHelpers_Foo.equal}. The shared classes are
+ * written by {@link AutoValueUtilProcessor} at the start of the next processing round.
+ *
+ * <pre>
+ * CodeBlock equal = SharedHelpers.get(context).request(context, builder, SharedHelpers.EQUAL);
+ * method.addStatement("return $L(a, b)", equal);
+ * </pre>
+ *
+ * A shared class is named after the AutoValue class that first requested a helper for it, for
+ * example {@code AutoValueHelpers_Foo}. Other compilations that put classes in the same package,
+ * like the tests of a module, therefore write their own class instead of a second one with the
+ * same name. Once a shared class was written, helpers requested later for the same package go
+ * into a new class.
+ */
+public final class SharedHelpers {
+
+    /**
+     * The processor option that enables shared helper classes, {@code false} by default.
+     */
+    public static final String SHARE_OPTION = "autovalue.sharedHelpers";
+
+    /**
+     * The prefix of the simple names of shared helper classes.
+     */
+    public static final String CLASS_NAME_PREFIX = "AutoValueHelpers_";
+
+    /**
+     * {@code static boolean equal(Object a, Object b)}, null-safe {@link Object#equals(Object)}.
+     */
+    public static final MethodSpec EQUAL = MethodSpec.methodBuilder("equal")
+            .addModifiers(STATIC)
+            .returns(TypeName.BOOLEAN)
+            .addParameter(Object.class, "a")
+            .addParameter(Object.class, "b")
+            .addStatement("return a == b || (a != null && a.equals(b))")
+            .build();
+
+    /**
+     * {@code static void writeVarint(DataOutput out, long value)}, writes {@code value} with 7
+     * bits per byte and the highest bit set on all but the last byte.
+     */
+    public static final MethodSpec WRITE_VARINT = MethodSpec.methodBuilder("writeVarint")
+            .addModifiers(STATIC)
+            .addParameter(DataOutput.class, "out")
+            .addParameter(TypeName.LONG, "value")
+            .addException(IOException.class)
+            .beginControlFlow("while ((value & ~0x7FL) != 0)")
+            .addStatement("out.writeByte((int) ((value & 0x7F) | 0x80))")
+            .addStatement("value >>>= 7")
+            .endControlFlow()
+            .addStatement("out.writeByte((int) value)")
+            .build();
+
+    /**
+     * {@code static void writeString(String value, Appendable out)}, writes {@code value} as a
+     * quoted and escaped JSON string.
+     */
+    public static final MethodSpec WRITE_JSON_STRING = JsonCodec.newWriteStringMethod();
+
+    /**
+     * Returns the helpers of the current compilation.
+     */
+    public static SharedHelpers get(Context context) {
+        return get(context.processingEnvironment());
+    }
+
+    static SharedHelpers get(ProcessingEnvironment processingEnvironment) {
+        return CompilationState.get(processingEnvironment).sharedHelpers;
+    }
+
+    private final Map<String, List<HelperClass>> packages = new LinkedHashMap<>();
+    // the private copies that were added to each class, the weak keys are the builders
+    private final Map<TypeSpec.Builder, Map<String, MethodSpec>> copies = new WeakHashMap<>();
+
+    SharedHelpers() {
+    }
+
+    /**
+     * Makes {@code helper} available to {@code builder}, the generated class of the AutoValue
+     * class, and returns the code that references it. Requesting the same helper again returns
+     * the same reference.
+     *
+     * By default a private static copy of the helper is added to {@code builder}. If
+     * {@link #SHARE_OPTION} is enabled the helper is instead added, static and package-private, to
+     * the shared helper class of the AutoValue class's package.
+     *
+     * @throws IllegalArgumentException if a different helper with the same name was requested
+     * for the class or the package.
+     */
+    public synchronized CodeBlock request(Context context, TypeSpec.Builder builder,
+            MethodSpec helper) {
+        String share = context.processingEnvironment().getOptions().get(SHARE_OPTION);
+        if (Boolean.parseBoolean(share)) {
+            return requestShared(context, normalize(helper, STATIC));
+        }
+        MethodSpec method = normalize(helper, PRIVATE, STATIC);
+        Map<String, MethodSpec> methods = copies.get(builder);
+        if (methods == null) {
+            methods = new LinkedHashMap<>();
+            copies.put(builder, methods);
+        }
+        MethodSpec existing = methods.get(method.name);
+        if (existing == null) {
+            methods.put(method.name, method);
+            builder.addMethod(method);
+        } else if (!existing.equals(method)) {
+            throw new IllegalArgumentException("Different helper named " + method.name
+                    + " already requested for " + context.autoValueClass());
+        }
+        return CodeBlock.of("$N", method);
+    }
+
+    private CodeBlock requestShared(Context context, MethodSpec method) {
+        List<HelperClass> classes = packages.get(context.packageName());
+        if (classes == null) {
+            classes = new ArrayList<>();
+            packages.put(context.packageName(), classes);
+        }
+        for (HelperClass helperClass : classes) {
+            MethodSpec existing = helperClass.methods.get(method.name);
+            if (existing != null) {
+                if (!existing.equals(method)) {
+                    throw new IllegalArgumentException("Different helper named " + method.name
+                            + " already requested in " + context.packageName());
+                }
+                helperClass.originatingElements.add(context.autoValueClass());
+                return CodeBlock.of("$T.$N", helperClass.className, method);
+            }
+        }
+        HelperClass open = classes.isEmpty() ? null : classes.get(classes.size() - 1);
+        if (open == null || open.written) {
+            open = new HelperClass(ClassName.get(context.packageName(), className(context)));
+            classes.add(open);
+        }
+        open.methods.put(method.name, method);
+        open.originatingElements.add(context.autoValueClass());
+        return CodeBlock.of("$T.$N", open.className, method);
+    }
+
+    private static String className(Context context) {
+        String name = context.autoValueClass().getSimpleName().toString();
+        Element enclosingElement = context.autoValueClass().getEnclosingElement();
+        while (enclosingElement instanceof TypeElement) {
+            name = enclosingElement.getSimpleName() + "_" + name;
+            enclosingElement = enclosingElement.getEnclosingElement();
+        }
+        return CLASS_NAME_PREFIX + name;
+    }
+
+    private static MethodSpec normalize(MethodSpec helper, Modifier first, Modifier... rest) {
+        Set<Modifier> modifiers = EnumSet.of(first, rest);
+        for (Modifier modifier : helper.modifiers) {
+            if (modifier != PRIVATE && modifier != PROTECTED && modifier != PUBLIC) {
+                modifiers.add(modifier);
+            }
+        }
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(helper.name)
+                .addAnnotations(helper.annotations)
+                .addModifiers(modifiers)
+                .addTypeVariables(helper.typeVariables)
+                .addParameters(helper.parameters)
+                .varargs(helper.varargs)
+                .addExceptions(helper.exceptions)
+                .addCode(helper.code);
+        if (!helper.javadoc.isEmpty()) {
+            builder.addJavadoc("$L", helper.javadoc);
+        }
+        if (helper.returnType != null) {
+            builder.returns(helper.returnType);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Writes all helper classes that have new helpers.
+     */
+    synchronized void flush(ProcessingEnvironment processingEnvironment) {
+        Filer filer = processingEnvironment.getFiler();
+        for (List<HelperClass> classes : packages.values()) {
+            for (HelperClass helperClass : classes) {
+                if (helperClass.written) {
+                    continue;
+                }
+                helperClass.written = true;
+                TypeSpec.Builder type = TypeSpec.classBuilder(helperClass.className)
+                        .addModifiers(FINAL)
+                        .addMethods(helperClass.methods.values())
+                        .addMethod(MethodSpec.constructorBuilder()
+                                .addModifiers(PRIVATE)
+                                .addStatement("throw new $T($S)", AssertionError.class,
+                                        "No instances.")
+                                .build());
+                for (Element element : helperClass.originatingElements) {
+                    type.addOriginatingElement(element);
+                }
+                JavaFile file = JavaFile.builder(helperClass.className.packageName(), type.build())
+                        .build();
+                try {
+                    file.writeTo(filer);
+                } catch (IOException e) {
+                    processingEnvironment.getMessager().printMessage(ERROR, "Could not write "
+                            + helperClass.className + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static final class HelperClass {
+        final ClassName className;
+        final Map<String, MethodSpec> methods = new LinkedHashMap<>();
+        final List<Element> originatingElements = new ArrayList<>();
+        boolean written;
+
+        HelperClass(ClassName className) {
+            this.className = className;
+        }
+    }
+}
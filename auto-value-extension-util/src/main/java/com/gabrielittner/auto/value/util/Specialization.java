@@ -0,0 +1,446 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.lang.model.element.Modifier;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getAutoValueClassClassName;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getFinalClassClassName;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.getTypeVariables;
+import static javax.lang.model.element.Modifier.ABSTRACT;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * Generates non-generic specializations of a generic AutoValue class that store the properties
+ * whose type is a type variable in primitive fields, so that for example a
+ * {@code Pair<Integer, Integer>} doesn't keep two boxed {@code Integer}s alive.
+ *
+ * <pre>
+ * static final class IntIntPair extends Pair&lt;Integer, Integer&gt; {
+ *   private final int first;
+ *   private final int second;
+ *   IntIntPair(int first, int second) { ... }
+ *   public Integer first() { ... }
+ *   public int firstAsInt() { ... }
+ *   ...
+ * }
+ *
+ * static IntIntPair create(int first, int second) { ... }
+ * static &lt;A, B&gt; Pair&lt;A, B&gt; create(A first, B second) { ... }
+ * </pre>
+ *
+ * The specialized classes extend the AutoValue class directly and implement {@code toString},
+ * {@code equals} and {@code hashCode} like AutoValue, so they are equal to instances of the final
+ * generated class with the same values. The overridden getters box the value, the
+ * {@code ...AsInt()} variants return it without boxing. Methods generated by other extensions
+ * aren't inherited and abstract methods other than property getters aren't implemented.
+ *
+ * The factory overloads with primitive parameters are picked by the compiler when the arguments
+ * are primitives. The generic factory checks the runtime type of the arguments and creates a
+ * specialized instance if one matches and an instance of the final generated class otherwise.
+ */
+public final class Specialization {
+
+    private static final ImmutableMap<String, TypeName> PRIMITIVES =
+            ImmutableMap.<String, TypeName>builder()
+                    .put("boolean", TypeName.BOOLEAN)
+                    .put("byte", TypeName.BYTE)
+                    .put("short", TypeName.SHORT)
+                    .put("char", TypeName.CHAR)
+                    .put("int", TypeName.INT)
+                    .put("long", TypeName.LONG)
+                    .put("float", TypeName.FLOAT)
+                    .put("double", TypeName.DOUBLE)
+                    .build();
+
+    /**
+     * Parses a comma separated list of type arguments like {@code "int, long"} or
+     * {@code "long, java.lang.String"}, for example from an annotation or a processor option.
+     *
+     * @throws IllegalArgumentException if an element is neither a primitive nor a class name.
+     */
+    public static ImmutableList<TypeName> parseTypeArguments(String typeArguments) {
+        ImmutableList.Builder<TypeName> types = ImmutableList.builder();
+        for (String typeArgument : typeArguments.split(",")) {
+            String name = typeArgument.trim();
+            TypeName primitive = PRIMITIVES.get(name);
+            types.add(primitive != null ? primitive : ClassName.bestGuess(name));
+        }
+        return types.build();
+    }
+
+    /**
+     * The name of the specialized class for {@code typeArguments}, the capitalized type
+     * arguments followed by the simple name of the AutoValue class: {@code IntIntPair}.
+     */
+    public static String specializedName(Context context, List<TypeName> typeArguments) {
+        StringBuilder name = new StringBuilder();
+        for (TypeName typeArgument : typeArguments) {
+            String simpleName = typeArgument instanceof ClassName
+                    ? ((ClassName) typeArgument).simpleName()
+                    : typeArgument.toString();
+            name.append(Character.toUpperCase(simpleName.charAt(0)))
+                    .append(simpleName, 1, simpleName.length());
+        }
+        return name.append(context.autoValueClass().getSimpleName()).toString();
+    }
+
+    /**
+     * Creates a static nested class named {@link #specializedName(Context, List)} that extends
+     * the AutoValue class with {@code typeArguments}. Type arguments have to be primitives or
+     * non-generic classes, other type arguments, a wrong number of them and AutoValue classes
+     * without type parameters are reported as errors.
+     */
+    public static TypeSpec newSpecializedClass(Context context, List<TypeName> typeArguments) {
+        String name = specializedName(context, typeArguments);
+        TypeSpec.Builder builder = TypeSpec.classBuilder(name)
+                .addModifiers(STATIC, FINAL);
+        if (!validate(context, typeArguments)) {
+            return builder.build();
+        }
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        Map<String, TypeName> substitutions = substitutions(context, typeArguments);
+        ClassName self = ClassName.get("", name);
+        builder.superclass(ParameterizedTypeName.get(getAutoValueClassClassName(context),
+                boxed(typeArguments)));
+
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder();
+        List<CodeBlock> values = new ArrayList<>();
+        List<CodeBlock> fastEquals = new ArrayList<>();
+        List<CodeBlock> slowEquals = new ArrayList<>();
+        List<CodeBlock> hashCodes = new ArrayList<>();
+        for (Property property : properties) {
+            String field = property.humanName();
+            TypeName type = fieldType(property, substitutions);
+            boolean nullable = !type.isPrimitive() && property.nullable();
+            CodeBlock value = CodeBlock.of("$N", field);
+            values.add(value);
+            builder.addField(FieldSpec.builder(type, field, PRIVATE, FINAL).build());
+            constructor.addParameter(type, field);
+            if (!type.isPrimitive() && !nullable) {
+                constructor.beginControlFlow("if ($N == null)", field)
+                        .addStatement("throw new $T($S)", NullPointerException.class,
+                                "Null " + field)
+                        .endControlFlow();
+            }
+            constructor.addStatement("this.$N = $N", field, field);
+
+            Modifier[] modifiers = getterModifiers(property);
+            TypeName returnType = substitute(property.returnType(), substitutions);
+            builder.addMethod(MethodSpec.methodBuilder(property.methodName())
+                    .addAnnotation(Override.class)
+                    .addModifiers(modifiers)
+                    .returns(returnType)
+                    .addStatement("return $N", field)
+                    .build());
+            boolean specialized = type.isPrimitive() && !returnType.isPrimitive();
+            if (specialized) {
+                builder.addMethod(MethodSpec.methodBuilder(property.methodName() + "As"
+                                + capitalize(type.toString()))
+                        .addModifiers(modifiers)
+                        .returns(type)
+                        .addStatement("return $N", field)
+                        .build());
+            }
+
+            fastEquals.add(ValueMethods.equalsExpression(type, nullable, value,
+                    CodeBlock.of("that.$N", field)));
+            CodeBlock that = CodeBlock.of("that.$N()", property.methodName());
+            if (specialized) {
+                slowEquals.add(CodeBlock.of("$T.valueOf($N).equals($L)", type.box(), field, that));
+            } else {
+                slowEquals.add(ValueMethods.equalsExpression(type, nullable, value, that));
+            }
+            hashCodes.add(ValueMethods.hashCodeExpression(type, nullable, value));
+        }
+        builder.addMethod(constructor.build());
+        if (ValueMethods.generatedByAutoValue(context, "toString")) {
+            builder.addMethod(ValueMethods.newToString(context, properties, values));
+        }
+        if (ValueMethods.generatedByAutoValue(context, "equals")) {
+            builder.addMethod(newEquals(context, self, fastEquals, slowEquals));
+        }
+        if (ValueMethods.generatedByAutoValue(context, "hashCode")) {
+            MethodSpec.Builder hashCode = MethodSpec.methodBuilder("hashCode")
+                    .addAnnotation(Override.class)
+                    .addModifiers(PUBLIC)
+                    .returns(TypeName.INT)
+                    .addStatement("int h = 1");
+            for (CodeBlock expression : hashCodes) {
+                hashCode.addStatement("h *= 1000003")
+                        .addStatement("h ^= $L", expression);
+            }
+            builder.addMethod(hashCode.addStatement("return h").build());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates a static factory method named {@code methodName} with primitive parameters for
+     * each of the {@code specializations} and a generic one with the same name that picks the
+     * matching specialized class at runtime. The generic factory calls the constructor of the
+     * final generated class, so the extension has to return true from {@code mustBeFinal()} or
+     * be the last one in the chain. A specialization can only be picked at runtime if each of
+     * its type variables is the type of at least one property.
+     */
+    public static ImmutableList<MethodSpec> newFactoryMethods(Context context, String methodName,
+            List<? extends List<TypeName>> specializations) {
+        ImmutableList.Builder<MethodSpec> methods = ImmutableList.builder();
+        for (List<TypeName> typeArguments : specializations) {
+            if (!validate(context, typeArguments)) {
+                return methods.build();
+            }
+        }
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        TypeVariableName[] typeVariables = getTypeVariables(context.autoValueClass());
+        TypeName returnType =
+                ParameterizedTypeName.get(getAutoValueClassClassName(context), typeVariables);
+        MethodSpec.Builder generic = MethodSpec.methodBuilder(methodName)
+                .addModifiers(STATIC)
+                .addTypeVariables(ImmutableList.copyOf(typeVariables))
+                .returns(returnType);
+        String[] names = new String[properties.size()];
+        for (int i = 0; i < properties.size(); i++) {
+            names[i] = properties.get(i).humanName();
+            generic.addParameter(properties.get(i).returnType(), names[i]);
+        }
+
+        boolean unchecked = false;
+        for (List<TypeName> typeArguments : specializations) {
+            Map<String, TypeName> substitutions = substitutions(context, typeArguments);
+            ClassName specialized = ClassName.get("", specializedName(context, typeArguments));
+            MethodSpec.Builder factory = MethodSpec.methodBuilder(methodName)
+                    .addModifiers(STATIC)
+                    .returns(specialized);
+            for (Property property : properties) {
+                factory.addParameter(fieldType(property, substitutions), property.humanName());
+            }
+            methods.add(factory.addCode("return new $T", specialized)
+                    .addCode(CodeTemplate.callArguments(names.length).instantiate(
+                            (Object[]) names))
+                    .build());
+
+            CodeBlock condition = condition(properties, substitutions);
+            if (condition == null) {
+                continue;
+            }
+            unchecked = true;
+            CodeBlock.Builder call = CodeBlock.builder()
+                    .add("return ($T) new $T(", returnType, specialized);
+            for (int i = 0; i < properties.size(); i++) {
+                TypeName type = substitute(properties.get(i).returnType(), substitutions);
+                if (i > 0) {
+                    call.add(", ");
+                }
+                if (type.equals(properties.get(i).returnType())) {
+                    call.add("$N", names[i]);
+                } else {
+                    call.add("($T) $N", type, names[i]);
+                }
+            }
+            generic.beginControlFlow("if ($L)", condition)
+                    .addCode(call.add(");\n").build())
+                    .endControlFlow();
+        }
+        if (unchecked) {
+            generic.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                    .addMember("value", "$S", "unchecked")
+                    .build());
+        }
+        return methods.add(generic
+                .addCode("return new $T", ParameterizedTypeName.get(
+                        getFinalClassClassName(context), typeVariables))
+                .addCode(CodeTemplate.callArguments(names.length).instantiate((Object[]) names))
+                .build())
+                .build();
+    }
+
+    /**
+     * The runtime check for the generic factory, an {@code instanceof} check of every property
+     * whose type is a specialized type variable, or null if a type variable has no property. The
+     * {@code instanceof} checks also reject null, which the specialized class can't store in a
+     * primitive field.
+     */
+    private static CodeBlock condition(
+            List<Property> properties, Map<String, TypeName> substitutions) {
+        List<CodeBlock> checks = new ArrayList<>();
+        for (Map.Entry<String, TypeName> substitution : substitutions.entrySet()) {
+            boolean checked = false;
+            for (Property property : properties) {
+                TypeName type = property.returnType();
+                if (type instanceof TypeVariableName
+                        && ((TypeVariableName) type).name.equals(substitution.getKey())) {
+                    checks.add(CodeBlock.of("$N instanceof $T",
+                            property.humanName(), substitution.getValue().box()));
+                    checked = true;
+                }
+            }
+            if (!checked) {
+                return null;
+            }
+        }
+        CodeBlock.Builder condition = CodeBlock.builder();
+        for (int i = 0; i < checks.size(); i++) {
+            condition.add(i == 0 ? "$L" : " && $L", checks.get(i));
+        }
+        return condition.build();
+    }
+
+    private static MethodSpec newEquals(Context context, ClassName self,
+            List<CodeBlock> fastEquals, List<CodeBlock> slowEquals) {
+        ClassName autoValueClass = getAutoValueClassClassName(context);
+        TypeName[] wildcards = new TypeName[context.autoValueClass().getTypeParameters().size()];
+        for (int i = 0; i < wildcards.length; i++) {
+            wildcards[i] = WildcardTypeName.subtypeOf(Object.class);
+        }
+        TypeName anyAutoValueClass = ParameterizedTypeName.get(autoValueClass, wildcards);
+        return MethodSpec.methodBuilder("equals")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(TypeName.BOOLEAN)
+                .addParameter(Object.class, "o")
+                .beginControlFlow("if (o == this)")
+                .addStatement("return true")
+                .endControlFlow()
+                .beginControlFlow("if (o instanceof $T)", self)
+                .addStatement("$T that = ($T) o", self, self)
+                .addStatement("return $L", conjunction(fastEquals))
+                .endControlFlow()
+                .beginControlFlow("if (o instanceof $T)", autoValueClass)
+                .addStatement("$T that = ($T) o", anyAutoValueClass, anyAutoValueClass)
+                .addStatement("return $L", conjunction(slowEquals))
+                .endControlFlow()
+                .addStatement("return false")
+                .build();
+    }
+
+    private static CodeBlock conjunction(List<CodeBlock> conditions) {
+        if (conditions.isEmpty()) {
+            return CodeBlock.of("true");
+        }
+        CodeBlock.Builder conjunction = CodeBlock.builder();
+        for (int i = 0; i < conditions.size(); i++) {
+            conjunction.add(i == 0 ? "($L)" : "\n&& ($L)", conditions.get(i));
+        }
+        return conjunction.build();
+    }
+
+    private static boolean validate(Context context, List<TypeName> typeArguments) {
+        int typeParameters = context.autoValueClass().getTypeParameters().size();
+        String message = null;
+        if (typeParameters == 0) {
+            message = "Specialization requires a generic class";
+        } else if (typeArguments.size() != typeParameters) {
+            message = String.format("Expected %d type arguments but got %s",
+                    typeParameters, typeArguments);
+        } else {
+            for (TypeName typeArgument : typeArguments) {
+                if (!typeArgument.isPrimitive() && !(typeArgument instanceof ClassName)) {
+                    message = "Type arguments have to be primitives or non-generic classes, "
+                            + "got " + typeArgument;
+                    break;
+                }
+            }
+        }
+        if (message != null) {
+            context.processingEnvironment().getMessager().printMessage(ERROR, message,
+                    context.autoValueClass());
+            return false;
+        }
+        return true;
+    }
+
+    private static Map<String, TypeName> substitutions(
+            Context context, List<TypeName> typeArguments) {
+        Map<String, TypeName> substitutions = new LinkedHashMap<>();
+        TypeVariableName[] typeVariables = getTypeVariables(context.autoValueClass());
+        for (int i = 0; i < typeVariables.length; i++) {
+            substitutions.put(typeVariables[i].name, typeArguments.get(i));
+        }
+        return substitutions;
+    }
+
+    /**
+     * The type of the field for {@code property}, the type argument for properties whose type is
+     * a type variable and the return type with boxed type arguments otherwise.
+     */
+    private static TypeName fieldType(Property property, Map<String, TypeName> substitutions) {
+        TypeName type = property.returnType();
+        if (type instanceof TypeVariableName) {
+            return substitutions.get(((TypeVariableName) type).name);
+        }
+        return substitute(type, substitutions);
+    }
+
+    private static TypeName substitute(TypeName type, Map<String, TypeName> substitutions) {
+        if (type instanceof TypeVariableName) {
+            TypeName substitution = substitutions.get(((TypeVariableName) type).name);
+            return substitution != null ? substitution.box() : type;
+        }
+        if (type instanceof ArrayTypeName) {
+            return ArrayTypeName.of(
+                    substitute(((ArrayTypeName) type).componentType, substitutions));
+        }
+        if (type instanceof ParameterizedTypeName) {
+            ParameterizedTypeName parameterized = (ParameterizedTypeName) type;
+            List<TypeName> arguments = new ArrayList<>();
+            for (TypeName argument : parameterized.typeArguments) {
+                arguments.add(substitute(argument, substitutions));
+            }
+            return ParameterizedTypeName.get(parameterized.rawType,
+                    arguments.toArray(new TypeName[arguments.size()]));
+        }
+        if (type instanceof WildcardTypeName) {
+            WildcardTypeName wildcard = (WildcardTypeName) type;
+            if (!wildcard.lowerBounds.isEmpty()) {
+                return WildcardTypeName.supertypeOf(
+                        substitute(wildcard.lowerBounds.get(0), substitutions));
+            }
+            return WildcardTypeName.subtypeOf(
+                    substitute(wildcard.upperBounds.get(0), substitutions));
+        }
+        return type;
+    }
+
+    private static TypeName[] boxed(List<TypeName> typeArguments) {
+        TypeName[] boxed = new TypeName[typeArguments.size()];
+        for (int i = 0; i < boxed.length; i++) {
+            boxed[i] = typeArguments.get(i).box();
+        }
+        return boxed;
+    }
+
+    private static Modifier[] getterModifiers(Property property) {
+        List<Modifier> modifiers = new ArrayList<>(property.element().getModifiers());
+        modifiers.remove(ABSTRACT);
+        return modifiers.toArray(new Modifier[modifiers.size()]);
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private Specialization() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,215 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+
+import static com.google.auto.common.MoreElements.getLocalAndInheritedMethods;
+import static javax.lang.model.element.Modifier.ABSTRACT;
+import static javax.lang.model.element.Modifier.PUBLIC;
+
+/**
+ * Generates {@code toString()}, {@code equals()} and {@code hashCode()} implementations for
+ * classes that implement the AutoValue class without extending the AutoValue generated class. The
+ * generated methods behave exactly like the ones generated by AutoValue, so instances of both
+ * classes are equal to each other.
+ *
+ * The value of every property is read with a caller supplied expression, so that classes which
+ * store properties differently than AutoValue can decode them.
+ */
+final class ValueMethods {
+
+    private static final ClassName ARRAYS = ClassName.get(Arrays.class);
+
+    /**
+     * Returns true if AutoValue generates a method named {@code name} without parameters, which is
+     * the case if the AutoValue class doesn't declare or inherit a concrete implementation other
+     * than the one of {@link Object}.
+     */
+    static boolean generatedByAutoValue(Context context, String name) {
+        TypeElement autoValueClass = context.autoValueClass();
+        for (ExecutableElement method : getLocalAndInheritedMethods(autoValueClass,
+                context.processingEnvironment().getElementUtils())) {
+            if (method.getSimpleName().contentEquals(name)
+                    && method.getParameters().size() == (name.equals("equals") ? 1 : 0)) {
+                TypeElement owner = (TypeElement) method.getEnclosingElement();
+                return method.getModifiers().contains(ABSTRACT)
+                        || owner.getQualifiedName().contentEquals("java.lang.Object");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the methods AutoValue would generate for the AutoValue class to {@code builder}.
+     * {@code values} contains an expression for the value of every property in the same order.
+     */
+    static void addValueMethods(Context context, TypeSpec.Builder builder,
+            ImmutableList<Property> properties, List<CodeBlock> values) {
+        if (generatedByAutoValue(context, "toString")) {
+            builder.addMethod(newToString(context, properties, values));
+        }
+        if (generatedByAutoValue(context, "equals")) {
+            builder.addMethod(newEquals(context, builder, properties, values));
+        }
+        if (generatedByAutoValue(context, "hashCode")) {
+            builder.addMethod(newHashCode(builder, properties, values));
+        }
+    }
+
+    static MethodSpec newToString(
+            Context context, ImmutableList<Property> properties, List<CodeBlock> values) {
+        CodeBlock.Builder code = CodeBlock.builder()
+                .add("return $S", context.autoValueClass().getSimpleName() + "{");
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            if (property.returnType() instanceof ArrayTypeName) {
+                code.add("\n+ $S + $T.toString($L)",
+                        property.humanName() + "=", ARRAYS, values.get(i));
+            } else {
+                code.add("\n+ $S + $L", property.humanName() + "=", values.get(i));
+            }
+            if (i < properties.size() - 1) {
+                code.add(" + $S", ", ");
+            }
+        }
+        return MethodSpec.methodBuilder("toString")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(String.class)
+                .addStatement("$L\n+ $S", code.build(), "}")
+                .build();
+    }
+
+    static MethodSpec newEquals(Context context, TypeSpec.Builder builder,
+            ImmutableList<Property> properties, List<CodeBlock> values) {
+        ClassName autoValueClass = AutoValueUtil.getAutoValueClassClassName(context);
+        MethodSpec.Builder equals = MethodSpec.methodBuilder("equals")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(TypeName.BOOLEAN)
+                .addParameter(Object.class, "o")
+                .beginControlFlow("if (o == this)")
+                .addStatement("return true")
+                .endControlFlow()
+                .beginControlFlow("if (o instanceof $T)", autoValueClass);
+        if (properties.isEmpty()) {
+            equals.addStatement("return true");
+        } else {
+            equals.addStatement("$T that = ($T) o", autoValueClass, autoValueClass);
+            List<CodeBlock> conditions = new ArrayList<>();
+            for (int i = 0; i < properties.size(); i++) {
+                conditions.add(CodeBlock.of("($L)",
+                        equalsExpression(properties.get(i), values.get(i))));
+            }
+            CodeBlock conjunction = MethodSplitter.create(builder, "equals")
+                    .addParameter(autoValueClass, "that")
+                    .conjunction(conditions);
+            equals.addStatement("return $L", conjunction);
+        }
+        return equals.endControlFlow()
+                .addStatement("return false")
+                .build();
+    }
+
+    private static CodeBlock equalsExpression(Property property, CodeBlock value) {
+        return equalsExpression(property.returnType(), property.nullable(), value,
+                CodeBlock.of("that.$N()", property.methodName()));
+    }
+
+    /**
+     * The expression AutoValue uses to compare the value of a property of {@code type} with the
+     * value of another instance.
+     */
+    static CodeBlock equalsExpression(
+            TypeName type, boolean nullable, CodeBlock value, CodeBlock that) {
+        if (type.equals(TypeName.FLOAT)) {
+            return CodeBlock.of("$T.floatToIntBits($L) == $T.floatToIntBits($L)",
+                    Float.class, value, Float.class, that);
+        }
+        if (type.equals(TypeName.DOUBLE)) {
+            return CodeBlock.of("$T.doubleToLongBits($L) == $T.doubleToLongBits($L)",
+                    Double.class, value, Double.class, that);
+        }
+        if (type.isPrimitive()) {
+            return CodeBlock.of("$L == $L", value, that);
+        }
+        if (type instanceof ArrayTypeName) {
+            return CodeBlock.of("$T.equals($L, $L)", ARRAYS, value, that);
+        }
+        if (nullable) {
+            return CodeBlock.of("($L == null) ? ($L == null) : $L.equals($L)",
+                    value, that, value, that);
+        }
+        return CodeBlock.of("$L.equals($L)", value, that);
+    }
+
+    static MethodSpec newHashCode(TypeSpec.Builder builder, ImmutableList<Property> properties,
+            List<CodeBlock> values) {
+        List<CodeBlock> blocks = new ArrayList<>();
+        for (int i = 0; i < properties.size(); i++) {
+            blocks.add(CodeBlock.builder()
+                    .addStatement("h *= 1000003")
+                    .addStatement("h ^= $L", hashCodeExpression(properties.get(i), values.get(i)))
+                    .build());
+        }
+        return MethodSpec.methodBuilder("hashCode")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(TypeName.INT)
+                .addStatement("int h = 1")
+                .addCode(MethodSplitter.create(builder, "hashCode").fold(TypeName.INT, "h", blocks))
+                .addStatement("return h")
+                .build();
+    }
+
+    private static CodeBlock hashCodeExpression(Property property, CodeBlock value) {
+        return hashCodeExpression(property.returnType(), property.nullable(), value);
+    }
+
+    /**
+     * The expression AutoValue uses for the hash code of the value of a property of
+     * {@code type}. For primitives it's the same as the hash code of the boxed value.
+     */
+    static CodeBlock hashCodeExpression(TypeName type, boolean nullable, CodeBlock value) {
+        if (type.equals(TypeName.BYTE) || type.equals(TypeName.SHORT)
+                || type.equals(TypeName.CHAR) || type.equals(TypeName.INT)) {
+            return value;
+        }
+        if (type.equals(TypeName.LONG)) {
+            return CodeBlock.of("(int) (($L >>> 32) ^ $L)", value, value);
+        }
+        if (type.equals(TypeName.FLOAT)) {
+            return CodeBlock.of("$T.floatToIntBits($L)", Float.class, value);
+        }
+        if (type.equals(TypeName.DOUBLE)) {
+            return CodeBlock.of(
+                    "(int) (($T.doubleToLongBits($L) >>> 32) ^ $T.doubleToLongBits($L))",
+                    Double.class, value, Double.class, value);
+        }
+        if (type.equals(TypeName.BOOLEAN)) {
+            return CodeBlock.of("$L ? 1231 : 1237", value);
+        }
+        if (type instanceof ArrayTypeName) {
+            return CodeBlock.of("$T.hashCode($L)", ARRAYS, value);
+        }
+        if (nullable) {
+            return CodeBlock.of("($L == null) ? 0 : $L.hashCode()", value, value);
+        }
+        return CodeBlock.of("$L.hashCode()", value);
+    }
+
+    private ValueMethods() {
+        throw new AssertionError("No instances.");
+    }
+}
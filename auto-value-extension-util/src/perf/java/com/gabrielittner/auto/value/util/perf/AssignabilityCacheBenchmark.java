@@ -0,0 +1,163 @@
+package com.gabrielittner.auto.value.util.perf;
+
+import com.gabrielittner.auto.value.util.AssignabilityCache;
+import com.google.common.collect.Lists;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * Compares {@link Types#isAssignable(TypeMirror, TypeMirror)} with {@link AssignabilityCache}
+ * inside of a compilation. The checks are the ones a method lookup makes: a few query types
+ * against the parameter and return types of the methods of {@link Collections}, repeated like
+ * for every AutoValue class of a round.
+ *
+ * <pre>
+ * AssignabilityCacheBenchmark &lt;workDir&gt; [repetitions] [iterations]
+ * </pre>
+ */
+public final class AssignabilityCacheBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File workDir = new File(args[0]);
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        Javac.delete(workDir);
+        File sourceDir = new File(workDir, "src");
+        File packageDir = new File(sourceDir, "bench");
+        packageDir.mkdirs();
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(new File(packageDir, "Empty.java")),
+                StandardCharsets.UTF_8)) {
+            writer.write("package bench;\nclass Empty {\n}\n");
+        }
+
+        BenchmarkProcessor processor = new BenchmarkProcessor(repetitions, iterations);
+        Javac.compile(sourceDir, new File(workDir, "classes"), processor);
+        System.out.println(processor.result);
+    }
+
+    private static final class BenchmarkProcessor extends AbstractProcessor {
+        private final int repetitions;
+        private final int iterations;
+        String result;
+
+        BenchmarkProcessor(int repetitions, int iterations) {
+            this.repetitions = repetitions;
+            this.iterations = iterations;
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return Collections.singleton("*");
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            if (result != null) {
+                return false;
+            }
+            Elements elements = processingEnv.getElementUtils();
+            Types types = processingEnv.getTypeUtils();
+            List<TypeMirror> queries = Lists.newArrayList(
+                    elements.getTypeElement(String.class.getCanonicalName()).asType(),
+                    elements.getTypeElement(Integer.class.getCanonicalName()).asType(),
+                    types.getDeclaredType(elements.getTypeElement(List.class.getCanonicalName()),
+                            elements.getTypeElement(String.class.getCanonicalName()).asType()),
+                    types.getDeclaredType(elements.getTypeElement(Set.class.getCanonicalName()),
+                            types.getWildcardType(null, null)));
+            List<TypeMirror> targets = Lists.newArrayList();
+            for (Element element : elements.getTypeElement(Collections.class.getCanonicalName())
+                    .getEnclosedElements()) {
+                if (element.getKind() == ElementKind.METHOD) {
+                    ExecutableElement method = (ExecutableElement) element;
+                    targets.add(method.getReturnType());
+                    for (VariableElement parameter : method.getParameters()) {
+                        targets.add(parameter.asType());
+                    }
+                }
+            }
+
+            long[] uncached = new long[iterations];
+            long[] cold = new long[iterations];
+            long[] cached = new long[iterations];
+            int mismatches = 0;
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                for (int r = 0; r < repetitions; r++) {
+                    for (TypeMirror query : queries) {
+                        for (TypeMirror target : targets) {
+                            types.isAssignable(query, target);
+                        }
+                    }
+                }
+                uncached[i] = System.nanoTime() - start;
+
+                AssignabilityCache cache = AssignabilityCache.create(types);
+                start = System.nanoTime();
+                for (int r = 0; r < repetitions; r++) {
+                    if (r == 1) {
+                        cold[i] = System.nanoTime() - start;
+                    }
+                    for (TypeMirror query : queries) {
+                        for (TypeMirror target : targets) {
+                            cache.isAssignable(query, target);
+                        }
+                    }
+                }
+                cached[i] = System.nanoTime() - start;
+
+                for (TypeMirror query : queries) {
+                    for (TypeMirror target : targets) {
+                        if (cache.isAssignable(query, target)
+                                != types.isAssignable(query, target)) {
+                            mismatches++;
+                        }
+                    }
+                }
+            }
+            long checks = (long) repetitions * queries.size() * targets.size();
+            result = String.format(Locale.US, "%d checks of %d type pairs: uncached %.1f ns, "
+                            + "cached %.1f ns per check, first repetition %d us, %d wrong results",
+                    checks, queries.size() * targets.size(), median(uncached) / (double) checks,
+                    median(cached) / (double) checks, median(cold) / 1000,
+                    mismatches / iterations);
+            return false;
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private AssignabilityCacheBenchmark() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,105 @@
+package com.gabrielittner.auto.value.util.perf;
+
+import com.gabrielittner.auto.value.util.LazyHolder;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Measures the class initialization time of a class with expensive static fields, once with the
+ * fields initialized eagerly and once with every field moved into a {@link LazyHolder}.
+ *
+ * <pre>
+ * ClassInitBenchmark &lt;workDir&gt; [fields] [iterations]
+ * </pre>
+ */
+public final class ClassInitBenchmark {
+
+    private static final TypeName INT_ARRAY = ArrayTypeName.of(TypeName.INT);
+
+    public static void main(String[] args) throws Exception {
+        File workDir = new File(args[0]);
+        int fieldCount = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        Javac.delete(workDir);
+        File sourceDir = new File(workDir, "src");
+        File classesDir = new File(workDir, "classes");
+        JavaFile.builder("bench", newClass("Eager", fieldCount, false)).build().writeTo(sourceDir);
+        JavaFile.builder("bench", newClass("Lazy", fieldCount, true)).build().writeTo(sourceDir);
+        Javac.compile(sourceDir, classesDir);
+
+        URL[] urls = {classesDir.toURI().toURL()};
+        long eager = median(urls, "bench.Eager", iterations);
+        long lazy = median(urls, "bench.Lazy", iterations);
+        System.out.println(String.format(Locale.US,
+                "%d static fields: eager init %d us, lazy holder init %d us",
+                fieldCount, eager / 1000, lazy / 1000));
+    }
+
+    private static TypeSpec newClass(String name, int fieldCount, boolean lazy) {
+        TypeSpec.Builder builder = TypeSpec.classBuilder(name).addModifiers(FINAL);
+        for (int i = 0; i < fieldCount; i++) {
+            FieldSpec field = FieldSpec.builder(INT_ARRAY, "TABLE_" + i, PRIVATE, STATIC, FINAL)
+                    .initializer("table($L)", i)
+                    .build();
+            CodeBlock reference;
+            if (lazy) {
+                reference = LazyHolder.addHolder(builder, field);
+            } else {
+                builder.addField(field);
+                reference = CodeBlock.of("$N", field);
+            }
+            builder.addMethod(MethodSpec.methodBuilder("table" + i)
+                    .addModifiers(STATIC)
+                    .returns(INT_ARRAY)
+                    .addStatement("return $L", reference)
+                    .build());
+        }
+        builder.addMethod(MethodSpec.methodBuilder("table")
+                .addModifiers(STATIC)
+                .returns(INT_ARRAY)
+                .addParameter(TypeName.INT, "seed")
+                .addStatement("int[] table = new int[16384]")
+                .beginControlFlow("for (int i = 0; i < table.length; i++)")
+                .addStatement("table[i] = (i * 31 + seed) ^ (i >>> 3)")
+                .endControlFlow()
+                .addStatement("return table")
+                .build());
+        return builder.build();
+    }
+
+    private static long median(URL[] urls, String className, int iterations) throws Exception {
+        long[] times = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            try (URLClassLoader loader = new URLClassLoader(urls, null)) {
+                Class<?> cls = Class.forName(className, false, loader);
+                long start = System.nanoTime();
+                Class.forName(cls.getName(), true, loader);
+                times[i] = System.nanoTime() - start;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        Arrays.sort(times);
+        return times[iterations / 2];
+    }
+
+    private ClassInitBenchmark() {
+        throw new AssertionError("No instances.");
+    }
+}
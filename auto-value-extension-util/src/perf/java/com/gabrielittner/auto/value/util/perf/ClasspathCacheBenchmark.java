@@ -0,0 +1,144 @@
+package com.gabrielittner.auto.value.util.perf;
+
+import com.gabrielittner.auto.value.util.ClasspathCache;
+import com.gabrielittner.auto.value.util.Property;
+import com.gabrielittner.auto.value.util.extensions.AbstractExtension;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+
+/**
+ * Measures the time {@link Property#buildProperties} spends per compilation for AutoValue classes
+ * whose properties are declared in a class path interface, once without a cache and once with a
+ * {@link ClasspathCache} that is kept across compilations like in a Gradle daemon. The first
+ * cached compilation fills the cache and is reported separately.
+ *
+ * <pre>
+ * ClasspathCacheBenchmark &lt;workDir&gt; [classes] [compilations]
+ * </pre>
+ */
+public final class ClasspathCacheBenchmark {
+
+    /**
+     * The class path interface that declares the properties of all benchmarked classes.
+     */
+    public interface Base {
+        long id();
+        int count();
+        double score();
+        String name();
+        @Nullable String description();
+        List<String> tags();
+        ImmutableList<String> aliases();
+        Map<String, Integer> counts();
+        Set<Long> ids();
+        Optional<String> email();
+        @Nullable Integer rank();
+        byte[] data();
+    }
+
+    public static void main(String[] args) throws Exception {
+        File workDir = new File(args[0]);
+        int classCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int compilations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        Javac.delete(workDir);
+        File sourceDir = new File(workDir, "src");
+        writeSources(sourceDir, classCount);
+
+        // warm up javac and both code paths
+        compile(workDir, sourceDir, null);
+        compile(workDir, sourceDir, ClasspathCache.create(ClasspathCache.DEFAULT_MAX_ENTRIES));
+
+        long[] uncached = new long[compilations];
+        for (int i = 0; i < compilations; i++) {
+            uncached[i] = compile(workDir, sourceDir, null);
+        }
+        ClasspathCache cache = ClasspathCache.create(ClasspathCache.DEFAULT_MAX_ENTRIES);
+        long cold = compile(workDir, sourceDir, cache);
+        long[] cached = new long[compilations];
+        for (int i = 0; i < compilations; i++) {
+            cached[i] = compile(workDir, sourceDir, cache);
+        }
+        System.out.println(String.format(Locale.US,
+                "%d classes with %d class path properties: uncached %d us, cold cache %d us, "
+                        + "warm cache %d us per compilation (%d hits, %d misses)",
+                classCount, Base.class.getDeclaredMethods().length, median(uncached) / 1000,
+                cold / 1000, median(cached) / 1000, cache.hitCount(), cache.missCount()));
+    }
+
+    private static void writeSources(File sourceDir, int classCount) throws IOException {
+        File packageDir = new File(sourceDir, "bench");
+        packageDir.mkdirs();
+        for (int i = 0; i < classCount; i++) {
+            File file = new File(packageDir, "Value" + i + ".java");
+            try (Writer writer = new OutputStreamWriter(
+                    new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                writer.write(""
+                        + "package bench;\n"
+                        + "import com.google.auto.value.AutoValue;\n"
+                        + "import " + Base.class.getCanonicalName() + ";\n"
+                        + "@AutoValue public abstract class Value" + i + " implements Base {\n"
+                        + "}\n");
+            }
+        }
+    }
+
+    /**
+     * Compiles the sources and returns the nanoseconds spent in {@link Property#buildProperties},
+     * uncached if {@code cache} is null.
+     */
+    private static long compile(File workDir, File sourceDir, ClasspathCache cache)
+            throws IOException {
+        File classesDir = new File(workDir, "classes");
+        Javac.delete(classesDir);
+        TimedExtension extension = new TimedExtension(cache);
+        Javac.compile(sourceDir, classesDir, newProcessor(extension));
+        return extension.nanos;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static final class TimedExtension extends AbstractExtension {
+        private final ClasspathCache cache;
+        long nanos;
+
+        TimedExtension(ClasspathCache cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public String generateClass(
+                Context context, String className, String classToExtend, boolean isFinal) {
+            long start = System.nanoTime();
+            if (cache == null) {
+                Property.buildProperties(context);
+            } else {
+                Property.buildProperties(context, cache);
+            }
+            nanos += System.nanoTime() - start;
+            return super.generateClass(context, className, classToExtend, isFinal);
+        }
+    }
+
+    private ClasspathCacheBenchmark() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,87 @@
+package com.gabrielittner.auto.value.util.perf;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Runs the system java compiler in-process on a directory of sources.
+ */
+final class Javac {
+
+    /**
+     * Compiles all {@code .java} files below {@code sourceDir} into {@code classesDir} using the
+     * current classpath. Throws an {@link IllegalStateException} containing the diagnostics if the
+     * compilation fails.
+     */
+    static void compile(File sourceDir, File classesDir, Processor... processors)
+            throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No system java compiler, run with a JDK.");
+        }
+        classesDir.mkdirs();
+        List<File> sources = Lists.newArrayList();
+        collectSources(sourceDir, sources);
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager =
+                compiler.getStandardFileManager(diagnostics, null, null)) {
+            List<String> options = ImmutableList.of(
+                    "-d", classesDir.getAbsolutePath(),
+                    "-classpath", System.getProperty("java.class.path"),
+                    "-nowarn");
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+                    options, null, fileManager.getJavaFileObjectsFromFiles(sources));
+            task.setProcessors(Arrays.asList(processors));
+            if (!task.call()) {
+                StringBuilder message = new StringBuilder("Compilation failed:");
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                    message.append('\n').append(diagnostic);
+                }
+                throw new IllegalStateException(message.toString());
+            }
+        }
+    }
+
+    private static void collectSources(File dir, List<File> sources) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectSources(file, sources);
+            } else if (file.getName().endsWith(".java")) {
+                sources.add(file);
+            }
+        }
+    }
+
+    /**
+     * Deletes {@code file} and, if it is a directory, everything below it.
+     */
+    static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private Javac() {
+        throw new AssertionError("No instances.");
+    }
+}
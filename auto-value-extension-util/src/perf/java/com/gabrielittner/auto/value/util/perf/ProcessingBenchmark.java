@@ -0,0 +1,234 @@
+package com.gabrielittner.auto.value.util.perf;
+
+import com.gabrielittner.auto.value.util.extensions.AbstractExtension;
+import com.gabrielittner.auto.value.util.extensions.CallConstructorExtension;
+import com.gabrielittner.auto.value.util.extensions.FinalExtension;
+import com.google.common.collect.Lists;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+
+/**
+ * End-to-end annotation processing benchmark. Generates synthetic source trees with a growing
+ * number of {@code @AutoValue} classes, compiles them with javac and the test extensions and
+ * records processor time, total compile time and peak heap usage.
+ *
+ * <p>The results are compared against a baseline properties file. Any value that is more than
+ * {@code tolerance} worse than its baseline fails the run. Passing {@code --record} writes the
+ * current results as the new baseline instead. Timings of different Java versions aren't
+ * comparable, so the baseline stores the Java specification version it was recorded with and the
+ * run fails without measuring if there is no baseline or it was recorded with another version.
+ *
+ * <pre>
+ * ProcessingBenchmark &lt;workDir&gt; &lt;baselineFile&gt; &lt;tolerance&gt; [--record] [sizes...]
+ * </pre>
+ */
+public final class ProcessingBenchmark {
+
+    private static final int[] DEFAULT_SIZES = {100, 1000, 10000};
+    private static final int CLASSES_PER_PACKAGE = 1000;
+    private static final String JAVA_VERSION = "java.specification.version";
+
+    public static void main(String[] args) throws IOException {
+        File workDir = new File(args[0]);
+        File baselineFile = new File(args[1]);
+        double tolerance = Double.parseDouble(args[2]);
+        boolean record = false;
+        List<Integer> sizes = Lists.newArrayList();
+        for (int i = 3; i < args.length; i++) {
+            if ("--record".equals(args[i])) {
+                record = true;
+            } else {
+                sizes.add(Integer.parseInt(args[i]));
+            }
+        }
+        if (sizes.isEmpty()) {
+            for (int size : DEFAULT_SIZES) {
+                sizes.add(size);
+            }
+        }
+
+        Properties baseline = load(baselineFile);
+        if (!record) {
+            String recordedWith = baseline.getProperty(JAVA_VERSION);
+            String runningWith = System.getProperty(JAVA_VERSION);
+            if (recordedWith == null) {
+                fail("No baseline in " + baselineFile + ", record one with --record");
+            } else if (!recordedWith.equals(runningWith)) {
+                fail("The baseline in " + baselineFile + " was recorded with java " + recordedWith
+                        + ", but this is java " + runningWith + ". Run with java " + recordedWith
+                        + " or record a new baseline with --record");
+            }
+        }
+
+        // warm up javac and the processor so the first measured size isn't dominated by class
+        // loading and interpretation
+        run(workDir, 100);
+
+        Properties results = new Properties();
+        for (int size : sizes) {
+            Result result = run(workDir, size);
+            results.setProperty(size + ".processorMillis", Long.toString(result.processorMillis));
+            results.setProperty(size + ".compileMillis", Long.toString(result.compileMillis));
+            results.setProperty(size + ".peakHeapMb", Long.toString(result.peakHeapMb));
+            System.out.println(String.format(Locale.US,
+                    "%6d classes: processor %6d ms, compile %6d ms, peak heap %5d MB",
+                    size, result.processorMillis, result.compileMillis, result.peakHeapMb));
+        }
+
+        if (record) {
+            store(results, baselineFile);
+            System.out.println("Recorded baseline in " + baselineFile);
+            return;
+        }
+
+        List<String> regressions = compare(baseline, results, tolerance);
+        if (!regressions.isEmpty()) {
+            for (String regression : regressions) {
+                System.err.println(regression);
+            }
+            System.exit(1);
+        }
+    }
+
+    private static void fail(String message) {
+        System.err.println(message);
+        System.exit(1);
+    }
+
+    private static Result run(File workDir, int size) throws IOException {
+        File sizeDir = new File(workDir, Integer.toString(size));
+        Javac.delete(sizeDir);
+        File sourceDir = new File(sizeDir, "src");
+        File classesDir = new File(sizeDir, "classes");
+        writeSources(sourceDir, size);
+
+        TimingProcessor processor = new TimingProcessor(newProcessor(
+                new FinalExtension(), new AbstractExtension(), new CallConstructorExtension()));
+
+        System.gc();
+        resetPeakHeap();
+        long start = System.nanoTime();
+        Javac.compile(sourceDir, classesDir, processor);
+        long compileNanos = System.nanoTime() - start;
+
+        return new Result(processor.nanos() / 1000000, compileNanos / 1000000,
+                peakHeap() / (1024 * 1024));
+    }
+
+    private static void writeSources(File sourceDir, int size) throws IOException {
+        for (int i = 0; i < size; i++) {
+            String packageName = "bench.p" + (i / CLASSES_PER_PACKAGE);
+            File packageDir = new File(sourceDir, packageName.replace('.', File.separatorChar));
+            packageDir.mkdirs();
+            File file = new File(packageDir, "Value" + i + ".java");
+            try (Writer writer = new OutputStreamWriter(
+                    new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                writer.write(""
+                        + "package " + packageName + ";\n"
+                        + "import com.google.auto.value.AutoValue;\n"
+                        + "import java.util.List;\n"
+                        + "import javax.annotation.Nullable;\n"
+                        + "@AutoValue public abstract class Value" + i + " {\n"
+                        + "  public abstract int id();\n"
+                        + "  public abstract long timestamp();\n"
+                        + "  public abstract String name();\n"
+                        + "  @Nullable public abstract String description();\n"
+                        + "  public abstract boolean enabled();\n"
+                        + "  public abstract double score();\n"
+                        + "  public abstract List<String> tags();\n"
+                        + "}\n");
+            }
+        }
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * The sum of the peak usage of all heap pools. The pools don't necessarily peak at the same
+     * time, so this is an upper bound of the real peak.
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    static List<String> compare(Properties baseline, Properties results, double tolerance) {
+        List<String> regressions = Lists.newArrayList();
+        for (String key : new TreeSet<>(results.stringPropertyNames())) {
+            String expected = baseline.getProperty(key);
+            if (expected == null) {
+                System.out.println("No baseline for " + key + ", skipping");
+                continue;
+            }
+            long baselineValue = Long.parseLong(expected);
+            long value = Long.parseLong(results.getProperty(key));
+            if (value > baselineValue * (1 + tolerance)) {
+                regressions.add(String.format(Locale.US,
+                        "Regression in %s: %d, baseline %d (tolerance %.0f%%)",
+                        key, value, baselineValue, tolerance * 100));
+            }
+        }
+        return regressions;
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    private static void store(Properties properties, File file) throws IOException {
+        properties.setProperty(JAVA_VERSION, System.getProperty(JAVA_VERSION));
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "Recorded by ProcessingBenchmark with java "
+                    + System.getProperty("java.version") + " on " + System.getProperty("os.name"));
+        }
+    }
+
+    private static final class Result {
+        final long processorMillis;
+        final long compileMillis;
+        final long peakHeapMb;
+
+        Result(long processorMillis, long compileMillis, long peakHeapMb) {
+            this.processorMillis = processorMillis;
+            this.compileMillis = compileMillis;
+            this.peakHeapMb = peakHeapMb;
+        }
+    }
+
+    private ProcessingBenchmark() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,154 @@
+package com.gabrielittner.auto.value.util.perf;
+
+import com.gabrielittner.auto.value.util.SerializationProxy;
+import com.gabrielittner.auto.value.util.extensions.SerializationExtension;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+
+/**
+ * Compares the throughput of default serialization of an AutoValue class with the
+ * {@link SerializationProxy} of the same class. Every value is written to and read from its own
+ * stream, like a message or a cache entry.
+ *
+ * <pre>
+ * SerializationBenchmark &lt;workDir&gt; [values] [iterations]
+ * </pre>
+ */
+public final class SerializationBenchmark {
+
+    private static final String SOURCE = ""
+            + "package bench.%s;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "import java.io.Serializable;\n"
+            + "import javax.annotation.Nullable;\n"
+            + "@AutoValue public abstract class Value implements Serializable {\n"
+            + "  public abstract long id();\n"
+            + "  public abstract int count();\n"
+            + "  public abstract double score();\n"
+            + "  public abstract boolean active();\n"
+            + "  public abstract String name();\n"
+            + "  @Nullable public abstract String email();\n"
+            + "  public static Value create(long id, int count, double score, boolean active,\n"
+            + "      String name, String email) {\n"
+            + "    return new AutoValue_Value(id, count, score, active, name, email);\n"
+            + "  }\n"
+            + "}\n";
+
+    public static void main(String[] args) throws Exception {
+        File workDir = new File(args[0]);
+        int valueCount = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        Javac.delete(workDir);
+        File classesDir = new File(workDir, "classes");
+        File plainDir = new File(workDir, "plain");
+        File proxyDir = new File(workDir, "proxy");
+        writeSource(plainDir, "plain");
+        writeSource(proxyDir, "proxy");
+        Javac.compile(plainDir, classesDir, newProcessor());
+        Javac.compile(proxyDir, classesDir, newProcessor(new SerializationExtension()));
+
+        try (URLClassLoader loader = new URLClassLoader(
+                new URL[] {classesDir.toURI().toURL()},
+                SerializationBenchmark.class.getClassLoader())) {
+            Object[] plain = newValues(loader, "bench.plain.Value", valueCount);
+            Object[] proxy = newValues(loader, "bench.proxy.Value", valueCount);
+            // alternate the variants so that neither profits from running last
+            long plainTime = Long.MAX_VALUE;
+            long proxyTime = Long.MAX_VALUE;
+            for (int i = 0; i < iterations; i++) {
+                plainTime = Math.min(plainTime, roundTrip(plain, loader));
+                proxyTime = Math.min(proxyTime, roundTrip(proxy, loader));
+            }
+            System.out.println(String.format(Locale.US,
+                    "default serialization: %,.0f values/s, %d bytes per value",
+                    valueCount * 1e9 / plainTime, serialize(plain[0]).length));
+            System.out.println(String.format(Locale.US,
+                    "serialization proxy:   %,.0f values/s, %d bytes per value",
+                    valueCount * 1e9 / proxyTime, serialize(proxy[0]).length));
+        }
+    }
+
+    private static void writeSource(File sourceDir, String packageName) throws IOException {
+        File dir = new File(sourceDir, "bench/" + packageName);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(new File(dir, "Value.java")), StandardCharsets.UTF_8)) {
+            writer.write(String.format(SOURCE, packageName));
+        }
+    }
+
+    private static Object[] newValues(ClassLoader loader, String className, int count)
+            throws Exception {
+        Method create = loader.loadClass(className).getMethod("create", long.class, int.class,
+                double.class, boolean.class, String.class, String.class);
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = create.invoke(null, (long) i, i % 100, i / 7.0, i % 2 == 0,
+                    "name" + i, i % 3 == 0 ? null : "user" + i + "@example.com");
+        }
+        return values;
+    }
+
+    private static long roundTrip(Object[] values, ClassLoader loader) throws Exception {
+        long start = System.nanoTime();
+        for (Object value : values) {
+            if (!value.equals(deserialize(serialize(value), loader))) {
+                throw new IllegalStateException("Round trip changed " + value);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes, ClassLoader loader) throws Exception {
+        try (ObjectInputStream in = new LoaderObjectInputStream(
+                new ByteArrayInputStream(bytes), loader)) {
+            return in.readObject();
+        }
+    }
+
+    private static final class LoaderObjectInputStream extends ObjectInputStream {
+        private final ClassLoader loader;
+
+        LoaderObjectInputStream(InputStream in, ClassLoader loader) throws IOException {
+            super(in);
+            this.loader = loader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            return Class.forName(desc.getName(), false, loader);
+        }
+    }
+
+    private SerializationBenchmark() {
+        throw new AssertionError("No instances.");
+    }
+}
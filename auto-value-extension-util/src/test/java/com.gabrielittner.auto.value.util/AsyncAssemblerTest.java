@@ -0,0 +1,303 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.AssemblerExtension;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.tools.JavaFileObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assert.fail;
+
+public class AsyncAssemblerTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "import java.util.Optional;\n"
+            + "import javax.annotation.Nullable;\n"
+            + "@AutoValue public abstract class Test {\n"
+            + "  public abstract long id();\n"
+            + "  public abstract int timeout();\n"
+            + "  @Nullable public abstract String name();\n"
+            + "  public abstract Optional<String> nickname();\n"
+            + "  static Test create(long id, int timeout, String name, Optional<String> o) {\n"
+            + "    return new AutoValue_Test(id, timeout, name, o);\n"
+            + "  }\n"
+            + "}\n");
+
+    private ExecutorService executor;
+    private ScheduledExecutorService scheduler;
+    private Method create;
+    private Constructor<?> constructor;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(4);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new AssemblerExtension()), source);
+        create = classLoader.loadClass("test.Test").getDeclaredMethod("create", long.class,
+                int.class, String.class, Optional.class);
+        create.setAccessible(true);
+        constructor = classLoader.loadClass("test.AutoValue_Test$Assembler")
+                .getDeclaredConstructor();
+        constructor.setAccessible(true);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void assemblesConcurrently() throws Exception {
+        Object assembler = constructor.newInstance();
+        set(assembler, "id", CompletableFuture.completedFuture(1L));
+        supply(assembler, "timeout", new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return 30;
+            }
+        });
+        supply(assembler, "name", new Supplier<String>() {
+            @Override
+            public String get() {
+                return "name";
+            }
+        });
+        CompletableFuture<String> nickname = new CompletableFuture<>();
+        set(assembler, "nickname", nickname.thenApply(new Function<String, Optional<String>>() {
+            @Override
+            public Optional<String> apply(String value) {
+                return Optional.of(value);
+            }
+        }));
+
+        CompletableFuture<?> result = assemble(assembler);
+        assertThat(result.isDone()).isFalse();
+        nickname.complete("nick");
+        assertThat(result.get(5, TimeUnit.SECONDS))
+                .isEqualTo(create.invoke(null, 1L, 30, "name", Optional.of("nick")));
+    }
+
+    @Test
+    public void defaultsForUnsetAndFailedProperties() throws Exception {
+        Object assembler = constructor.newInstance();
+        set(assembler, "id", CompletableFuture.completedFuture(1L));
+        set(assembler, "timeout", CompletableFuture.completedFuture(2));
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new RuntimeException("backend down"));
+        set(assembler, "name", failed);
+
+        assertThat(assemble(assembler).get(5, TimeUnit.SECONDS))
+                .isEqualTo(create.invoke(null, 1L, 2, null, Optional.empty()));
+    }
+
+    @Test
+    public void failedRequiredPropertyFailsResult() throws Exception {
+        Object assembler = constructor.newInstance();
+        CompletableFuture<Long> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalArgumentException("backend down"));
+        set(assembler, "id", failed);
+        set(assembler, "timeout", CompletableFuture.completedFuture(2));
+        try {
+            assemble(assembler).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+            assertThat(expected.getCause()).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    public void missingRequiredProperties() throws Exception {
+        Object assembler = constructor.newInstance();
+        set(assembler, "name", CompletableFuture.completedFuture("name"));
+        try {
+            assemble(assembler);
+            fail();
+        } catch (InvocationTargetException expected) {
+            assertThat(expected.getCause())
+                    .hasMessage("Missing required properties: id timeout");
+        }
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        Object assembler = constructor.newInstance();
+        set(assembler, "id", CompletableFuture.completedFuture(1L));
+        set(assembler, "timeout", CompletableFuture.completedFuture(2));
+        set(assembler, "name", new CompletableFuture<String>());
+        set(assembler, "nickname", new CompletableFuture<Optional<String>>());
+        Method assemble = constructor.getDeclaringClass().getDeclaredMethod("assemble",
+                ScheduledExecutorService.class, long.class, TimeUnit.class);
+        assemble.setAccessible(true);
+        CompletableFuture<?> result = (CompletableFuture<?>) assemble.invoke(
+                assembler, scheduler, 50L, TimeUnit.MILLISECONDS);
+        assertThat(result.get(5, TimeUnit.SECONDS))
+                .isEqualTo(create.invoke(null, 1L, 2, null, Optional.empty()));
+
+        set(assembler, "id", new CompletableFuture<Long>());
+        result = (CompletableFuture<?>) assemble.invoke(
+                assembler, scheduler, 50L, TimeUnit.MILLISECONDS);
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+            assertThat(expected.getCause()).isInstanceOf(TimeoutException.class);
+        }
+    }
+
+    @Test
+    public void generatesAssembler() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract long id();\n"
+                + "  @Nullable public abstract String executor();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.IllegalStateException;\n"
+                + "import java.lang.Long;\n"
+                + "import java.lang.String;\n"
+                + "import java.lang.StringBuilder;\n"
+                + "import java.util.concurrent.CompletableFuture;\n"
+                + "import java.util.concurrent.Executor;\n"
+                + "import java.util.concurrent.ScheduledExecutorService;\n"
+                + "import java.util.concurrent.ScheduledFuture;\n"
+                + "import java.util.concurrent.TimeUnit;\n"
+                + "import java.util.concurrent.TimeoutException;\n"
+                + "import java.util.function.Supplier;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(long id, String executor) {\n"
+                + "    super(id, executor);\n"
+                + "  }\n"
+                + "  static final class Assembler {\n"
+                + "    private CompletableFuture<Long> id;\n"
+                + "    private CompletableFuture<String> executor;\n"
+                + "    Assembler id(CompletableFuture<Long> id) {\n"
+                + "      this.id = id;\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    Assembler id(Supplier<Long> id, Executor idExecutor) {\n"
+                + "      return id(CompletableFuture.supplyAsync(id, idExecutor));\n"
+                + "    }\n"
+                + "    Assembler executor(CompletableFuture<String> executor) {\n"
+                + "      this.executor = executor;\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    Assembler executor(Supplier<String> executor, Executor executorExecutor) {\n"
+                + "      return executor(CompletableFuture.supplyAsync(executor,\n"
+                + "          executorExecutor));\n"
+                + "    }\n"
+                + "    CompletableFuture<Test> assemble() {\n"
+                + "      return assemble(null, 0, null);\n"
+                + "    }\n"
+                + "    CompletableFuture<Test> assemble(ScheduledExecutorService scheduler, long\n"
+                + "        timeout, TimeUnit unit) {\n"
+                + "      StringBuilder missing = new StringBuilder();\n"
+                + "      if (this.id == null) {\n"
+                + "        missing.append(\" id\");\n"
+                + "      }\n"
+                + "      if (missing.length() > 0) {\n"
+                + "        throw new IllegalStateException(\"Missing required properties:\" +\n"
+                + "            missing);\n"
+                + "      }\n"
+                + "      CompletableFuture<Long> idFuture;\n"
+                + "      idFuture = orTimeout(this.id, scheduler, timeout, unit);\n"
+                + "      CompletableFuture<String> executorFuture;\n"
+                + "      if (this.executor == null) {\n"
+                + "        executorFuture = CompletableFuture.completedFuture(null);\n"
+                + "      } else {\n"
+                + "        executorFuture = orDefault(this.executor, null, scheduler, timeout,\n"
+                + "            unit);\n"
+                + "      }\n"
+                + "      return CompletableFuture.allOf(idFuture,\n"
+                + "          executorFuture).thenApply(ignored -> {\n"
+                + "        return new AutoValue_Test(idFuture.join(), executorFuture.join());\n"
+                + "      });\n"
+                + "    }\n"
+                + "    private static <T> CompletableFuture<T> orDefault(CompletableFuture<T>\n"
+                + "        future, T defaultValue, ScheduledExecutorService scheduler, long\n"
+                + "        timeout, TimeUnit unit) {\n"
+                + "      CompletableFuture<T> result = future.exceptionally(error ->\n"
+                + "          defaultValue);\n"
+                + "      if (scheduler != null) {\n"
+                + "        ScheduledFuture<?> timer = scheduler.schedule(() ->\n"
+                + "            result.complete(defaultValue), timeout, unit);\n"
+                + "        result.whenComplete((value, error) -> timer.cancel(false));\n"
+                + "      }\n"
+                + "      return result;\n"
+                + "    }\n"
+                + "    private static <T> CompletableFuture<T> orTimeout(CompletableFuture<T>\n"
+                + "        future, ScheduledExecutorService scheduler, long timeout, TimeUnit\n"
+                + "        unit) {\n"
+                + "      if (scheduler == null) {\n"
+                + "        return future;\n"
+                + "      }\n"
+                + "      CompletableFuture<T> result = future.thenApply(value -> value);\n"
+                + "      ScheduledFuture<?> timer = scheduler.schedule(() ->\n"
+                + "          result.completeExceptionally(new TimeoutException()), timeout,\n"
+                + "          unit);\n"
+                + "      result.whenComplete((value, error) -> timer.cancel(false));\n"
+                + "      return result;\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new AssemblerExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    private static void set(Object assembler, String name, CompletableFuture<?> future)
+            throws Exception {
+        Method method = assembler.getClass().getDeclaredMethod(name, CompletableFuture.class);
+        method.setAccessible(true);
+        method.invoke(assembler, future);
+    }
+
+    private void supply(Object assembler, String name, Supplier<?> supplier) throws Exception {
+        Method method = assembler.getClass()
+                .getDeclaredMethod(name, Supplier.class, Executor.class);
+        method.setAccessible(true);
+        method.invoke(assembler, supplier, executor);
+    }
+
+    private static CompletableFuture<?> assemble(Object assembler) throws Exception {
+        Method method = assembler.getClass().getDeclaredMethod("assemble");
+        method.setAccessible(true);
+        return (CompletableFuture<?>) method.invoke(assembler);
+    }
+}
@@ -0,0 +1,151 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.SharedHelpersExtension;
+import com.google.common.collect.ImmutableList;
+import com.google.testing.compile.JavaFileObjects;
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaFileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertThat;
+
+public class AutoValueUtilProcessorTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "@AutoValue public abstract class Test {\n"
+            + "  public abstract String name();\n"
+            + "}\n");
+
+    @Test
+    public void sharesStateWithWrappedEnvironment() throws Exception {
+        // build tools like Gradle give each processor its own wrapper of the environment
+        TestCompiler.compile(temporaryFolder.getRoot(), ImmutableList.of(
+                new WrappingProcessor(newProcessor(new SharedHelpersExtension())),
+                new AutoValueUtilProcessor()),
+                ImmutableList.of("-A" + SharedHelpers.SHARE_OPTION + "=true"), source);
+
+        File generated = new File(temporaryFolder.getRoot(), "generated");
+        assertThat(new File(generated, "test/AutoValueHelpers_Test.java").exists()).isTrue();
+    }
+
+    @Test
+    public void dropsStateInLastRound() throws Exception {
+        StateProcessor states = new StateProcessor();
+        TestCompiler.compile(temporaryFolder.getRoot(), ImmutableList.of(
+                states, newProcessor(new SharedHelpersExtension()), new AutoValueUtilProcessor()),
+                source);
+
+        // the state that was used during the compilation isn't returned anymore
+        assertThat(states.rounds).isAtLeast(2);
+        try {
+            assertThat(CompilationState.get(states.processingEnvironment))
+                    .isNotSameAs(states.state);
+        } finally {
+            CompilationState.remove(states.processingEnvironment);
+        }
+    }
+
+    /** Runs before the other processors and only looks at the state. */
+    private static final class StateProcessor extends AbstractProcessor {
+        ProcessingEnvironment processingEnvironment;
+        CompilationState state;
+        int rounds;
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return Collections.singleton("*");
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            CompilationState current = CompilationState.get(processingEnv);
+            if (state == null) {
+                processingEnvironment = processingEnv;
+                state = current;
+            } else {
+                assertThat(current).isSameAs(state);
+            }
+            rounds++;
+            return false;
+        }
+    }
+
+    private static final class WrappingProcessor implements Processor {
+        private final Processor delegate;
+
+        WrappingProcessor(Processor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Set<String> getSupportedOptions() {
+            return delegate.getSupportedOptions();
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return delegate.getSupportedAnnotationTypes();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return delegate.getSupportedSourceVersion();
+        }
+
+        @Override
+        public void init(final ProcessingEnvironment processingEnv) {
+            delegate.init((ProcessingEnvironment) Proxy.newProxyInstance(
+                    getClass().getClassLoader(), new Class<?>[] {ProcessingEnvironment.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args)
+                                throws Throwable {
+                            try {
+                                return method.invoke(processingEnv, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                        }
+                    }));
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            return delegate.process(annotations, roundEnv);
+        }
+
+        @Override
+        public Iterable<? extends Completion> getCompletions(Element element,
+                AnnotationMirror annotation, ExecutableElement member, String userText) {
+            return delegate.getCompletions(element, annotation, member, userText);
+        }
+    }
+}
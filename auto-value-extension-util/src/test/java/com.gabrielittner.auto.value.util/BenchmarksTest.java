@@ -0,0 +1,200 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.BenchmarkExtension;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.testing.compile.JavaFileObjects;
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import javax.tools.JavaFileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openjdk.jmh.annotations.Benchmark;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertThat;
+
+public class BenchmarksTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "import com.google.common.base.Optional;\n"
+            + "import com.google.common.collect.ImmutableList;\n"
+            + "import java.util.List;\n"
+            + "import java.util.Map;\n"
+            + "import java.util.SortedSet;\n"
+            + "import javax.annotation.Nullable;\n"
+            + "@AutoValue public abstract class Test {\n"
+            + "  enum Color { RED, GREEN }\n"
+            + "  public abstract int id();\n"
+            + "  public abstract String name();\n"
+            + "  @Nullable public abstract Long parent();\n"
+            + "  public abstract Optional<String> nickname();\n"
+            + "  public abstract Color color();\n"
+            + "  public abstract double[] weights();\n"
+            + "  public abstract ImmutableList<String> tags();\n"
+            + "  public abstract List<Integer> scores();\n"
+            + "  public abstract SortedSet<Character> initials();\n"
+            + "  public abstract Map<String, Long> counts();\n"
+            + "  @Nullable public abstract Object extra();\n"
+            + "}\n");
+
+    /** Properties named like the fields and the parameter of the benchmark class. */
+    private final JavaFileObject clashing = JavaFileObjects.forSourceString("test.Test", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "@AutoValue public abstract class Test {\n"
+            + "  public abstract int value();\n"
+            + "  public abstract String otherValue();\n"
+            + "  public abstract long random();\n"
+            + "}\n");
+
+    @Test
+    public void generatedBenchmarksRun() throws Exception {
+        File benchmarks = temporaryFolder.newFolder("benchmarks");
+        TestCompiler.compile(temporaryFolder.newFolder(), ImmutableList.of(
+                newProcessor(new BenchmarkExtension())),
+                ImmutableList.of("-A" + Benchmarks.OUTPUT_DIR_OPTION + "=" + benchmarks), source);
+        File benchmarkFile = new File(benchmarks, "test/TestBenchmark.java");
+        assertThat(benchmarkFile.exists()).isTrue();
+
+        // the benchmark is compiled in a separate source set in builds
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.newFolder(),
+                newProcessor(new BenchmarkExtension()), source,
+                JavaFileObjects.forResource(benchmarkFile.toURI().toURL()));
+        Class<?> benchmarkClass = classLoader.loadClass("test.TestBenchmark");
+        Object benchmark = benchmarkClass.getConstructor().newInstance();
+        benchmarkClass.getMethod("setUp").invoke(benchmark);
+
+        int count = 0;
+        for (Method method : benchmarkClass.getMethods()) {
+            if (method.isAnnotationPresent(Benchmark.class)) {
+                assertThat(method.invoke(benchmark)).isNotNull();
+                count++;
+            }
+        }
+        assertThat(count).isEqualTo(6);
+        assertThat(benchmarkClass.getMethod("equalsEqual").invoke(benchmark)).isEqualTo(true);
+        assertThat(benchmarkClass.getMethod("equalsOther").invoke(benchmark)).isEqualTo(false);
+        assertThat(benchmarkClass.getMethod("diff").invoke(benchmark)).isNotEqualTo(0L);
+    }
+
+    @Test
+    public void nothingWrittenWithoutOption() throws Exception {
+        File output = temporaryFolder.newFolder();
+        TestCompiler.compile(output, newProcessor(new BenchmarkExtension()), source);
+        assertThat(new File(output, "generated/test/TestBenchmark.java").exists()).isFalse();
+    }
+
+    @Test
+    public void propertiesNamedLikeBenchmarkFields() throws Exception {
+        File benchmarks = temporaryFolder.newFolder("benchmarks");
+        TestCompiler.compile(temporaryFolder.newFolder(), ImmutableList.of(
+                newProcessor(new BenchmarkExtension())),
+                ImmutableList.of("-A" + Benchmarks.OUTPUT_DIR_OPTION + "=" + benchmarks), clashing);
+        File benchmarkFile = new File(benchmarks, "test/TestBenchmark.java");
+
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.newFolder(),
+                newProcessor(new BenchmarkExtension()), clashing,
+                JavaFileObjects.forResource(benchmarkFile.toURI().toURL()));
+        Class<?> benchmarkClass = classLoader.loadClass("test.TestBenchmark");
+        Object benchmark = benchmarkClass.getConstructor().newInstance();
+        benchmarkClass.getMethod("setUp").invoke(benchmark);
+        assertThat(benchmarkClass.getMethod("equalsEqual").invoke(benchmark)).isEqualTo(true);
+        assertThat(benchmarkClass.getMethod("equalsOther").invoke(benchmark)).isEqualTo(false);
+    }
+
+    @Test
+    public void generatesBenchmark() throws Exception {
+        File benchmarks = temporaryFolder.newFolder("benchmarks");
+        TestCompiler.compile(temporaryFolder.newFolder(), ImmutableList.of(
+                newProcessor(new BenchmarkExtension())),
+                ImmutableList.of("-A" + Benchmarks.OUTPUT_DIR_OPTION + "=" + benchmarks), clashing);
+        String expected = ""
+                + "package test;\n"
+                + "\n"
+                + "import java.lang.String;\n"
+                + "import java.util.Random;\n"
+                + "import org.openjdk.jmh.annotations.Benchmark;\n"
+                + "import org.openjdk.jmh.annotations.Scope;\n"
+                + "import org.openjdk.jmh.annotations.Setup;\n"
+                + "import org.openjdk.jmh.annotations.State;\n"
+                + "\n"
+                + "@State(Scope.Thread)\n"
+                + "public class TestBenchmark {\n"
+                + "  private int randomValue;\n"
+                + "\n"
+                + "  private String randomOtherValue;\n"
+                + "\n"
+                + "  private long randomRandom;\n"
+                + "\n"
+                + "  Test value;\n"
+                + "\n"
+                + "  Test equalValue;\n"
+                + "\n"
+                + "  Test otherValue;\n"
+                + "\n"
+                + "  private void randomize(Random random) {\n"
+                + "    this.randomValue = random.nextInt();\n"
+                + "    this.randomOtherValue = randomString(random);\n"
+                + "    this.randomRandom = random.nextLong();\n"
+                + "  }\n"
+                + "\n"
+                + "  @Setup\n"
+                + "  public void setUp() {\n"
+                + "    Random random = new Random(42L);\n"
+                + "    randomize(random);\n"
+                + "    otherValue = construct();\n"
+                + "    randomize(random);\n"
+                + "    value = construct();\n"
+                + "    equalValue = construct();\n"
+                + "  }\n"
+                + "\n"
+                + "  @Benchmark\n"
+                + "  public Test construct() {\n"
+                + "    return new AutoValue_Test(randomValue, randomOtherValue, randomRandom);\n"
+                + "  }\n"
+                + "\n"
+                + "  @Benchmark\n"
+                + "  public boolean equalsEqual() {\n"
+                + "    return value.equals(equalValue);\n"
+                + "  }\n"
+                + "\n"
+                + "  @Benchmark\n"
+                + "  public boolean equalsOther() {\n"
+                + "    return value.equals(otherValue);\n"
+                + "  }\n"
+                + "\n"
+                + "  @Benchmark\n"
+                + "  public int hashCodeValue() {\n"
+                + "    return value.hashCode();\n"
+                + "  }\n"
+                + "\n"
+                + "  @Benchmark\n"
+                + "  public String toStringValue() {\n"
+                + "    return value.toString();\n"
+                + "  }\n"
+                + "\n"
+                + "  @Benchmark\n"
+                + "  public long diff() {\n"
+                + "    return AutoValue_Test.ChangeMask.diff(value, otherValue);\n"
+                + "  }\n"
+                + "\n"
+                + "  private static String randomString(Random random) {\n"
+                + "    char[] chars = new char[1 + random.nextInt(16)];\n"
+                + "    for (int i = 0; i < chars.length; i++) {\n"
+                + "      chars[i] = (char) ('a' + random.nextInt(26));\n"
+                + "    }\n"
+                + "    return new String(chars);\n"
+                + "  }\n"
+                + "}\n";
+
+        File benchmarkFile = new File(benchmarks, "test/TestBenchmark.java");
+        assertThat(Files.toString(benchmarkFile, StandardCharsets.UTF_8)).isEqualTo(expected);
+    }
+}
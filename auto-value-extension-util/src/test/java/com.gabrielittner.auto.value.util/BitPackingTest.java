@@ -0,0 +1,346 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.PackedExtension;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.tools.JavaFileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class BitPackingTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void booleansAndEnums() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public enum Color { RED, GREEN, BLUE }\n"
+                + "  public abstract boolean a();\n"
+                + "  public abstract Color color();\n"
+                + "  @Nullable public abstract Color other();\n"
+                + "  public abstract String name();\n"
+                + "  public abstract boolean b();\n"
+                + "  public abstract long[] ids();\n"
+                + "}\n");
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new PackedExtension()), source);
+        Class<?> color = classLoader.loadClass("test.Test$Color");
+        Class<?>[] parameterTypes = {
+                boolean.class, color, color, String.class, boolean.class, long[].class };
+        Constructor<?> packed = constructor(classLoader, "test.AutoValue_Test$Packed",
+                parameterTypes);
+        Constructor<?> regular = constructor(classLoader, "test.AutoValue_Test", parameterTypes);
+
+        // all 2 booleans and 2 enums fit into one byte
+        Class<?> colorArray = Array.newInstance(color, 0).getClass();
+        assertThat(fieldTypes(packed.getDeclaringClass())).containsExactly(
+                "$COLOR_VALUES", colorArray, "name", String.class, "ids", long[].class,
+                "$bits0", byte.class);
+
+        Object[] constants = color.getEnumConstants();
+        for (Object other : Arrays.asList(null, constants[0], constants[2])) {
+            for (Object value : constants) {
+                for (int flags = 0; flags < 4; flags++) {
+                    Object[] args = {
+                            (flags & 1) != 0, value, other, "name", (flags & 2) != 0,
+                            new long[] { 1, 2 } };
+                    assertSameValue(packed.newInstance(args), regular.newInstance(args));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void manyBooleans() throws Exception {
+        int count = 40;
+        StringBuilder properties = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            properties.append("  public abstract boolean flag").append(i).append("();\n");
+        }
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + properties
+                + "}\n");
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new PackedExtension()), source);
+        Class<?>[] parameterTypes = new Class<?>[count];
+        Arrays.fill(parameterTypes, boolean.class);
+        Constructor<?> packed = constructor(classLoader, "test.AutoValue_Test$Packed",
+                parameterTypes);
+        Constructor<?> regular = constructor(classLoader, "test.AutoValue_Test", parameterTypes);
+
+        assertThat(fieldTypes(packed.getDeclaringClass())).containsExactly("$bits0", long.class);
+
+        for (int i = 0; i < count; i++) {
+            Object[] args = new Object[count];
+            Arrays.fill(args, false);
+            args[i] = true;
+            args[count - 1 - i] = true;
+            assertSameValue(packed.newInstance(args), regular.newInstance(args));
+        }
+    }
+
+    @Test
+    public void generatesPackedClass() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public enum Color { RED, GREEN }\n"
+                + "  public abstract boolean a();\n"
+                + "  public abstract Color color();\n"
+                + "  public abstract String name();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.NullPointerException;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(boolean a, Test.Color color, String name) {\n"
+                + "    super(a, color, name);\n"
+                + "  }\n"
+                + "  static final class Packed extends Test {\n"
+                + "    private static final Test.Color[] $COLOR_VALUES = Test.Color.values();\n"
+                + "    private final String name;\n"
+                + "    private final byte $bits0;\n"
+                + "    Packed(boolean a, Test.Color color, String name) {\n"
+                + "      if (color == null) {\n"
+                + "        throw new NullPointerException(\"Null color\");\n"
+                + "      }\n"
+                + "      if (name == null) {\n"
+                + "        throw new NullPointerException(\"Null name\");\n"
+                + "      }\n"
+                + "      this.name = name;\n"
+                + "      this.$bits0 = (byte) ((a ? 0x1 : 0)\n"
+                + "          | (color.ordinal() << 1));\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public boolean a() {\n"
+                + "      return ($bits0 & 0x1) != 0;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public Test.Color color() {\n"
+                + "      return $COLOR_VALUES[($bits0 >>> 1) & 0x1];\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String name() {\n"
+                + "      return name;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String toString() {\n"
+                + "      return \"Test{\"\n"
+                + "          + \"a=\" + this.a() + \", \"\n"
+                + "          + \"color=\" + this.color() + \", \"\n"
+                + "          + \"name=\" + this.name\n"
+                + "          + \"}\";\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public boolean equals(Object o) {\n"
+                + "      if (o == this) {\n"
+                + "        return true;\n"
+                + "      }\n"
+                + "      if (o instanceof Test) {\n"
+                + "        Test that = (Test) o;\n"
+                + "        return (this.a() == that.a())\n"
+                + "            && (this.color().equals(that.color()))\n"
+                + "            && (this.name.equals(that.name()));\n"
+                + "      }\n"
+                + "      return false;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public int hashCode() {\n"
+                + "      int h = 1;\n"
+                + "      h *= 1000003;\n"
+                + "      h ^= this.a() ? 1231 : 1237;\n"
+                + "      h *= 1000003;\n"
+                + "      h ^= this.color().hashCode();\n"
+                + "      h *= 1000003;\n"
+                + "      h ^= this.name.hashCode();\n"
+                + "      return h;\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new PackedExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void generatedNamesDontClash() {
+        // a property named like a bits field, one named like an enum constants field and two
+        // enums with the same simple name
+        JavaFileObject first = JavaFileObjects.forSourceString("test.a.Color", ""
+                + "package test.a;\n"
+                + "public enum Color { RED, GREEN }\n");
+        JavaFileObject second = JavaFileObjects.forSourceString("test.b.Color", ""
+                + "package test.b;\n"
+                + "public enum Color { CYAN, MAGENTA, YELLOW }\n");
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract test.a.Color first();\n"
+                + "  public abstract test.b.Color second();\n"
+                + "  public abstract String bits0();\n"
+                + "  public abstract int COLOR_VALUES();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.NullPointerException;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import test.a.Color;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(Color first, test.b.Color second, String bits0, int\n"
+                + "      COLOR_VALUES) {\n"
+                + "    super(first, second, bits0, COLOR_VALUES);\n"
+                + "  }\n"
+                + "  static final class Packed extends Test {\n"
+                + "    private static final Color[] $COLOR_VALUES = Color.values();\n"
+                + "    private static final test.b.Color[] $COLOR_VALUES_1 =\n"
+                + "        test.b.Color.values();\n"
+                + "    private final String bits0;\n"
+                + "    private final int COLOR_VALUES;\n"
+                + "    private final byte $bits0;\n"
+                + "    Packed(Color first, test.b.Color second, String bits0, int COLOR_VALUES) {\n"
+                + "      if (first == null) {\n"
+                + "        throw new NullPointerException(\"Null first\");\n"
+                + "      }\n"
+                + "      if (second == null) {\n"
+                + "        throw new NullPointerException(\"Null second\");\n"
+                + "      }\n"
+                + "      if (bits0 == null) {\n"
+                + "        throw new NullPointerException(\"Null bits0\");\n"
+                + "      }\n"
+                + "      this.bits0 = bits0;\n"
+                + "      this.COLOR_VALUES = COLOR_VALUES;\n"
+                + "      this.$bits0 = (byte) ((first.ordinal() << 0)\n"
+                + "          | (second.ordinal() << 1));\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public Color first() {\n"
+                + "      return $COLOR_VALUES[($bits0 >>> 0) & 0x1];\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public test.b.Color second() {\n"
+                + "      return $COLOR_VALUES_1[($bits0 >>> 1) & 0x3];\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String bits0() {\n"
+                + "      return bits0;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public int COLOR_VALUES() {\n"
+                + "      return COLOR_VALUES;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String toString() {\n"
+                + "      return \"Test{\"\n"
+                + "          + \"first=\" + this.first() + \", \"\n"
+                + "          + \"second=\" + this.second() + \", \"\n"
+                + "          + \"bits0=\" + this.bits0 + \", \"\n"
+                + "          + \"COLOR_VALUES=\" + this.COLOR_VALUES\n"
+                + "          + \"}\";\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public boolean equals(Object o) {\n"
+                + "      if (o == this) {\n"
+                + "        return true;\n"
+                + "      }\n"
+                + "      if (o instanceof Test) {\n"
+                + "        Test that = (Test) o;\n"
+                + "        return (this.first().equals(that.first()))\n"
+                + "            && (this.second().equals(that.second()))\n"
+                + "            && (this.bits0.equals(that.bits0()))\n"
+                + "            && (this.COLOR_VALUES == that.COLOR_VALUES());\n"
+                + "      }\n"
+                + "      return false;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public int hashCode() {\n"
+                + "      int h = 1;\n"
+                + "      h *= 1000003;\n"
+                + "      h ^= this.first().hashCode();\n"
+                + "      h *= 1000003;\n"
+                + "      h ^= this.second().hashCode();\n"
+                + "      h *= 1000003;\n"
+                + "      h ^= this.bits0.hashCode();\n"
+                + "      h *= 1000003;\n"
+                + "      h ^= this.COLOR_VALUES;\n"
+                + "      return h;\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Arrays.asList(first, second, source))
+                .processedWith(newProcessor(new PackedExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    private static Constructor<?> constructor(
+            ClassLoader classLoader, String className, Class<?>[] parameterTypes)
+            throws Exception {
+        Constructor<?> constructor =
+                classLoader.loadClass(className).getDeclaredConstructor(parameterTypes);
+        constructor.setAccessible(true);
+        return constructor;
+    }
+
+    private static Map<String, Class<?>> fieldTypes(Class<?> type) {
+        Map<String, Class<?>> fields = new LinkedHashMap<>();
+        for (Field field : type.getDeclaredFields()) {
+            fields.put(field.getName(), field.getType());
+        }
+        return fields;
+    }
+
+    private static void assertSameValue(Object packed, Object regular) throws Exception {
+        for (Method method : packed.getClass().getSuperclass().getDeclaredMethods()) {
+            if (method.getParameterTypes().length == 0) {
+                method.setAccessible(true);
+                Object expected = method.invoke(regular);
+                Object actual = method.invoke(packed);
+                if (expected instanceof long[]) {
+                    assertThat((long[]) actual).isEqualTo((long[]) expected);
+                } else {
+                    assertThat(actual).isEqualTo(expected);
+                }
+            }
+        }
+        assertThat(packed).isEqualTo(regular);
+        assertThat(regular).isEqualTo(packed);
+        assertThat(packed.hashCode()).isEqualTo(regular.hashCode());
+        assertThat(packed.toString()).isEqualTo(regular.toString());
+    }
+}
@@ -0,0 +1,186 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.ChangeMaskExtension;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.BitSet;
+import java.util.Collections;
+import javax.tools.JavaFileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class ChangeMaskTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /** Properties named like the parameters of patch. */
+    private final JavaFileObject clashing = JavaFileObjects.forSourceString("test.Test", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "import javax.annotation.Nullable;\n"
+            + "@AutoValue public abstract class Test {\n"
+            + "  public abstract long mask();\n"
+            + "  @Nullable public abstract String base();\n"
+            + "  public abstract float source();\n"
+            + "  static Test create(long mask, String base, float source) {\n"
+            + "    return new AutoValue_Test(mask, base, source);\n"
+            + "  }\n"
+            + "}\n");
+
+    @Test
+    public void diffAndPatch() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int id();\n"
+                + "  public abstract double ratio();\n"
+                + "  @Nullable public abstract String name();\n"
+                + "  public abstract byte[] data();\n"
+                + "  static Test create(int id, double ratio, String name, byte[] data) {\n"
+                + "    return new AutoValue_Test(id, ratio, name, data);\n"
+                + "  }\n"
+                + "}\n");
+
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new ChangeMaskExtension()), source);
+        Class<?> test = classLoader.loadClass("test.Test");
+        Class<?> changeMask = classLoader.loadClass("test.AutoValue_Test$ChangeMask");
+        Method create = test.getDeclaredMethod(
+                "create", int.class, double.class, String.class, byte[].class);
+        Method diff = changeMask.getDeclaredMethod("diff", test, test);
+        Method patch = changeMask.getDeclaredMethod("patch", test, long.class, test);
+        create.setAccessible(true);
+        diff.setAccessible(true);
+        patch.setAccessible(true);
+        assertThat(diff.getReturnType()).isEqualTo(long.class);
+        Field name = changeMask.getDeclaredField("NAME");
+        name.setAccessible(true);
+        assertThat(name.getInt(null)).isEqualTo(2);
+
+        Object a = create.invoke(null, 1, Double.NaN, null, new byte[] {1});
+        Object b = create.invoke(null, 1, Double.NaN, null, new byte[] {1});
+        Object c = create.invoke(null, 2, Double.NaN, "c", new byte[] {1});
+        assertThat(diff.invoke(null, a, b)).isEqualTo(0L);
+        assertThat(diff.invoke(null, a, c)).isEqualTo(0x5L);
+        assertThat(diff.invoke(null, c, a)).isEqualTo(0x5L);
+
+        Object patched = patch.invoke(null, a, 0x5L, c);
+        assertThat(patched).isEqualTo(c);
+        assertThat(patch.invoke(null, a, 0x1L, c))
+                .isEqualTo(create.invoke(null, 2, Double.NaN, null, new byte[] {1}));
+        assertThat(patch.invoke(null, a, 0L, c)).isEqualTo(a);
+    }
+
+    @Test
+    public void patchPropertiesNamedLikeParameters() throws Exception {
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new ChangeMaskExtension()), clashing);
+        Class<?> test = classLoader.loadClass("test.Test");
+        Method create = test.getDeclaredMethod("create", long.class, String.class, float.class);
+        Method patch = classLoader.loadClass("test.AutoValue_Test$ChangeMask")
+                .getDeclaredMethod("patch", test, long.class, test);
+        create.setAccessible(true);
+        patch.setAccessible(true);
+        Object a = create.invoke(null, 1L, "a", 1f);
+        Object b = create.invoke(null, 2L, "b", 2f);
+        assertThat(patch.invoke(null, a, 0x5L, b)).isEqualTo(create.invoke(null, 2L, "a", 2f));
+    }
+
+    @Test
+    public void wideClassesUseBitSet() throws Exception {
+        int count = 70;
+        StringBuilder source = new StringBuilder()
+                .append("package test;\n")
+                .append("import com.google.auto.value.AutoValue;\n")
+                .append("@AutoValue public abstract class Wide {\n");
+        for (int i = 0; i < count; i++) {
+            source.append("  public abstract int p").append(i).append("();\n");
+        }
+        source.append("  static Wide create(int[] v) {\n")
+                .append("    return new AutoValue_Wide(");
+        for (int i = 0; i < count; i++) {
+            source.append(i == 0 ? "" : ", ").append("v[").append(i).append("]");
+        }
+        source.append(");\n  }\n}\n");
+
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new ChangeMaskExtension()),
+                JavaFileObjects.forSourceString("test.Wide", source.toString()));
+        Class<?> wide = classLoader.loadClass("test.Wide");
+        Class<?> changeMask = classLoader.loadClass("test.AutoValue_Wide$ChangeMask");
+        Method create = wide.getDeclaredMethod("create", int[].class);
+        Method diff = changeMask.getDeclaredMethod("diff", wide, wide);
+        Method patch = changeMask.getDeclaredMethod("patch", wide, BitSet.class, wide);
+        create.setAccessible(true);
+        diff.setAccessible(true);
+        patch.setAccessible(true);
+
+        int[] values = new int[count];
+        Object a = create.invoke(null, (Object) values.clone());
+        values[3] = 1;
+        values[68] = 1;
+        Object b = create.invoke(null, (Object) values.clone());
+
+        BitSet expected = new BitSet();
+        expected.set(3);
+        expected.set(68);
+        BitSet mask = (BitSet) diff.invoke(null, a, b);
+        assertThat(mask).isEqualTo(expected);
+        assertThat(patch.invoke(null, a, mask, b)).isEqualTo(b);
+    }
+
+    @Test
+    public void generatesChangeMask() {
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Float;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(long mask, String base, float source) {\n"
+                + "    super(mask, base, source);\n"
+                + "  }\n"
+                + "  static final class ChangeMask {\n"
+                + "    static final int MASK = 0;\n"
+                + "    static final int BASE = 1;\n"
+                + "    static final int SOURCE = 2;\n"
+                + "    static long diff(Test a, Test b) {\n"
+                + "      long mask = 0L;\n"
+                + "      if (a.mask() != b.mask()) {\n"
+                + "        mask |= 0x1L;\n"
+                + "      }\n"
+                + "      if (a.base() == null ? b.base() != null : !a.base().equals(b.base())) {\n"
+                + "        mask |= 0x2L;\n"
+                + "      }\n"
+                + "      if (Float.floatToIntBits(a.source()) !=\n"
+                + "          Float.floatToIntBits(b.source())) {\n"
+                + "        mask |= 0x4L;\n"
+                + "      }\n"
+                + "      return mask;\n"
+                + "    }\n"
+                + "    static Test patch(Test base, long mask, Test source) {\n"
+                + "      long patchedMask = (mask & 0x1L) != 0 ? source.mask() : base.mask();\n"
+                + "      String patchedBase = (mask & 0x2L) != 0 ? source.base() : base.base();\n"
+                + "      float patchedSource = (mask & 0x4L) != 0 ? source.source() :\n"
+                + "          base.source();\n"
+                + "      return new AutoValue_Test(patchedMask, patchedBase, patchedSource);\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(clashing))
+                .processedWith(newProcessor(new ChangeMaskExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+}
@@ -0,0 +1,301 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import com.google.testing.compile.JavaFileObjects;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.TypeName;
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ClasspathCacheTest {
+
+    private static final String CLASSPATH_TYPE = TestCompiler.class.getName();
+    private static final String SOURCE_TYPE = "test.Test";
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final JavaFileObject source = JavaFileObjects.forSourceString(SOURCE_TYPE, ""
+            + "package test;\n"
+            + "public class Test {\n"
+            + "}\n");
+
+    @Test
+    public void cachesClasspathTypesAcrossCompilations() throws Exception {
+        ClasspathCache cache = ClasspathCache.create(16);
+        List<String> loads = new ArrayList<>();
+
+        compile(cache, loads, CLASSPATH_TYPE, SOURCE_TYPE);
+        compile(cache, loads, CLASSPATH_TYPE, SOURCE_TYPE);
+
+        assertThat(loads).containsExactly(CLASSPATH_TYPE, SOURCE_TYPE, SOURCE_TYPE).inOrder();
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.hitCount()).isEqualTo(1);
+        assertThat(cache.missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void changedClassFileIsLoadedAgain() throws Exception {
+        ClasspathCache cache = ClasspathCache.create(16);
+        List<String> loads = new ArrayList<>();
+        File classfile = new File(TestCompiler.class.getResource("TestCompiler.class").toURI());
+        long lastModified = classfile.lastModified();
+
+        compile(cache, loads, CLASSPATH_TYPE);
+        try {
+            assertThat(classfile.setLastModified(lastModified + 2000)).isTrue();
+            compile(cache, loads, CLASSPATH_TYPE);
+        } finally {
+            classfile.setLastModified(lastModified);
+        }
+
+        assertThat(loads).containsExactly(CLASSPATH_TYPE, CLASSPATH_TYPE);
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.hitCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void cachesNestedClasspathTypes() throws Exception {
+        ClasspathCache cache = ClasspathCache.create(16);
+        List<String> loads = new ArrayList<>();
+        String nested = TestProcessor.class.getCanonicalName();
+
+        compile(cache, loads, nested);
+        compile(cache, loads, nested);
+
+        assertThat(loads).containsExactly(nested);
+        assertThat(cache.hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void typesInClassOutputAreNotCached() throws Exception {
+        ClasspathCache cache = ClasspathCache.create(16);
+        List<String> loads = new ArrayList<>();
+        File outputDir = temporaryFolder.newFolder();
+        // like a class path that contains the output of the compilation
+        File classfile = new File(outputDir,
+                "classes/" + CLASSPATH_TYPE.replace('.', '/') + ".class");
+        assertThat(classfile.getParentFile().mkdirs()).isTrue();
+        Files.copy(new File(TestCompiler.class.getResource("TestCompiler.class").toURI()),
+                classfile);
+
+        compile(outputDir, cache, loads, CLASSPATH_TYPE);
+        compile(outputDir, cache, loads, CLASSPATH_TYPE);
+
+        assertThat(loads).containsExactly(CLASSPATH_TYPE, CLASSPATH_TYPE);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreDropped() throws Exception {
+        ClasspathCache cache = ClasspathCache.create(1);
+        List<String> loads = new ArrayList<>();
+
+        compile(cache, loads, CLASSPATH_TYPE, ClasspathCacheTest.class.getName());
+        compile(cache, loads, CLASSPATH_TYPE);
+
+        assertThat(loads).hasSize(3);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void matchingStaticMethodIsFromCurrentCompilation() throws Exception {
+        final ClasspathCache cache = ClasspathCache.create(16);
+        final List<ExecutableElement> methods = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Processor processor = new TestProcessor() {
+                @Override
+                void process() {
+                    TypeElement type =
+                            processingEnv.getElementUtils().getTypeElement(CLASSPATH_TYPE);
+                    Optional<ExecutableElement> method = ElementUtil.getMatchingStaticMethod(
+                            processingEnv, type, cache, ClassName.get(ClassLoader.class),
+                            ClassName.get(File.class), ClassName.get(Processor.class),
+                            ArrayTypeName.of(JavaFileObject.class));
+                    methods.add(method.get());
+                    assertThat(ElementUtil.getMatchingStaticMethod(
+                            processingEnv, type, cache, TypeName.INT).isPresent()).isFalse();
+                }
+            };
+            TestCompiler.compile(temporaryFolder.newFolder(), processor, source);
+        }
+
+        assertThat(methods).hasSize(2);
+        assertThat(methods.get(0)).isNotSameAs(methods.get(1));
+        assertThat(methods.get(1).getSimpleName().toString()).isEqualTo("compile");
+        assertThat(methods.get(1).getParameters()).hasSize(3);
+        assertThat(cache.hitCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void elementsAreRejected() throws Exception {
+        final ClasspathCache cache = ClasspathCache.create(16);
+        final List<Exception> exceptions = new ArrayList<>();
+        Processor processor = new TestProcessor() {
+            @Override
+            void process() {
+                TypeElement type = processingEnv.getElementUtils().getTypeElement(CLASSPATH_TYPE);
+                try {
+                    cache.get(processingEnv, type, "self",
+                            new ClasspathCache.Loader<TypeElement>() {
+                                @Override
+                                public TypeElement load(TypeElement type) {
+                                    return type;
+                                }
+                            });
+                } catch (IllegalArgumentException e) {
+                    exceptions.add(e);
+                }
+            }
+        };
+
+        TestCompiler.compile(temporaryFolder.newFolder(), processor, source);
+
+        assertThat(exceptions).hasSize(1);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void classFileIsLookedUpOncePerCompilation() throws Exception {
+        final ClasspathCache cache = ClasspathCache.create(16);
+        final List<Object> lookups = new ArrayList<>();
+        Processor processor = new TestProcessor() {
+            @Override
+            void process() {
+                ProcessingEnvironment counting = countingLookups(processingEnv, lookups);
+                TypeElement type = processingEnv.getElementUtils().getTypeElement(CLASSPATH_TYPE);
+                for (String name : Arrays.asList("a", "b", "c")) {
+                    cache.get(counting, type, name, new ClasspathCache.Loader<String>() {
+                        @Override
+                        public String load(TypeElement type) {
+                            return type.getQualifiedName().toString();
+                        }
+                    });
+                }
+            }
+        };
+
+        TestCompiler.compile(temporaryFolder.newFolder(), processor, source);
+
+        assertThat(lookups).containsExactly(StandardLocation.CLASS_OUTPUT,
+                StandardLocation.CLASS_PATH).inOrder();
+        assertThat(cache.size()).isEqualTo(3);
+    }
+
+    private void compile(final ClasspathCache cache, final List<String> loads,
+            final String... typeNames) throws Exception {
+        compile(temporaryFolder.newFolder(), cache, loads, typeNames);
+    }
+
+    private void compile(File outputDir, final ClasspathCache cache, final List<String> loads,
+            final String... typeNames) throws Exception {
+        Processor processor = new TestProcessor() {
+            @Override
+            void process() {
+                for (String typeName : typeNames) {
+                    TypeElement type = processingEnv.getElementUtils().getTypeElement(typeName);
+                    cache.get(processingEnv, type, "name", new ClasspathCache.Loader<String>() {
+                        @Override
+                        public String load(TypeElement type) {
+                            String name = type.getQualifiedName().toString();
+                            loads.add(name);
+                            return name;
+                        }
+                    });
+                }
+            }
+        };
+        TestCompiler.compile(outputDir, processor, source);
+    }
+
+    /**
+     * Wraps {@code processingEnvironment} so that the locations of all
+     * {@link Filer#getResource} calls are added to {@code lookups}.
+     */
+    private static ProcessingEnvironment countingLookups(
+            final ProcessingEnvironment processingEnvironment, final List<Object> lookups) {
+        final Filer filer = processingEnvironment.getFiler();
+        final Filer counting = (Filer) Proxy.newProxyInstance(
+                ClasspathCacheTest.class.getClassLoader(), new Class<?>[] {Filer.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        if (method.getName().equals("getResource")) {
+                            lookups.add(args[0]);
+                        }
+                        return invokeUnwrapped(method, filer, args);
+                    }
+                });
+        return (ProcessingEnvironment) Proxy.newProxyInstance(
+                ClasspathCacheTest.class.getClassLoader(),
+                new Class<?>[] {ProcessingEnvironment.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        if (method.getName().equals("getFiler")) {
+                            return counting;
+                        }
+                        return invokeUnwrapped(method, processingEnvironment, args);
+                    }
+                });
+    }
+
+    private static Object invokeUnwrapped(Method method, Object target, Object[] args)
+            throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private abstract static class TestProcessor extends AbstractProcessor {
+        private boolean processed;
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return Collections.singleton("*");
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            if (!processed) {
+                processed = true;
+                process();
+            }
+            return false;
+        }
+
+        abstract void process();
+    }
+}
@@ -0,0 +1,84 @@
+package com.gabrielittner.auto.value.util;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.TypeName;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class CodeTemplateTest {
+
+    @Test
+    public void matchesCodeBlockOf() {
+        String format = "$[$T $N = $L ? source.$N() : $S;\n$]$>if (x) {\n$<}\n$$";
+        Object[] args = {ClassName.get(String.class), "name", CodeBlock.of("a != b"), "getName",
+                "default"};
+        CodeTemplate template = CodeTemplate.compile(format);
+        assertThat(template.slots()).isEqualTo(5);
+        assertThat(template.instantiate(args)).isEqualTo(CodeBlock.of(format, args));
+        assertThat(template.toString()).isEqualTo(format);
+    }
+
+    @Test
+    public void appendsToBuilder() {
+        CodeTemplate template = CodeTemplate.compile("$N++");
+        CodeBlock.Builder builder = CodeBlock.builder().add("int i = 0;\n");
+        template.appendTo(builder, "i");
+        assertThat(builder.build().toString()).isEqualTo("int i = 0;\ni++");
+        assertThat(CodeTemplate.compile("return;\n").instantiate().toString())
+                .isEqualTo("return;\n");
+    }
+
+    @Test
+    public void callArguments() {
+        assertThat(CodeTemplate.callArguments(0).instantiate())
+                .isEqualTo(CodeBlock.builder().addStatement("()").build());
+        assertThat(CodeTemplate.callArguments(3).instantiate("a", "b", "c"))
+                .isEqualTo(CodeBlock.builder().addStatement("($N, $N, $N)", "a", "b", "c")
+                        .build());
+        assertThat(CodeTemplate.callArguments(3)).isSameAs(CodeTemplate.callArguments(3));
+    }
+
+    @Test
+    public void callArgumentsBeyondCache() {
+        // javac rejects the call, but generating it must not fail
+        CodeTemplate template = CodeTemplate.callArguments(MethodSplitter.MAX_PARAMETER_SLOTS + 1);
+        assertThat(template.slots()).isEqualTo(256);
+        assertThat(template).isNotSameAs(
+                CodeTemplate.callArguments(MethodSplitter.MAX_PARAMETER_SLOTS + 1));
+    }
+
+    @Test
+    public void wrongNumberOfArguments() {
+        try {
+            CodeTemplate.compile("$N.$N()").instantiate("a");
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertThat(expected).hasMessage("Expected 2 arguments but got 1 for $N.$N()");
+        }
+    }
+
+    @Test
+    public void invalidArgumentIsRejectedByJavaPoet() {
+        try {
+            CodeTemplate.compile("$T x").instantiate("notAType");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertThat(CodeTemplate.compile("$T x").instantiate(TypeName.INT).toString())
+                .isEqualTo("int x");
+    }
+
+    @Test
+    public void unsupportedPlaceholders() {
+        for (String format : new String[] {"$1N", "$name:T", "$X", "a$"}) {
+            try {
+                CodeTemplate.compile(format);
+                fail(format);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.CollectionExtension;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.tools.JavaFileObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assert.fail;
+
+public class CollectionUtilTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Class<?> generated;
+
+    @Before
+    public void setUp() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import com.google.common.collect.ImmutableList;\n"
+                + "import com.google.common.collect.ImmutableSortedMap;\n"
+                + "import java.util.List;\n"
+                + "import java.util.Map;\n"
+                + "import java.util.NavigableMap;\n"
+                + "import java.util.SortedSet;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract ImmutableList<String> names();\n"
+                + "  public abstract ImmutableSortedMap<String, Integer> ranks();\n"
+                + "  public abstract List<? extends Number> numbers();\n"
+                + "  @Nullable public abstract Map<String, int[]> arrays();\n"
+                + "  public abstract SortedSet<String> sorted();\n"
+                + "  public abstract NavigableMap<String, Integer> index();\n"
+                + "  public abstract long[] ids();\n"
+                + "  public abstract String name();\n"
+                + "}\n");
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new CollectionExtension()), source);
+        generated = classLoader.loadClass("test.AutoValue_Test");
+    }
+
+    @Test
+    public void immutableCollectionsAreNotCopied() throws Exception {
+        ImmutableList<String> names = ImmutableList.of("a", "b");
+        assertThat(invoke("namesCopy", ImmutableList.class, names)).isSameAs(names);
+        ImmutableSortedMap<String, Integer> ranks = ImmutableSortedMap.of("a", 1);
+        assertThat(invoke("ranksCopy", ImmutableSortedMap.class, ranks)).isSameAs(ranks);
+    }
+
+    @Test
+    public void mutableCollectionsAreCopied() throws Exception {
+        List<Integer> numbers = new ArrayList<>(Arrays.asList(1, 2));
+        List<?> numbersCopy = (List<?>) invoke("numbersCopy", List.class, numbers);
+        numbers.add(3);
+        assertThat(numbersCopy).containsExactly(1, 2).inOrder();
+        try {
+            numbersCopy.clear();
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        SortedSet<String> sorted = new TreeSet<>(Collections.reverseOrder());
+        sorted.addAll(Arrays.asList("a", "b"));
+        assertThat((Iterable<?>) invoke("sortedCopy", SortedSet.class, sorted))
+                .containsExactly("b", "a").inOrder();
+
+        NavigableMap<String, Integer> index = new TreeMap<>();
+        index.put("a", 1);
+        NavigableMap<?, ?> indexCopy =
+                (NavigableMap<?, ?>) invoke("indexCopy", NavigableMap.class, index);
+        assertThat(indexCopy.firstKey()).isEqualTo("a");
+        try {
+            indexCopy.pollFirstEntry();
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        assertThat(invoke("arraysCopy", Map.class, null)).isNull();
+
+        long[] ids = { 1, 2 };
+        long[] idsCopy = (long[]) invoke("idsCopy", long[].class, ids);
+        assertThat(idsCopy).isNotSameAs(ids);
+        assertThat(idsCopy).isEqualTo(ids);
+    }
+
+    @Test
+    public void accumulators() throws Exception {
+        assertThat(invoke("namesAccumulator", int.class, 2))
+                .isInstanceOf(ImmutableList.Builder.class);
+        assertThat(invoke("ranksAccumulator", int.class, 2))
+                .isInstanceOf(ImmutableSortedMap.Builder.class);
+        assertThat(invoke("numbersAccumulator", int.class, 2)).isInstanceOf(ArrayList.class);
+        assertThat(invoke("arraysAccumulator", int.class, 2)).isInstanceOf(LinkedHashMap.class);
+        assertThat(invoke("sortedAccumulator", int.class, 2)).isInstanceOf(TreeSet.class);
+        assertThat(invoke("indexAccumulator", int.class, 2)).isInstanceOf(TreeMap.class);
+        assertThat((long[]) invoke("idsAccumulator", int.class, 2)).hasLength(2);
+    }
+
+    @Test
+    public void generatesCopiesAndAccumulators() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import com.google.common.collect.ImmutableSet;\n"
+                + "import java.util.NavigableSet;\n"
+                + "import java.util.Set;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract NavigableSet<String> tags();\n"
+                + "  @Nullable public abstract Set<Long> ids();\n"
+                + "  public abstract ImmutableSet<String> names();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import com.google.common.collect.ImmutableSet;\n"
+                + "import java.lang.Long;\n"
+                + "import java.lang.Math;\n"
+                + "import java.lang.String;\n"
+                + "import java.util.Collections;\n"
+                + "import java.util.LinkedHashSet;\n"
+                + "import java.util.NavigableSet;\n"
+                + "import java.util.Set;\n"
+                + "import java.util.TreeSet;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(NavigableSet<String> tags, Set<Long> ids,\n"
+                + "      ImmutableSet<String> names) {\n"
+                + "    super(tags, ids, names);\n"
+                + "  }\n"
+                + "  static NavigableSet<String> tagsCopy(NavigableSet<String> value) {\n"
+                + "    return Collections.unmodifiableNavigableSet(new TreeSet<String>(value));\n"
+                + "  }\n"
+                + "  static TreeSet<String> tagsAccumulator(int size) {\n"
+                + "    return new TreeSet<String>();\n"
+                + "  }\n"
+                + "  static Set<Long> idsCopy(Set<Long> value) {\n"
+                + "    return value == null ? null : Collections.unmodifiableSet(new\n"
+                + "        LinkedHashSet<Long>(value));\n"
+                + "  }\n"
+                + "  static LinkedHashSet<Long> idsAccumulator(int size) {\n"
+                + "    return new LinkedHashSet<Long>(Math.max((int) (size / 0.75f) + 1, 16));\n"
+                + "  }\n"
+                + "  static ImmutableSet<String> namesCopy(ImmutableSet<String> value) {\n"
+                + "    return value;\n"
+                + "  }\n"
+                + "  static ImmutableSet.Builder<String> namesAccumulator(int size) {\n"
+                + "    return ImmutableSet.<String>builder();\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new CollectionExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    private Object invoke(String name, Class<?> parameterType, Object argument)
+            throws Exception {
+        Method method = generated.getDeclaredMethod(name, parameterType);
+        method.setAccessible(true);
+        return method.invoke(null, argument);
+    }
+}
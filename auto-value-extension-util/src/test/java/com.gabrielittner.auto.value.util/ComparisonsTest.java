@@ -0,0 +1,234 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.ComparableExtension;
+import com.google.common.base.Optional;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class ComparisonsTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Class<?> generated;
+    private Constructor<?> constructor;
+
+    @Before
+    public void setUp() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import com.google.common.base.Optional;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test implements Comparable<Test> {\n"
+                + "  public abstract int id();\n"
+                + "  @Nullable public abstract String name();\n"
+                + "  public abstract Optional<Double> score();\n"
+                + "  public abstract Long big();\n"
+                + "  public abstract boolean flag();\n"
+                + "}\n");
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new ComparableExtension()), source);
+        generated = classLoader.loadClass("test.AutoValue_Test");
+        constructor = generated.getDeclaredConstructor(int.class, String.class, Optional.class,
+                Long.class, boolean.class);
+        constructor.setAccessible(true);
+    }
+
+    @Test
+    public void compareTo() throws Exception {
+        Object a = create(1, "b", 1.0, 1L, false);
+        Object b = create(1, null, 1.0, 1L, false);
+        Object c = create(1, "a", null, 1L, false);
+        Object d = create(1, "a", 0.5, 1L, true);
+        Object e = create(0, "z", 2.0, 2L, true);
+        // nulls first
+        assertThat(sorted(null, a, b, c, d, e)).containsExactly(e, b, c, d, a).inOrder();
+        assertThat(compareTo(a, create(1, "b", 1.0, 1L, false))).isEqualTo(0);
+    }
+
+    @Test
+    public void singlePropertyComparators() throws Exception {
+        Object a = create(2, null, null, 3L, false);
+        Object b = create(1, "b", 2.0, 2L, true);
+        Object c = create(3, "a", 1.0, 1L, false);
+        assertThat(sorted("BY_ID", a, b, c)).containsExactly(b, a, c).inOrder();
+        // nulls last
+        assertThat(sorted("BY_NAME", a, b, c)).containsExactly(c, b, a).inOrder();
+        assertThat(sorted("BY_SCORE", a, b, c)).containsExactly(c, b, a).inOrder();
+        assertThat(sorted("BY_BIG", a, b, c)).containsExactly(c, b, a).inOrder();
+        assertThat(sorted("BY_FLAG", b, a, c)).containsExactly(a, c, b).inOrder();
+    }
+
+    @Test
+    public void multiKeyComparator() throws Exception {
+        Object a = create(2, "a", 1.0, 1L, false);
+        Object b = create(1, "a", 1.0, 1L, false);
+        Object c = create(3, "a", 1.0, 0L, false);
+        Object d = create(0, "a", 1.0, 0L, true);
+        assertThat(sorted("BY_ALL_REVERSED", a, b, c, d)).containsExactly(c, b, a, d).inOrder();
+    }
+
+    @Test
+    public void notComparable() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test implements Comparable<Test> {\n"
+                + "  public abstract Object value();\n"
+                + "}\n");
+
+        assertAbout(javaSource())
+                .that(source)
+                .processedWith(newProcessor(new ComparableExtension()))
+                .failsToCompile()
+                .withErrorContaining("Property type java.lang.Object is not comparable");
+    }
+
+    @Test
+    public void generatesCompareTo() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test implements Comparable<Test> {\n"
+                + "  public abstract int id();\n"
+                + "  @Nullable public abstract String name();\n"
+                + "  public abstract boolean flag();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Boolean;\n"
+                + "import java.lang.Integer;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.util.Comparator;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  static final Comparator<Test> BY_ID = new Comparator<Test>() {\n"
+                + "    @Override\n"
+                + "    public int compare(Test a, Test b) {\n"
+                + "      return Integer.compare(a.id(), b.id());\n"
+                + "    }\n"
+                + "  };\n"
+                + "  static final Comparator<Test> BY_NAME = new Comparator<Test>() {\n"
+                + "    @Override\n"
+                + "    public int compare(Test a, Test b) {\n"
+                + "      int c;\n"
+                + "      String nameLeft = a.name();\n"
+                + "      String nameRight = b.name();\n"
+                + "      if (nameLeft == null) {\n"
+                + "        if (nameRight != null) {\n"
+                + "          return 1;\n"
+                + "        }\n"
+                + "      } else if (nameRight == null) {\n"
+                + "        return -1;\n"
+                + "      } else if ((c = nameLeft.compareTo(nameRight)) != 0) {\n"
+                + "        return c;\n"
+                + "      }\n"
+                + "      return 0;\n"
+                + "    }\n"
+                + "  };\n"
+                + "  static final Comparator<Test> BY_FLAG = new Comparator<Test>() {\n"
+                + "    @Override\n"
+                + "    public int compare(Test a, Test b) {\n"
+                + "      return Boolean.compare(a.flag(), b.flag());\n"
+                + "    }\n"
+                + "  };\n"
+                + "  static final Comparator<Test> BY_ALL_REVERSED = new Comparator<Test>() {\n"
+                + "    @Override\n"
+                + "    public int compare(Test a, Test b) {\n"
+                + "      int c;\n"
+                + "      if ((c = Boolean.compare(a.flag(), b.flag())) != 0) {\n"
+                + "        return c;\n"
+                + "      }\n"
+                + "      String nameLeft = a.name();\n"
+                + "      String nameRight = b.name();\n"
+                + "      if (nameLeft == null) {\n"
+                + "        if (nameRight != null) {\n"
+                + "          return 1;\n"
+                + "        }\n"
+                + "      } else if (nameRight == null) {\n"
+                + "        return -1;\n"
+                + "      } else if ((c = nameLeft.compareTo(nameRight)) != 0) {\n"
+                + "        return c;\n"
+                + "      }\n"
+                + "      return Integer.compare(a.id(), b.id());\n"
+                + "    }\n"
+                + "  };\n"
+                + "  AutoValue_Test(int id, String name, boolean flag) {\n"
+                + "    super(id, name, flag);\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  public int compareTo(Test that) {\n"
+                + "    int c;\n"
+                + "    if ((c = Integer.compare(this.id(), that.id())) != 0) {\n"
+                + "      return c;\n"
+                + "    }\n"
+                + "    String nameLeft = this.name();\n"
+                + "    String nameRight = that.name();\n"
+                + "    if (nameLeft == null) {\n"
+                + "      if (nameRight != null) {\n"
+                + "        return -1;\n"
+                + "      }\n"
+                + "    } else if (nameRight == null) {\n"
+                + "      return 1;\n"
+                + "    } else if ((c = nameLeft.compareTo(nameRight)) != 0) {\n"
+                + "      return c;\n"
+                + "    }\n"
+                + "    return Boolean.compare(this.flag(), that.flag());\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new ComparableExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    private Object create(int id, String name, Double score, Long big, boolean flag)
+            throws Exception {
+        return constructor.newInstance(id, name, Optional.fromNullable(score), big, flag);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compareTo(Object a, Object b) {
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> sorted(String comparatorName, Object... values) throws Exception {
+        List<Object> list = new ArrayList<>();
+        Collections.addAll(list, values);
+        if (comparatorName == null) {
+            Collections.sort(list, new Comparator<Object>() {
+                @Override
+                public int compare(Object a, Object b) {
+                    return compareTo(a, b);
+                }
+            });
+        } else {
+            Field field = generated.getDeclaredField(comparatorName);
+            field.setAccessible(true);
+            Collections.sort(list, (Comparator<Object>) field.get(null));
+        }
+        return list;
+    }
+}
@@ -5,13 +5,17 @@ import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.TypeName;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -121,6 +125,97 @@ public class ElementUtilTest {
                 .isTrue();
     }
 
+    @SuppressWarnings("unused")
+    private static abstract class AssignableMethodTestClass {
+        static Integer a(Number a) {
+            return null;
+        }
+        abstract ArrayList<String> b(Object b, int b2);
+    }
+
+    @Test
+    public void assignableMethodTests() {
+        TypeElement element =
+                elements.getTypeElement(AssignableMethodTestClass.class.getCanonicalName());
+        Set<ExecutableElement> methods = getLocalAndInheritedMethods(element, elements);
+        Types types = compilationRule.getTypes();
+        AssignabilityCache cache = AssignabilityCache.create(types);
+        TypeMirror number = elements.getTypeElement(Number.class.getCanonicalName()).asType();
+        TypeMirror integer = elements.getTypeElement(Integer.class.getCanonicalName()).asType();
+        TypeMirror string = elements.getTypeElement(String.class.getCanonicalName()).asType();
+        TypeMirror list = types.getDeclaredType(
+                elements.getTypeElement(List.class.getCanonicalName()), string);
+        TypeMirror intType = types.getPrimitiveType(TypeKind.INT);
+
+        // method a
+        assertThat(ElementUtil.getMatchingStaticMethod(element, cache, number, integer).isPresent())
+                .isTrue();
+        assertThat(ElementUtil.getMatchingStaticMethod(element, cache, integer, number).isPresent())
+                .isTrue();
+        assertThat(ElementUtil.getMatchingStaticMethod(element, cache, string, integer).isPresent())
+                .isFalse();
+        assertThat(ElementUtil.getMatchingStaticMethod(element, cache, number, string).isPresent())
+                .isFalse();
+
+        // method b
+        assertThat(ElementUtil.getMatchingAbstractMethod(methods, cache, list, string, intType)
+                .isPresent()).isTrue();
+        assertThat(ElementUtil.getMatchingAbstractMethod(methods, cache, string, string, intType)
+                .isPresent()).isFalse();
+        assertThat(ElementUtil.getMatchingAbstractMethod(methods, cache, list, string)
+                .isPresent()).isFalse();
+    }
+
+    @Test
+    public void assignabilityCache() {
+        Types types = compilationRule.getTypes();
+        AssignabilityCache cache = AssignabilityCache.create(types);
+        TypeMirror number = elements.getTypeElement(Number.class.getCanonicalName()).asType();
+        TypeMirror integer = elements.getTypeElement(Integer.class.getCanonicalName()).asType();
+
+        assertThat(cache.isAssignable(integer, number)).isTrue();
+        assertThat(cache.isAssignable(number, integer)).isFalse();
+        assertThat(cache.isSubtype(integer, number)).isTrue();
+        assertThat(cache.size()).isEqualTo(3);
+
+        assertThat(cache.isAssignable(integer, number)).isTrue();
+        assertThat(cache.isAssignable(
+                elements.getTypeElement(Integer.class.getCanonicalName()).asType(), number))
+                .isTrue();
+        assertThat(cache.size()).isEqualTo(3);
+    }
+
+    @SuppressWarnings("unused")
+    private static abstract class TypeVariableTestClass {
+        abstract <T extends Number> void t(T t);
+        abstract <U extends Number> void u(U u);
+        abstract <T extends Number> void other(T t);
+    }
+
+    @Test
+    public void assignabilityCacheTypeVariables() {
+        TypeElement element =
+                elements.getTypeElement(TypeVariableTestClass.class.getCanonicalName());
+        AssignabilityCache cache = AssignabilityCache.create(compilationRule.getTypes());
+        // type variables with the same bounds, and even the same name, are distinct types
+        TypeMirror t = typeVariable(element, "t");
+        TypeMirror u = typeVariable(element, "u");
+        TypeMirror otherT = typeVariable(element, "other");
+
+        assertThat(cache.isAssignable(t, t)).isTrue();
+        assertThat(cache.isAssignable(t, u)).isFalse();
+        assertThat(cache.isAssignable(t, otherT)).isFalse();
+        assertThat(cache.isSubtype(u, u)).isTrue();
+        assertThat(cache.isSubtype(u, t)).isFalse();
+        assertThat(cache.isSubtype(otherT, t)).isFalse();
+    }
+
+    private TypeMirror typeVariable(TypeElement element, String methodName) {
+        ExecutableElement method =
+                (ExecutableElement) getElementWithName(element.getEnclosedElements(), methodName);
+        return method.getTypeParameters().get(0).asType();
+    }
+
     @SuppressWarnings("unused")
     private static abstract class MethodModifierTestClass {
         void a() {}
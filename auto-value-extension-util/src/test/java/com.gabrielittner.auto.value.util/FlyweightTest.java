@@ -0,0 +1,381 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.FlyweightExtension;
+import com.google.testing.compile.JavaFileObjects;
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class FlyweightTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void writeAndMap() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int id();\n"
+                + "  @Nullable public abstract String name();\n"
+                + "  @Nullable public abstract Long parent();\n"
+                + "  public abstract boolean active();\n"
+                + "  public abstract byte[] data();\n"
+                + "  public abstract double ratio();\n"
+                + "  public abstract char grade();\n"
+                + "}\n");
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.newFolder(),
+                newProcessor(new FlyweightExtension()), source);
+        Class<?> test = classLoader.loadClass("test.Test");
+        Constructor<?> create = classLoader.loadClass("test.AutoValue_Test")
+                .getDeclaredConstructor(int.class, String.class, Long.class, boolean.class,
+                        byte[].class, double.class, char.class);
+        create.setAccessible(true);
+        Class<?> viewClass = classLoader.loadClass("test.AutoValue_Test$View");
+        Constructor<?> newView = viewClass.getDeclaredConstructor();
+        newView.setAccessible(true);
+        Method wrap = method(viewClass, "wrap", ByteBuffer.class, int.class);
+        Method recordSize = method(viewClass, "recordSize", ByteBuffer.class, int.class);
+        Method write = method(viewClass, "write", test, DataOutput.class);
+        Method toValue = method(viewClass, "toValue");
+
+        List<Object> values = Arrays.asList(
+                create.newInstance(1, "first é", 5L, true, new byte[] { 1, 2 }, 0.5, 'a'),
+                create.newInstance(2, null, null, false, new byte[0], -1.0, 'b'),
+                create.newInstance(3, "", Long.MAX_VALUE, true, new byte[] { 3 }, 2.0, 'c'));
+        File file = temporaryFolder.newFile();
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            for (Object value : values) {
+                write.invoke(null, value, out);
+            }
+        }
+
+        List<Object> read = new ArrayList<>();
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            MappedByteBuffer buffer =
+                    in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            Object view = newView.newInstance();
+            for (int offset = 0; offset < buffer.limit();
+                    offset += (Integer) recordSize.invoke(null, buffer, offset)) {
+                wrap.invoke(view, buffer, offset);
+                int index = read.size();
+                assertThat(view).isEqualTo(values.get(index));
+                assertThat(view.hashCode()).isEqualTo(values.get(index).hashCode());
+                assertThat(view.toString()).isEqualTo(values.get(index).toString());
+                read.add(toValue.invoke(view));
+            }
+        }
+        assertThat(read).isEqualTo(values);
+    }
+
+    @Test
+    public void unsupportedType() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract Object value();\n"
+                + "}\n");
+
+        assertAbout(javaSource())
+                .that(source)
+                .processedWith(newProcessor(new FlyweightExtension()))
+                .failsToCompile()
+                .withErrorContaining(
+                        "Property type java.lang.Object is not supported by Flyweight");
+    }
+
+    @Test
+    public void generatesFlyweight() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int id();\n"
+                + "  @Nullable public abstract String name();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.io.DataOutput;\n"
+                + "import java.io.IOException;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.nio.ByteBuffer;\n"
+                + "import java.nio.charset.Charset;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int id, String name) {\n"
+                + "    super(id, name);\n"
+                + "  }\n"
+                + "  static final class View extends Test {\n"
+                + "    static final int ID_OFFSET = 4;\n"
+                + "    static final int NAME_OFFSET = 8;\n"
+                + "    static final int FIXED_SIZE = 16;\n"
+                + "    private static final Charset UTF_8 = Charset.forName(\"UTF-8\");\n"
+                + "    private ByteBuffer buffer;\n"
+                + "    private int offset;\n"
+                + "    View() {\n"
+                + "    }\n"
+                + "    View wrap(ByteBuffer buffer, int offset) {\n"
+                + "      this.buffer = buffer;\n"
+                + "      this.offset = offset;\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    static int recordSize(ByteBuffer buffer, int offset) {\n"
+                + "      return buffer.getInt(offset);\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public int id() {\n"
+                + "      return buffer.getInt(offset + ID_OFFSET);\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String name() {\n"
+                + "      int length = buffer.getInt(offset + NAME_OFFSET + 4);\n"
+                + "      if (length == -1) {\n"
+                + "        return null;\n"
+                + "      }\n"
+                + "      return new String(readBytes(offset + buffer.getInt(offset +\n"
+                + "          NAME_OFFSET), length), UTF_8);\n"
+                + "    }\n"
+                + "    private byte[] readBytes(int position, int length) {\n"
+                + "      byte[] bytes = new byte[length];\n"
+                + "      for (int i = 0; i < length; i++) {\n"
+                + "        bytes[i] = buffer.get(position + i);\n"
+                + "      }\n"
+                + "      return bytes;\n"
+                + "    }\n"
+                + "    Test toValue() {\n"
+                + "      int id = this.id();\n"
+                + "      String name = this.name();\n"
+                + "      return new AutoValue_Test(id, name);\n"
+                + "    }\n"
+                + "    static void write(Test value, DataOutput out) throws IOException {\n"
+                + "      String writtenName = value.name();\n"
+                + "      byte[] encodedName = writtenName != null ? writtenName.getBytes(UTF_8)"
+                + " : null;\n"
+                + "      out.writeInt(FIXED_SIZE + (encodedName != null ? encodedName.length"
+                + " : 0));\n"
+                + "      int variableOffset = FIXED_SIZE;\n"
+                + "      out.writeInt(value.id());\n"
+                + "      if (encodedName != null) {\n"
+                + "        out.writeInt(variableOffset);\n"
+                + "        out.writeInt(encodedName.length);\n"
+                + "        variableOffset += encodedName.length;\n"
+                + "      } else {\n"
+                + "        out.writeInt(0);\n"
+                + "        out.writeInt(-1);\n"
+                + "      }\n"
+                + "      if (encodedName != null) {\n"
+                + "        out.write(encodedName);\n"
+                + "      }\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String toString() {\n"
+                + "      return \"Test{\"\n"
+                + "          + \"id=\" + this.id() + \", \"\n"
+                + "          + \"name=\" + this.name()\n"
+                + "          + \"}\";\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public boolean equals(Object o) {\n"
+                + "      if (o == this) {\n"
+                + "        return true;\n"
+                + "      }\n"
+                + "      if (o instanceof Test) {\n"
+                + "        Test that = (Test) o;\n"
+                + "        return (this.id() == that.id())\n"
+                + "            && ((this.name() == null) ? (that.name() == null) :\n"
+                + "                this.name().equals(that.name()));\n"
+                + "      }\n"
+                + "      return false;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public int hashCode() {\n"
+                + "      int h = 1;\n"
+                + "      h *= 1000003;\n"
+                + "      h ^= this.id();\n"
+                + "      h *= 1000003;\n"
+                + "      h ^= (this.name() == null) ? 0 : this.name().hashCode();\n"
+                + "      return h;\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new FlyweightExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void writeLocalsDontClashWithParameters() {
+        // properties named like the parameters of write()
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  @Nullable public abstract Integer out();\n"
+                + "  public abstract String value();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.io.DataOutput;\n"
+                + "import java.io.IOException;\n"
+                + "import java.lang.Integer;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.nio.ByteBuffer;\n"
+                + "import java.nio.charset.Charset;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(Integer out, String value) {\n"
+                + "    super(out, value);\n"
+                + "  }\n"
+                + "  static final class View extends Test {\n"
+                + "    static final int OUT_OFFSET = 4;\n"
+                + "    static final int VALUE_OFFSET = 9;\n"
+                + "    static final int FIXED_SIZE = 17;\n"
+                + "    private static final Charset UTF_8 = Charset.forName(\"UTF-8\");\n"
+                + "    private ByteBuffer buffer;\n"
+                + "    private int offset;\n"
+                + "    View() {\n"
+                + "    }\n"
+                + "    View wrap(ByteBuffer buffer, int offset) {\n"
+                + "      this.buffer = buffer;\n"
+                + "      this.offset = offset;\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    static int recordSize(ByteBuffer buffer, int offset) {\n"
+                + "      return buffer.getInt(offset);\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public Integer out() {\n"
+                + "      if (buffer.get(offset + OUT_OFFSET) == 0) {\n"
+                + "        return null;\n"
+                + "      }\n"
+                + "      return buffer.getInt(offset + OUT_OFFSET + 1);\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String value() {\n"
+                + "      int length = buffer.getInt(offset + VALUE_OFFSET + 4);\n"
+                + "      if (length == -1) {\n"
+                + "        return null;\n"
+                + "      }\n"
+                + "      return new String(readBytes(offset + buffer.getInt(offset +\n"
+                + "          VALUE_OFFSET), length), UTF_8);\n"
+                + "    }\n"
+                + "    private byte[] readBytes(int position, int length) {\n"
+                + "      byte[] bytes = new byte[length];\n"
+                + "      for (int i = 0; i < length; i++) {\n"
+                + "        bytes[i] = buffer.get(position + i);\n"
+                + "      }\n"
+                + "      return bytes;\n"
+                + "    }\n"
+                + "    Test toValue() {\n"
+                + "      Integer out = this.out();\n"
+                + "      String value = this.value();\n"
+                + "      return new AutoValue_Test(out, value);\n"
+                + "    }\n"
+                + "    static void write(Test value, DataOutput out) throws IOException {\n"
+                + "      String writtenValue = value.value();\n"
+                + "      byte[] encodedValue = writtenValue != null ?\n"
+                + "          writtenValue.getBytes(UTF_8) : null;\n"
+                + "      out.writeInt(FIXED_SIZE + (encodedValue != null ? encodedValue.length :\n"
+                + "          0));\n"
+                + "      int variableOffset = FIXED_SIZE;\n"
+                + "      Integer writtenOut = value.out();\n"
+                + "      if (writtenOut != null) {\n"
+                + "        out.writeByte(1);\n"
+                + "        out.writeInt(writtenOut);\n"
+                + "      } else {\n"
+                + "        out.write(new byte[5]);\n"
+                + "      }\n"
+                + "      if (encodedValue != null) {\n"
+                + "        out.writeInt(variableOffset);\n"
+                + "        out.writeInt(encodedValue.length);\n"
+                + "        variableOffset += encodedValue.length;\n"
+                + "      } else {\n"
+                + "        out.writeInt(0);\n"
+                + "        out.writeInt(-1);\n"
+                + "      }\n"
+                + "      if (encodedValue != null) {\n"
+                + "        out.write(encodedValue);\n"
+                + "      }\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String toString() {\n"
+                + "      return \"Test{\"\n"
+                + "          + \"out=\" + this.out() + \", \"\n"
+                + "          + \"value=\" + this.value()\n"
+                + "          + \"}\";\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public boolean equals(Object o) {\n"
+                + "      if (o == this) {\n"
+                + "        return true;\n"
+                + "      }\n"
+                + "      if (o instanceof Test) {\n"
+                + "        Test that = (Test) o;\n"
+                + "        return ((this.out() == null) ? (that.out() == null) :\n"
+                + "            this.out().equals(that.out()))\n"
+                + "            && (this.value().equals(that.value()));\n"
+                + "      }\n"
+                + "      return false;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public int hashCode() {\n"
+                + "      int h = 1;\n"
+                + "      h *= 1000003;\n"
+                + "      h ^= (this.out() == null) ? 0 : this.out().hashCode();\n"
+                + "      h *= 1000003;\n"
+                + "      h ^= this.value().hashCode();\n"
+                + "      return h;\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new FlyweightExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    private static Method method(Class<?> type, String name, Class<?>... parameterTypes)
+            throws Exception {
+        Method method = type.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return method;
+    }
+}
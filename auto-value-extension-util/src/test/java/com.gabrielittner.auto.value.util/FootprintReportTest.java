@@ -0,0 +1,139 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.ChangeMaskExtension;
+import com.gabrielittner.auto.value.util.extensions.MetadataExtension;
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.testing.compile.JavaFileObjects;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertThat;
+
+public class FootprintReportTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final JavaFileObject first = JavaFileObjects.forSourceString("test.First", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "@AutoValue public abstract class First {\n"
+            + "  public abstract int id();\n"
+            + "  public abstract String name();\n"
+            + "}\n");
+
+    private final JavaFileObject second = JavaFileObjects.forSourceString("test.Second", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "@AutoValue public abstract class Second {\n"
+            + "  public abstract long value();\n"
+            + "}\n");
+
+    @Test
+    public void reportsTypesPerExtensionAndClass() throws Exception {
+        File report = new File(temporaryFolder.getRoot(), "reports/footprint.tsv");
+        TestCompiler.compile(temporaryFolder.newFolder("out"),
+                ImmutableList.of(
+                        newProcessor(new MetadataExtension(), new ChangeMaskExtension()),
+                        new AutoValueUtilProcessor()),
+                ImmutableList.of("-A" + FootprintReport.OUTPUT_OPTION + "=" + report),
+                first, second);
+
+        List<String> lines = Files.readLines(report, StandardCharsets.UTF_8);
+        assertThat(lines.get(0)).isEqualTo(
+                "extension\tautoValueClass\ttype\tclasses\tmethods\tfields\testimatedBytes");
+        List<String> keys = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] columns = line.split("\t");
+            assertThat(columns).hasLength(7);
+            keys.add(columns[0] + " " + columns[1]);
+        }
+        // MetadataExtension doesn't pass itself to newTypeSpecBuilder
+        String changeMask = ChangeMaskExtension.class.getName();
+        assertThat(keys).containsExactly(
+                changeMask + " test.First", changeMask + " test.Second", changeMask + " *",
+                "test.$AutoValue_First test.First", "test.$AutoValue_First *",
+                "test.$AutoValue_Second test.Second", "test.$AutoValue_Second *")
+                .inOrder();
+
+        // the subclass constructor and the nested ChangeMask with 2 constants, diff and patch
+        String[] firstChangeMask = lines.get(1).split("\t");
+        assertThat(firstChangeMask[3]).isEqualTo("2");
+        assertThat(firstChangeMask[4]).isEqualTo("3");
+        assertThat(firstChangeMask[5]).isEqualTo("2");
+        String[] total = lines.get(3).split("\t");
+        assertThat(total[3]).isEqualTo("4");
+        assertThat(Long.parseLong(total[6])).isGreaterThan(
+                Long.parseLong(firstChangeMask[6]));
+    }
+
+    @Test
+    public void reportsFusedContributorsSeparately() throws Exception {
+        File report = new File(temporaryFolder.getRoot(), "footprint.tsv");
+        FusedExtension extension = new FusedExtension(new MethodContributor(),
+                new FieldContributor());
+        TestCompiler.compile(temporaryFolder.newFolder("out"),
+                ImmutableList.of(newProcessor(extension), new AutoValueUtilProcessor()),
+                ImmutableList.of("-A" + FootprintReport.OUTPUT_OPTION + "=" + report),
+                second);
+
+        List<String> lines = Files.readLines(report, StandardCharsets.UTF_8);
+        String prefix = FootprintReportTest.class.getName();
+        assertThat(lines.subList(1, lines.size())).containsExactly(
+                prefix + "$FieldContributor\ttest.Second\tAutoValue_Second\t0\t0\t1\t16",
+                prefix + "$FieldContributor\t*\t*\t0\t0\t1\t16",
+                prefix + "$MethodContributor\ttest.Second\tAutoValue_Second\t0\t1\t0\t42",
+                prefix + "$MethodContributor\t*\t*\t0\t1\t0\t42",
+                FusedExtension.class.getName() + "\ttest.Second\tAutoValue_Second\t1\t1\t0\t243",
+                FusedExtension.class.getName() + "\t*\t*\t1\t1\t0\t243")
+                .inOrder();
+    }
+
+    @Test
+    public void nothingIsTrackedWithoutOption() throws Exception {
+        TestCompiler.compile(temporaryFolder.getRoot(),
+                ImmutableList.of(newProcessor(new ChangeMaskExtension()),
+                        new AutoValueUtilProcessor()),
+                first);
+        assertThat(temporaryFolder.getRoot().list()).asList()
+                .containsExactly("classes", "generated");
+    }
+
+    private static final class MethodContributor extends FusedExtension.Contributor {
+        @Override
+        public boolean applicable(Context context) {
+            return true;
+        }
+
+        @Override
+        public void contribute(Context context, TypeSpec.Builder builder) {
+            builder.addMethod(MethodSpec.methodBuilder("zero")
+                    .returns(TypeName.INT)
+                    .addStatement("return 0")
+                    .build());
+        }
+    }
+
+    private static final class FieldContributor extends FusedExtension.Contributor {
+        @Override
+        public boolean applicable(Context context) {
+            return true;
+        }
+
+        @Override
+        public void contribute(Context context, TypeSpec.Builder builder) {
+            builder.addField(TypeName.INT, "cached");
+        }
+    }
+}
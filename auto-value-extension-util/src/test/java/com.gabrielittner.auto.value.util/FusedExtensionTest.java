@@ -0,0 +1,107 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.FinalExtension;
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.testing.compile.JavaFileObjects;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.util.Collections;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class FusedExtensionTest {
+
+    private static class MethodContributor extends FusedExtension.Contributor {
+        private final String name;
+        private final boolean applicable;
+        private final boolean mustBeFinal;
+
+        MethodContributor(String name, boolean applicable, boolean mustBeFinal) {
+            this.name = name;
+            this.applicable = applicable;
+            this.mustBeFinal = mustBeFinal;
+        }
+
+        @Override
+        public boolean applicable(Context context) {
+            return applicable;
+        }
+
+        @Override
+        public boolean mustBeFinal(Context context) {
+            return mustBeFinal;
+        }
+
+        @Override
+        public void contribute(Context context, TypeSpec.Builder builder) {
+            builder.addMethod(MethodSpec.methodBuilder(name)
+                    .returns(TypeName.INT)
+                    .addStatement("return 0")
+                    .build());
+        }
+    }
+
+    private final JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "@AutoValue public abstract class Test {\n"
+            + "  public abstract int a();\n"
+            + "}\n");
+
+    @Test
+    public void singleClassForAllContributors() {
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int a) {\n"
+                + "    super(a);\n"
+                + "  }\n"
+                + "  int first() {\n"
+                + "    return 0;\n"
+                + "  }\n"
+                + "  int second() {\n"
+                + "    return 0;\n"
+                + "  }\n"
+                + "}\n");
+
+        FusedExtension extension = new FusedExtension(
+                new MethodContributor("first", true, false),
+                new MethodContributor("notApplicable", false, false),
+                new MethodContributor("second", true, true));
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(extension))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void abstractWhenNoContributorMustBeFinal() {
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/$AutoValue_Test", ""
+                + "package test;\n"
+                + "abstract class $AutoValue_Test extends $$AutoValue_Test {\n"
+                + "  $AutoValue_Test(int a) {\n"
+                + "    super(a);\n"
+                + "  }\n"
+                + "  int first() {\n"
+                + "    return 0;\n"
+                + "  }\n"
+                + "}\n");
+
+        FusedExtension extension = new FusedExtension(new MethodContributor("first", true, false));
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(extension, new FinalExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+}
@@ -0,0 +1,330 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.IndexExtension;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assert.fail;
+
+public class IndexesTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final JavaFileObject indexed = JavaFileObjects.forSourceString("test.Indexed", ""
+            + "package test;\n"
+            + "public @interface Indexed {\n"
+            + "  boolean unique() default false;\n"
+            + "}\n");
+
+    private final JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "@AutoValue public abstract class Test {\n"
+            + "  @Indexed(unique = true) public abstract int id();\n"
+            + "  @Indexed public abstract long group();\n"
+            + "  @Indexed public abstract String name();\n"
+            + "  @Indexed(unique = true) public abstract String code();\n"
+            + "  public abstract double weight();\n"
+            + "  static Test create(int id, long group, String name, String code) {\n"
+            + "    return new AutoValue_Test(id, group, name, code, 0.5);\n"
+            + "  }\n"
+            + "}\n");
+
+    private Method create;
+    private Method build;
+    private Class<?> index;
+
+    private void compile() throws Exception {
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new IndexExtension()), indexed, source);
+        Class<?> test = classLoader.loadClass("test.Test");
+        index = classLoader.loadClass("test.AutoValue_Test$Index");
+        create = test.getDeclaredMethod("create", int.class, long.class, String.class,
+                String.class);
+        create.setAccessible(true);
+        build = index.getDeclaredMethod("build", Collection.class);
+        build.setAccessible(true);
+    }
+
+    @Test
+    public void lookups() throws Exception {
+        compile();
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            // includes the keys 0 and negative keys
+            values.add(create.invoke(null, i - 500, (long) (i % 7) << 40, "n" + (i % 3),
+                    "c" + i));
+        }
+        Object built = build.invoke(null, values);
+
+        Method byId = declared("byId", int.class);
+        Method byGroup = declared("byGroup", long.class);
+        Method byName = declared("byName", String.class);
+        Method byCode = declared("byCode", String.class);
+        assertThat(declared("size").invoke(built)).isEqualTo(1000);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(byId.invoke(built, i - 500)).isSameAs(values.get(i));
+            assertThat(byCode.invoke(built, "c" + i)).isSameAs(values.get(i));
+        }
+        assertThat(byId.invoke(built, 500)).isNull();
+        assertThat(byCode.invoke(built, "x")).isNull();
+
+        List<?> group = (List<?>) byGroup.invoke(built, 3L << 40);
+        assertThat(group).hasSize(143);
+        assertThat(group.get(0)).isSameAs(values.get(3));
+        assertThat(group.get(1)).isSameAs(values.get(10));
+        assertThat((List<?>) byGroup.invoke(built, 1L)).isEmpty();
+        List<?> name = (List<?>) byName.invoke(built, "n0");
+        assertThat(name).hasSize(334);
+        assertThat((List<?>) byName.invoke(built, "x")).isEmpty();
+    }
+
+    @Test
+    public void duplicateUniqueKey() throws Exception {
+        compile();
+        List<Object> values = Arrays.asList(
+                create.invoke(null, 1, 0L, "a", "a"),
+                create.invoke(null, 1, 0L, "b", "b"));
+        try {
+            build.invoke(null, values);
+            fail();
+        } catch (InvocationTargetException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalArgumentException.class);
+            assertThat(e.getCause().getMessage()).isEqualTo("Duplicate id: 1");
+        }
+    }
+
+    @Test
+    public void generatesIndex() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  @Indexed(unique = true) public abstract int id();\n"
+                + "  @Indexed public abstract String name();\n"
+                + "  public abstract double weight();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.IllegalArgumentException;\n"
+                + "import java.lang.String;\n"
+                + "import java.util.ArrayList;\n"
+                + "import java.util.Collection;\n"
+                + "import java.util.Collections;\n"
+                + "import java.util.HashMap;\n"
+                + "import java.util.List;\n"
+                + "import java.util.Map;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int id, String name, double weight) {\n"
+                + "    super(id, name, weight);\n"
+                + "  }\n"
+                + "  static final class Index {\n"
+                + "    private final int[] idKeys;\n"
+                + "    private final Test[] idValues;\n"
+                + "    private final Map<String, List<Test>> nameIndex;\n"
+                + "    private final int size;\n"
+                + "    private Index(Collection<? extends Test> values) {\n"
+                + "      int idMask = tableSize(values.size()) - 1;\n"
+                + "      idKeys = new int[idMask + 1];\n"
+                + "      idValues = new Test[idMask + 1];\n"
+                + "      for (Test value : values) {\n"
+                + "        int key = value.id();\n"
+                + "        int i = mix(key) & idMask;\n"
+                + "        while (idValues[i] != null) {\n"
+                + "          if (idKeys[i] == key) {\n"
+                + "            throw new IllegalArgumentException(\"Duplicate id: \" + key);\n"
+                + "          }\n"
+                + "          i = (i + 1) & idMask;\n"
+                + "        }\n"
+                + "        idKeys[i] = key;\n"
+                + "        idValues[i] = value;\n"
+                + "      }\n"
+                + "      nameIndex = new HashMap<>(tableSize(values.size()));\n"
+                + "      for (Test value : values) {\n"
+                + "        String key = value.name();\n"
+                + "        List<Test> list = nameIndex.get(key);\n"
+                + "        if (list == null) {\n"
+                + "          list = new ArrayList<>();\n"
+                + "          nameIndex.put(key, list);\n"
+                + "        }\n"
+                + "        list.add(value);\n"
+                + "      }\n"
+                + "      this.size = values.size();\n"
+                + "    }\n"
+                + "    Test byId(int key) {\n"
+                + "      int mask = idKeys.length - 1;\n"
+                + "      for (int i = mix(key) & mask; idValues[i] != null; i = (i + 1) & mask) {\n"
+                + "        if (idKeys[i] == key) {\n"
+                + "          return idValues[i];\n"
+                + "        }\n"
+                + "      }\n"
+                + "      return null;\n"
+                + "    }\n"
+                + "    List<Test> byName(String key) {\n"
+                + "      List<Test> list = nameIndex.get(key);\n"
+                + "      return list != null ? Collections.unmodifiableList(list) :\n"
+                + "          Collections.<Test>emptyList();\n"
+                + "    }\n"
+                + "    static Index build(Collection<? extends Test> values) {\n"
+                + "      return new Index(values);\n"
+                + "    }\n"
+                + "    int size() {\n"
+                + "      return size;\n"
+                + "    }\n"
+                + "    /**\n"
+                + "     * A power of two that keeps the load factor at or below 0.5.\n"
+                + "     */\n"
+                + "    private static int tableSize(int size) {\n"
+                + "      int tableSize = 2;\n"
+                + "      while (tableSize < size * 2) {\n"
+                + "        tableSize <<= 1;\n"
+                + "      }\n"
+                + "      return tableSize;\n"
+                + "    }\n"
+                + "    private static int mix(int key) {\n"
+                + "      int h = key * 0x9E3779B9;\n"
+                + "      return h ^ (h >>> 16);\n"
+                + "    }\n"
+                + "    private static int mix(long key) {\n"
+                + "      int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;\n"
+                + "      return h ^ (h >>> 16);\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Arrays.asList(indexed, source))
+                .processedWith(newProcessor(new IndexExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void lookupParametersDontClashWithLocals() {
+        // properties named like the locals of the generated lookups
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  @Indexed(unique = true) public abstract int mask();\n"
+                + "  @Indexed public abstract String list();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.IllegalArgumentException;\n"
+                + "import java.lang.String;\n"
+                + "import java.util.ArrayList;\n"
+                + "import java.util.Collection;\n"
+                + "import java.util.Collections;\n"
+                + "import java.util.HashMap;\n"
+                + "import java.util.List;\n"
+                + "import java.util.Map;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int mask, String list) {\n"
+                + "    super(mask, list);\n"
+                + "  }\n"
+                + "  static final class Index {\n"
+                + "    private final int[] maskKeys;\n"
+                + "    private final Test[] maskValues;\n"
+                + "    private final Map<String, List<Test>> listIndex;\n"
+                + "    private final int size;\n"
+                + "    private Index(Collection<? extends Test> values) {\n"
+                + "      int maskMask = tableSize(values.size()) - 1;\n"
+                + "      maskKeys = new int[maskMask + 1];\n"
+                + "      maskValues = new Test[maskMask + 1];\n"
+                + "      for (Test value : values) {\n"
+                + "        int key = value.mask();\n"
+                + "        int i = mix(key) & maskMask;\n"
+                + "        while (maskValues[i] != null) {\n"
+                + "          if (maskKeys[i] == key) {\n"
+                + "            throw new IllegalArgumentException(\"Duplicate mask: \" + key);\n"
+                + "          }\n"
+                + "          i = (i + 1) & maskMask;\n"
+                + "        }\n"
+                + "        maskKeys[i] = key;\n"
+                + "        maskValues[i] = value;\n"
+                + "      }\n"
+                + "      listIndex = new HashMap<>(tableSize(values.size()));\n"
+                + "      for (Test value : values) {\n"
+                + "        String key = value.list();\n"
+                + "        List<Test> list = listIndex.get(key);\n"
+                + "        if (list == null) {\n"
+                + "          list = new ArrayList<>();\n"
+                + "          listIndex.put(key, list);\n"
+                + "        }\n"
+                + "        list.add(value);\n"
+                + "      }\n"
+                + "      this.size = values.size();\n"
+                + "    }\n"
+                + "    Test byMask(int key) {\n"
+                + "      int mask = maskKeys.length - 1;\n"
+                + "      for (int i = mix(key) & mask; maskValues[i] != null; i = (i + 1) & mask)\n"
+                + "          {\n"
+                + "        if (maskKeys[i] == key) {\n"
+                + "          return maskValues[i];\n"
+                + "        }\n"
+                + "      }\n"
+                + "      return null;\n"
+                + "    }\n"
+                + "    List<Test> byList(String key) {\n"
+                + "      List<Test> list = listIndex.get(key);\n"
+                + "      return list != null ? Collections.unmodifiableList(list) :\n"
+                + "          Collections.<Test>emptyList();\n"
+                + "    }\n"
+                + "    static Index build(Collection<? extends Test> values) {\n"
+                + "      return new Index(values);\n"
+                + "    }\n"
+                + "    int size() {\n"
+                + "      return size;\n"
+                + "    }\n"
+                + "    /**\n"
+                + "     * A power of two that keeps the load factor at or below 0.5.\n"
+                + "     */\n"
+                + "    private static int tableSize(int size) {\n"
+                + "      int tableSize = 2;\n"
+                + "      while (tableSize < size * 2) {\n"
+                + "        tableSize <<= 1;\n"
+                + "      }\n"
+                + "      return tableSize;\n"
+                + "    }\n"
+                + "    private static int mix(int key) {\n"
+                + "      int h = key * 0x9E3779B9;\n"
+                + "      return h ^ (h >>> 16);\n"
+                + "    }\n"
+                + "    private static int mix(long key) {\n"
+                + "      int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;\n"
+                + "      return h ^ (h >>> 16);\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Arrays.asList(indexed, source))
+                .processedWith(newProcessor(new IndexExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    private Method declared(String name, Class<?>... parameterTypes) throws Exception {
+        Method method = index.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return method;
+    }
+}
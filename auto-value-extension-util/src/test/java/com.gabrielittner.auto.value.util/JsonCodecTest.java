@@ -0,0 +1,208 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.JsonCodecExtension;
+import com.google.gson.stream.JsonReader;
+import com.google.testing.compile.JavaFileObjects;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import javax.tools.JavaFileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assert.fail;
+
+public class JsonCodecTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /** A char property and a property named like the parameter of fromJson. */
+    private final JavaFileObject charSource = JavaFileObjects.forSourceString("test.Test", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "@AutoValue public abstract class Test {\n"
+            + "  public abstract String reader();\n"
+            + "  public abstract char grade();\n"
+            + "  static Test create(String reader, char grade) {\n"
+            + "    return new AutoValue_Test(reader, grade);\n"
+            + "  }\n"
+            + "}\n");
+
+    @Test
+    public void escape() {
+        assertThat(JsonCodec.escape("a\"b\\c\nd\u0001")).isEqualTo("a\\\"b\\\\c\\nd\\u0001");
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import com.google.common.base.Optional;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int id();\n"
+                + "  public abstract String name();\n"
+                + "  @Nullable public abstract Integer score();\n"
+                + "  public abstract Optional<Long> parent();\n"
+                + "  public abstract boolean active();\n"
+                + "  public abstract double ratio();\n"
+                + "  static Test create(int id, String name, Integer score,\n"
+                + "      Optional<Long> parent, boolean active, double ratio) {\n"
+                + "    return new AutoValue_Test(id, name, score, parent, active, ratio);\n"
+                + "  }\n"
+                + "}\n");
+
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new JsonCodecExtension()), source);
+        Class<?> test = classLoader.loadClass("test.Test");
+        Class<?> codec = classLoader.loadClass("test.AutoValue_Test$JsonCodec");
+        Method create = test.getDeclaredMethod("create", int.class, String.class, Integer.class,
+                com.google.common.base.Optional.class, boolean.class, double.class);
+        Method toJson = codec.getDeclaredMethod("toJson", test, Appendable.class);
+        Method fromJson = codec.getDeclaredMethod("fromJson", JsonReader.class);
+        create.setAccessible(true);
+        toJson.setAccessible(true);
+        fromJson.setAccessible(true);
+
+        Object value = create.invoke(null, 1, "a \"quoted\"\nname", null,
+                com.google.common.base.Optional.of(5L), true, 0.5);
+        StringBuilder json = new StringBuilder();
+        toJson.invoke(null, value, json);
+        assertThat(json.toString()).isEqualTo("{\"id\":1,\"name\":\"a \\\"quoted\\\"\\nname\","
+                + "\"score\":null,\"parent\":5,\"active\":true,\"ratio\":0.5}");
+
+        Object read = fromJson.invoke(null, new JsonReader(new StringReader(json.toString())));
+        assertThat(read).isEqualTo(value);
+
+        Object reordered = fromJson.invoke(null, new JsonReader(new StringReader(
+                "{\"unknown\":[1,2],\"ratio\":0.5,\"active\":true,\"parent\":5,"
+                        + "\"name\":\"a \\\"quoted\\\"\\nname\",\"id\":1}")));
+        assertThat(reordered).isEqualTo(value);
+    }
+
+    @Test
+    public void readChar() throws Exception {
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new JsonCodecExtension()), charSource);
+        Method create = classLoader.loadClass("test.Test")
+                .getDeclaredMethod("create", String.class, char.class);
+        Method fromJson = classLoader.loadClass("test.AutoValue_Test$JsonCodec")
+                .getDeclaredMethod("fromJson", JsonReader.class);
+        create.setAccessible(true);
+        fromJson.setAccessible(true);
+        assertThat(fromJson.invoke(null, new JsonReader(new StringReader(
+                "{\"reader\":\"r\",\"grade\":\"A\"}"))))
+                .isEqualTo(create.invoke(null, "r", 'A'));
+        try {
+            fromJson.invoke(null, new JsonReader(new StringReader(
+                    "{\"reader\":\"r\",\"grade\":\"\"}")));
+            fail();
+        } catch (InvocationTargetException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+            assertThat(e.getCause().getMessage())
+                    .isEqualTo("Expected a char but was \"\" at path $.grade");
+        }
+    }
+
+    @Test
+    public void generatesCodec() {
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import com.google.gson.stream.JsonReader;\n"
+                + "import com.google.gson.stream.JsonToken;\n"
+                + "import java.io.IOException;\n"
+                + "import java.lang.Appendable;\n"
+                + "import java.lang.IllegalStateException;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(String reader, char grade) {\n"
+                + "    super(reader, grade);\n"
+                + "  }\n"
+                + "  static final class JsonCodec {\n"
+                + "    private static final String NAME_0 = \"{\\\"reader\\\":\";\n"
+                + "    private static final String NAME_1 = \",\\\"grade\\\":\";\n"
+                + "    private static void writeString(String value, Appendable out) throws\n"
+                + "        IOException {\n"
+                + "      out.append('\"');\n"
+                + "      int start = 0;\n"
+                + "      for (int i = 0, length = value.length(); i < length; i++) {\n"
+                + "        char c = value.charAt(i);\n"
+                + "        if (c >= ' ' && c != '\"' && c != '\\\\'\n"
+                + "            && c != '\\u2028' && c != '\\u2029') {\n"
+                + "          continue;\n"
+                + "        }\n"
+                + "        out.append(value, start, i);\n"
+                + "        switch (c) {\n"
+                + "          case '\"': out.append(\"\\\\\\\"\"); break;\n"
+                + "          case '\\\\': out.append(\"\\\\\\\\\"); break;\n"
+                + "          case '\\n': out.append(\"\\\\n\"); break;\n"
+                + "          case '\\r': out.append(\"\\\\r\"); break;\n"
+                + "          case '\\t': out.append(\"\\\\t\"); break;\n"
+                + "          default: out.append(String.format(\"\\\\u%04x\", (int) c));\n"
+                + "        }\n"
+                + "        start = i + 1;\n"
+                + "      }\n"
+                + "      out.append(value, start, value.length());\n"
+                + "      out.append('\"');\n"
+                + "    }\n"
+                + "    static void toJson(Test value, Appendable out) throws IOException {\n"
+                + "      out.append(NAME_0);\n"
+                + "      if (value.reader() != null) {\n"
+                + "        writeString(value.reader(), out);\n"
+                + "      } else {\n"
+                + "        out.append(\"null\");\n"
+                + "      }\n"
+                + "      out.append(NAME_1);\n"
+                + "      writeString(String.valueOf(value.grade()), out);\n"
+                + "      out.append('}');\n"
+                + "    }\n"
+                + "    static Test fromJson(JsonReader reader) throws IOException {\n"
+                + "      String readReader = null;\n"
+                + "      char readGrade = 0;\n"
+                + "      reader.beginObject();\n"
+                + "      while (reader.hasNext()) {\n"
+                + "        switch (reader.nextName()) {\n"
+                + "          case \"reader\":\n"
+                + "            if (reader.peek() == JsonToken.NULL) {\n"
+                + "              reader.nextNull();\n"
+                + "              readReader = null;\n"
+                + "            } else {\n"
+                + "              readReader = reader.nextString();\n"
+                + "            }\n"
+                + "            break;\n"
+                + "          case \"grade\":\n"
+                + "            readGrade = readChar(reader);\n"
+                + "            break;\n"
+                + "          default:\n"
+                + "            reader.skipValue();\n"
+                + "        }\n"
+                + "      }\n"
+                + "      reader.endObject();\n"
+                + "      return new AutoValue_Test(readReader, readGrade);\n"
+                + "    }\n"
+                + "    private static char readChar(JsonReader reader) throws IOException {\n"
+                + "      String value = reader.nextString();\n"
+                + "      if (value.length() != 1) {\n"
+                + "        throw new IllegalStateException(\"Expected a char but was \\\"\" +\n"
+                + "            value + \"\\\" at path \" + reader.getPath());\n"
+                + "      }\n"
+                + "      return value.charAt(0);\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(charSource))
+                .processedWith(newProcessor(new JsonCodecExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+}
@@ -0,0 +1,145 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.testing.compile.JavaFileObjects;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.processing.Processor;
+import javax.tools.JavaFileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+
+public class LazyHolderTest {
+
+    private static final TypeName INT_ARRAY = ArrayTypeName.of(TypeName.INT);
+
+    // not a constant, javac would inline it and the holder would never be initialized
+    private static final FieldSpec TABLE = FieldSpec.builder(INT_ARRAY, "LOOKUP_TABLE")
+            .addModifiers(PRIVATE, STATIC, FINAL)
+            .initializer("newTable()")
+            .build();
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void holderName() {
+        assertThat(LazyHolder.holderName(TABLE)).isEqualTo("LookupTableHolder");
+        FieldSpec adapter = FieldSpec.builder(TypeName.INT, "adapter", STATIC).build();
+        assertThat(LazyHolder.holderName(adapter)).isEqualTo("AdapterHolder");
+    }
+
+    @Test
+    public void movesFieldIntoHolder() {
+        TypeSpec.Builder builder = newTestClass();
+        CodeBlock reference = LazyHolder.addHolder(builder, TABLE);
+        builder.addMethod(MethodSpec.methodBuilder("table")
+                .addModifiers(PUBLIC, STATIC)
+                .returns(INT_ARRAY)
+                .addStatement("return $L", reference)
+                .build());
+        String generated = JavaFile.builder("test", builder.build()).build().toString();
+
+        assertThat(reference.toString()).isEqualTo("LookupTableHolder.LOOKUP_TABLE");
+        assertThat(generated).isEqualTo(""
+                + "package test;\n"
+                + "\n"
+                + "import java.lang.AssertionError;\n"
+                + "import java.lang.String;\n"
+                + "import java.util.ArrayList;\n"
+                + "import java.util.List;\n"
+                + "\n"
+                + "public class Test {\n"
+                + "  public static final List<String> INITIALIZED = new ArrayList<>();\n"
+                + "\n"
+                + "  static int[] newTable() {\n"
+                + "    INITIALIZED.add(\"LOOKUP_TABLE\");\n"
+                + "    return new int[] {42};\n"
+                + "  }\n"
+                + "\n"
+                + "  public static int[] table() {\n"
+                + "    return LookupTableHolder.LOOKUP_TABLE;\n"
+                + "  }\n"
+                + "\n"
+                + "  private static final class LookupTableHolder {\n"
+                + "    static final int[] LOOKUP_TABLE = newTable();\n"
+                + "\n"
+                + "    private LookupTableHolder() {\n"
+                + "      throw new AssertionError(\"No instances.\");\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+        assertAbout(javaSource())
+                .that(JavaFileObjects.forSourceString("test.Test", generated))
+                .compilesWithoutError();
+    }
+
+    @Test
+    public void initializesFieldOnFirstAccess() throws Exception {
+        TypeSpec.Builder builder = newTestClass();
+        builder.addMethod(MethodSpec.methodBuilder("table")
+                .addModifiers(PUBLIC, STATIC)
+                .returns(INT_ARRAY)
+                .addStatement("return $L", LazyHolder.addHolder(builder, TABLE))
+                .build());
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test",
+                JavaFile.builder("test", builder.build()).build().toString());
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                Collections.<Processor>emptyList(), source);
+
+        Class<?> test = Class.forName("test.Test", true, classLoader);
+        List<?> initialized = (List<?>) test.getField("INITIALIZED").get(null);
+        assertThat(initialized).isEmpty();
+
+        int[] table = (int[]) test.getMethod("table").invoke(null);
+        assertThat(table).isEqualTo(new int[] {42});
+        assertThat(initialized).containsExactly("LOOKUP_TABLE");
+        test.getMethod("table").invoke(null);
+        assertThat(initialized).containsExactly("LOOKUP_TABLE");
+    }
+
+    /**
+     * A class with a {@code newTable()} method for {@link #TABLE} that records when it runs.
+     */
+    private static TypeSpec.Builder newTestClass() {
+        TypeName strings = ParameterizedTypeName.get(List.class, String.class);
+        return TypeSpec.classBuilder("Test")
+                .addModifiers(PUBLIC)
+                .addField(FieldSpec.builder(strings, "INITIALIZED", PUBLIC, STATIC, FINAL)
+                        .initializer("new $T<>()", ArrayList.class)
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("newTable")
+                        .addModifiers(STATIC)
+                        .returns(INT_ARRAY)
+                        .addStatement("INITIALIZED.add($S)", "LOOKUP_TABLE")
+                        .addStatement("return new int[] {42}")
+                        .build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInstanceFields() {
+        FieldSpec field = FieldSpec.builder(TypeName.INT, "a").initializer("1").build();
+        LazyHolder.create("Holder").add(field);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFieldsWithoutInitializer() {
+        LazyHolder.create("Holder").add(FieldSpec.builder(TypeName.INT, "a", STATIC).build());
+    }
+}
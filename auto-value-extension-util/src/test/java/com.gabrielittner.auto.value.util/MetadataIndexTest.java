@@ -0,0 +1,255 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.MetadataIndex.ClassMetadata;
+import com.gabrielittner.auto.value.util.MetadataIndex.PropertyMetadata;
+import com.gabrielittner.auto.value.util.extensions.MetadataExtension;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.testing.compile.JavaFileObjects;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertThat;
+
+public class MetadataIndexTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void typesRoundTrip() {
+        ClassName entry = ClassName.get("java.util", "Map", "Entry");
+        List<TypeName> types = ImmutableList.of(
+                TypeName.INT,
+                ArrayTypeName.of(ArrayTypeName.of(TypeName.BYTE)),
+                ClassName.get("", "NoPackage"),
+                ParameterizedTypeName.get(entry, ClassName.get(String.class),
+                        ArrayTypeName.of(TypeName.LONG)),
+                ParameterizedTypeName.get(ClassName.get(Map.class),
+                        WildcardTypeName.subtypeOf(Object.class),
+                        WildcardTypeName.supertypeOf(ParameterizedTypeName.get(
+                                ClassName.get(List.class), TypeVariableName.get("T")))),
+                ArrayTypeName.of(ParameterizedTypeName.get(ClassName.get(List.class),
+                        WildcardTypeName.subtypeOf(Number.class))));
+        for (TypeName type : types) {
+            assertThat(MetadataIndex.decode(MetadataIndex.encode(type))).isEqualTo(type);
+        }
+        assertThat(MetadataIndex.encode(types.get(3)))
+                .isEqualTo("java.util/Map.Entry<java.lang/String,long[]>");
+    }
+
+    @Test
+    public void readsMetadataOfDependency() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Outer", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import com.google.common.base.Optional;\n"
+                + "import java.util.List;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "public class Outer {\n"
+                + "  @AutoValue public abstract static class Test {\n"
+                + "    public abstract int getId();\n"
+                + "    @Nullable public abstract String getName();\n"
+                + "    public abstract Optional<List<String>> getTags();\n"
+                + "  }\n"
+                + "}\n");
+        File dependency = temporaryFolder.newFolder("dependency");
+        TestCompiler.compile(dependency, newProcessor(new MetadataExtension()), source);
+
+        ReadingProcessor reader = new ReadingProcessor(
+                ClassName.get("test", "Outer", "Test"), ClassName.get("test", "Missing"));
+        TestCompiler.compile(temporaryFolder.newFolder("downstream"),
+                Collections.singletonList(new File(dependency, "classes")),
+                ImmutableList.of(reader), Collections.<String>emptyList(),
+                JavaFileObjects.forSourceString("other.Other", "package other; class Other {}"));
+
+        assertThat(reader.results.get(1).isPresent()).isFalse();
+        ClassMetadata metadata = reader.results.get(0).get();
+        assertThat(metadata.autoValueClass()).isEqualTo(ClassName.get("test", "Outer", "Test"));
+        assertThat(metadata.finalClass()).isEqualTo(ClassName.get("test", "AutoValue_Outer_Test"));
+        assertThat(metadata.properties()).hasSize(3);
+
+        PropertyMetadata id = metadata.properties().get(0);
+        assertThat(id.humanName()).isEqualTo("id");
+        assertThat(id.type()).isEqualTo(TypeName.INT);
+        assertThat(id.nullable()).isFalse();
+        assertThat(id.optional()).isFalse();
+
+        PropertyMetadata name = metadata.properties().get(1);
+        assertThat(name.humanName()).isEqualTo("name");
+        assertThat(name.methodName()).isEqualTo("getName");
+        assertThat(name.nullable()).isTrue();
+
+        PropertyMetadata tags = metadata.properties().get(2);
+        TypeName list = ParameterizedTypeName.get(List.class, String.class);
+        assertThat(tags.optional()).isTrue();
+        assertThat(tags.type()).isEqualTo(list);
+        assertThat(tags.returnType())
+                .isEqualTo(ParameterizedTypeName.get(ClassName.get(Optional.class), list));
+    }
+
+    @Test
+    public void reportsUnreadableMetadata() {
+        StubEnvironment environment = new StubEnvironment();
+        assertThat(MetadataIndex.read(environment, ClassName.get("test", "Broken")).isPresent())
+                .isFalse();
+        assertThat(environment.errors)
+                .containsExactly("Could not read metadata of test.Broken: Disk error");
+    }
+
+    private static final class ReadingProcessor extends AbstractProcessor {
+        private final ClassName[] classes;
+        final List<Optional<ClassMetadata>> results = new ArrayList<>();
+
+        ReadingProcessor(ClassName... classes) {
+            this.classes = classes;
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return Collections.singleton("*");
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            if (results.isEmpty()) {
+                for (ClassName name : classes) {
+                    results.add(MetadataIndex.read(processingEnv, name));
+                }
+            }
+            return false;
+        }
+    }
+
+    /** An environment whose class path resources exist, but fail to open. */
+    private static final class StubEnvironment implements ProcessingEnvironment {
+        final List<String> errors = new ArrayList<>();
+
+        @Override
+        public Filer getFiler() {
+            return new Filer() {
+                @Override
+                public JavaFileObject createSourceFile(CharSequence name,
+                        Element... originatingElements) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public JavaFileObject createClassFile(CharSequence name,
+                        Element... originatingElements) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public FileObject createResource(JavaFileManager.Location location,
+                        CharSequence pkg, CharSequence relativeName,
+                        Element... originatingElements) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public FileObject getResource(JavaFileManager.Location location,
+                        CharSequence pkg, CharSequence relativeName) {
+                    return new SimpleJavaFileObject(URI.create("stub:///" + relativeName),
+                            JavaFileObject.Kind.OTHER) {
+                        @Override
+                        public InputStream openInputStream() throws IOException {
+                            throw new IOException("Disk error");
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        public Messager getMessager() {
+            return new Messager() {
+                @Override
+                public void printMessage(Diagnostic.Kind kind, CharSequence msg) {
+                    errors.add(msg.toString());
+                }
+
+                @Override
+                public void printMessage(Diagnostic.Kind kind, CharSequence msg, Element e) {
+                    errors.add(msg.toString());
+                }
+
+                @Override
+                public void printMessage(Diagnostic.Kind kind, CharSequence msg, Element e,
+                        AnnotationMirror a) {
+                    errors.add(msg.toString());
+                }
+
+                @Override
+                public void printMessage(Diagnostic.Kind kind, CharSequence msg, Element e,
+                        AnnotationMirror a, AnnotationValue v) {
+                    errors.add(msg.toString());
+                }
+            };
+        }
+
+        @Override
+        public Map<String, String> getOptions() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Elements getElementUtils() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Types getTypeUtils() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SourceVersion getSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public Locale getLocale() {
+            return Locale.getDefault();
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.AbstractExtension;
+import com.gabrielittner.auto.value.util.extensions.FinalExtension;
+import com.gabrielittner.auto.value.util.extensions.SerializationExtension;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.testing.compile.JavaFileObjects;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.tools.JavaFileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourceSubjectFactory.javaSource;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+public class MethodSplitterTest {
+
+    private static final int PROPERTIES = 500;
+
+    /** HotSpot's HugeMethodLimit. */
+    private static final int HUGE_METHOD_LIMIT = 8000;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void parameterSlots() {
+        List<TypeName> types = Arrays.asList(TypeName.INT, TypeName.LONG, TypeName.DOUBLE,
+                ClassName.get(String.class));
+        assertThat(MethodSplitter.parameterSlots(types, true)).isEqualTo(6);
+        assertThat(MethodSplitter.parameterSlots(types, false)).isEqualTo(7);
+    }
+
+    @Test
+    public void generatesChunks() {
+        ClassName test = ClassName.get("test", "Test");
+        TypeSpec.Builder builder = TypeSpec.classBuilder(test);
+        List<CodeBlock> conditions = new ArrayList<>();
+        List<CodeBlock> hashCodes = new ArrayList<>();
+        for (String field : Arrays.asList("a", "b", "c")) {
+            builder.addField(TypeName.INT, field);
+            conditions.add(CodeBlock.of("this.$N == that.$N", field, field));
+            hashCodes.add(CodeBlock.builder()
+                    .addStatement("h *= 1000003")
+                    .addStatement("h ^= $N", field)
+                    .build());
+        }
+        builder.addMethod(MethodSpec.methodBuilder("same")
+                        .returns(boolean.class)
+                        .addParameter(test, "that")
+                        .addStatement("return $L", MethodSplitter.create(builder, "same")
+                                .addParameter(test, "that")
+                                .chunkSize(2)
+                                .conjunction(conditions))
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("hash")
+                        .returns(int.class)
+                        .addStatement("int h = 1")
+                        .addCode(MethodSplitter.create(builder, "hash")
+                                .chunkSize(2)
+                                .fold(TypeName.INT, "h", hashCodes))
+                        .addStatement("return h")
+                        .build());
+        String generated = JavaFile.builder("test", builder.build()).build().toString();
+
+        assertThat(generated).isEqualTo(""
+                + "package test;\n"
+                + "\n"
+                + "class Test {\n"
+                + "  int a;\n"
+                + "\n"
+                + "  int b;\n"
+                + "\n"
+                + "  int c;\n"
+                + "\n"
+                + "  private boolean same$0(Test that) {\n"
+                + "    return this.a == that.a\n"
+                + "        && this.b == that.b;\n"
+                + "  }\n"
+                + "\n"
+                + "  private boolean same$1(Test that) {\n"
+                + "    return this.c == that.c;\n"
+                + "  }\n"
+                + "\n"
+                + "  boolean same(Test that) {\n"
+                + "    return same$0(that)\n"
+                + "        && same$1(that);\n"
+                + "  }\n"
+                + "\n"
+                + "  private int hash$0(int h) {\n"
+                + "    h *= 1000003;\n"
+                + "    h ^= a;\n"
+                + "    h *= 1000003;\n"
+                + "    h ^= b;\n"
+                + "    return h;\n"
+                + "  }\n"
+                + "\n"
+                + "  private int hash$1(int h) {\n"
+                + "    h *= 1000003;\n"
+                + "    h ^= c;\n"
+                + "    return h;\n"
+                + "  }\n"
+                + "\n"
+                + "  int hash() {\n"
+                + "    int h = 1;\n"
+                + "    h = hash$0(h);\n"
+                + "    h = hash$1(h);\n"
+                + "    return h;\n"
+                + "  }\n"
+                + "}\n");
+        assertAbout(javaSource())
+                .that(JavaFileObjects.forSourceString("test.Test", generated))
+                .compilesWithoutError();
+    }
+
+    @Test
+    public void tooManyParameterSlots() {
+        List<String> errors = new ArrayList<>();
+        assertAbout(javaSource())
+                .that(wideSource())
+                .processedWith(collectingErrors(newProcessor(new FinalExtension()), errors))
+                .failsToCompile()
+                .withErrorContaining("The constructor for 500 properties needs 501 parameter "
+                        + "slots, but at most 255 are allowed");
+
+        // javac reports the constructor itself, the processor doesn't fail
+        assertThat(errors).containsExactly("The constructor for 500 properties needs 501 "
+                + "parameter slots, but at most 255 are allowed");
+    }
+
+    @Test
+    public void tooManyParameterSlotsAreReportedOnce() {
+        // javac drops an error at the same position as an earlier one, so count the messages
+        List<String> errors = new ArrayList<>();
+        assertAbout(javaSource())
+                .that(wideSource())
+                .processedWith(collectingErrors(
+                        newProcessor(new AbstractExtension(), new FinalExtension()), errors))
+                .failsToCompile();
+
+        assertThat(errors).containsExactly("The constructor for 500 properties needs 501 "
+                + "parameter slots, but at most 255 are allowed");
+    }
+
+    private static JavaFileObject wideSource() {
+        StringBuilder properties = new StringBuilder();
+        for (int i = 0; i < PROPERTIES; i++) {
+            properties.append("  public abstract int p").append(i).append("();\n");
+        }
+        return JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + properties
+                + "}\n");
+    }
+
+    @Test
+    public void splitsWideMethods() throws Exception {
+        ClassName wide = ClassName.get("test", "Wide");
+        TypeSpec.Builder builder = TypeSpec.classBuilder(wide).addModifiers(PUBLIC);
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addModifiers(PUBLIC)
+                .addParameter(String[].class, "values");
+        List<CodeBlock> conditions = new ArrayList<>();
+        List<CodeBlock> hashCodes = new ArrayList<>();
+        List<CodeBlock> copies = new ArrayList<>();
+        for (int i = 0; i < PROPERTIES; i++) {
+            String field = "f" + i;
+            builder.addField(String.class, field);
+            constructor.addStatement("this.$N = values[$L]", field, i);
+            conditions.add(CodeBlock.of("this.$N.equals(that.$N)", field, field));
+            hashCodes.add(CodeBlock.builder()
+                    .addStatement("h *= 1000003")
+                    .addStatement("h ^= $N.hashCode()", field)
+                    .build());
+            copies.add(CodeBlock.builder()
+                    .addStatement("out[$L] = value.$N", i, field)
+                    .build());
+        }
+        builder.addMethod(constructor.build())
+                .addMethod(MethodSpec.methodBuilder("equals")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .returns(boolean.class)
+                        .addParameter(Object.class, "o")
+                        .addStatement("$T that = ($T) o", wide, wide)
+                        .addStatement("return $L", MethodSplitter.create(builder, "equals")
+                                .addParameter(wide, "that")
+                                .conjunction(conditions))
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("hashCode")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .returns(int.class)
+                        .addStatement("int h = 1")
+                        .addCode(MethodSplitter.create(builder, "hashCode")
+                                .fold(TypeName.INT, "h", hashCodes))
+                        .addStatement("return h")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("copy")
+                        .addModifiers(PUBLIC, STATIC)
+                        .addParameter(wide, "value")
+                        .addParameter(String[].class, "out")
+                        .addCode(MethodSplitter.create(builder, "copy")
+                                .addModifiers(STATIC)
+                                .addParameter(wide, "value")
+                                .addParameter(String[].class, "out")
+                                .chunkSize(100)
+                                .statements(copies))
+                        .build());
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Wide",
+                JavaFile.builder("test", builder.build()).build().toString());
+
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                Collections.<Processor>emptyList(), source);
+        Class<?> wideClass = classLoader.loadClass("test.Wide");
+        assertThat(chunks(wideClass, "equals")).isEqualTo(8);
+        assertThat(chunks(wideClass, "hashCode")).isEqualTo(8);
+        assertThat(chunks(wideClass, "copy")).isEqualTo(5);
+        try (InputStream in = classLoader.getResourceAsStream("test/Wide.class")) {
+            assertThat(maxCodeLength(ByteStreams.toByteArray(in))).isLessThan(HUGE_METHOD_LIMIT);
+        }
+
+        String[] values = new String[PROPERTIES];
+        for (int i = 0; i < PROPERTIES; i++) {
+            values[i] = "v" + i;
+        }
+        Constructor<?> create = wideClass.getConstructor(String[].class);
+        Object value = create.newInstance((Object) values);
+        assertThat(value).isEqualTo(create.newInstance((Object) values.clone()));
+        assertThat(value.hashCode()).isEqualTo(
+                create.newInstance((Object) values.clone()).hashCode());
+        String[] changed = values.clone();
+        changed[PROPERTIES - 1] = "changed";
+        assertThat(value).isNotEqualTo(create.newInstance((Object) changed));
+
+        String[] copy = new String[PROPERTIES];
+        wideClass.getMethod("copy", wideClass, String[].class).invoke(null, value, copy);
+        assertThat(copy).isEqualTo(values);
+    }
+
+    @Test
+    public void splitsGeneratedSerializationProxy() throws Exception {
+        // as many nullable strings as the constructor allows, writeExternal would need more
+        // than 8000 bytes of bytecode in a single method
+        int count = MethodSplitter.MAX_PARAMETER_SLOTS - 1;
+        StringBuilder properties = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            properties.append("  @Nullable public abstract String p").append(i).append("();\n");
+        }
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.io.Serializable;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test implements Serializable {\n"
+                + properties
+                + "}\n");
+
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new SerializationExtension()), source);
+        Class<?> proxyClass = classLoader.loadClass("test.AutoValue_Test$Proxy");
+        assertThat(chunks(proxyClass, "writeExternal")).isEqualTo(4);
+        try (InputStream in = classLoader.getResourceAsStream("test/AutoValue_Test$Proxy.class")) {
+            assertThat(maxCodeLength(ByteStreams.toByteArray(in))).isLessThan(HUGE_METHOD_LIMIT);
+        }
+
+        Class<?>[] types = new Class<?>[count];
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = String.class;
+            values[i] = i % 3 == 0 ? null : "v" + i;
+        }
+        Class<?> valueClass = classLoader.loadClass("test.AutoValue_Test");
+        Constructor<?> create = valueClass.getDeclaredConstructor(types);
+        create.setAccessible(true);
+        Object value = create.newInstance(values);
+        Constructor<?> newProxy = proxyClass.getDeclaredConstructor(valueClass.getSuperclass()
+                .getSuperclass());
+        newProxy.setAccessible(true);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            ((Externalizable) newProxy.newInstance(value)).writeExternal(out);
+        }
+        Constructor<?> emptyProxy = proxyClass.getConstructor();
+        emptyProxy.setAccessible(true);
+        Externalizable read = (Externalizable) emptyProxy.newInstance();
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()))) {
+            read.readExternal(in);
+        }
+        Method readResolve = proxyClass.getDeclaredMethod("readResolve");
+        readResolve.setAccessible(true);
+        assertThat(readResolve.invoke(read)).isEqualTo(value);
+    }
+
+    @Test
+    public void smallBodiesAreNotSplit() {
+        TypeSpec.Builder builder = TypeSpec.classBuilder("Test");
+        CodeBlock code = MethodSplitter.create(builder, "equals")
+                .conjunction(ImmutableList.of(CodeBlock.of("a"), CodeBlock.of("b")));
+        assertThat(code.toString()).isEqualTo("a\n&& b");
+        assertThat(builder.build().methodSpecs).isEmpty();
+    }
+
+    private static Processor collectingErrors(final Processor processor,
+            final List<String> errors) {
+        return (Processor) Proxy.newProxyInstance(MethodSplitterTest.class.getClassLoader(),
+                new Class<?>[] {Processor.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        if (method.getName().equals("init")) {
+                            args[0] = collectingErrors((ProcessingEnvironment) args[0], errors);
+                        }
+                        return invokeUnwrapped(method, processor, args);
+                    }
+                });
+    }
+
+    private static ProcessingEnvironment collectingErrors(
+            final ProcessingEnvironment processingEnvironment, final List<String> errors) {
+        final Messager messager = processingEnvironment.getMessager();
+        final Messager collecting = (Messager) Proxy.newProxyInstance(
+                MethodSplitterTest.class.getClassLoader(), new Class<?>[] {Messager.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        if (args[0] == ERROR) {
+                            errors.add(args[1].toString());
+                        }
+                        return invokeUnwrapped(method, messager, args);
+                    }
+                });
+        return (ProcessingEnvironment) Proxy.newProxyInstance(
+                MethodSplitterTest.class.getClassLoader(),
+                new Class<?>[] {ProcessingEnvironment.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        if (method.getName().equals("getMessager")) {
+                            return collecting;
+                        }
+                        return invokeUnwrapped(method, processingEnvironment, args);
+                    }
+                });
+    }
+
+    private static Object invokeUnwrapped(Method method, Object target, Object[] args)
+            throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static int chunks(Class<?> type, String methodName) {
+        int chunks = 0;
+        for (Method method : type.getDeclaredMethods()) {
+            if (method.getName().startsWith(methodName + "$")) {
+                chunks++;
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns the length of the longest {@code Code} attribute in {@code classFile}.
+     */
+    private static int maxCodeLength(byte[] classFile) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        in.skipBytes(8); // magic, minor and major version
+        int constantPoolCount = in.readUnsignedShort();
+        String[] utf8 = new String[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:
+                    utf8[i] = in.readUTF();
+                    break;
+                case 5: // long
+                case 6: // double
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                case 7: // class
+                case 8: // string
+                case 16: // method type
+                case 19: // module
+                case 20: // package
+                    in.skipBytes(2);
+                    break;
+                case 15: // method handle
+                    in.skipBytes(3);
+                    break;
+                default: // int, float, references, name and type, dynamic, invoke dynamic
+                    in.skipBytes(4);
+                    break;
+            }
+        }
+        in.skipBytes(6); // access flags, this and super class
+        in.skipBytes(2 * in.readUnsignedShort()); // interfaces
+        skipMembers(in, utf8, false);
+        return skipMembers(in, utf8, true);
+    }
+
+    private static int skipMembers(DataInputStream in, String[] utf8, boolean methods)
+            throws IOException {
+        int maxCodeLength = 0;
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            in.skipBytes(6); // access flags, name and descriptor
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                String name = utf8[in.readUnsignedShort()];
+                int length = in.readInt();
+                if (methods && name.equals("Code")) {
+                    in.skipBytes(4); // max stack and max locals
+                    int codeLength = in.readInt();
+                    maxCodeLength = Math.max(maxCodeLength, codeLength);
+                    in.skipBytes(length - 8);
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+        }
+        return maxCodeLength;
+    }
+}
@@ -0,0 +1,197 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.MutableExtension;
+import com.google.common.base.Optional;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import javax.tools.JavaFileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class MutableCompanionTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "import com.google.common.base.Optional;\n"
+            + "import javax.annotation.Nullable;\n"
+            + "@AutoValue public abstract class Test implements Named, Comparable<Test> {\n"
+            + "  public abstract long id();\n"
+            + "  public abstract boolean active();\n"
+            + "  @Nullable public abstract String name();\n"
+            + "  public abstract Optional<String> nickname();\n"
+            + "  static Test create(long id, boolean active, String name, Optional<String> o) {\n"
+            + "    return new AutoValue_Test(id, active, name, o);\n"
+            + "  }\n"
+            + "  @Override public int compareTo(Test other) {\n"
+            + "    return Long.compare(id(), other.id());\n"
+            + "  }\n"
+            + "}\n");
+
+    private final JavaFileObject named = JavaFileObjects.forSourceString("test.Named", ""
+            + "package test;\n"
+            + "public interface Named {\n"
+            + "  String name();\n"
+            + "}\n");
+
+    /** Properties named like the parameter of copyFrom. */
+    private final JavaFileObject clashing = JavaFileObjects.forSourceString("test.Test", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "import javax.annotation.Nullable;\n"
+            + "@AutoValue public abstract class Test {\n"
+            + "  public abstract long that();\n"
+            + "  @Nullable public abstract String source();\n"
+            + "  static Test create(long that, String source) {\n"
+            + "    return new AutoValue_Test(that, source);\n"
+            + "  }\n"
+            + "}\n");
+
+    @Test
+    public void fillFreezeAndReuse() throws Exception {
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new MutableExtension()), source, named);
+        Class<?> test = classLoader.loadClass("test.Test");
+        Class<?> mutableClass = classLoader.loadClass("test.AutoValue_Test$TestMutable");
+        Method create = test.getDeclaredMethod("create", long.class, boolean.class, String.class,
+                Optional.class);
+        create.setAccessible(true);
+        Constructor<?> constructor = mutableClass.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        Object mutable = constructor.newInstance();
+
+        invoke(mutable, "setId", long.class, 7L);
+        invoke(mutable, "setActive", boolean.class, true);
+        invoke(mutable, "setName", String.class, "name");
+        invoke(mutable, "setNickname", Optional.class, Optional.of("nick"));
+        assertThat(invoke(mutable, "id")).isEqualTo(7L);
+        assertThat(invoke(mutable, "name")).isEqualTo("name");
+        Object frozen = invoke(mutable, "freeze");
+        assertThat(frozen).isEqualTo(create.invoke(null, 7L, true, "name", Optional.of("nick")));
+        assertThat(frozen).isNotEqualTo(mutable);
+
+        // Named only declares a getter, Comparable is left out
+        assertThat(classLoader.loadClass("test.Named").isInstance(mutable)).isTrue();
+        assertThat(mutable).isNotInstanceOf(Comparable.class);
+
+        assertThat(invoke(mutable, "reset")).isSameAs(mutable);
+        assertThat(invoke(mutable, "id")).isEqualTo(0L);
+        assertThat(invoke(mutable, "active")).isEqualTo(false);
+        assertThat(invoke(mutable, "name")).isNull();
+        assertThat(invoke(mutable, "nickname")).isEqualTo(Optional.absent());
+        assertThat(invoke(mutable, "freeze"))
+                .isEqualTo(create.invoke(null, 0L, false, null, Optional.absent()));
+
+        Object other = create.invoke(null, 3L, true, "other", Optional.absent());
+        Method copyFrom = mutableClass.getDeclaredMethod("copyFrom", test);
+        copyFrom.setAccessible(true);
+        assertThat(copyFrom.invoke(mutable, other)).isSameAs(mutable);
+        Object copy = invoke(mutable, "freeze");
+        assertThat(copy).isEqualTo(other);
+        assertThat(copy).isNotSameAs(other);
+    }
+
+    @Test
+    public void copyFromPropertiesNamedLikeParameter() throws Exception {
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new MutableExtension()), clashing);
+        Class<?> test = classLoader.loadClass("test.Test");
+        Method create = test.getDeclaredMethod("create", long.class, String.class);
+        create.setAccessible(true);
+        Constructor<?> constructor = classLoader.loadClass("test.AutoValue_Test$TestMutable")
+                .getDeclaredConstructor();
+        constructor.setAccessible(true);
+        Object mutable = constructor.newInstance();
+        Object value = create.invoke(null, 3L, "source");
+        invoke(mutable, "copyFrom", test, value);
+        assertThat(invoke(mutable, "freeze")).isEqualTo(value);
+    }
+
+    @Test
+    public void genericClassIsAnError() {
+        JavaFileObject generic = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test<T> {\n"
+                + "  public abstract T value();\n"
+                + "}\n");
+        assertAbout(javaSources())
+                .that(Collections.singletonList(generic))
+                .processedWith(newProcessor(new MutableExtension()))
+                .failsToCompile()
+                .withErrorContaining("Generic classes are not supported by MutableCompanion");
+    }
+
+    @Test
+    public void generatesCompanion() {
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(long that, String source) {\n"
+                + "    super(that, source);\n"
+                + "  }\n"
+                + "  static final class TestMutable {\n"
+                + "    private long that;\n"
+                + "    private String source;\n"
+                + "    TestMutable setThat(long that) {\n"
+                + "      this.that = that;\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    public long that() {\n"
+                + "      return that;\n"
+                + "    }\n"
+                + "    TestMutable setSource(String source) {\n"
+                + "      this.source = source;\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    public String source() {\n"
+                + "      return source;\n"
+                + "    }\n"
+                + "    TestMutable reset() {\n"
+                + "      that = 0;\n"
+                + "      source = null;\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    TestMutable copyFrom(Test that) {\n"
+                + "      this.that = that.that();\n"
+                + "      this.source = that.source();\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    Test freeze() {\n"
+                + "      return new AutoValue_Test(that, source);\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(clashing))
+                .processedWith(newProcessor(new MutableExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    private static Object invoke(Object target, String name) throws Exception {
+        Method method = target.getClass().getDeclaredMethod(name);
+        method.setAccessible(true);
+        return method.invoke(target);
+    }
+
+    private static Object invoke(Object target, String name, Class<?> type, Object value)
+            throws Exception {
+        Method method = target.getClass().getDeclaredMethod(name, type);
+        method.setAccessible(true);
+        return method.invoke(target, value);
+    }
+}
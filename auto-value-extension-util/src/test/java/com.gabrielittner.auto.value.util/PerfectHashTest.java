@@ -0,0 +1,214 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.PerfectHashExtension;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class PerfectHashTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Method charSequence;
+    private Method charArray;
+    private Method byteArray;
+
+    private void compile(List<String> names) throws Exception {
+        StringBuilder source = new StringBuilder()
+                .append("package test;\n")
+                .append("import com.google.auto.value.AutoValue;\n")
+                .append("@AutoValue public abstract class Test {\n");
+        for (String name : names) {
+            source.append("  public abstract int ").append(name).append("();\n");
+        }
+        source.append("}\n");
+        JavaFileObject file = JavaFileObjects.forSourceString("test.Test", source.toString());
+        // generated sources are written with the platform encoding otherwise
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.newFolder(),
+                Collections.singleton(newProcessor(new PerfectHashExtension())),
+                Arrays.asList("-encoding", "UTF-8"), file);
+        Class<?> index = classLoader.loadClass("test.AutoValue_Test$Names");
+        charSequence = index.getDeclaredMethod("indexOf", CharSequence.class);
+        charArray = index.getDeclaredMethod("indexOf", char[].class, int.class, int.class);
+        byteArray = index.getDeclaredMethod("indexOf", byte[].class, int.class, int.class);
+        charSequence.setAccessible(true);
+        charArray.setAccessible(true);
+        byteArray.setAccessible(true);
+    }
+
+    private int indexOf(String name) throws Exception {
+        int result = (int) charSequence.invoke(null, new StringBuilder(name));
+        char[] chars = ("  " + name + " ").toCharArray();
+        assertThat(charArray.invoke(null, chars, 2, name.length())).isEqualTo(result);
+        byte[] bytes = ("\"" + name + "\":").getBytes(StandardCharsets.UTF_8);
+        int length = name.getBytes(StandardCharsets.UTF_8).length;
+        assertThat(byteArray.invoke(null, bytes, 1, length)).isEqualTo(result);
+        return result;
+    }
+
+    @Test
+    public void findsEveryName() throws Exception {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            names.add("property" + i);
+        }
+        // Aa and BB have the same String.hashCode()
+        names.addAll(Arrays.asList("Aa", "BB", "a", "b"));
+        compile(names);
+        for (int i = 0; i < names.size(); i++) {
+            assertThat(indexOf(names.get(i))).isEqualTo(i);
+        }
+        for (String unknown : Arrays.asList("", "c", "property", "property100", "AaBB", "A")) {
+            assertThat(indexOf(unknown)).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    public void nonAsciiNames() throws Exception {
+        List<String> names = Arrays.asList("größe", "gewicht", "ñame", "name");
+        compile(names);
+        for (int i = 0; i < names.size(); i++) {
+            assertThat(indexOf(names.get(i))).isEqualTo(i);
+        }
+        assertThat(indexOf("grösse")).isEqualTo(-1);
+    }
+
+    @Test
+    public void computedTableIsMinimalPerfect() {
+        List<int[]> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String key = "key" + i;
+            int[] units = new int[key.length()];
+            for (int j = 0; j < units.length; j++) {
+                units[j] = key.charAt(j);
+            }
+            keys.add(units);
+        }
+        PerfectHash.Table table = PerfectHash.compute(keys);
+        boolean[] seen = new boolean[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            int slot = PerfectHash.slot(PerfectHash.hash(table.multiplier, keys.get(i)),
+                    table.displacements, keys.size());
+            assertThat(seen[slot]).isFalse();
+            seen[slot] = true;
+            assertThat(table.slotToKey[slot]).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void generatesIndexOf() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int id();\n"
+                + "  public abstract int name();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.CharSequence;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int id, int name) {\n"
+                + "    super(id, name);\n"
+                + "  }\n"
+                + "  static final class Names {\n"
+                + "    private static final int[] CHAR_DISPLACEMENTS = {0, 16};\n"
+                + "    private static final byte[][] UTF8_NAMES = {{105, 100}, {110, 97, 109,\n"
+                + "        101}};\n"
+                + "    static int indexOf(CharSequence name) {\n"
+                + "      int h = 0;\n"
+                + "      for (int i = 0, length = name.length(); i < length; i++) {\n"
+                + "        h = h * 31 + name.charAt(i);\n"
+                + "      }\n"
+                + "      switch (slot(h, CHAR_DISPLACEMENTS)) {\n"
+                + "        case 0:\n"
+                + "          return \"name\".contentEquals(name) ? 1 : -1;\n"
+                + "        case 1:\n"
+                + "          return \"id\".contentEquals(name) ? 0 : -1;\n"
+                + "        default:\n"
+                + "          return -1;\n"
+                + "      }\n"
+                + "    }\n"
+                + "    static int indexOf(char[] chars, int offset, int length) {\n"
+                + "      int h = 0;\n"
+                + "      for (int i = offset, end = offset + length; i < end; i++) {\n"
+                + "        h = h * 31 + chars[i];\n"
+                + "      }\n"
+                + "      switch (slot(h, CHAR_DISPLACEMENTS)) {\n"
+                + "        case 0:\n"
+                + "          return matches(chars, offset, length, \"name\") ? 1 : -1;\n"
+                + "        case 1:\n"
+                + "          return matches(chars, offset, length, \"id\") ? 0 : -1;\n"
+                + "        default:\n"
+                + "          return -1;\n"
+                + "      }\n"
+                + "    }\n"
+                + "    static int indexOf(byte[] bytes, int offset, int length) {\n"
+                + "      int h = 0;\n"
+                + "      for (int i = offset, end = offset + length; i < end; i++) {\n"
+                + "        h = h * 31 + (bytes[i] & 0xff);\n"
+                + "      }\n"
+                + "      switch (slot(h, CHAR_DISPLACEMENTS)) {\n"
+                + "        case 0:\n"
+                + "          return matches(bytes, offset, length, UTF8_NAMES[1]) ? 1 : -1;\n"
+                + "        case 1:\n"
+                + "          return matches(bytes, offset, length, UTF8_NAMES[0]) ? 0 : -1;\n"
+                + "        default:\n"
+                + "          return -1;\n"
+                + "      }\n"
+                + "    }\n"
+                + "    private static int slot(int h, int[] displacements) {\n"
+                + "      int x = (h ^ displacements[(h >>> 1) % displacements.length]) *\n"
+                + "          0x9E3779B9;\n"
+                + "      return ((x ^ (x >>> 16)) >>> 1) % 2;\n"
+                + "    }\n"
+                + "    private static boolean matches(char[] chars, int offset, int length,\n"
+                + "        String name) {\n"
+                + "      if (length != name.length()) {\n"
+                + "        return false;\n"
+                + "      }\n"
+                + "      for (int i = 0; i < length; i++) {\n"
+                + "        if (chars[offset + i] != name.charAt(i)) {\n"
+                + "          return false;\n"
+                + "        }\n"
+                + "      }\n"
+                + "      return true;\n"
+                + "    }\n"
+                + "    private static boolean matches(byte[] bytes, int offset, int length,\n"
+                + "        byte[] name) {\n"
+                + "      if (length != name.length) {\n"
+                + "        return false;\n"
+                + "      }\n"
+                + "      for (int i = 0; i < length; i++) {\n"
+                + "        if (bytes[offset + i] != name[i]) {\n"
+                + "          return false;\n"
+                + "        }\n"
+                + "      }\n"
+                + "      return true;\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new PerfectHashExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+}
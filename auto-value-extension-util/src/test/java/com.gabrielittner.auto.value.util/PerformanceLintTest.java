@@ -0,0 +1,103 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.LintExtension;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.testing.compile.JavaFileObjects;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assert.fail;
+
+public class PerformanceLintTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "import com.google.common.base.Optional;\n"
+            + "import javax.annotation.Nullable;\n"
+            + "@AutoValue public abstract class Test {\n"
+            + "  public abstract long id();\n"
+            + "  public abstract Integer count();\n"
+            + "  public abstract Optional<String> name();\n"
+            + "  public abstract byte[] data();\n"
+            + "  public abstract boolean flag();\n"
+            + "  @SuppressWarnings(\"mutable\") public abstract int[] copied();\n"
+            + "}\n");
+
+    @Test
+    public void reportsWarnings() {
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new LintExtension()))
+                .compilesWithoutError()
+                .withWarningContaining("Property count is a boxed java.lang.Integer")
+                .in(source).onLine(7)
+                .and()
+                .withWarningContaining("Property name is an Optional")
+                .in(source).onLine(8)
+                .and()
+                .withWarningContaining("Property data is an array that is shared with callers")
+                .in(source).onLine(9);
+    }
+
+    @Test
+    public void wideClass() {
+        StringBuilder properties = new StringBuilder();
+        for (int i = 0; i <= PerformanceLint.WIDE_CLASS_PROPERTIES; i++) {
+            properties.append("  public abstract int p").append(i).append("();\n");
+        }
+        JavaFileObject wide = JavaFileObjects.forSourceString("test.Wide", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Wide {\n"
+                + properties
+                + "}\n");
+        assertAbout(javaSources())
+                .that(Collections.singletonList(wide))
+                .processedWith(newProcessor(new LintExtension()))
+                .compilesWithoutError()
+                .withWarningContaining("33 properties with an estimated instance size of 144 bytes")
+                .in(wide).onLine(3);
+    }
+
+    @Test
+    public void configuredSeverity() throws Exception {
+        try {
+            TestCompiler.compile(temporaryFolder.getRoot(),
+                    Collections.singleton(newProcessor(new LintExtension())),
+                    ImmutableList.of("-A" + PerformanceLint.SEVERITY_OPTION + "=error"), source);
+            fail();
+        } catch (AssertionError expected) {
+            assertThat(expected.getMessage()).contains("Property count is a boxed");
+        }
+    }
+
+    @Test
+    public void writesSummary() throws Exception {
+        File summary = new File(temporaryFolder.getRoot(), "lint/summary.tsv");
+        TestCompiler.compile(temporaryFolder.newFolder("out"),
+                ImmutableList.of(newProcessor(new LintExtension()), new AutoValueUtilProcessor()),
+                ImmutableList.of("-A" + PerformanceLint.SEVERITY_OPTION + "=NOTE",
+                        "-A" + PerformanceLint.SUMMARY_OPTION + "=" + summary),
+                source);
+        List<String> lines = Files.readLines(summary, StandardCharsets.UTF_8);
+        // 12 header + 8 long + 4 * 4 references + 1 boolean = 37, aligned to 40
+        assertThat(lines).containsExactly(
+                "autoValueClass\tproperties\tshallowBytes\tboxed\toptional\tarrays\twide",
+                "test.Test\t6\t40\t1\t1\t1\tfalse")
+                .inOrder();
+    }
+}
@@ -0,0 +1,165 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.RowMapperExtension;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class ResultSetMapperTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /** Properties named like the field of the mapper and like the locals of other properties. */
+    private final JavaFileObject clashing = JavaFileObjects.forSourceString("test.Test", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "import javax.annotation.Nullable;\n"
+            + "@AutoValue public abstract class Test {\n"
+            + "  public abstract int resultSet();\n"
+            + "  @Nullable public abstract Integer score();\n"
+            + "  public abstract long scoreValue();\n"
+            + "}\n");
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE test(id INT NOT NULL, name VARCHAR(32), "
+                    + "score INT, parent BIGINT, active BOOLEAN NOT NULL)");
+            statement.execute("INSERT INTO test VALUES (1, 'a', 10, 5, TRUE)");
+            statement.execute("INSERT INTO test VALUES (2, 'b', NULL, NULL, FALSE)");
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    public void mapsRows() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import com.google.common.base.Optional;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int id();\n"
+                + "  public abstract String name();\n"
+                + "  @Nullable public abstract Integer score();\n"
+                + "  public abstract Optional<Long> parent();\n"
+                + "  public abstract boolean active();\n"
+                + "}\n");
+
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new RowMapperExtension()), source);
+        Class<?> mapper = classLoader.loadClass("test.AutoValue_Test$RowMapper");
+        Method mapAll = mapper.getDeclaredMethod("mapAll", ResultSet.class, int.class);
+        mapAll.setAccessible(true);
+
+        // columns in a different order than the properties
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery(
+                        "SELECT active, parent, score, name, id FROM test ORDER BY id")) {
+            List<?> values = (List<?>) mapAll.invoke(null, resultSet, 2);
+            assertThat(values).hasSize(2);
+            assertThat(values.get(0).toString()).isEqualTo(
+                    "Test{id=1, name=a, score=10, parent=Optional.of(5), active=true}");
+            assertThat(values.get(1).toString()).isEqualTo(
+                    "Test{id=2, name=b, score=null, parent=Optional.absent(), active=false}");
+        }
+    }
+
+    @Test
+    public void mapsPropertiesNamedLikeMapperMembers() throws Exception {
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new RowMapperExtension()), clashing);
+        Method mapAll = classLoader.loadClass("test.AutoValue_Test$RowMapper")
+                .getDeclaredMethod("mapAll", ResultSet.class, int.class);
+        mapAll.setAccessible(true);
+
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery(
+                        "SELECT id AS resultSet, score, parent AS scoreValue FROM test "
+                                + "WHERE id = 1")) {
+            List<?> values = (List<?>) mapAll.invoke(null, resultSet, 1);
+            assertThat(values.get(0).toString())
+                    .isEqualTo("Test{resultSet=1, score=10, scoreValue=5}");
+        }
+    }
+
+    @Test
+    public void generatesRowMapper() {
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Integer;\n"
+                + "import java.sql.ResultSet;\n"
+                + "import java.sql.SQLException;\n"
+                + "import java.util.ArrayList;\n"
+                + "import java.util.List;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int resultSet, Integer score, long scoreValue) {\n"
+                + "    super(resultSet, score, scoreValue);\n"
+                + "  }\n"
+                + "  static final class RowMapper {\n"
+                + "    private final ResultSet resultSet;\n"
+                + "    private final int resultSetIndex;\n"
+                + "    private final int scoreIndex;\n"
+                + "    private final int scoreValueIndex;\n"
+                + "    RowMapper(ResultSet resultSet) throws SQLException {\n"
+                + "      this.resultSet = resultSet;\n"
+                + "      this.resultSetIndex = resultSet.findColumn(\"resultSet\");\n"
+                + "      this.scoreIndex = resultSet.findColumn(\"score\");\n"
+                + "      this.scoreValueIndex = resultSet.findColumn(\"scoreValue\");\n"
+                + "    }\n"
+                + "    Test map() throws SQLException {\n"
+                + "      int mappedResultSet = resultSet.getInt(resultSetIndex);\n"
+                + "      int rawScore = resultSet.getInt(scoreIndex);\n"
+                + "      Integer mappedScore;\n"
+                + "      if (resultSet.wasNull()) {\n"
+                + "        mappedScore = null;\n"
+                + "      } else {\n"
+                + "        mappedScore = rawScore;\n"
+                + "      }\n"
+                + "      long mappedScoreValue = resultSet.getLong(scoreValueIndex);\n"
+                + "      return new AutoValue_Test(mappedResultSet, mappedScore,\n"
+                + "          mappedScoreValue);\n"
+                + "    }\n"
+                + "    static List<Test> mapAll(ResultSet resultSet, int expectedSize) throws\n"
+                + "        SQLException {\n"
+                + "      RowMapper mapper = new RowMapper(resultSet);\n"
+                + "      List<Test> values = new ArrayList<Test>(expectedSize);\n"
+                + "      while (resultSet.next()) {\n"
+                + "        values.add(mapper.map());\n"
+                + "      }\n"
+                + "      return values;\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(clashing))
+                .processedWith(newProcessor(new RowMapperExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+}
@@ -0,0 +1,324 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.SerializationExtension;
+import com.google.testing.compile.JavaFileObjects;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import javax.tools.JavaFileObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assert.fail;
+
+public class SerializationProxyTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final JavaFileObject source = source(""
+            + "  public abstract long id();\n"
+            + "  public abstract char grade();\n"
+            + "  public abstract Integer count();\n"
+            + "  @Nullable public abstract String name();\n"
+            + "  public abstract Optional<String> nickname();\n"
+            + "  public abstract OptionalInt age();\n"
+            + "  @SuppressWarnings(\"mutable\") public abstract byte[] data();\n"
+            + "  public abstract List<String> tags();\n"
+            + "  static Test create(long id, char grade, Integer count, String name,\n"
+            + "      Optional<String> nickname, OptionalInt age, byte[] data,\n"
+            + "      List<String> tags) {\n"
+            + "    return new AutoValue_Test(id, grade, count, name, nickname, age, data, tags);\n"
+            + "  }\n");
+
+    private ClassLoader classLoader;
+    private Method create;
+
+    @Before
+    public void setUp() throws Exception {
+        classLoader = TestCompiler.compile(temporaryFolder.newFolder("proxy"),
+                newProcessor(new SerializationExtension()), source);
+        create = create(classLoader);
+    }
+
+    private static JavaFileObject source(String body) {
+        return JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.io.Serializable;\n"
+                + "import java.util.List;\n"
+                + "import java.util.Optional;\n"
+                + "import java.util.OptionalInt;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test implements Serializable {\n"
+                + body
+                + "}\n");
+    }
+
+    private static Method create(ClassLoader classLoader) throws Exception {
+        Method create = classLoader.loadClass("test.Test").getDeclaredMethod("create",
+                long.class, char.class, Integer.class, String.class, Optional.class,
+                OptionalInt.class, byte[].class, List.class);
+        create.setAccessible(true);
+        return create;
+    }
+
+    private static Object newValue(Method create, String name, Optional<String> nickname,
+            OptionalInt age) throws Exception {
+        return create.invoke(null, 1L, 'A', 3, name, nickname, age,
+                new byte[] {1, 2, 3}, Arrays.asList("a", "b"));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Object present = newValue(create, "naïve", Optional.of("nick"), OptionalInt.of(30));
+        assertThat(deserialize(serialize(present), classLoader)).isEqualTo(present);
+
+        Object absent = newValue(create, null, Optional.<String>empty(), OptionalInt.empty());
+        assertThat(deserialize(serialize(absent), classLoader)).isEqualTo(absent);
+    }
+
+    @Test
+    public void smallerThanDefaultSerialization() throws Exception {
+        // Optional isn't Serializable, so default serialization can't handle the main source
+        JavaFileObject source = source(""
+                + "  public abstract long id();\n"
+                + "  public abstract Integer count();\n"
+                + "  @Nullable public abstract String name();\n"
+                + "  public abstract List<String> tags();\n"
+                + "  static Test create(long id, Integer count, String name, List<String> tags) {\n"
+                + "    return new AutoValue_Test(id, count, name, tags);\n"
+                + "  }\n");
+        ClassLoader proxy = TestCompiler.compile(temporaryFolder.newFolder("small"),
+                newProcessor(new SerializationExtension()), source);
+        ClassLoader plain = TestCompiler.compile(temporaryFolder.newFolder("plain"),
+                newProcessor(), source);
+        Object value = newSmallValue(proxy);
+        Object plainValue = newSmallValue(plain);
+        assertThat(deserialize(serialize(value), proxy)).isEqualTo(value);
+        assertThat(deserialize(serialize(plainValue), plain)).isEqualTo(plainValue);
+        assertThat(serialize(value).length).isLessThan(serialize(plainValue).length);
+    }
+
+    private static Object newSmallValue(ClassLoader classLoader) throws Exception {
+        Method create = classLoader.loadClass("test.Test").getDeclaredMethod("create",
+                long.class, Integer.class, String.class, List.class);
+        create.setAccessible(true);
+        return create.invoke(null, 1L, 3, "name", Arrays.asList("a", "b"));
+    }
+
+    /** Properties named like the field and the readExternal parameter of the proxy. */
+    private static JavaFileObject clashingSource() {
+        return source(""
+                + "  public abstract int in();\n"
+                + "  @Nullable public abstract String value();\n"
+                + "  public abstract Optional<Long> count();\n"
+                + "  static Test create(int in, String value, Optional<Long> count) {\n"
+                + "    return new AutoValue_Test(in, value, count);\n"
+                + "  }\n");
+    }
+
+    @Test
+    public void propertiesNamedLikeProxyMembers() throws Exception {
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.newFolder("clashing"),
+                newProcessor(new SerializationExtension()), clashingSource());
+        Method create = classLoader.loadClass("test.Test").getDeclaredMethod("create",
+                int.class, String.class, Optional.class);
+        create.setAccessible(true);
+        Object value = create.invoke(null, 7, "value", Optional.of(3L));
+        assertThat(deserialize(serialize(value), classLoader)).isEqualTo(value);
+    }
+
+    @Test
+    public void rejectsChangedProperties() throws Exception {
+        JavaFileObject changed = source(""
+                + "  public abstract long id();\n"
+                + "  public abstract int grade();\n");
+        ClassLoader other = TestCompiler.compile(temporaryFolder.newFolder("changed"),
+                newProcessor(new SerializationExtension()), changed);
+        byte[] bytes = serialize(newValue(create, "name", Optional.<String>empty(),
+                OptionalInt.empty()));
+        try {
+            deserialize(bytes, other);
+            fail();
+        } catch (InvalidClassException expected) {
+            assertThat(expected.getMessage()).contains("AutoValue_Test$Proxy");
+        }
+    }
+
+    @Test
+    public void notSerializable() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract long id();\n"
+                + "}\n");
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new SerializationExtension()))
+                .failsToCompile()
+                .withErrorContaining(
+                        "SerializationProxy requires a class that implements Serializable");
+    }
+
+    @Test
+    public void genericClass() {
+        JavaFileObject generic = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.io.Serializable;\n"
+                + "@AutoValue public abstract class Test<T> implements Serializable {\n"
+                + "  public abstract T value();\n"
+                + "}\n");
+        assertAbout(javaSources())
+                .that(Collections.singletonList(generic))
+                .processedWith(newProcessor(new SerializationExtension()))
+                .failsToCompile()
+                .withErrorContaining("Generic classes are not supported by SerializationProxy");
+    }
+
+    @Test
+    public void generatesProxy() {
+        JavaFileObject source = clashingSource();
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.io.Externalizable;\n"
+                + "import java.io.IOException;\n"
+                + "import java.io.InvalidObjectException;\n"
+                + "import java.io.ObjectInput;\n"
+                + "import java.io.ObjectInputStream;\n"
+                + "import java.io.ObjectOutput;\n"
+                + "import java.io.ObjectStreamException;\n"
+                + "import java.lang.ClassNotFoundException;\n"
+                + "import java.lang.Long;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.nio.charset.StandardCharsets;\n"
+                + "import java.util.Optional;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int in, String value, Optional<Long> count) {\n"
+                + "    super(in, value, count);\n"
+                + "  }\n"
+                + "  Object writeReplace() throws ObjectStreamException {\n"
+                + "    return new Proxy(this);\n"
+                + "  }\n"
+                + "  private void readObject(ObjectInputStream in) throws InvalidObjectException\n"
+                + "      {\n"
+                + "    throw new InvalidObjectException(\"Proxy required\");\n"
+                + "  }\n"
+                + "  static final class Proxy implements Externalizable {\n"
+                + "    private static final long serialVersionUID = 197697663583000114L;\n"
+                + "    private Test value;\n"
+                + "    public Proxy() {\n"
+                + "    }\n"
+                + "    Proxy(Test value) {\n"
+                + "      this.value = value;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public void writeExternal(ObjectOutput out) throws IOException {\n"
+                + "      out.writeInt(value.in());\n"
+                + "      out.writeBoolean(value.value() != null);\n"
+                + "      if (value.value() != null) {\n"
+                + "        writeString(out, value.value());\n"
+                + "      }\n"
+                + "      out.writeBoolean(value.count().isPresent());\n"
+                + "      if (value.count().isPresent()) {\n"
+                + "        out.writeLong(value.count().get());\n"
+                + "      }\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public void readExternal(ObjectInput in) throws IOException,\n"
+                + "        ClassNotFoundException {\n"
+                + "      int readIn = in.readInt();\n"
+                + "      String readValue = null;\n"
+                + "      if (in.readBoolean()) {\n"
+                + "        readValue = readString(in);\n"
+                + "      }\n"
+                + "      Optional<Long> readCount;\n"
+                + "      if (in.readBoolean()) {\n"
+                + "        readCount = Optional.of(in.readLong());\n"
+                + "      } else {\n"
+                + "        readCount = Optional.empty();\n"
+                + "      }\n"
+                + "      value = new AutoValue_Test(readIn, readValue, readCount);\n"
+                + "    }\n"
+                + "    private Object readResolve() {\n"
+                + "      return value;\n"
+                + "    }\n"
+                + "    private static void writeString(ObjectOutput out, String value) throws\n"
+                + "        IOException {\n"
+                + "      writeBytes(out, value.getBytes(StandardCharsets.UTF_8));\n"
+                + "    }\n"
+                + "    private static String readString(ObjectInput in) throws IOException {\n"
+                + "      return new String(readBytes(in), StandardCharsets.UTF_8);\n"
+                + "    }\n"
+                + "    private static void writeBytes(ObjectOutput out, byte[] value) throws\n"
+                + "        IOException {\n"
+                + "      out.writeInt(value.length);\n"
+                + "      out.write(value);\n"
+                + "    }\n"
+                + "    private static byte[] readBytes(ObjectInput in) throws IOException {\n"
+                + "      byte[] value = new byte[in.readInt()];\n"
+                + "      in.readFully(value);\n"
+                + "      return value;\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new SerializationExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes, ClassLoader classLoader)
+            throws Exception {
+        try (ObjectInputStream in = new LoaderObjectInputStream(
+                new ByteArrayInputStream(bytes), classLoader)) {
+            return in.readObject();
+        }
+    }
+
+    private static final class LoaderObjectInputStream extends ObjectInputStream {
+        private final ClassLoader classLoader;
+
+        LoaderObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+            super(in);
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            return Class.forName(desc.getName(), false, classLoader);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.SharedHelpersExtension;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.testing.compile.JavaFileObjects;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import javax.tools.JavaFileObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class SharedHelpersTest {
+
+    private static final String SHARE = "-A" + SharedHelpers.SHARE_OPTION + "=true";
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final JavaFileObject first = JavaFileObjects.forSourceString("test.First", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "@AutoValue public abstract class First {\n"
+            + "  public abstract String name();\n"
+            + "}\n");
+
+    private final JavaFileObject second = JavaFileObjects.forSourceString("test.Second", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "@AutoValue public abstract class Second {\n"
+            + "  public abstract int id();\n"
+            + "}\n");
+
+    private final JavaFileObject other = JavaFileObjects.forSourceString("other.Other", ""
+            + "package other;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "@AutoValue public abstract class Other {\n"
+            + "  public abstract long id();\n"
+            + "}\n");
+
+    @Test
+    public void copiesHelpersByDefault() throws Exception {
+        // without AutoValueUtilProcessor, like a build with an explicit -processor list
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new SharedHelpersExtension()), first, second);
+
+        File generated = new File(temporaryFolder.getRoot(), "generated");
+        assertThat(new File(generated, "test").list()).asList()
+                .containsExactly("AutoValue_First.java", "$AutoValue_First.java",
+                        "AutoValue_Second.java", "$AutoValue_Second.java");
+
+        Method equal = classLoader.loadClass("test.AutoValue_First")
+                .getDeclaredMethod("equal", Object.class, Object.class);
+        assertThat(Modifier.isPrivate(equal.getModifiers())).isTrue();
+        assertThat(Modifier.isStatic(equal.getModifiers())).isTrue();
+        assertSame(classLoader.loadClass("test.AutoValue_First"));
+        assertVarint(classLoader.loadClass("test.AutoValue_Second"));
+    }
+
+    @Test
+    public void oneHelperClassPerPackage() throws Exception {
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                ImmutableList.of(newProcessor(new SharedHelpersExtension()),
+                        new AutoValueUtilProcessor()),
+                ImmutableList.of(SHARE), first, second, other);
+
+        File generated = new File(temporaryFolder.getRoot(), "generated");
+        assertThat(new File(generated, "test/AutoValueHelpers_First.java").exists()).isTrue();
+        assertThat(new File(generated, "test/AutoValueHelpers_Second.java").exists()).isFalse();
+        assertThat(new File(generated, "other/AutoValueHelpers_Other.java").exists()).isTrue();
+        // the helpers don't have javadoc, so no empty comments are written
+        assertThat(Files.toString(new File(generated, "test/AutoValueHelpers_First.java"),
+                StandardCharsets.UTF_8)).doesNotContain("/**");
+
+        Class<?> helpers = classLoader.loadClass("test.AutoValueHelpers_First");
+        assertThat(Modifier.isPublic(helpers.getModifiers())).isFalse();
+        assertThat(helpers.getDeclaredMethods()).hasLength(2);
+        assertThat(classLoader.loadClass("test.AutoValue_First").getDeclaredMethods())
+                .asList().doesNotContain(helpers.getDeclaredMethods()[0]);
+
+        assertSame(classLoader.loadClass("test.AutoValue_First"));
+        assertVarint(classLoader.loadClass("test.AutoValue_Second"));
+    }
+
+    @Test
+    public void generatesPrivateCopies() {
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_First", ""
+                + "package test;\n"
+                + "import java.io.DataOutput;\n"
+                + "import java.io.IOException;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_First extends $AutoValue_First {\n"
+                + "  AutoValue_First(String name) {\n"
+                + "    super(name);\n"
+                + "  }\n"
+                + "  private static boolean equal(Object a, Object b) {\n"
+                + "    return a == b || (a != null && a.equals(b));\n"
+                + "  }\n"
+                + "  private static void writeVarint(DataOutput out, long value)\n"
+                + "      throws IOException {\n"
+                + "    while ((value & ~0x7FL) != 0) {\n"
+                + "      out.writeByte((int) ((value & 0x7F) | 0x80));\n"
+                + "      value >>>= 7;\n"
+                + "    }\n"
+                + "    out.writeByte((int) value);\n"
+                + "  }\n"
+                + "  static boolean same(Object a, Object b) {\n"
+                + "    return equal(a, b);\n"
+                + "  }\n"
+                + "  static void varint(DataOutput out, long value) throws IOException {\n"
+                + "    writeVarint(out, value);\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(first))
+                .processedWith(newProcessor(new SharedHelpersExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void generatesHelperClass() {
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValueHelpers_First", ""
+                + "package test;\n"
+                + "import java.io.DataOutput;\n"
+                + "import java.io.IOException;\n"
+                + "import java.lang.AssertionError;\n"
+                + "import java.lang.Object;\n"
+                + "final class AutoValueHelpers_First {\n"
+                + "  private AutoValueHelpers_First() {\n"
+                + "    throw new AssertionError(\"No instances.\");\n"
+                + "  }\n"
+                + "  static boolean equal(Object a, Object b) {\n"
+                + "    return a == b || (a != null && a.equals(b));\n"
+                + "  }\n"
+                + "  static void writeVarint(DataOutput out, long value) throws IOException {\n"
+                + "    while ((value & ~0x7FL) != 0) {\n"
+                + "      out.writeByte((int) ((value & 0x7F) | 0x80));\n"
+                + "      value >>>= 7;\n"
+                + "    }\n"
+                + "    out.writeByte((int) value);\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(first))
+                .withCompilerOptions(SHARE)
+                .processedWith(newProcessor(new SharedHelpersExtension()),
+                        new AutoValueUtilProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    private static void assertSame(Class<?> type) throws Exception {
+        Method same = type.getDeclaredMethod("same", Object.class, Object.class);
+        same.setAccessible(true);
+        assertThat(same.invoke(null, null, null)).isEqualTo(true);
+        assertThat(same.invoke(null, "a", null)).isEqualTo(false);
+        assertThat(same.invoke(null, "a", "a")).isEqualTo(true);
+    }
+
+    private static void assertVarint(Class<?> type) throws Exception {
+        Method varint = type.getDeclaredMethod("varint", DataOutput.class, long.class);
+        varint.setAccessible(true);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        varint.invoke(null, new DataOutputStream(bytes), 300L);
+        assertThat(bytes.toByteArray()).isEqualTo(new byte[] {(byte) 0xAC, 0x02});
+    }
+}
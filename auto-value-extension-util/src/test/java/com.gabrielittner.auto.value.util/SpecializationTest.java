@@ -0,0 +1,273 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.SpecializationExtension;
+import com.google.common.collect.ImmutableList;
+import com.google.testing.compile.JavaFileObjects;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.TypeName;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.auto.value.processor.ExtensionTestHelper.newProcessor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class SpecializationTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final JavaFileObject source = JavaFileObjects.forSourceString("test.Pair", ""
+            + "package test;\n"
+            + "import com.gabrielittner.auto.value.util.extensions.SpecializationExtension"
+            + ".Specialize;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "import java.util.List;\n"
+            + "@AutoValue @Specialize({\"int, int\", \"long, double\"})\n"
+            + "public abstract class Pair<A, B extends Comparable<B>> {\n"
+            + "  public abstract A first();\n"
+            + "  public abstract B second();\n"
+            + "  public abstract int count();\n"
+            + "  public abstract List<A> history();\n"
+            + "  static <A, B extends Comparable<B>> Pair<A, B> of(\n"
+            + "      A first, B second, int count, List<A> history) {\n"
+            + "    return AutoValue_Pair.create(first, second, count, history);\n"
+            + "  }\n"
+            + "  static Pair<Integer, Integer> ofInts(\n"
+            + "      int first, int second, int count, List<Integer> history) {\n"
+            + "    return AutoValue_Pair.create(first, second, count, history);\n"
+            + "  }\n"
+            + "}\n");
+
+    private final JavaFileObject sameSource = JavaFileObjects.forSourceString("test.Same", ""
+            + "package test;\n"
+            + "import com.gabrielittner.auto.value.util.extensions.SpecializationExtension"
+            + ".Specialize;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "import javax.annotation.Nullable;\n"
+            + "@AutoValue @Specialize(\"int\") public abstract class Same<T> {\n"
+            + "  public abstract T first();\n"
+            + "  @Nullable public abstract T second();\n"
+            + "  static <T> Same<T> of(T first, T second) {\n"
+            + "    return AutoValue_Same.create(first, second);\n"
+            + "  }\n"
+            + "}\n");
+
+    private ClassLoader classLoader;
+    private Method of;
+    private Method ofInts;
+    private Constructor<?> generic;
+
+    @Before
+    public void setUp() throws Exception {
+        classLoader = TestCompiler.compile(temporaryFolder.getRoot(),
+                newProcessor(new SpecializationExtension()), source);
+        Class<?> pair = classLoader.loadClass("test.Pair");
+        of = pair.getDeclaredMethod("of", Object.class, Comparable.class, int.class, List.class);
+        of.setAccessible(true);
+        ofInts = pair.getDeclaredMethod("ofInts", int.class, int.class, int.class, List.class);
+        ofInts.setAccessible(true);
+        generic = classLoader.loadClass("test.AutoValue_Pair").getDeclaredConstructor(
+                Object.class, Comparable.class, int.class, List.class);
+        generic.setAccessible(true);
+    }
+
+    @Test
+    public void primitiveFactoryPicksSpecialization() throws Exception {
+        Object value = ofInts.invoke(null, 1, 2, 3, Arrays.asList(0, 1));
+        assertThat(value.getClass().getName()).isEqualTo("test.AutoValue_Pair$IntIntPair");
+        Method firstAsInt = value.getClass().getDeclaredMethod("firstAsInt");
+        firstAsInt.setAccessible(true);
+        assertThat(firstAsInt.getReturnType()).isEqualTo(int.class);
+        assertThat(firstAsInt.invoke(value)).isEqualTo(1);
+        assertThat(value.getClass().getDeclaredField("second").getType()).isEqualTo(int.class);
+    }
+
+    @Test
+    public void genericFactoryPicksSpecializationAtRuntime() throws Exception {
+        List<Long> history = Collections.emptyList();
+        assertThat(of.invoke(null, 1, 2, 3, history).getClass().getSimpleName())
+                .isEqualTo("IntIntPair");
+        assertThat(of.invoke(null, 1L, 2.5, 3, history).getClass().getSimpleName())
+                .isEqualTo("LongDoublePair");
+        assertThat(of.invoke(null, 1L, 2, 3, history).getClass().getSimpleName())
+                .isEqualTo("AutoValue_Pair");
+        assertThat(of.invoke(null, "a", "b", 3, history).getClass().getSimpleName())
+                .isEqualTo("AutoValue_Pair");
+    }
+
+    @Test
+    public void genericFactoryChecksEveryProperty() throws Exception {
+        ClassLoader classLoader = TestCompiler.compile(temporaryFolder.newFolder("same"),
+                newProcessor(new SpecializationExtension()), sameSource);
+        Method of = classLoader.loadClass("test.Same")
+                .getDeclaredMethod("of", Object.class, Object.class);
+        of.setAccessible(true);
+        assertThat(of.invoke(null, 1, 2).getClass().getSimpleName()).isEqualTo("IntSame");
+        assertThat(of.invoke(null, 1, 2L).getClass().getSimpleName())
+                .isEqualTo("AutoValue_Same");
+        assertThat(of.invoke(null, 1, null).getClass().getSimpleName())
+                .isEqualTo("AutoValue_Same");
+    }
+
+    @Test
+    public void equalToGenericInstances() throws Exception {
+        List<Integer> history = Arrays.asList(4, 5);
+        assertEquivalent(ofInts.invoke(null, 1, 2, 3, history),
+                generic.newInstance(1, 2, 3, history));
+        assertEquivalent(of.invoke(null, -7L, Double.NaN, 0, history),
+                generic.newInstance(-7L, Double.NaN, 0, history));
+        assertEquivalent(of.invoke(null, Long.MAX_VALUE, -0.5, 9, history),
+                generic.newInstance(Long.MAX_VALUE, -0.5, 9, history));
+
+        Object specialized = ofInts.invoke(null, 1, 2, 3, history);
+        assertThat(specialized).isNotEqualTo(ofInts.invoke(null, 1, 2, 4, history));
+        assertThat(specialized).isNotEqualTo(generic.newInstance(1L, 2, 3, history));
+        assertThat(generic.newInstance(1L, 2, 3, history)).isNotEqualTo(specialized);
+    }
+
+    private static void assertEquivalent(Object specialized, Object generic) {
+        assertThat(specialized.getClass()).isNotEqualTo(generic.getClass());
+        assertThat(specialized).isEqualTo(generic);
+        assertThat(generic).isEqualTo(specialized);
+        assertThat(specialized.hashCode()).isEqualTo(generic.hashCode());
+        assertThat(specialized.toString()).isEqualTo(generic.toString());
+    }
+
+    @Test
+    public void parseTypeArguments() {
+        assertThat(Specialization.parseTypeArguments("int,  long , java.lang.String"))
+                .isEqualTo(ImmutableList.of(TypeName.INT, TypeName.LONG,
+                        ClassName.get(String.class)));
+    }
+
+    @Test
+    public void wrongNumberOfTypeArguments() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Box", ""
+                + "package test;\n"
+                + "import com.gabrielittner.auto.value.util.extensions.SpecializationExtension"
+                + ".Specialize;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue @Specialize(\"int, int\") public abstract class Box<T> {\n"
+                + "  public abstract T value();\n"
+                + "}\n");
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new SpecializationExtension()))
+                .failsToCompile()
+                .withErrorContaining("Expected 1 type arguments but got [int, int]");
+    }
+
+    @Test
+    public void nonGenericClass() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Box", ""
+                + "package test;\n"
+                + "import com.gabrielittner.auto.value.util.extensions.SpecializationExtension"
+                + ".Specialize;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue @Specialize(\"int\") public abstract class Box {\n"
+                + "  public abstract int value();\n"
+                + "}\n");
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new SpecializationExtension()))
+                .failsToCompile()
+                .withErrorContaining("Specialization requires a generic class");
+    }
+
+    @Test
+    public void generatesSpecialization() {
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Same", ""
+                + "package test;\n"
+                + "import java.lang.Integer;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.lang.SuppressWarnings;\n"
+                + "final class AutoValue_Same<T> extends $AutoValue_Same<T> {\n"
+                + "  AutoValue_Same(T first, T second) {\n"
+                + "    super(first, second);\n"
+                + "  }\n"
+                + "  static IntSame create(int first, int second) {\n"
+                + "    return new IntSame(first, second);\n"
+                + "  }\n"
+                + "  @SuppressWarnings(\"unchecked\")\n"
+                + "  static <T> Same<T> create(T first, T second) {\n"
+                + "    if (first instanceof Integer && second instanceof Integer) {\n"
+                + "      return (Same<T>) new IntSame((Integer) first, (Integer) second);\n"
+                + "    }\n"
+                + "    return new AutoValue_Same<T>(first, second);\n"
+                + "  }\n"
+                + "  static final class IntSame extends Same<Integer> {\n"
+                + "    private final int first;\n"
+                + "    private final int second;\n"
+                + "    IntSame(int first, int second) {\n"
+                + "      this.first = first;\n"
+                + "      this.second = second;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public Integer first() {\n"
+                + "      return first;\n"
+                + "    }\n"
+                + "    public int firstAsInt() {\n"
+                + "      return first;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public Integer second() {\n"
+                + "      return second;\n"
+                + "    }\n"
+                + "    public int secondAsInt() {\n"
+                + "      return second;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String toString() {\n"
+                + "      return \"Same{\"\n"
+                + "          + \"first=\" + first + \", \"\n"
+                + "          + \"second=\" + second\n"
+                + "          + \"}\";\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public boolean equals(Object o) {\n"
+                + "      if (o == this) {\n"
+                + "        return true;\n"
+                + "      }\n"
+                + "      if (o instanceof IntSame) {\n"
+                + "        IntSame that = (IntSame) o;\n"
+                + "        return (first == that.first)\n"
+                + "            && (second == that.second);\n"
+                + "      }\n"
+                + "      if (o instanceof Same) {\n"
+                + "        Same<?> that = (Same<?>) o;\n"
+                + "        return (Integer.valueOf(first).equals(that.first()))\n"
+                + "            && (Integer.valueOf(second).equals(that.second()));\n"
+                + "      }\n"
+                + "      return false;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public int hashCode() {\n"
+                + "      int h = 1;\n"
+                + "      h *= 1000003;\n"
+                + "      h ^= first;\n"
+                + "      h *= 1000003;\n"
+                + "      h ^= second;\n"
+                + "      return h;\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(sameSource))
+                .processedWith(newProcessor(new SpecializationExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+}
@@ -0,0 +1,86 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.processing.Processor;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles sources with an annotation processor and loads the resulting classes, for tests that
+ * need to run generated code.
+ */
+final class TestCompiler {
+
+    static ClassLoader compile(File outputDir, Processor processor, JavaFileObject... sources)
+            throws IOException {
+        return compile(outputDir, Collections.singleton(processor), sources);
+    }
+
+    static ClassLoader compile(File outputDir, Iterable<? extends Processor> processors,
+            JavaFileObject... sources) throws IOException {
+        return compile(outputDir, processors, Collections.<String>emptyList(), sources);
+    }
+
+    static ClassLoader compile(File outputDir, Iterable<? extends Processor> processors,
+            List<String> options, JavaFileObject... sources) throws IOException {
+        return compile(outputDir, Collections.<File>emptyList(), processors, options, sources);
+    }
+
+    /**
+     * Compiles with {@code classpath} appended to the class path of the tests. The class path is
+     * set on the file manager, so that processors can read its resources through the
+     * {@link javax.annotation.processing.Filer}.
+     */
+    static ClassLoader compile(File outputDir, List<File> classpath,
+            Iterable<? extends Processor> processors, List<String> options,
+            JavaFileObject... sources) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager fileManager =
+                compiler.getStandardFileManager(diagnostics, null, null);
+        File classes = new File(outputDir, "classes");
+        File generated = new File(outputDir, "generated");
+        classes.mkdirs();
+        generated.mkdirs();
+        fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(classes));
+        fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singleton(generated));
+        ImmutableList.Builder<File> fullClasspath = ImmutableList.builder();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            fullClasspath.add(new File(entry));
+        }
+        fileManager.setLocation(StandardLocation.CLASS_PATH,
+                fullClasspath.addAll(classpath).build());
+
+        JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+                options, null, Arrays.asList(sources));
+        task.setProcessors(processors);
+        boolean success = task.call();
+        // format the diagnostics while their sources can still be read
+        String failure = success ? null : "Compilation failed: " + diagnostics.getDiagnostics();
+        fileManager.close();
+        if (failure != null) {
+            throw new AssertionError(failure);
+        }
+        URL[] urls = new URL[classpath.size() + 1];
+        urls[0] = classes.toURI().toURL();
+        for (int i = 0; i < classpath.size(); i++) {
+            urls[i + 1] = classpath.get(i).toURI().toURL();
+        }
+        return new URLClassLoader(urls, TestCompiler.class.getClassLoader());
+    }
+
+    private TestCompiler() {
+        throw new AssertionError("No instances.");
+    }
+}
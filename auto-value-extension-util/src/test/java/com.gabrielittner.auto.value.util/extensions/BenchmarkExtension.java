@@ -0,0 +1,39 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+import com.gabrielittner.auto.value.util.Benchmarks;
+import com.gabrielittner.auto.value.util.ChangeMask;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
+
+public class BenchmarkExtension extends AutoValueExtension {
+
+    @Override
+    public boolean applicable(Context context) {
+        return true;
+    }
+
+    @Override
+    public boolean mustBeFinal(Context context) {
+        return true;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        TypeSpec subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal)
+                .addType(ChangeMask.newChangeMaskClass(context, "ChangeMask"))
+                .build();
+        ClassName changeMask = ClassName.get(context.packageName(), className)
+                .nestedClass("ChangeMask");
+        Benchmarks.writeBenchmarkClass(context, Benchmarks.newBenchmarkMethod("diff")
+                .returns(TypeName.LONG)
+                .addStatement("return $T.diff(value, otherValue)", changeMask)
+                .build());
+        return JavaFile.builder(context.packageName(), subclass).build().toString();
+    }
+}
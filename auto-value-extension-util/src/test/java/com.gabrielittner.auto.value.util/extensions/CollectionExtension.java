@@ -0,0 +1,48 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+import com.gabrielittner.auto.value.util.CollectionKind;
+import com.gabrielittner.auto.value.util.Property;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeSpec;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
+import static com.gabrielittner.auto.value.util.CollectionUtil.accumulatorType;
+import static com.gabrielittner.auto.value.util.CollectionUtil.defensiveCopy;
+import static com.gabrielittner.auto.value.util.CollectionUtil.newAccumulator;
+import static javax.lang.model.element.Modifier.STATIC;
+
+public class CollectionExtension extends AutoValueExtension {
+
+    @Override
+    public boolean applicable(Context context) {
+        return true;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        TypeSpec.Builder subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal);
+        for (Property property : Property.buildProperties(context)) {
+            if (property.collectionKind() == CollectionKind.NONE) {
+                continue;
+            }
+            subclass.addMethod(MethodSpec.methodBuilder(property.methodName() + "Copy")
+                    .addModifiers(STATIC)
+                    .returns(property.type())
+                    .addParameter(property.type(), "value")
+                    .addStatement("return $L", defensiveCopy(property, CodeBlock.of("value")))
+                    .build());
+            subclass.addMethod(MethodSpec.methodBuilder(property.methodName() + "Accumulator")
+                    .addModifiers(STATIC)
+                    .returns(accumulatorType(property))
+                    .addParameter(int.class, "size")
+                    .addStatement("return $L",
+                            newAccumulator(context, property, CodeBlock.of("size")))
+                    .build());
+        }
+        return JavaFile.builder(context.packageName(), subclass.build()).build().toString();
+    }
+}
@@ -0,0 +1,34 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+import com.gabrielittner.auto.value.util.Comparisons.NullOrder;
+import com.gabrielittner.auto.value.util.Property;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
+import static com.gabrielittner.auto.value.util.Comparisons.newCompareToMethod;
+import static com.gabrielittner.auto.value.util.Comparisons.newComparatorField;
+
+public class ComparableExtension extends AutoValueExtension {
+
+    @Override
+    public boolean applicable(Context context) {
+        return true;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        TypeSpec.Builder subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal)
+                .addMethod(newCompareToMethod(context, NullOrder.NULLS_FIRST));
+        for (Property property : properties) {
+            subclass.addField(newComparatorField(context, property, NullOrder.NULLS_LAST));
+        }
+        subclass.addField(newComparatorField(context, "BY_ALL_REVERSED",
+                properties.reverse(), NullOrder.NULLS_LAST));
+        return JavaFile.builder(context.packageName(), subclass.build()).build().toString();
+    }
+}
@@ -0,0 +1,46 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+import com.gabrielittner.auto.value.util.SharedHelpers;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
+import static javax.lang.model.element.Modifier.STATIC;
+
+public class SharedHelpersExtension extends AutoValueExtension {
+
+    @Override
+    public boolean applicable(Context context) {
+        return true;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        TypeSpec.Builder subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal);
+        SharedHelpers helpers = SharedHelpers.get(context);
+        CodeBlock equal = helpers.request(context, subclass, SharedHelpers.EQUAL);
+        CodeBlock writeVarint = helpers.request(context, subclass, SharedHelpers.WRITE_VARINT);
+        subclass.addMethod(MethodSpec.methodBuilder("same")
+                .addModifiers(STATIC)
+                .returns(TypeName.BOOLEAN)
+                .addParameter(Object.class, "a")
+                .addParameter(Object.class, "b")
+                .addStatement("return $L(a, b)", equal)
+                .build());
+        subclass.addMethod(MethodSpec.methodBuilder("varint")
+                .addModifiers(STATIC)
+                .addParameter(DataOutput.class, "out")
+                .addParameter(TypeName.LONG, "value")
+                .addException(IOException.class)
+                .addStatement("$L(out, value)", writeVarint)
+                .build());
+        return JavaFile.builder(context.packageName(), subclass.build()).build().toString();
+    }
+}
@@ -0,0 +1,48 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+import com.gabrielittner.auto.value.util.ElementUtil;
+import com.gabrielittner.auto.value.util.Specialization;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.util.ArrayList;
+import java.util.List;
+import javax.lang.model.element.AnnotationValue;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
+
+public class SpecializationExtension extends AutoValueExtension {
+
+    public @interface Specialize {
+        String[] value();
+    }
+
+    @Override
+    public boolean applicable(Context context) {
+        return ElementUtil.hasAnnotationWithName(context.autoValueClass(), "Specialize");
+    }
+
+    @Override
+    public boolean mustBeFinal(Context context) {
+        return true;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        List<List<TypeName>> specializations = new ArrayList<>();
+        List<?> values = (List<?>) ElementUtil.getAnnotationValue(
+                context.autoValueClass(), Specialize.class, "value");
+        for (Object value : values) {
+            specializations.add(Specialization.parseTypeArguments(
+                    (String) ((AnnotationValue) value).getValue()));
+        }
+        TypeSpec.Builder subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal)
+                .addMethods(Specialization.newFactoryMethods(context, "create", specializations));
+        for (List<TypeName> typeArguments : specializations) {
+            subclass.addType(Specialization.newSpecializedClass(context, typeArguments));
+        }
+        return JavaFile.builder(context.packageName(), subclass.build()).build().toString();
+    }
+}